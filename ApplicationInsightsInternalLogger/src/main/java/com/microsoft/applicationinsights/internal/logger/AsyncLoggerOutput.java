@@ -0,0 +1,309 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.logger;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands log records over to a single background thread, which formats them and writes them to the
+ * actual output in batches, so that application threads calling into the SDK neither format messages
+ * nor wait on each other to write them.
+ *
+ * Records are queued in a bounded ring buffer. When it is full, records are dropped rather than waited for,
+ * and the number of dropped records is written in their place once there is room again.
+ *
+ * Note that arguments are formatted on the background thread, so an argument that is modified after
+ * being logged may be written with its modified value.
+ */
+final class AsyncLoggerOutput implements LoggerOutput {
+    static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_BATCH_SIZE = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long CLOSE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final LoggerOutput output;
+    private final SimpleDateFormat dateFormatter;
+    private final RingBuffer buffer;
+    private final AtomicLong droppedSinceLastWrite = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * @param output The output the records are written to, from the background thread only.
+     * @param dateFormatter The format of the record times. A copy is used, so it can still be used by the caller.
+     * @param capacity The maximum number of records waiting to be written, rounded up to a power of two.
+     */
+    AsyncLoggerOutput(LoggerOutput output, SimpleDateFormat dateFormatter, int capacity) {
+        if (output == null) {
+            throw new IllegalArgumentException("output must be not null");
+        }
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity should be between 1 and 2^30");
+        }
+
+        this.output = output;
+        this.dateFormatter = (SimpleDateFormat) dateFormatter.clone();
+        this.buffer = new RingBuffer(capacity);
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeUntilClosed();
+            }
+        }, "ApplicationInsights-InternalLogger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a record, unless the buffer is full or the output closed. Never blocks.
+     */
+    void log(InternalLogger.LoggingLevel level, String message, Object[] args) {
+        if (closed) {
+            return;
+        }
+        Thread thread = Thread.currentThread();
+        if (!buffer.offer(new LogRecord(level.toString(), System.currentTimeMillis(), thread.getId(), thread.getName(), message, args))) {
+            droppedSinceLastWrite.incrementAndGet();
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Queues an already formatted message.
+     */
+    @Override
+    public void log(String message) {
+        if (closed) {
+            return;
+        }
+        if (!buffer.offer(new LogRecord(null, 0, 0, null, message, null))) {
+            droppedSinceLastWrite.incrementAndGet();
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes the records queued so far, waiting a few seconds at most, and closes the output.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!writer.isAlive()) {
+            // the only consumer is gone: records queued by threads that were already past the closed check
+            // when the writer stopped are written from here
+            List<LogRecord> records = new ArrayList<>();
+            buffer.drainTo(records, Integer.MAX_VALUE);
+            writeBatch(records, new ArrayList<String>(records.size() + 1), droppedSinceLastWrite.getAndSet(0));
+        }
+        output.close();
+    }
+
+    /**
+     * @return The number of records dropped since this output was created.
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private void writeUntilClosed() {
+        List<LogRecord> records = new ArrayList<>(MAX_BATCH_SIZE);
+        List<String> messages = new ArrayList<>(MAX_BATCH_SIZE + 1);
+        while (true) {
+            // read before draining, so that nothing queued before closing is left behind
+            boolean closing = closed;
+            buffer.drainTo(records, MAX_BATCH_SIZE);
+            long dropped = droppedSinceLastWrite.getAndSet(0);
+            if (records.isEmpty() && dropped == 0) {
+                if (closing && buffer.isEmpty()) {
+                    return;
+                }
+                if (closing) {
+                    // a record was claimed but not published yet
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                continue;
+            }
+
+            writeBatch(records, messages, dropped);
+        }
+    }
+
+    /**
+     * Formats and writes the records, and clears both lists. A record that fails to be formatted or written
+     * is reported to the console, the others are written nonetheless.
+     */
+    private void writeBatch(List<LogRecord> records, List<String> messages, long dropped) {
+        try {
+            for (LogRecord record : records) {
+                try {
+                    messages.add(format(record));
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t) {
+                    reportFailure("format an internal logger message", t);
+                }
+            }
+            if (dropped != 0) {
+                messages.add(InternalLogger.createMessage(dateFormatter, InternalLogger.LoggingLevel.WARN.toString(), System.currentTimeMillis(),
+                        writer.getId(), writer.getName(), "%d messages were dropped, the internal logger buffer was full", dropped));
+            }
+            write(messages);
+        } finally {
+            records.clear();
+            messages.clear();
+        }
+    }
+
+    private String format(LogRecord record) {
+        if (record.level == null) {
+            return record.message;
+        }
+        return InternalLogger.createMessage(dateFormatter, record.level, record.timeMillis, record.threadId, record.threadName, record.message, record.args);
+    }
+
+    private void write(List<String> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        if (output instanceof BatchLoggerOutput) {
+            try {
+                ((BatchLoggerOutput) output).log(messages);
+                return;
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                // written one at a time below, so that a single bad message does not take the batch with it
+                reportFailure("write a batch of internal logger messages", t);
+            }
+        }
+        for (String message : messages) {
+            try {
+                output.log(message);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                reportFailure("write an internal logger message", t);
+            }
+        }
+    }
+
+    private static void reportFailure(String action, Throwable t) {
+        try {
+            new ConsoleLoggerOutput().log(String.format("Failed to %s: %s", action, t.toString()));
+        } catch (Throwable t2) {
+            // chomp
+        }
+    }
+
+    private static final class LogRecord {
+        final String level;
+        final long timeMillis;
+        final long threadId;
+        final String threadName;
+        final String message;
+        final Object[] args;
+
+        LogRecord(String level, long timeMillis, long threadId, String threadName, String message, Object[] args) {
+            this.level = level;
+            this.timeMillis = timeMillis;
+            this.threadId = threadId;
+            this.threadName = threadName;
+            this.message = message;
+            this.args = args;
+        }
+    }
+
+    /**
+     * A bounded buffer for many producers and a single consumer.
+     * Producers claim a slot by advancing the tail, and then publish their record in it.
+     * The consumer takes published records in order, and frees their slots by advancing the head.
+     */
+    private static final class RingBuffer {
+        private final AtomicReferenceArray<LogRecord> slots;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        RingBuffer(int capacity) {
+            int size = Integer.highestOneBit(capacity);
+            if (size < capacity) {
+                size <<= 1;
+            }
+            slots = new AtomicReferenceArray<>(size);
+            mask = size - 1;
+        }
+
+        boolean offer(LogRecord record) {
+            long claimed;
+            do {
+                claimed = tail.get();
+                if (claimed - head > mask) {
+                    return false;
+                }
+            } while (!tail.compareAndSet(claimed, claimed + 1));
+            slots.set((int) claimed & mask, record);
+            return true;
+        }
+
+        /**
+         * @return true if every claimed slot has been taken by the consumer, including those not published yet.
+         */
+        boolean isEmpty() {
+            return tail.get() == head;
+        }
+
+        void drainTo(List<LogRecord> records, int max) {
+            long next = head;
+            for (int i = 0; i < max; i++) {
+                int index = (int) next & mask;
+                LogRecord record = slots.get(index);
+                if (record == null) {
+                    // not queued, or claimed but not published yet
+                    break;
+                }
+                slots.lazySet(index, null);
+                records.add(record);
+                next++;
+            }
+            head = next;
+        }
+    }
+}
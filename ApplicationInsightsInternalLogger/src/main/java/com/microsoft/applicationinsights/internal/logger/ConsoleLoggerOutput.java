@@ -21,11 +21,14 @@
 
 package com.microsoft.applicationinsights.internal.logger;
 
+import java.util.List;
+
 /**
  * Created by gupele on 1/14/2015.
  */
-public final class ConsoleLoggerOutput implements LoggerOutput {
+public final class ConsoleLoggerOutput implements BatchLoggerOutput {
     private final static String PREFIX = "AI: ";
+    private final static String NEW_LINE = System.getProperty("line.separator");
 
     ConsoleLoggerOutput() {
     }
@@ -35,6 +38,16 @@ public final class ConsoleLoggerOutput implements LoggerOutput {
         System.err.println(PREFIX + message);
     }
 
+    @Override
+    public void log(List<String> messages) {
+        StringBuilder lines = new StringBuilder();
+        for (String message : messages) {
+            lines.append(PREFIX).append(message).append(NEW_LINE);
+        }
+        System.err.print(lines);
+        System.err.flush();
+    }
+
     @Override
     public void close() {
     }
@@ -52,7 +52,7 @@ import java.util.Map;
  * try to write into a {@link ConsoleLoggerOutput}
  * but will not fail the process under any scenario.
  */
-public final class FileLoggerOutput implements LoggerOutput {
+public final class FileLoggerOutput implements BatchLoggerOutput {
     private static final int MIN_SIZE_PER_LOG_FILE_IN_MB = 5;
     private static final int MAX_SIZE_PER_LOG_FILE_IN_MB = 500;
     private static final int MIN_NUMBER_OF_LOG_FILES = 2;
@@ -63,6 +63,7 @@ public final class FileLoggerOutput implements LoggerOutput {
     public static final String LOG_FILES_BASE_FOLDER_PATH_ATTRIBUTE = "BaseFolderPath";
     public static final String UNIQUE_LOG_FILE_PREFIX_ATTRIBUTE = "UniquePrefix";
     private static final String DATE_FORMAT_NOW = "yyyy-MM-dd-HH-mm-ss";
+    private static final String NEW_LINE = System.getProperty("line.separator");
 
     private static class FileAndDate {
         public final File file;
@@ -171,6 +172,37 @@ public final class FileLoggerOutput implements LoggerOutput {
         }
     }
 
+    /**
+     * Writes the messages as one block of lines, which the log file flushes once.
+     */
+    @Override
+    public synchronized void log(List<String> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        int length = 0;
+        for (String message : messages) {
+            length += message.length() + NEW_LINE.length();
+        }
+        StringBuilder lines = new StringBuilder(length);
+        for (String message : messages) {
+            if (lines.length() != 0) {
+                lines.append(NEW_LINE);
+            }
+            lines.append(message);
+        }
+
+        try {
+            LogFileProxy logFileProxy = getCurrentLogFileProxy();
+            if (logFileProxy != null) {
+                logFileProxy.writeLine(lines.toString());
+            }
+        } catch (IOException e) {
+            fallbackLoggerOutput.log(String.format("Failed to write %d messages to log file, exception: %s", messages.size(), e.toString()));
+        }
+    }
+
     /**
      * After this method is called the instance should not be called again for logging messages
      */
@@ -43,6 +43,7 @@ public enum InternalLogger {
     INSTANCE;
 
     private final static String LOGGER_LEVEL = "Level";
+    private final static String LOGGER_ASYNC = "Async";
     private final static SimpleDateFormat dateFormatter = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss.SSSZ");
 
     public static class PropertyKeys {
@@ -54,6 +55,12 @@ public enum InternalLogger {
         public static final String FILE_BASE_FOLDER_PATH =          SDKLOGGER_PREFIX + "file.baseFolderPath";
         public static final String FILE_NUMBER_OF_FILES =           SDKLOGGER_PREFIX + "file.numberOfFiles";
         public static final String FILE_MAX_LOGFILE_SIZE_IN_MB =    SDKLOGGER_PREFIX + "file.numberOfTotalSizeInMB";
+
+        /**
+         * If set "true" (case insensitive) messages are formatted and written by a background thread.
+         * Otherwise (by default), they are formatted and written by the thread logging them.
+         */
+        public static final String ASYNC =                          SDKLOGGER_PREFIX + "async";
     }
 
     public enum LoggingLevel {
@@ -126,6 +133,10 @@ public enum InternalLogger {
                 } catch (Exception e) {
                     new ConsoleLoggerOutput().log(String.format("Failed to find timezone with id='%s'. Using default '%s'", utcId, dateFormatter.getTimeZone().getDisplayName()));
                 }
+
+                if (loggerOutput != null && "true".equalsIgnoreCase(loggerData.get(LOGGER_ASYNC))) {
+                    loggerOutput = new AsyncLoggerOutput(loggerOutput, dateFormatter, AsyncLoggerOutput.DEFAULT_CAPACITY);
+                }
             } finally {
                 initialized = true;
             }
@@ -152,6 +163,10 @@ public enum InternalLogger {
             String type = console == null ? LoggerOutputType.FILE.toString() : LoggerOutputType.CONSOLE.toString();
             Map<String, String> props = new HashMap<>();
             props.put(LOGGER_LEVEL, level);
+            String async = System.getProperty(PropertyKeys.ASYNC);
+            if (async != null) {
+                props.put(LOGGER_ASYNC, async);
+            }
 
             // if file logging is configured, read additonal properties
             if (file != null) {
@@ -305,9 +320,28 @@ public enum InternalLogger {
         synchronized (INSTANCE) {
             currentDateAsString = dateFormatter.format(new Date());
         }
-        String formattedMessage = String.format(message, args);
         final Thread thisThread = Thread.currentThread();
-        return String.format("%s %s, %d(%s): %s", prefix, currentDateAsString, thisThread.getId(), thisThread.getName(), formattedMessage);
+        return formatMessage(prefix, currentDateAsString, thisThread.getId(), thisThread.getName(), message, args);
+    }
+
+    /**
+     * Creates the message of a record logged earlier, possibly by another thread.
+     * @param formatter The date format, which must not be used by other threads at the same time.
+     * @param prefix The prefix to attach to the message.
+     * @param timeMillis The time the record was logged at.
+     * @param threadId The id of the thread that logged the record.
+     * @param threadName The name of the thread that logged the record.
+     * @param message The message to write with possible place holders.
+     * @param args T The args that are part of the message.
+     * @return The formatted message with all the needed data.
+     */
+    static String createMessage(SimpleDateFormat formatter, String prefix, long timeMillis, long threadId, String threadName, String message, Object... args) {
+        return formatMessage(prefix, formatter.format(new Date(timeMillis)), threadId, threadName, message, args);
+    }
+
+    private static String formatMessage(String prefix, String date, long threadId, String threadName, String message, Object... args) {
+        String formattedMessage = String.format(message, args);
+        return String.format("%s %s, %d(%s): %s", prefix, date, threadId, threadName, formattedMessage);
     }
 
     /**
@@ -368,7 +402,12 @@ public enum InternalLogger {
             return;
         }
         if (requestLevel.getValue() >= loggingLevel.getValue()) {
-            loggerOutput.log(createMessage(requestLevel.toString(), message, args));
+            LoggerOutput output = loggerOutput;
+            if (output instanceof AsyncLoggerOutput) {
+                ((AsyncLoggerOutput) output).log(requestLevel, message, args);
+            } else {
+                output.log(createMessage(requestLevel.toString(), message, args));
+            }
         }
     }
 }
@@ -0,0 +1,204 @@
+package com.microsoft.applicationinsights.internal.logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public final class AsyncLoggerOutputTest {
+  private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss.SSSZ");
+
+  private static class TestBatchLoggerOutput implements BatchLoggerOutput {
+    final List<String> messages = new ArrayList<>();
+    final List<Integer> batchSizes = new ArrayList<>();
+    final CountDownLatch entered = new CountDownLatch(1);
+    volatile CountDownLatch release = new CountDownLatch(0);
+    volatile boolean closed;
+
+    @Override
+    public void log(String message) {
+      log(Collections.singletonList(message));
+    }
+
+    @Override
+    public void log(List<String> batch) {
+      entered.countDown();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      synchronized (this) {
+        messages.addAll(batch);
+        batchSizes.add(batch.size());
+      }
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  @Test
+  public void testRecordsAreFormattedAndWrittenInOrder() {
+    TestBatchLoggerOutput output = new TestBatchLoggerOutput();
+    AsyncLoggerOutput async = new AsyncLoggerOutput(output, DATE_FORMAT, 16);
+    async.log(InternalLogger.LoggingLevel.INFO, "first %s", new Object[] {"message"});
+    async.log(InternalLogger.LoggingLevel.ERROR, "second %d", new Object[] {2});
+    async.log("formatted");
+    async.close();
+
+    assertTrue(output.closed);
+    assertEquals(3, output.messages.size());
+    assertTrue(output.messages.get(0).startsWith("INFO "));
+    assertTrue(output.messages.get(0).endsWith(String.format("%d(%s): first message", Thread.currentThread().getId(), Thread.currentThread().getName())));
+    assertTrue(output.messages.get(1).startsWith("ERROR "));
+    assertTrue(output.messages.get(1).endsWith("): second 2"));
+    assertEquals("formatted", output.messages.get(2));
+    assertEquals(0, async.getDroppedCount());
+  }
+
+  @Test
+  public void testRecordsAreDroppedWhenBufferIsFull() throws InterruptedException {
+    TestBatchLoggerOutput output = new TestBatchLoggerOutput();
+    output.release = new CountDownLatch(1);
+    AsyncLoggerOutput async = new AsyncLoggerOutput(output, DATE_FORMAT, 4);
+
+    // the writer takes the first record and waits in the output
+    async.log("0");
+    assertTrue(output.entered.await(10, TimeUnit.SECONDS));
+
+    for (int i = 1; i <= 6; i++) {
+      async.log(String.valueOf(i));
+    }
+    assertEquals(2, async.getDroppedCount());
+
+    output.release.countDown();
+    async.close();
+
+    assertEquals(6, output.messages.size());
+    for (int i = 0; i <= 4; i++) {
+      assertEquals(String.valueOf(i), output.messages.get(i));
+    }
+    assertTrue(output.messages.get(5).startsWith("WARN "));
+    assertTrue(output.messages.get(5).endsWith(": 2 messages were dropped, the internal logger buffer was full"));
+  }
+
+  @Test
+  public void testRecordsAreWrittenInBatches() throws InterruptedException {
+    TestBatchLoggerOutput output = new TestBatchLoggerOutput();
+    output.release = new CountDownLatch(1);
+    AsyncLoggerOutput async = new AsyncLoggerOutput(output, DATE_FORMAT, 64);
+
+    async.log("first");
+    assertTrue(output.entered.await(10, TimeUnit.SECONDS));
+    for (int i = 0; i < 50; i++) {
+      async.log(InternalLogger.LoggingLevel.TRACE, "message %d", new Object[] {i});
+    }
+    output.release.countDown();
+    async.close();
+
+    assertEquals(51, output.messages.size());
+    assertEquals(2, output.batchSizes.size());
+    assertEquals(50, output.batchSizes.get(1).intValue());
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    final TestBatchLoggerOutput output = new TestBatchLoggerOutput();
+    final AsyncLoggerOutput async = new AsyncLoggerOutput(output, DATE_FORMAT, AsyncLoggerOutput.DEFAULT_CAPACITY);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            async.log(InternalLogger.LoggingLevel.TRACE, "message %d", new Object[] {i});
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    async.close();
+
+    long written = 0;
+    for (String message : output.messages) {
+      if (message.startsWith("TRACE ")) {
+        written++;
+      }
+    }
+    assertEquals(40000, written + async.getDroppedCount());
+  }
+
+  @Test
+  public void testRecordThatFailsToFormatDoesNotDropTheOthers() {
+    TestBatchLoggerOutput output = new TestBatchLoggerOutput();
+    AsyncLoggerOutput async = new AsyncLoggerOutput(output, DATE_FORMAT, 16);
+    async.log("before");
+    async.log(InternalLogger.LoggingLevel.INFO, "bad %s", new Object[] {new Object() {
+      @Override
+      public String toString() {
+        throw new IllegalStateException("cannot format");
+      }
+    }});
+    async.log("after");
+    async.close();
+
+    assertEquals(Arrays.asList("before", "after"), output.messages);
+  }
+
+  @Test
+  public void testMessageThatFailsToBeWrittenDoesNotDropTheOthers() {
+    final List<String> messages = new ArrayList<>();
+    AsyncLoggerOutput async = new AsyncLoggerOutput(new BatchLoggerOutput() {
+      @Override
+      public void log(List<String> batch) {
+        if (batch.size() > 1) {
+          throw new IllegalStateException("batches are not supported");
+        }
+        log(batch.get(0));
+      }
+
+      @Override
+      public void log(String message) {
+        if ("bad".equals(message)) {
+          throw new IllegalStateException("cannot write");
+        }
+        messages.add(message);
+      }
+
+      @Override
+      public void close() {
+      }
+    }, DATE_FORMAT, 16);
+    async.log("before");
+    async.log("bad");
+    async.log("after");
+    async.close();
+
+    assertTrue(messages.contains("before"));
+    assertTrue(messages.contains("after"));
+    assertEquals(2, messages.size());
+  }
+
+  @Test
+  public void testRecordsAfterCloseAreIgnored() {
+    TestBatchLoggerOutput output = new TestBatchLoggerOutput();
+    AsyncLoggerOutput async = new AsyncLoggerOutput(output, DATE_FORMAT, 4);
+    async.close();
+    async.log("late");
+    assertEquals(0, output.messages.size());
+    assertEquals(0, async.getDroppedCount());
+  }
+}
@@ -110,6 +110,19 @@ public final class InternalLoggerTest {
     InternalLogger.INSTANCE.logAlways(InternalLogger.LoggingLevel.INFO, "hey");
   }
 
+  @Test
+  public void testAsyncLoggerOutput() throws NoSuchFieldException, IllegalAccessException {
+    final Map<String, String> loggerData = new HashMap<String, String>();
+    loggerData.put("Async", "TRUE");
+    InternalLogger.INSTANCE.initialize(InternalLogger.LoggerOutputType.CONSOLE.toString(), loggerData);
+
+    Field field = InternalLogger.class.getDeclaredField("loggerOutput");
+    field.setAccessible(true);
+    assertTrue(field.get(InternalLogger.INSTANCE) instanceof AsyncLoggerOutput);
+    InternalLogger.INSTANCE.info("async");
+    InternalLogger.INSTANCE.stop();
+  }
+
   @Test // this is very dependent on the format string.
   public void loggerDateFormatIncludesMilliseconds() throws NoSuchFieldException, IllegalAccessException {
     InternalLogger.INSTANCE.initialize(LoggerOutputType.CONSOLE.toString(), new HashMap<String, String>());
@@ -31,7 +31,12 @@ import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.extensibility.context.CloudContext;
 import com.microsoft.applicationinsights.extensibility.context.InternalContext;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.FixedRateSamplingTelemetryProcessor;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetricsModule;
+import com.microsoft.applicationinsights.internal.metrics.MetricAggregator;
+import com.microsoft.applicationinsights.internal.metrics.MetricSeries;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector;
 import com.microsoft.applicationinsights.internal.util.ChannelFetcher;
 import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
@@ -58,9 +63,11 @@ public class TelemetryClient {
     private final TelemetryConfiguration configuration;
     private volatile TelemetryContext context;
     private TelemetryChannel channel;
+    private volatile MetricAggregator metricAggregator;
 
     private static final Object TELEMETRY_STOP_HOOK_LOCK = new Object();
     private static final Object TELEMETRY_CONTEXT_LOCK = new Object();
+    private static final Object METRIC_AGGREGATOR_LOCK = new Object();
 
     private static AtomicLong generateCounter = new AtomicLong(0);
     /**
@@ -270,6 +277,45 @@ public class TelemetryClient {
         track(telemetry);
     }
 
+    /**
+     * Aggregates a numeric metric locally. One metric per name and dimensions, with the sum, count, min, max and
+     * standard deviation of its values, is sent every minute instead of one metric per value.
+     * @param name The name of the metric. Max length 150.
+     * @param value The value of the metric.
+     * @param dimensions Named string values of the series the value belongs to, might be null.
+     * @throws IllegalArgumentException if name is null or empty
+     */
+    public void trackAggregatedMetric(String name, double value, Map<String, String> dimensions) {
+        if (isDisabled()) {
+            return;
+        }
+
+        if (!getMetricAggregator().trackValue(name, value, dimensions)) {
+            trackMetric(name, value, null, null, null, null, dimensions);
+        }
+    }
+
+    /**
+     * Aggregates a numeric metric locally, see {@link #trackAggregatedMetric(String, double, Map)}.
+     * @param name The name of the metric. Max length 150.
+     * @param value The value of the metric.
+     * @throws IllegalArgumentException if name is null or empty
+     */
+    public void trackAggregatedMetric(String name, double value) {
+        trackAggregatedMetric(name, value, null);
+    }
+
+    /**
+     * Gets the locally aggregated series of a metric, to track values in a loop without looking the series up for each value.
+     * @param name The name of the metric. Max length 150.
+     * @param dimensions Named string values of the series, might be null.
+     * @return The series, or null if too many series are aggregated already.
+     * @throws IllegalArgumentException if name is null or empty
+     */
+    public MetricSeries getMetricSeries(String name, Map<String, String> dimensions) {
+        return getMetricAggregator().getSeries(name, dimensions);
+    }
+
     /**
      * Sends an exception record to Application Insights. Appears in "exceptions" in Analytics and Search.
      * @param exception The exception to log information about.
@@ -393,7 +439,6 @@ public class TelemetryClient {
         if (generateCounter.incrementAndGet() % 10000 == 0) {
             InternalLogger.INSTANCE.info("Total events generated till now %d", generateCounter.get());
         }
-
         if (telemetry == null) {
             throw new IllegalArgumentException("telemetry item cannot be null");
         }
@@ -402,6 +447,10 @@ public class TelemetryClient {
             return;
         }
 
+        if (!SdkMetricsModule.isSdkMetric(telemetry)) {
+            SdkMetrics.INSTANCE.getItemsTracked().increment();
+        }
+
         if (telemetry.getTimestamp() == null) {
             telemetry.setTimestamp(new Date());
         }
@@ -425,6 +474,13 @@ public class TelemetryClient {
             }
         }
 
+        if (isSampledOutEarly(telemetry)) {
+            SdkMetrics.INSTANCE.getItemsSampledOut().increment();
+            // Live metrics count every item, sampled or not
+            addToQuickPulse(telemetry);
+            return;
+        }
+
         activateInitializers(telemetry);
 
         if (Strings.isNullOrEmpty(telemetry.getContext().getInstrumentationKey())) {
@@ -435,12 +491,7 @@ public class TelemetryClient {
             return;
         }
 
-        try {
-            QuickPulseDataCollector.INSTANCE.add(telemetry);
-        } catch (ThreadDeath td) {
-            throw td;
-        } catch (Throwable t) {
-        }
+        addToQuickPulse(telemetry);
 
         try {
             getChannel().send(telemetry);
@@ -456,6 +507,46 @@ public class TelemetryClient {
         }
     }
 
+    /**
+     * Items whose operation id is already known are sampled before the initializers and processors run,
+     * the decision is the one the sampling processor would make later on. Only a sampling processor that
+     * comes first in the chain decides early, the processors before any other one may change or drop the item.
+     */
+    private boolean isSampledOutEarly(Telemetry telemetry) {
+        if (Strings.isNullOrEmpty(telemetry.getContext().getInstrumentationKey())) {
+            return false;
+        }
+
+        FixedRateSamplingTelemetryProcessor sampler = configuration.getTelemetryProcessorChain().getLeadingSampler(telemetry);
+        if (sampler != null) {
+            try {
+                if (sampler.isSampledOutEarly(telemetry)) {
+                    return true;
+                }
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                try {
+                    InternalLogger.INSTANCE.error("Exception while sampling telemetry: '%s'",t.toString());                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private void addToQuickPulse(Telemetry telemetry) {
+        try {
+            QuickPulseDataCollector.INSTANCE.add(telemetry);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+        }
+    }
+
     private void activateInitializers(Telemetry telemetry) {
         for (TelemetryInitializer initializer : this.configuration.getTelemetryInitializers()) {
             try {
@@ -474,9 +565,13 @@ public class TelemetryClient {
     }
 
     private boolean activateProcessors(Telemetry telemetry) {
-        for (TelemetryProcessor processor : configuration.getTelemetryProcessors()) {
+        for (TelemetryProcessor processor : configuration.getTelemetryProcessorChain().getProcessors(telemetry)) {
             try {
                 if (!processor.process(telemetry)) {
+                    if (processor instanceof FixedRateSamplingTelemetryProcessor) {
+                        // Like the items sampled out early, live metrics still count it
+                        addToQuickPulse(telemetry);
+                    }
                     return false;
                 }
             } catch (ThreadDeath td) {
@@ -498,9 +593,25 @@ public class TelemetryClient {
      * Flushes possible pending Telemetries in the channel. Not required for a continuously-running server application.
      */
     public void flush() {
+        MetricAggregator aggregator = metricAggregator;
+        if (aggregator != null) {
+            aggregator.flush();
+        }
         getChannel().flush();
     }
 
+    private MetricAggregator getMetricAggregator() {
+        if (metricAggregator == null) {
+            synchronized (METRIC_AGGREGATOR_LOCK) {
+                if (metricAggregator == null) {
+                    metricAggregator = new MetricAggregator(this);
+                }
+            }
+        }
+
+        return metricAggregator;
+    }
+
     /**
      * Gets the channel used by the client.
      */
@@ -29,6 +29,8 @@ import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryModule;
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.internal.config.TelemetryConfigurationFactory;
+import com.microsoft.applicationinsights.internal.processor.TelemetryProcessorChain;
+import com.microsoft.applicationinsights.internal.processor.TelemetryProcessorList;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -51,7 +53,7 @@ public final class TelemetryConfiguration {
     private final ArrayList<ContextInitializer> contextInitializers = new   ArrayList<ContextInitializer>();
     private final ArrayList<TelemetryInitializer> telemetryInitializers = new ArrayList<TelemetryInitializer>();
     private final ArrayList<TelemetryModule> telemetryModules = new ArrayList<TelemetryModule>();
-    private final ArrayList<TelemetryProcessor> telemetryProcessors = new ArrayList<TelemetryProcessor>();
+    private final TelemetryProcessorList telemetryProcessors = new TelemetryProcessorList();
 
     private TelemetryChannel channel;
 
@@ -181,6 +183,14 @@ public final class TelemetryConfiguration {
         return telemetryProcessors;
     }
 
+    /**
+     * Gets the telemetry processors compiled for dispatching on telemetry types,
+     * compiled again whenever the list of processors has changed.
+     */
+    TelemetryProcessorChain getTelemetryProcessorChain() {
+        return telemetryProcessors.getChain();
+    }
+
     /**
      * Gets or sets the default instrumentation key for the application.
      *
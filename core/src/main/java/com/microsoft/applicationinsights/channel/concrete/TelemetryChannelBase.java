@@ -27,8 +27,17 @@ import com.microsoft.applicationinsights.channel.TelemetryChannel;
 import com.microsoft.applicationinsights.channel.TelemetrySampler;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
+import com.microsoft.applicationinsights.internal.channel.common.ActiveTransmissionLoader;
+import com.microsoft.applicationinsights.internal.channel.common.CompressionStage;
+import com.microsoft.applicationinsights.internal.channel.common.LockFreeTelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.OverflowPolicy;
 import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryBufferBase;
+import com.microsoft.applicationinsights.internal.channel.common.TransmissionNetworkOutput;
+import com.microsoft.applicationinsights.internal.channel.common.TransmissionReplayScheduler;
+import com.microsoft.applicationinsights.internal.channel.common.TransmitterImpl;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
@@ -62,6 +71,19 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
     public static final String MAX_TRANSMISSION_STORAGE_CAPACITY_NAME = "MaxTransmissionStorageFilesCapacityInMB";
     public static final int LOG_TELEMETRY_ITEMS_MODULUS = 10000;
     public static final String THROTTLING_ENABLED_NAME = "Throttling";
+    public static final String LOCK_FREE_TELEMETRY_BUFFER_NAME = "LockFreeTelemetryBuffer";
+    public static final String SEGMENTED_TRANSMISSION_STORAGE_NAME = "SegmentedTransmissionStorage";
+    public static final String COMPRESSION_THREADS_NAME = "CompressionThreads";
+    public static final String ASYNC_NETWORK_SENDER_NAME = "AsyncNetworkSender";
+    public static final String ASYNC_MAX_CONNECTIONS_PER_ROUTE_NAME = "AsyncMaxConnectionsPerRoute";
+    public static final String OVERFLOW_POLICY_NAME = "OverflowPolicy";
+    public static final String MAX_PENDING_BATCHES_NAME = "MaxPendingBatches";
+    public static final String OVERFLOW_BLOCK_TIMEOUT_IN_MILLIS_NAME = "OverflowBlockTimeoutInMillis";
+    public static final int MAX_OVERFLOW_BLOCK_TIMEOUT_IN_MILLIS = 60000;
+    public static final String REPLAY_BANDWIDTH_IN_KB_PER_SECOND_NAME = "ReplayBandwidthInKBPerSecond";
+    public static final int MAX_REPLAY_BANDWIDTH_IN_KB_PER_SECOND = 1024 * 1024;
+    public static final String REPLAY_THREADS_NAME = "ReplayThreads";
+    public static final String LOCAL_FORWARDER_SPILL_TO_DISK_NAME = "LocalForwarderSpillToDisk";
 
     private TransmitterFactory transmitterFactory;
     private AtomicLong itemsSent = new AtomicLong(0);
@@ -71,10 +93,32 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
 
     protected TelemetriesTransmitter<T> telemetriesTransmitter;
     protected TelemetrySampler telemetrySampler;
-    protected TelemetryBuffer<T> telemetryBuffer;
+    protected TelemetryBufferBase<T> telemetryBuffer;
 
     private boolean developerMode = false;
 
+    private boolean lockFreeTelemetryBuffer = false;
+
+    private boolean segmentedTransmissionStorage = false;
+
+    private int compressionThreads = 0;
+
+    private boolean asyncNetworkSender = false;
+
+    private int asyncMaxConnectionsPerRoute = TransmissionNetworkOutput.DEFAULT_ASYNC_MAX_CONNECTIONS_PER_ROUTE;
+
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+    private int maxPendingBatches = TransmitterImpl.MAX_PENDING_BATCHES;
+
+    private int overflowBlockTimeoutInMillis = TransmitterImpl.DEFAULT_BLOCK_TIMEOUT_IN_MILLIS;
+
+    private int replayBandwidthInKBPerSecond = 0;
+
+    private int replayThreads = TransmissionReplayScheduler.DEFAULT_NUMBER_OF_THREADS;
+
+    private boolean localForwarderSpillToDisk = false;
+
     public TelemetryChannelBase() {
         boolean developerMode = false;
         try {
@@ -176,6 +220,26 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
             maxTelemetryBufferCapacityEnforcer.normalizeStringValue(namesAndValues.get(MAX_TELEMETRY_BUFFER_CAPACITY_NAME));
             sendIntervalInSecondsEnforcer.normalizeStringValue(namesAndValues.get(FLUSH_BUFFER_TIMEOUT_IN_SECONDS_NAME));
             maxTransmissionStorageCapacity = namesAndValues.get(MAX_TRANSMISSION_STORAGE_CAPACITY_NAME);
+            lockFreeTelemetryBuffer = Boolean.valueOf(namesAndValues.get(LOCK_FREE_TELEMETRY_BUFFER_NAME));
+            segmentedTransmissionStorage = Boolean.valueOf(namesAndValues.get(SEGMENTED_TRANSMISSION_STORAGE_NAME));
+            compressionThreads = LimitsEnforcer.createWithClosestLimitOnError(0, CompressionStage.MAX_COMPRESSION_THREADS, 0,
+                    COMPRESSION_THREADS_NAME, namesAndValues.get(COMPRESSION_THREADS_NAME)).getCurrentValue();
+            asyncNetworkSender = Boolean.valueOf(namesAndValues.get(ASYNC_NETWORK_SENDER_NAME));
+            asyncMaxConnectionsPerRoute = LimitsEnforcer.createWithClosestLimitOnError(1, TransmissionNetworkOutput.MAX_ASYNC_MAX_CONNECTIONS_PER_ROUTE,
+                    TransmissionNetworkOutput.DEFAULT_ASYNC_MAX_CONNECTIONS_PER_ROUTE, ASYNC_MAX_CONNECTIONS_PER_ROUTE_NAME,
+                    namesAndValues.get(ASYNC_MAX_CONNECTIONS_PER_ROUTE_NAME)).getCurrentValue();
+            overflowPolicy = OverflowPolicy.fromName(namesAndValues.get(OVERFLOW_POLICY_NAME));
+            maxPendingBatches = LimitsEnforcer.createWithClosestLimitOnError(1, TransmitterImpl.MAX_PENDING_BATCHES, TransmitterImpl.MAX_PENDING_BATCHES,
+                    MAX_PENDING_BATCHES_NAME, namesAndValues.get(MAX_PENDING_BATCHES_NAME)).getCurrentValue();
+            overflowBlockTimeoutInMillis = LimitsEnforcer.createWithClosestLimitOnError(0, MAX_OVERFLOW_BLOCK_TIMEOUT_IN_MILLIS,
+                    TransmitterImpl.DEFAULT_BLOCK_TIMEOUT_IN_MILLIS, OVERFLOW_BLOCK_TIMEOUT_IN_MILLIS_NAME,
+                    namesAndValues.get(OVERFLOW_BLOCK_TIMEOUT_IN_MILLIS_NAME)).getCurrentValue();
+            replayBandwidthInKBPerSecond = LimitsEnforcer.createWithClosestLimitOnError(0, MAX_REPLAY_BANDWIDTH_IN_KB_PER_SECOND, 0,
+                    REPLAY_BANDWIDTH_IN_KB_PER_SECOND_NAME, namesAndValues.get(REPLAY_BANDWIDTH_IN_KB_PER_SECOND_NAME)).getCurrentValue();
+            replayThreads = LimitsEnforcer.createWithClosestLimitOnError(1, ActiveTransmissionLoader.MAX_THREADS_ALLOWED - 1,
+                    TransmissionReplayScheduler.DEFAULT_NUMBER_OF_THREADS, REPLAY_THREADS_NAME,
+                    namesAndValues.get(REPLAY_THREADS_NAME)).getCurrentValue();
+            localForwarderSpillToDisk = Boolean.valueOf(namesAndValues.get(LOCAL_FORWARDER_SPILL_TO_DISK_NAME));
         }
 
         initialize(
@@ -198,12 +262,110 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
 
 
         telemetriesTransmitter = getTransmitterFactory().create(endpointAddress, maxTransmissionStorageCapacity, throttling, maxInstantRetry);
-        telemetryBuffer = new TelemetryBuffer<>(telemetriesTransmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds);
+        telemetryBuffer = createTelemetryBuffer(telemetriesTransmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds);
 
         setDeveloperMode(developerMode);
         isInitailized = true;
     }
 
+    /**
+     * Creates the buffer that application threads add telemetries to.
+     *
+     * The default buffer takes a lock on every 'add', the lock-free one is used
+     * when '{@value #LOCK_FREE_TELEMETRY_BUFFER_NAME}' is set to true in the channel's configuration.
+     */
+    protected TelemetryBufferBase<T> createTelemetryBuffer(TelemetriesTransmitter<T> transmitter, LimitsEnforcer maxTelemetryBufferCapacityEnforcer,
+                                                       LimitsEnforcer sendIntervalInSeconds) {
+        if (lockFreeTelemetryBuffer) {
+            return new LockFreeTelemetryBuffer<>(transmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds);
+        }
+        return new TelemetryBuffer<>(transmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds);
+    }
+
+    /**
+     * Whether transmissions that could not be sent are kept in memory-mapped segment files,
+     * set by '{@value #SEGMENTED_TRANSMISSION_STORAGE_NAME}' in the channel's configuration.
+     * Otherwise every such transmission is kept in a file of its own.
+     */
+    protected boolean isSegmentedTransmissionStorage() {
+        return segmentedTransmissionStorage;
+    }
+
+    /**
+     * The number of threads that compress batches of telemetries, set by '{@value #COMPRESSION_THREADS_NAME}'
+     * in the channel's configuration. With 0, the default, batches are compressed by the threads that send them.
+     */
+    protected int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    /**
+     * Whether transmissions are sent by a non-blocking sender that keeps many of them in flight over a few
+     * connections, set by '{@value #ASYNC_NETWORK_SENDER_NAME}' in the channel's configuration.
+     * Otherwise a pool of threads sends them, each waiting for one response at a time.
+     */
+    protected boolean isAsyncNetworkSender() {
+        return asyncNetworkSender;
+    }
+
+    /**
+     * The number of connections the non-blocking sender may open to the endpoint, set by
+     * '{@value #ASYNC_MAX_CONNECTIONS_PER_ROUTE_NAME}' in the channel's configuration.
+     */
+    protected int getAsyncMaxConnectionsPerRoute() {
+        return asyncMaxConnectionsPerRoute;
+    }
+
+    /**
+     * What happens to a batch of telemetries when '{@value #MAX_PENDING_BATCHES_NAME}' batches already wait to be sent,
+     * set by '{@value #OVERFLOW_POLICY_NAME}' in the channel's configuration. By default the batch is dropped.
+     */
+    protected OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * The maximum number of batches that wait to be sent, set by '{@value #MAX_PENDING_BATCHES_NAME}'
+     * in the channel's configuration.
+     */
+    protected int getMaxPendingBatches() {
+        return maxPendingBatches;
+    }
+
+    /**
+     * How long a batch waits for room with {@link OverflowPolicy#BLOCK_WITH_TIMEOUT}, set by
+     * '{@value #OVERFLOW_BLOCK_TIMEOUT_IN_MILLIS_NAME}' in the channel's configuration.
+     */
+    protected int getOverflowBlockTimeoutInMillis() {
+        return overflowBlockTimeoutInMillis;
+    }
+
+    /**
+     * The bandwidth given to replaying the transmissions saved to the disk, set by
+     * '{@value #REPLAY_BANDWIDTH_IN_KB_PER_SECOND_NAME}' in the channel's configuration.
+     * Zero, the default, replays them with the {@link ActiveTransmissionLoader}.
+     */
+    protected int getReplayBandwidthInKBPerSecond() {
+        return replayBandwidthInKBPerSecond;
+    }
+
+    /**
+     * The threads of the {@link TransmissionReplayScheduler}, set by '{@value #REPLAY_THREADS_NAME}'
+     * in the channel's configuration.
+     */
+    protected int getReplayThreads() {
+        return replayThreads;
+    }
+
+    /**
+     * Whether the local forwarder channel saves the batches it fails to send to the disk, as protobuf, and sends
+     * them again later on, set by '{@value #LOCAL_FORWARDER_SPILL_TO_DISK_NAME}' in the channel's configuration.
+     * Otherwise those batches are dropped.
+     */
+    protected boolean isLocalForwarderSpillToDisk() {
+        return localForwarderSpillToDisk;
+    }
+
     protected synchronized TransmitterFactory<T> getTransmitterFactory() {
         if (transmitterFactory == null) {
             transmitterFactory = createTransmitterFactory();
@@ -323,6 +485,7 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
 
         if (telemetrySampler != null) {
             if (!telemetrySampler.isSampledIn(telemetry)) {
+                SdkMetrics.INSTANCE.getItemsSampledOut().increment();
                 return;
             }
         }
@@ -24,12 +24,14 @@ package com.microsoft.applicationinsights.channel.concrete.inprocess;
 import com.microsoft.applicationinsights.channel.concrete.TelemetryChannelBase;
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
+import com.microsoft.applicationinsights.internal.util.ReusableByteArrayOutputStream;
+import com.microsoft.applicationinsights.internal.util.Utf8Writer;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.Map;
 
 /**
@@ -50,9 +52,46 @@ import java.util.Map;
  * <p>Use application threads to populate the buffer Use channel's threads to send buffers to the
  * server
  *
+ * <p>Telemetries are kept in the buffer as UTF-8 encoded Json. Every application thread serializes
+ * into its own reusable byte buffer, so the only allocation per telemetry is its final byte array.
+ *
  * <p>Created by gupele on 12/17/2014.
  */
-public final class InProcessTelemetryChannel extends TelemetryChannelBase<String> {
+public final class InProcessTelemetryChannel extends TelemetryChannelBase<byte[]> {
+    private final static int INITIAL_SERIALIZATION_BUFFER_SIZE = 2048;
+    private final static int MAX_RETAINED_SERIALIZATION_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The per thread state used to serialize a telemetry without intermediate Strings.
+     */
+    private static final class SerializationBuffer {
+        private final ReusableByteArrayOutputStream bytes =
+                new ReusableByteArrayOutputStream(INITIAL_SERIALIZATION_BUFFER_SIZE, MAX_RETAINED_SERIALIZATION_BUFFER_SIZE);
+        private final Utf8Writer writer = new Utf8Writer(bytes);
+        private JsonTelemetryDataSerializer jsonWriter;
+
+        private byte[] serialize(Telemetry telemetry) throws IOException {
+            bytes.reset();
+            writer.reset(bytes);
+            if (jsonWriter == null) {
+                jsonWriter = new JsonTelemetryDataSerializer(writer);
+            } else {
+                jsonWriter.reset(writer);
+            }
+
+            telemetry.serialize(jsonWriter);
+            jsonWriter.close();
+
+            return bytes.toByteArray();
+        }
+    }
+
+    private static final ThreadLocal<SerializationBuffer> SERIALIZATION_BUFFERS = new ThreadLocal<SerializationBuffer>() {
+        @Override
+        protected SerializationBuffer initialValue() {
+            return new SerializationBuffer();
+        }
+    };
 
     public InProcessTelemetryChannel() {
         super();
@@ -72,13 +111,9 @@ public final class InProcessTelemetryChannel extends TelemetryChannelBase<String
 
     @Override
     protected boolean doSend(Telemetry telemetry) {
-        StringWriter writer = new StringWriter();
-        JsonTelemetryDataSerializer jsonWriter = null;
         try {
-            jsonWriter = new JsonTelemetryDataSerializer(writer);
-            telemetry.serialize(jsonWriter);
-            jsonWriter.close();
-            String asJson = writer.toString();
+            byte[] asJson = SERIALIZATION_BUFFERS.get().serialize(telemetry);
+            SdkMetrics.INSTANCE.getSerializedBytes().add(asJson.length);
             telemetryBuffer.add(asJson);
             telemetry.reset();
 
@@ -91,8 +126,9 @@ public final class InProcessTelemetryChannel extends TelemetryChannelBase<String
     }
 
     @Override
-    protected TransmitterFactory<String> createTransmitterFactory() {
-        return new InProcessTelemetryTransmitterFactory();
+    protected TransmitterFactory<byte[]> createTransmitterFactory() {
+        return new InProcessTelemetryTransmitterFactory(isSegmentedTransmissionStorage(), getCompressionThreads(), isAsyncNetworkSender(),
+                getAsyncMaxConnectionsPerRoute(), getOverflowPolicy(), getMaxPendingBatches(), getOverflowBlockTimeoutInMillis(), getReplayBandwidthInKBPerSecond(), getReplayThreads());
     }
 
 }
@@ -34,6 +34,39 @@ import com.microsoft.applicationinsights.internal.channel.common.*;
  */
 final class InProcessTelemetryTransmitterFactory implements TransmitterFactory {
     private final int DEFAULT_RETRY = 3;
+
+    private final boolean segmentedTransmissionStorage;
+
+    private final int compressionThreads;
+
+    private final boolean asyncNetworkSender;
+
+    private final int asyncMaxConnectionsPerRoute;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final int maxPendingBatches;
+
+    private final int overflowBlockTimeoutInMillis;
+
+    private final int replayBandwidthInKBPerSecond;
+
+    private final int replayThreads;
+
+    InProcessTelemetryTransmitterFactory(boolean segmentedTransmissionStorage, int compressionThreads, boolean asyncNetworkSender,
+                                         int asyncMaxConnectionsPerRoute, OverflowPolicy overflowPolicy, int maxPendingBatches, int overflowBlockTimeoutInMillis,
+                                         int replayBandwidthInKBPerSecond, int replayThreads) {
+        this.segmentedTransmissionStorage = segmentedTransmissionStorage;
+        this.compressionThreads = compressionThreads;
+        this.asyncNetworkSender = asyncNetworkSender;
+        this.asyncMaxConnectionsPerRoute = asyncMaxConnectionsPerRoute;
+        this.overflowPolicy = overflowPolicy;
+        this.maxPendingBatches = maxPendingBatches;
+        this.overflowBlockTimeoutInMillis = overflowBlockTimeoutInMillis;
+        this.replayBandwidthInKBPerSecond = replayBandwidthInKBPerSecond;
+        this.replayThreads = replayThreads;
+    }
+
     @Override
     public TelemetriesTransmitter create(String endpoint, String maxTransmissionStorageCapacity, boolean throttlingIsEnabled, int maxInstantRetries) {
         final TransmissionPolicyManager transmissionPolicyManager = new TransmissionPolicyManager(throttlingIsEnabled);
@@ -42,14 +75,25 @@ final class InProcessTelemetryTransmitterFactory implements TransmitterFactory {
         transmissionPolicyManager.addTransmissionHandler(new ThrottlingHandler(transmissionPolicyManager));
         transmissionPolicyManager.setMaxInstantRetries(maxInstantRetries);
         // An active object with the network sender
-        TransmissionNetworkOutput actualNetworkSender = TransmissionNetworkOutput.create(endpoint, transmissionPolicyManager);
+        TransmissionNetworkOutput actualNetworkSender = TransmissionNetworkOutput.create(endpoint, transmissionPolicyManager, asyncNetworkSender,
+                asyncMaxConnectionsPerRoute);
 
         TransmissionPolicyStateFetcher stateFetcher = transmissionPolicyManager.getTransmissionPolicyState();
 
-        TransmissionOutput networkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender, stateFetcher);
+        // The async sender does not block the dispatching thread, so it needs no threads of its own
+        TransmissionOutput networkSender;
+        TransmissionReplayScheduler.LiveTraffic liveTraffic;
+        if (actualNetworkSender.isAsync()) {
+            networkSender = actualNetworkSender;
+            liveTraffic = actualNetworkSender;
+        } else {
+            ActiveTransmissionNetworkOutput activeNetworkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender, stateFetcher);
+            networkSender = activeNetworkSender;
+            liveTraffic = activeNetworkSender;
+        }
 
         // An active object with the file system sender
-        TransmissionFileSystemOutput fileSystemSender = new TransmissionFileSystemOutput(null, maxTransmissionStorageCapacity);
+        TransmissionFileSystemOutput fileSystemSender = new TransmissionFileSystemOutput(null, maxTransmissionStorageCapacity, segmentedTransmissionStorage);
         TransmissionOutput activeFileSystemOutput = new ActiveTransmissionFileSystemOutput(fileSystemSender, stateFetcher);
 
         // The dispatcher works with the two active senders
@@ -57,11 +101,19 @@ final class InProcessTelemetryTransmitterFactory implements TransmitterFactory {
         actualNetworkSender.setTransmissionDispatcher(dispatcher);
 
 
-        // The loader works with the file system loader as the active one does
-        TransmissionsLoader transmissionsLoader = new ActiveTransmissionLoader(fileSystemSender, stateFetcher, dispatcher);
+        // The loader works with the file system loader as the active one does,
+        // with a bandwidth budget the saved transmissions are merged and replayed behind live telemetry
+        TransmissionsLoader transmissionsLoader;
+        if (replayBandwidthInKBPerSecond > 0) {
+            transmissionsLoader = new TransmissionReplayScheduler(fileSystemSender, dispatcher, stateFetcher, liveTraffic,
+                    new GzipTelemetrySerializer(), replayBandwidthInKBPerSecond * 1024L, replayThreads);
+        } else {
+            transmissionsLoader = new ActiveTransmissionLoader(fileSystemSender, stateFetcher, dispatcher);
+        }
 
-        // The Transmitter manage all
-        TelemetriesTransmitter<String> telemetriesTransmitter = new TransmitterImpl(dispatcher, new GzipTelemetrySerializer(), transmissionsLoader);
+        // The Transmitter manage all, batches that overflow are spilled straight to the file system sender
+        TelemetriesTransmitter<byte[]> telemetriesTransmitter = new TransmitterImpl(dispatcher, new GzipTelemetrySerializer(), transmissionsLoader,
+                compressionThreads, overflowPolicy, maxPendingBatches, overflowBlockTimeoutInMillis, fileSystemSender);
 
         return telemetriesTransmitter;
     }
@@ -38,7 +38,7 @@ import com.microsoft.localforwarder.library.inputs.contracts.Telemetry.Builder;
 import java.util.HashMap;
 import java.util.Map;
 
-final class LocalForwarderModelTransformer {
+public final class LocalForwarderModelTransformer {
 
     private LocalForwarderModelTransformer(){}
 
@@ -1,8 +1,11 @@
 package com.microsoft.applicationinsights.channel.concrete.localforwarder;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+import com.microsoft.applicationinsights.internal.channel.common.TransmissionFileSystemOutput;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
 import com.microsoft.localforwarder.library.inputs.contracts.AITelemetryServiceGrpc;
@@ -15,22 +18,33 @@ import io.grpc.ManagedChannelBuilder;
 import io.grpc.stub.StreamObserver;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
+import java.io.IOException;
 import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class LocalForwarderTelemetriesTransmitter implements TelemetriesTransmitter<Telemetry> {
 
+    private static final long REPLAY_INTERVAL_IN_SECONDS = 5;
+    private static final int MAX_REPLAYED_BATCHES_PER_INTERVAL = 10;
+
     private ManagedChannel channel;
     private AITelemetryServiceStub asyncService;
 
     private final ScheduledExecutorService executor;
     private final ExecutorService grpcServiceExecutor;
 
+    // Batches that fail to be sent are saved here as protobuf, null when they are dropped
+    private final TransmissionFileSystemOutput spillOutput;
+    private final LocalForwarderTelemetrySerializer serializer = new LocalForwarderTelemetrySerializer();
+    private final AtomicBoolean sendFailed = new AtomicBoolean(false);
+
     private StreamObserver<AiResponse> responseObserver = new StreamObserver<AiResponse>() {
         private final LocalForwarderTelemetriesTransmitter thiz = LocalForwarderTelemetriesTransmitter.this;
         @Override
@@ -51,6 +65,14 @@ public class LocalForwarderTelemetriesTransmitter implements TelemetriesTransmit
 
     @VisibleForTesting
     LocalForwarderTelemetriesTransmitter(ManagedChannelBuilder channelBuilder, boolean createDefaultGrpcExecutor, int instanceId) {
+        this(channelBuilder, createDefaultGrpcExecutor, instanceId, null);
+    }
+
+    /**
+     * @param spillOutput Where the batches that fail to be sent are saved, to be sent again later on. Null to drop them.
+     */
+    LocalForwarderTelemetriesTransmitter(ManagedChannelBuilder channelBuilder, boolean createDefaultGrpcExecutor, int instanceId,
+                                         TransmissionFileSystemOutput spillOutput) {
         Preconditions.checkNotNull(channelBuilder, "channelBuilder");
 
         if (createDefaultGrpcExecutor) {
@@ -63,6 +85,11 @@ public class LocalForwarderTelemetriesTransmitter implements TelemetriesTransmit
         this.executor = Executors.newScheduledThreadPool(1, ThreadPoolUtils.createDaemonThreadFactory(LocalForwarderTelemetriesTransmitter.class, instanceId));
         this.channel = channelBuilder.build();
         this.asyncService = AITelemetryServiceGrpc.newStub(channel);
+
+        this.spillOutput = spillOutput;
+        if (spillOutput != null) {
+            this.executor.scheduleWithFixedDelay(getReplayRunnable(), REPLAY_INTERVAL_IN_SECONDS, REPLAY_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+        }
     }
 
     @VisibleForTesting
@@ -83,28 +110,143 @@ public class LocalForwarderTelemetriesTransmitter implements TelemetriesTransmit
     }
 
     private Runnable getSenderRunnable(final Collection<Telemetry> telemetries) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                send(telemetries);
+            }
+        };
+    }
+
+    /**
+     * @return The observer that saves the batch to disk if it fails to be sent, null when failed batches are dropped.
+     */
+    private SpillingResponseObserver send(Collection<Telemetry> telemetries) {
+        SpillingResponseObserver spillingObserver = spillOutput == null ? null : new SpillingResponseObserver(telemetries);
+        try {
+            StreamObserver<TelemetryBatch> requestObserver = asyncService.sendTelemetryBatch(spillingObserver == null ? responseObserver : spillingObserver);
+            try {
+                requestObserver.onNext(TelemetryBatch.newBuilder().addAllItems(telemetries).build());
+                requestObserver.onCompleted();
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                requestObserver.onError(t);
+            }
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            error("Exception issuing sendTelemetryBatch:%n%s", ExceptionUtils.getStackTrace(t));
+            if (spillingObserver != null) {
+                spillingObserver.spillOnce();
+            }
+        }
+        return spillingObserver;
+    }
+
+    /**
+     * Passes the response on to the response observer, and saves the batch to disk, once, if it failed to be sent.
+     */
+    private final class SpillingResponseObserver implements StreamObserver<AiResponse> {
+        private final Collection<Telemetry> telemetries;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicBoolean failed = new AtomicBoolean(false);
+
+        SpillingResponseObserver(Collection<Telemetry> telemetries) {
+            this.telemetries = telemetries;
+        }
+
+        @Override
+        public void onNext(AiResponse value) {
+            responseObserver.onNext(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            responseObserver.onError(t);
+            spillOnce();
+        }
+
+        @Override
+        public void onCompleted() {
+            responseObserver.onCompleted();
+            done.countDown();
+        }
+
+        void spillOnce() {
+            if (failed.compareAndSet(false, true)) {
+                spill(telemetries);
+            }
+            done.countDown();
+        }
+
+        /**
+         * @return true if the batch was sent within the timeout, false if it failed or is still being sent.
+         */
+        boolean awaitSent(long timeout, TimeUnit timeUnit) throws InterruptedException {
+            return done.await(timeout, timeUnit) && !failed.get();
+        }
+    }
+
+    private void spill(Collection<Telemetry> telemetries) {
+        if (telemetries.isEmpty()) {
+            return;
+        }
+
+        sendFailed.set(true);
+        Optional<Transmission> transmission = serializer.serialize(telemetries);
+        if (!transmission.isPresent() || !spillOutput.send(transmission.get())) {
+            warn("%d items could not be saved to disk and are dropped", telemetries.size());
+        }
+    }
+
+    private Runnable getReplayRunnable() {
         return new Runnable() {
             @Override
             public void run() {
                 try {
-                    StreamObserver<TelemetryBatch> requestObserver = asyncService.sendTelemetryBatch(responseObserver);
-                    try {
-                        requestObserver.onNext(TelemetryBatch.newBuilder().addAllItems(telemetries).build());
-                        requestObserver.onCompleted();
-                    } catch (ThreadDeath td) {
-                        throw td;
-                    } catch (Throwable t) {
-                        requestObserver.onError(t);
-                    }
+                    replaySavedBatches();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 } catch (ThreadDeath td) {
                     throw td;
                 } catch (Throwable t) {
-                    error("Exception issuing sendTelemetryBatch:%n%s", ExceptionUtils.getStackTrace(t));
+                    error("Exception replaying saved batches:%n%s", ExceptionUtils.getStackTrace(t));
                 }
             }
         };
     }
 
+    /**
+     * Sends the saved batches again, one at a time, as long as no batch failed to be sent since the last time.
+     * Stops at the first batch that fails again, which is saved back to disk, and leaves the others for later.
+     */
+    @VisibleForTesting
+    void replaySavedBatches() throws InterruptedException {
+        if (sendFailed.getAndSet(false)) {
+            return;
+        }
+
+        for (int i = 0; i < MAX_REPLAYED_BATCHES_PER_INTERVAL; ++i) {
+            Transmission transmission = spillOutput.fetchOldestFile();
+            if (transmission == null) {
+                return;
+            }
+
+            Collection<Telemetry> telemetries;
+            try {
+                telemetries = serializer.deserialize(transmission).getItemsList();
+            } catch (IOException e) {
+                error("Failed to read a saved batch, it is dropped: %s", e.toString());
+                continue;
+            }
+
+            if (!send(telemetries).awaitSent(REPLAY_INTERVAL_IN_SECONDS, TimeUnit.SECONDS)) {
+                return;
+            }
+        }
+    }
+
     @Override
     public boolean sendNow(Collection<Telemetry> telemetries) {
         try {
@@ -153,6 +295,10 @@ public class LocalForwarderTelemetriesTransmitter implements TelemetriesTransmit
             channel.shutdownNow();
             Thread.currentThread().interrupt();
         }
+
+        if (spillOutput != null) {
+            spillOutput.stop(timeout, timeUnit);
+        }
     }
 
     private void error(String format, Object... args) {
@@ -5,7 +5,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.channel.concrete.TelemetryChannelBase;
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
-import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryBufferBase;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import com.microsoft.applicationinsights.telemetry.BaseTelemetry;
@@ -73,12 +73,12 @@ public class LocalForwarderTelemetryChannel extends TelemetryChannelBase<Telemet
     }
 
     @VisibleForTesting
-    TelemetryBuffer<Telemetry> getTelemetryBuffer() {
+    TelemetryBufferBase<Telemetry> getTelemetryBuffer() {
         return telemetryBuffer;
     }
 
     @VisibleForTesting
-    void setTelemetryBuffer(TelemetryBuffer<Telemetry> buffer) {
+    void setTelemetryBuffer(TelemetryBufferBase<Telemetry> buffer) {
         this.telemetryBuffer = buffer;
     }
 
@@ -94,7 +94,7 @@ public class LocalForwarderTelemetryChannel extends TelemetryChannelBase<Telemet
 
     @Override
     protected TransmitterFactory<Telemetry> createTransmitterFactory() {
-        return new LocalForwarderTelemetryTransmitterFactory();
+        return new LocalForwarderTelemetryTransmitterFactory(isLocalForwarderSpillToDisk());
     }
 
     @Override
@@ -0,0 +1,71 @@
+package com.microsoft.applicationinsights.channel.concrete.localforwarder;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.ReusableByteArrayOutputStream;
+import com.microsoft.localforwarder.library.inputs.contracts.Telemetry;
+import com.microsoft.localforwarder.library.inputs.contracts.TelemetryBatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a batch of local forwarder telemetries as a gzipped protobuf {@link TelemetryBatch}, so it can be saved
+ * by a {@link com.microsoft.applicationinsights.internal.channel.common.TransmissionFileSystemOutput} and read back
+ * without going through Json. This is the same message the local forwarder receives, only compressed.
+ */
+public final class LocalForwarderTelemetrySerializer {
+    public static final String PROTOBUF_WEB_CONTENT_TYPE = "application/x-protobuf";
+    public static final String GZIP_WEB_ENCODING_TYPE = "gzip";
+
+    private static final int INITIAL_OUTPUT_SIZE = 16 * 1024;
+    private static final int MAX_RETAINED_OUTPUT_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ReusableByteArrayOutputStream> OUTPUT_BUFFERS = new ThreadLocal<ReusableByteArrayOutputStream>() {
+        @Override
+        protected ReusableByteArrayOutputStream initialValue() {
+            return new ReusableByteArrayOutputStream(INITIAL_OUTPUT_SIZE, MAX_RETAINED_OUTPUT_SIZE);
+        }
+    };
+
+    public Optional<Transmission> serialize(Collection<Telemetry> telemetries) {
+        Preconditions.checkNotNull(telemetries, "telemetries must be non-null value");
+        Preconditions.checkArgument(!telemetries.isEmpty(), "telemetries: One or more telemetry item is expected");
+
+        ReusableByteArrayOutputStream output = OUTPUT_BUFFERS.get();
+        output.reset();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            TelemetryBatch.newBuilder().addAllItems(telemetries).build().writeTo(gzip);
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("LocalForwarder: Failed to serialize %d items, exception: %s", telemetries.size(), e.toString());
+            return Optional.absent();
+        }
+
+        return Optional.of(new Transmission(output.toByteArray(), PROTOBUF_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE));
+    }
+
+    /**
+     * @throws IOException If the transmission was not written by {@link #serialize(Collection)} or it is corrupted.
+     */
+    public TelemetryBatch deserialize(Transmission transmission) throws IOException {
+        Preconditions.checkNotNull(transmission, "transmission must be non-null value");
+
+        if (!isSerializedBatch(transmission)) {
+            throw new IOException(String.format("Unexpected content type '%s' and encoding '%s'",
+                    transmission.getWebContentType(), transmission.getWebContentEncodingType()));
+        }
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(transmission.getContent()))) {
+            return TelemetryBatch.parseFrom(gzip);
+        }
+    }
+
+    public static boolean isSerializedBatch(Transmission transmission) {
+        return PROTOBUF_WEB_CONTENT_TYPE.equals(transmission.getWebContentType())
+                && GZIP_WEB_ENCODING_TYPE.equals(transmission.getWebContentEncodingType());
+    }
+}
@@ -4,18 +4,38 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
+import com.microsoft.applicationinsights.internal.channel.common.TransmissionFileSystemOutput;
+import com.microsoft.applicationinsights.internal.util.LocalFileSystemUtils;
 import com.microsoft.localforwarder.library.inputs.contracts.Telemetry;
 import io.grpc.ManagedChannelBuilder;
 
+import java.io.File;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public final class LocalForwarderTelemetryTransmitterFactory implements TransmitterFactory<Telemetry> {
     private static final AtomicInteger INSTANCE_ID_POOL = new AtomicInteger(0);
 
+    // Apart from the in-process channel's folder, whose loader sends everything it finds there to the ingestion endpoint
+    private static final String TRANSMISSION_FOLDER = "localforwarder-transmissions";
+
+    private final boolean spillToDisk;
+
+    public LocalForwarderTelemetryTransmitterFactory() {
+        this(false);
+    }
+
+    public LocalForwarderTelemetryTransmitterFactory(boolean spillToDisk) {
+        this.spillToDisk = spillToDisk;
+    }
+
     @Override
     public TelemetriesTransmitter<Telemetry> create(String endpoint, String maxTransmissionStorageCapacity, boolean throttlingIsEnabled, int maxInstantRetries) {
         Preconditions.checkArgument(!Strings.isNullOrEmpty(endpoint), "a non-empty endpoint must be specified");
-        return new LocalForwarderTelemetriesTransmitter(ManagedChannelBuilder.forTarget(endpoint).usePlaintext().enableRetry(), true, INSTANCE_ID_POOL.getAndIncrement());
+        TransmissionFileSystemOutput spillOutput = null;
+        if (spillToDisk) {
+            spillOutput = new TransmissionFileSystemOutput(new File(LocalFileSystemUtils.getTempDir(), TRANSMISSION_FOLDER).getPath(), maxTransmissionStorageCapacity);
+        }
+        return new LocalForwarderTelemetriesTransmitter(ManagedChannelBuilder.forTarget(endpoint).usePlaintext().enableRetry(), true, INSTANCE_ID_POOL.getAndIncrement(), spillOutput);
     }
 
 }
@@ -32,12 +32,14 @@ import com.microsoft.applicationinsights.internal.channel.common.Transmission;
  * An interface for serializing container of telemetries
  * Concrete classes should be able to create a compressed byte array
  * that represents at collection of Telemetry instances
+ *
+ * Each telemetry is expected to be already serialized as UTF-8 encoded Json
  */
 public interface TelemetrySerializer {
     /**
      *
-     * @param telemetries A collection of Telemetry instances
+     * @param telemetries A collection of UTF-8 encoded Json Telemetry instances
      * @return byte array that is a compressed version of the input
      */
-    Optional<Transmission> serialize(Collection<String> telemetries);
+    Optional<Transmission> serialize(Collection<byte[]> telemetries);
 }
@@ -33,7 +33,7 @@ import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
 /**
  * Created by gupele on 12/18/2014.
  */
-public final class ActiveTransmissionNetworkOutput implements TransmissionOutput {
+public final class ActiveTransmissionNetworkOutput implements TransmissionOutput, TransmissionReplayScheduler.LiveTraffic {
     private final static int DEFAULT_MAX_MESSAGES_IN_BUFFER = 128;
     private final static int DEFAULT_MIN_NUMBER_OF_THREADS = 7;
     private final static int DEFAULT_MAX_NUMBER_OF_THREADS = 7;
@@ -100,6 +100,14 @@ public final class ActiveTransmissionNetworkOutput implements TransmissionOutput
         ThreadPoolUtils.stop(outputThreads, timeout, timeUnit);
     }
 
+    /**
+     * Busy while transmissions are waiting for a free sending thread.
+     */
+    @Override
+    public boolean isBusy() {
+        return !outputThreads.getQueue().isEmpty();
+    }
+
     public int getNumberOfMaxThreads() {
         return this.maxThreads;
     }
@@ -0,0 +1,345 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.SSLOptionsUtil;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
+
+/**
+ * A non-blocking sender built on Apache's NIO based HttpAsyncClient.
+ *
+ * Requests are handed to a couple of I/O reactor threads and the caller gets the response
+ * through a callback, so many transmissions can be in flight over a pool of kept-alive connections
+ * while no thread waits for the network. The number of requests in flight is capped,
+ * and every request is cancelled once its deadline passes.
+ *
+ * A request first waits for a connection, for at most the deadline, and its deadline starts
+ * once it got one and its body is written: time spent waiting in the pool does not eat into
+ * the time for the exchange.
+ */
+final class ApacheAsyncSender {
+    static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 512;
+    static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = ApacheSender.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    static final int MAX_TOTAL_CONNECTIONS = ApacheSender.DEFAULT_MAX_TOTAL_CONNECTIONS;
+    static final int DEFAULT_IO_THREADS = 2;
+
+    private final static AtomicInteger INSTANCE_ID_POOL = new AtomicInteger(1);
+
+    private final CloseableHttpAsyncClient httpClient;
+    private final ScheduledThreadPoolExecutor deadlineTimer;
+    private final Semaphore inFlightPermits;
+    private final int maxInFlightRequests;
+    private final int deadlineInMillis;
+
+    /**
+     * Creates a sender with the default limits, where every request must complete within
+     * {@link ApacheSender#REQUEST_TIMEOUT_IN_MILLIS}.
+     *
+     * @param maxConnectionsPerRoute The number of connections to the endpoint, which caps the requests that are sent at once.
+     * @throws IOReactorException if the I/O reactor could not be created
+     */
+    static ApacheAsyncSender create(int maxConnectionsPerRoute) throws IOReactorException {
+        return new ApacheAsyncSender(DEFAULT_MAX_IN_FLIGHT_REQUESTS, ApacheSender.REQUEST_TIMEOUT_IN_MILLIS, maxConnectionsPerRoute);
+    }
+
+    ApacheAsyncSender(int maxInFlightRequests, int deadlineInMillis) throws IOReactorException {
+        this(maxInFlightRequests, deadlineInMillis, DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+    }
+
+    ApacheAsyncSender(int maxInFlightRequests, int deadlineInMillis, int maxConnectionsPerRoute) throws IOReactorException {
+        Preconditions.checkArgument(maxInFlightRequests > 0, "maxInFlightRequests must be a positive number");
+        Preconditions.checkArgument(deadlineInMillis > 0, "deadlineInMillis must be a positive number");
+        Preconditions.checkArgument(maxConnectionsPerRoute > 0 && maxConnectionsPerRoute <= MAX_TOTAL_CONNECTIONS,
+                "maxConnectionsPerRoute must be a positive number, up to %s", MAX_TOTAL_CONNECTIONS);
+
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.deadlineInMillis = deadlineInMillis;
+        inFlightPermits = new Semaphore(maxInFlightRequests);
+
+        int instanceId = INSTANCE_ID_POOL.getAndIncrement();
+        deadlineTimer = new ScheduledThreadPoolExecutor(1, ThreadPoolUtils.createDaemonThreadFactory(ApacheAsyncSender.class, instanceId));
+        deadlineTimer.setRemoveOnCancelPolicy(true);
+
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(DEFAULT_IO_THREADS)
+                .setConnectTimeout(deadlineInMillis)
+                .setSoTimeout(deadlineInMillis)
+                .setSoKeepAlive(true)
+                .build();
+        DefaultConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(ioReactorConfig,
+                ThreadPoolUtils.createDaemonThreadFactory(ApacheAsyncSender.class, "io_" + instanceId));
+
+        String[] allowedProtocols = SSLOptionsUtil.getAllowedProtocols();
+        PoolingNHttpClientConnectionManager cm = new PoolingNHttpClientConnectionManager(ioReactor, RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("https", new SSLIOSessionStrategy(SSLContexts.createDefault(), allowedProtocols, null, SSLIOSessionStrategy.getDefaultHostnameVerifier()))
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .build());
+        cm.setMaxTotal(MAX_TOTAL_CONNECTIONS);
+        cm.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        httpClient = HttpAsyncClients.custom()
+                .setConnectionManager(cm)
+                .setThreadFactory(ThreadPoolUtils.createDaemonThreadFactory(ApacheAsyncSender.class, "dispatch_" + instanceId))
+                .useSystemProperties()
+                .build();
+        httpClient.start();
+    }
+
+    /**
+     * Starts sending the request without waiting for the response.
+     *
+     * Exactly one of the callback's methods is called once the request completes, fails or is
+     * cancelled because its deadline passed. That call is made on one of the I/O reactor threads,
+     * so the callback should not block.
+     *
+     * @param request The request to send.
+     * @param callback The callback that gets the outcome of the request.
+     * @return False if the request was not sent since too many requests are in flight or the sender is closed.
+     */
+    boolean sendPostRequest(HttpPost request, FutureCallback<HttpResponse> callback) {
+        Preconditions.checkNotNull(request, "request must be a non-null value");
+        Preconditions.checkNotNull(callback, "callback must be a non-null value");
+
+        if (!inFlightPermits.tryAcquire()) {
+            return false;
+        }
+
+        enhanceRequest(request);
+        InFlightRequest inFlightRequest = new InFlightRequest(callback);
+        try {
+            inFlightRequest.setFuture(httpClient.execute(new DeadlineStartingProducer(HttpAsyncMethods.create(request), inFlightRequest),
+                    HttpAsyncMethods.createConsumer(), inFlightRequest));
+        } catch (IllegalStateException e) {
+            // The I/O reactor is no longer running
+            inFlightRequest.release();
+            InternalLogger.INSTANCE.error("Failed to send, async http client is not running: %s", e.toString());
+            return false;
+        }
+
+        return true;
+    }
+
+    int getInFlightRequests() {
+        return maxInFlightRequests - inFlightPermits.availablePermits();
+    }
+
+    int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to close async http client, exception: %s", e.toString());
+        }
+        ThreadPoolUtils.stop(deadlineTimer, 1L, TimeUnit.SECONDS);
+    }
+
+    private void enhanceRequest(HttpPost request) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(deadlineInMillis)
+                .setSocketTimeout(deadlineInMillis)
+                .setConnectTimeout(deadlineInMillis)
+                .build();
+
+        request.setConfig(requestConfig);
+    }
+
+    /**
+     * Starts the request's deadline once it has a connection, and frees its in flight permit and its
+     * deadline timer before passing the outcome on.
+     */
+    private final class InFlightRequest implements FutureCallback<HttpResponse> {
+        private final FutureCallback<HttpResponse> callback;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private final AtomicBoolean deadlineStarted = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> deadline;
+        private volatile Future<HttpResponse> future;
+        private volatile boolean expired;
+
+        private InFlightRequest(FutureCallback<HttpResponse> callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void completed(HttpResponse response) {
+            release();
+            callback.completed(response);
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            release();
+            callback.failed(ex);
+        }
+
+        @Override
+        public void cancelled() {
+            release();
+            callback.cancelled();
+        }
+
+        private void setFuture(Future<HttpResponse> future) {
+            this.future = future;
+            if (expired) {
+                // The deadline passed before the future was known
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * Called from the I/O reactor each time request content is written, only the first call counts.
+         */
+        private void startDeadline() {
+            if (!deadlineStarted.compareAndSet(false, true)) {
+                return;
+            }
+
+            ScheduledFuture<?> scheduled;
+            try {
+                scheduled = deadlineTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        expire();
+                    }
+                }, deadlineInMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The sender is closing, closing the client ends the request
+                return;
+            }
+
+            deadline = scheduled;
+            if (released.get()) {
+                // The request completed before its deadline was set
+                scheduled.cancel(false);
+            }
+        }
+
+        private void expire() {
+            expired = true;
+            Future<HttpResponse> current = future;
+            if (current != null) {
+                current.cancel(true);
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                inFlightPermits.release();
+                ScheduledFuture<?> currentDeadline = deadline;
+                if (currentDeadline != null) {
+                    currentDeadline.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the request's deadline when its body is first written, which is once the request got a connection.
+     */
+    private static final class DeadlineStartingProducer implements HttpAsyncRequestProducer {
+        private final HttpAsyncRequestProducer producer;
+        private final InFlightRequest inFlightRequest;
+
+        private DeadlineStartingProducer(HttpAsyncRequestProducer producer, InFlightRequest inFlightRequest) {
+            this.producer = producer;
+            this.inFlightRequest = inFlightRequest;
+        }
+
+        @Override
+        public HttpHost getTarget() {
+            return producer.getTarget();
+        }
+
+        @Override
+        public HttpRequest generateRequest() throws IOException, HttpException {
+            return producer.generateRequest();
+        }
+
+        @Override
+        public void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException {
+            inFlightRequest.startDeadline();
+            producer.produceContent(encoder, ioctrl);
+        }
+
+        @Override
+        public void requestCompleted(HttpContext context) {
+            producer.requestCompleted(context);
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            producer.failed(ex);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return producer.isRepeatable();
+        }
+
+        @Override
+        public void resetRequest() throws IOException {
+            producer.resetRequest();
+        }
+
+        @Override
+        public void close() throws IOException {
+            producer.close();
+        }
+    }
+}
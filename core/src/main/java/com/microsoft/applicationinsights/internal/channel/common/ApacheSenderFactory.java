@@ -23,6 +23,8 @@ package com.microsoft.applicationinsights.internal.channel.common;
 
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.reflect.ClassDataUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.http.nio.reactor.IOReactorException;
 
 /**
  * Created by gupele on 6/4/2015.
@@ -36,4 +38,21 @@ public enum ApacheSenderFactory {
         InternalLogger.INSTANCE.trace("Using Http Client version 4.3+");
         return apacheSender;
     }
+
+    /**
+     * Creates a new non-blocking sender, owned by the caller.
+     *
+     * @param maxConnectionsPerRoute The number of connections the sender may open to the endpoint.
+     * @return The sender, or null if its I/O reactor could not be created.
+     */
+    synchronized ApacheAsyncSender createAsync(int maxConnectionsPerRoute) {
+        InternalLogger.INSTANCE.trace("Using async Http Client version 4.1+");
+        try {
+            return ApacheAsyncSender.create(maxConnectionsPerRoute);
+        } catch (IOReactorException e) {
+            InternalLogger.INSTANCE.error("Failed to create async http client, falling back to the blocking one.%nStack Trace:%n%s",
+                    ExceptionUtils.getStackTrace(e));
+            return null;
+        }
+    }
 }
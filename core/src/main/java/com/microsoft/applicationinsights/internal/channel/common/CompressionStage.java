@@ -0,0 +1,220 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
+import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * Serializes and compresses batches of telemetries into {@link Transmission}s and hands them to the dispatcher.
+ *
+ * With no threads the batches are compressed by the thread that submits them. Otherwise they are queued to
+ * a pool of compression threads, the queue is bounded and when it is full the submitting thread compresses
+ * the batch itself, which slows down whoever produces the batches instead of letting them pile up.
+ *
+ * The stage keeps the compression ratio and how often the queue was full, the batch sizes and the time spent
+ * compressing are recorded once, in the {@link SdkMetrics}.
+ */
+public final class CompressionStage {
+    public static final int MAX_COMPRESSION_THREADS = 64;
+
+    private static final int QUEUED_BATCHES_PER_THREAD = 4;
+
+    private final TransmissionDispatcher transmissionDispatcher;
+
+    private final TelemetrySerializer serializer;
+
+    /// Null when batches are compressed by the submitting thread
+    private final ThreadPoolExecutor threadPool;
+
+    private final int queueCapacity;
+
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong batchesCompressedBySubmitter = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    public CompressionStage(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, int numberOfThreads, int instanceId) {
+        Preconditions.checkNotNull(transmissionDispatcher, "transmissionDispatcher must be non-null value");
+        Preconditions.checkNotNull(serializer, "serializer must be non-null value");
+        Preconditions.checkArgument(numberOfThreads >= 0 && numberOfThreads <= MAX_COMPRESSION_THREADS,
+                "numberOfThreads must be between 0 and " + MAX_COMPRESSION_THREADS);
+
+        this.transmissionDispatcher = transmissionDispatcher;
+        this.serializer = serializer;
+
+        if (numberOfThreads == 0) {
+            threadPool = null;
+            queueCapacity = 0;
+        } else {
+            queueCapacity = numberOfThreads * QUEUED_BATCHES_PER_THREAD;
+            threadPool = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity),
+                    ThreadPoolUtils.createDaemonThreadFactory(CompressionStage.class, instanceId),
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+
+    /**
+     * Compresses the telemetries and dispatches the resulting transmission,
+     * on a compression thread if one is available.
+     */
+    public void submit(final Collection<byte[]> telemetriesToSend) {
+        if (telemetriesToSend.isEmpty()) {
+            return;
+        }
+
+        if (threadPool == null) {
+            compressAndDispatch(telemetriesToSend);
+            return;
+        }
+
+        try {
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compressAndDispatch(telemetriesToSend);
+                    } catch (ThreadDeath td) {
+                        throw td;
+                    } catch (Throwable t) {
+                        try {
+                            InternalLogger.INSTANCE.error("Failed to compress and dispatch telemetries, exception: %s", t.toString());
+                            InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(t));
+                        } catch (ThreadDeath td) {
+                            throw td;
+                        } catch (Throwable t2) {
+                            // chomp
+                        }
+                    }
+                }
+            });
+
+            updateMaxQueueDepth(threadPool.getQueue().size());
+        } catch (RejectedExecutionException e) {
+            // The queue is full or the stage is stopping: compress here, which holds back the submitter
+            batchesCompressedBySubmitter.incrementAndGet();
+            compressAndDispatch(telemetriesToSend);
+        }
+    }
+
+    public void stop(long timeout, TimeUnit timeUnit) {
+        ThreadPoolUtils.stop(threadPool, timeout, timeUnit);
+    }
+
+    public int getNumberOfThreads() {
+        return threadPool == null ? 0 : threadPool.getCorePoolSize();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getQueueDepth() {
+        return threadPool == null ? 0 : threadPool.getQueue().size();
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * The number of batches that found the queue full and were compressed by the thread that submitted them.
+     */
+    public long getBatchesCompressedBySubmitter() {
+        return batchesCompressedBySubmitter.get();
+    }
+
+    public long getFailedBatches() {
+        return failedBatches.get();
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * The uncompressed size divided by the compressed size of all the batches so far, 0 before the first batch.
+     */
+    public double getCompressionRatio() {
+        long compressed = compressedBytes.get();
+        return compressed == 0 ? 0.0 : (double) uncompressedBytes.get() / compressed;
+    }
+
+    private void compressAndDispatch(Collection<byte[]> telemetriesToSend) {
+        long start = System.nanoTime();
+        Optional<Transmission> transmission = serializer.serialize(telemetriesToSend);
+        long elapsed = System.nanoTime() - start;
+        SdkMetrics.INSTANCE.getCompressionTimeInMicros().record(TimeUnit.NANOSECONDS.toMicros(elapsed));
+
+        if (!transmission.isPresent()) {
+            failedBatches.incrementAndGet();
+            return;
+        }
+
+        long batchUncompressedBytes = 0;
+        for (byte[] telemetry : telemetriesToSend) {
+            if (telemetry != null) {
+                batchUncompressedBytes += telemetry.length;
+            }
+        }
+        int batchCompressedBytes = transmission.get().getContent().length;
+
+        SdkMetrics.INSTANCE.getBatchSize().record(telemetriesToSend.size());
+        uncompressedBytes.addAndGet(batchUncompressedBytes);
+        compressedBytes.addAndGet(batchCompressedBytes);
+
+        if (InternalLogger.INSTANCE.isTraceEnabled()) {
+            InternalLogger.INSTANCE.trace("Compressed %s telemetries from %s to %s bytes (ratio %.2f) in %.3f ms",
+                    telemetriesToSend.size(), batchUncompressedBytes, batchCompressedBytes,
+                    batchCompressedBytes == 0 ? 0.0 : (double) batchUncompressedBytes / batchCompressedBytes, elapsed / 1000000.0);
+        }
+
+        transmissionDispatcher.dispatch(transmission.get());
+    }
+
+    private void updateMaxQueueDepth(long depth) {
+        long max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.microsoft.applicationinsights.internal.channel.common;
 import com.microsoft.applicationinsights.internal.channel.TransmissionHandler;
 import com.microsoft.applicationinsights.internal.channel.TransmissionHandlerArgs;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
 
 /**
  * This class implements the retry logic for transmissions with the results of a
@@ -65,6 +66,7 @@ public class ErrorHandler implements TransmissionHandler {
         {
             this.transmissionPolicyManager.backoff();
         }
+        SdkMetrics.INSTANCE.getRetries().increment();
         args.getTransmissionDispatcher().dispatch(args.getTransmission());
     }
 }
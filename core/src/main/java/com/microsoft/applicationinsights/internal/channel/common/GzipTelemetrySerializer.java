@@ -21,23 +21,25 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.util.Collection;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
-import com.microsoft.applicationinsights.telemetry.Telemetry;
-import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.internal.util.ReusableByteArrayOutputStream;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 
 /**
  * The class is an implementation of the {@link TelemetrySerializer}
- * where the {@link Telemetry} instances are compressed by Gzip after converted to Json format
+ * where the already Json serialized telemetries are compressed by Gzip
+ *
+ * Each sender thread keeps its own {@link Deflater} and output buffer, the telemetries are
+ * deflated one after the other straight into that buffer and the only copy made is the
+ * content of the resulting {@link Transmission}.
  *
  * Created by gupele on 12/17/2014.
  */
@@ -45,74 +47,128 @@ public final class GzipTelemetrySerializer implements TelemetrySerializer {
     private final static String GZIP_WEB_CONTENT_TYPE = "application/x-json-stream";
     private final static String GZIP_WEB_ENCODING_TYPE = "gzip";
 
+    private final static int INITIAL_OUTPUT_SIZE = 16 * 1024;
+    private final static int MAX_RETAINED_OUTPUT_SIZE = 1024 * 1024;
+
+    /**
+     * The per thread state of the compression: a raw {@link Deflater} wrapped with the Gzip header and trailer.
+     */
+    private static final class GzipBuffer {
+        private final static int GZIP_MAGIC = 0x8b1f;
+
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private final ReusableByteArrayOutputStream output = new ReusableByteArrayOutputStream(INITIAL_OUTPUT_SIZE, MAX_RETAINED_OUTPUT_SIZE);
+        private final byte[] chunk = new byte[4096];
+
+        private void start() {
+            deflater.reset();
+            crc.reset();
+            output.reset();
+
+            // A minimal Gzip header, the same one that java.util.zip.GZIPOutputStream writes
+            output.write(GZIP_MAGIC & 0xFF);
+            output.write((GZIP_MAGIC >> 8) & 0xFF);
+            output.write(Deflater.DEFLATED);
+            for (int i = 0; i < 7; ++i) {
+                output.write(0);
+            }
+        }
+
+        private void write(byte[] data) {
+            crc.update(data, 0, data.length);
+            deflater.setInput(data, 0, data.length);
+            while (!deflater.needsInput()) {
+                drain();
+            }
+        }
+
+        private byte[] finish() {
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain();
+            }
+
+            writeInt((int) crc.getValue());
+            writeInt((int) deflater.getBytesRead());
+
+            return output.toByteArray();
+        }
+
+        private void drain() {
+            int length = deflater.deflate(chunk, 0, chunk.length);
+            if (length > 0) {
+                output.write(chunk, 0, length);
+            }
+        }
+
+        private void writeInt(int value) {
+            output.write(value & 0xFF);
+            output.write((value >> 8) & 0xFF);
+            output.write((value >> 16) & 0xFF);
+            output.write((value >> 24) & 0xFF);
+        }
+    }
+
+    private static final ThreadLocal<GzipBuffer> GZIP_BUFFERS = new ThreadLocal<GzipBuffer>() {
+        @Override
+        protected GzipBuffer initialValue() {
+            return new GzipBuffer();
+        }
+    };
+
     private final byte[] newlineString;
 
     public GzipTelemetrySerializer() {
-        this.newlineString = System.getProperty("line.separator").getBytes();
+        this.newlineString = System.getProperty("line.separator").getBytes(Charset.forName("UTF-8"));
     }
 
     @Override
-    public Optional<Transmission> serialize(Collection<String> telemetries) {
+    public Optional<Transmission> serialize(Collection<byte[]> telemetries) {
         Preconditions.checkNotNull(telemetries, "telemetries must be non-null value");
         Preconditions.checkArgument(!telemetries.isEmpty(), "telemetries: One or more telemetry item is expected");
 
         Transmission result = null;
-        boolean succeeded = false;
         try {
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-
-            try {
-                GZIPOutputStream zipStream = new GZIPOutputStream(byteStream);
-
-                try {
-                    succeeded = compress(zipStream, telemetries);
-                } catch (Exception e) {
-                    InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.toString());
-                } catch (ThreadDeath td) {
-                    throw td;
-                } catch (Throwable t) {
-                    try {
-                        InternalLogger.INSTANCE.error("Failed to serialize, unknown exception: %s", t.toString());                    } catch (ThreadDeath td) {
-                        throw td;
-                    } catch (Throwable t2) {
-                        // chomp
-                    }
-                } finally {
-                    zipStream.close();
-                }
-            } finally {
-                byteStream.close();
-
-                // The creation of the result must be done after the 'zipStream' is closed
-                if (succeeded) {
-                    result = new Transmission(byteStream.toByteArray(), GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
-                }
+            GzipBuffer gzipBuffer = GZIP_BUFFERS.get();
+            gzipBuffer.start();
+            if (compress(gzipBuffer, telemetries)) {
+                result = new Transmission(gzipBuffer.finish(), GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
             }
-        } catch(Exception e) {
+        } catch (Exception e) {
             InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.toString());
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("Failed to serialize, unknown exception: %s", t.toString());
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
         }
 
         return Optional.fromNullable(result);
     }
 
-    private boolean compress(GZIPOutputStream zipStream, Collection<String> telemetries) throws IOException {
+    private boolean compress(GzipBuffer gzipBuffer, Collection<byte[]> telemetries) {
         int counter = 0;
 
         // The format is:
         // 1. Separate each Telemetry by newline
         // 2. Compress the entire data by using Gzip
-        for (String telemetry : telemetries) {
+        for (byte[] telemetry : telemetries) {
+            if (telemetry == null) {
+                continue;
+            }
 
             if (counter != 0) {
-                zipStream.write(newlineString);
+                gzipBuffer.write(newlineString);
             }
 
-            try {
-                zipStream.write(telemetry.getBytes());
-                ++counter;
-            } catch (Exception e) {
-                InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.toString());
-            }
+            gzipBuffer.write(telemetry);
+            ++counter;
         }
 
         return counter > 0;
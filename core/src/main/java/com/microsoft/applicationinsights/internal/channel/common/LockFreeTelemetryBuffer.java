@@ -0,0 +1,313 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+
+/**
+ * A telemetry buffer that does not take a lock on the 'add' path.
+ *
+ * Application threads reserve a slot in the current batch with a CAS on the batch's reservation counter
+ * and then write their item into that slot. Exactly one thread becomes the 'owner' of every batch:
+ * either the thread that reserved the last slot, or the thread that sealed the batch (the scheduled fetcher
+ * or a flush). The owner publishes the next batch, with the next generation, waits for the writers that
+ * already reserved a slot and hands the items to the sender, all without holding any lock.
+ *
+ * The generation, flush and {@link TelemetriesTransmitter.TelemetriesFetcher} semantics are the same as
+ * in {@link TelemetryBuffer}: the first item of a batch schedules a fetcher for that batch's generation,
+ * a full batch is sent immediately, and a fetcher whose generation is no longer current returns nothing.
+ *
+ * A thread that waits for another one, a writer between its reservation and its write or the owner of a full
+ * batch, yields a few times and then parks for short periods, so it does not keep a core busy.
+ */
+public final class LockFreeTelemetryBuffer<T> extends TelemetryBufferBase<T> {
+    private static final int YIELDS_BEFORE_PARKING = 16;
+    private static final long PARK_NANOS = 50 * 1000;
+
+    /**
+     * Fetches the batch of 'expectedGeneration' if that batch is still the current one.
+     */
+    private final class LockFreeTelemetriesFetcher implements TelemetriesTransmitter.TelemetriesFetcher<T> {
+
+        private final long expectedGeneration;
+
+        private LockFreeTelemetriesFetcher(long expectedGeneration) {
+            this.expectedGeneration = expectedGeneration;
+        }
+
+        @Override
+        public Collection<T> fetch() {
+            for (int attempt = 0; ; ++attempt) {
+                Batch<T> batch = current.get();
+                if (batch.generation != expectedGeneration) {
+                    return Collections.emptyList();
+                }
+
+                int count = batch.seal();
+                if (count >= 0) {
+                    current.set(new Batch<T>(batch.generation + 1, getMaxTelemetriesInBatch()));
+                    return batch.drain(count);
+                }
+
+                // The batch was filled concurrently, its owner sends it and publishes the next generation,
+                // unless it is being resized in which case the items move to a batch of the same generation
+                backOff(attempt);
+            }
+        }
+    }
+
+    /**
+     * A fixed size container of telemetries with its own reservation and commit counters.
+     */
+    private static final class Batch<T> {
+        private final long generation;
+        private final int capacity;
+        private final AtomicReferenceArray<T> slots;
+
+        /// Number of reserved slots, a value equal to 'capacity' means no more slots can be reserved
+        private final AtomicInteger reserved = new AtomicInteger(0);
+
+        /// Number of slots that were actually written
+        private final AtomicInteger committed = new AtomicInteger(0);
+
+        private Batch(long generation, int capacity) {
+            this.generation = generation;
+            this.capacity = capacity;
+            this.slots = new AtomicReferenceArray<T>(capacity);
+        }
+
+        private Batch(long generation, int capacity, List<T> telemetries) {
+            this(generation, capacity);
+            for (int i = 0; i < telemetries.size(); ++i) {
+                slots.set(i, telemetries.get(i));
+            }
+            reserved.set(telemetries.size());
+            committed.set(telemetries.size());
+        }
+
+        /**
+         * @return The reserved slot index, or -1 if the batch is full or sealed
+         */
+        private int tryReserve() {
+            while (true) {
+                int index = reserved.get();
+                if (index >= capacity) {
+                    return -1;
+                }
+                if (reserved.compareAndSet(index, index + 1)) {
+                    return index;
+                }
+            }
+        }
+
+        /**
+         * Prevents any further reservations.
+         *
+         * @return The number of reserved slots, or -1 if the batch was already full or sealed
+         */
+        private int seal() {
+            while (true) {
+                int count = reserved.get();
+                if (count >= capacity) {
+                    return -1;
+                }
+                if (reserved.compareAndSet(count, capacity)) {
+                    return count;
+                }
+            }
+        }
+
+        private int size() {
+            return Math.min(reserved.get(), capacity);
+        }
+
+        private void commit(int index, T telemetry) {
+            slots.set(index, telemetry);
+            committed.incrementAndGet();
+        }
+
+        /**
+         * Waits for the writers that reserved a slot to finish and collects the items.
+         * Must only be called by the owner of the batch.
+         */
+        private List<T> drain(int count) {
+            for (int attempt = 0; committed.get() < count; ++attempt) {
+                // A writer is between its reservation and its write, usually a matter of a few instructions
+                // unless that thread was descheduled
+                backOff(attempt);
+            }
+
+            List<T> readyToBeSent = new ArrayList<T>(count);
+            for (int i = 0; i < count; ++i) {
+                readyToBeSent.add(slots.get(i));
+            }
+
+            return readyToBeSent;
+        }
+    }
+
+    /// The batch that application threads currently write into
+    private final AtomicReference<Batch<T>> current;
+
+    /**
+     * The constructor needs to get the 'sender' we work with
+     * @param sender The sender object for transmitting the telemetries
+     * @param maxTelemetriesInBatchEnforcer For getting the number of maximum number of telemetries in a batch within limits
+     * @param transmitBufferTimeoutInSecondsEnforcer For getting the number of transmit buffer timeout in seconds within limits
+     */
+    public LockFreeTelemetryBuffer(TelemetriesTransmitter<T> sender, LimitsEnforcer maxTelemetriesInBatchEnforcer, LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer) {
+        super(sender, maxTelemetriesInBatchEnforcer, transmitBufferTimeoutInSecondsEnforcer);
+
+        this.current = new AtomicReference<Batch<T>>(new Batch<T>(0, getMaxTelemetriesInBatch()));
+    }
+
+    /**
+     * Sets the maximum number of telemetries in a batch
+     *
+     * Batches have a fixed size, so the items of the current batch are moved to a batch of the new size
+     * that keeps the same generation. If they do not fit, they are sent right away.
+     * @param value The max amount of Telemetries that are allowed in a batch.
+     */
+    @Override
+    public void setMaxTelemetriesInBatch(int value) {
+        int maxTelemetriesInBatch = updateMaxTelemetriesInBatch(value);
+        Batch<T> batch = current.get();
+        if (batch.capacity == maxTelemetriesInBatch) {
+            return;
+        }
+
+        int count = batch.seal();
+        if (count < 0) {
+            // The batch is full, its owner will create the next one with the new size
+            return;
+        }
+
+        List<T> telemetries = batch.drain(count);
+        if (count >= maxTelemetriesInBatch) {
+            current.set(new Batch<T>(batch.generation + 1, maxTelemetriesInBatch));
+            if (!getSender().sendNow(telemetries)) {
+                InternalLogger.INSTANCE.error("Failed to flush buffer data to network");
+            }
+            return;
+        }
+
+        current.set(new Batch<T>(batch.generation, maxTelemetriesInBatch, telemetries));
+    }
+
+    /**
+     * The method will add the incoming {@link com.microsoft.applicationinsights.telemetry.Telemetry} to the current batch
+     *
+     * If that is the first instance in the batch, we schedule a 'pick-up' in a configurable amount of time
+     * If that instance filled the batch, the calling thread sends the batch.
+     *
+     * A thread that finds the current batch full only waits until the owner of that batch publishes the next one.
+     * @param telemetry The {@link com.microsoft.applicationinsights.telemetry.Telemetry} to add to the buffer.
+     */
+    @Override
+    public void add(T telemetry) {
+        Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
+
+        for (int attempt = 0; ; ++attempt) {
+            Batch<T> batch = current.get();
+            int index = batch.tryReserve();
+            if (index < 0) {
+                backOff(attempt);
+                continue;
+            }
+
+            if (index == batch.capacity - 1) {
+                // This thread owns the full batch, let the other threads move on before sending it
+                current.set(new Batch<T>(batch.generation + 1, getMaxTelemetriesInBatch()));
+                batch.commit(index, telemetry);
+
+                if (!getSender().sendNow(batch.drain(batch.capacity))) {
+                    // The next batch is already in place so the old container is lost
+                    InternalLogger.INSTANCE.error("Failed to send buffer data to network");
+                }
+                return;
+            }
+
+            batch.commit(index, telemetry);
+            if (index == 0) {
+                if (!getSender().scheduleSend(new LockFreeTelemetriesFetcher(batch.generation), getTransmitBufferTimeoutInSeconds(), TimeUnit.SECONDS)) {
+                    // Same as the synchronized buffer, we cannot schedule send so we send the batch now
+                    // unless it was already filled and sent by another thread
+                    InternalLogger.INSTANCE.error("Failed to schedule send of the buffer to network");
+                    int count = batch.seal();
+                    if (count >= 0) {
+                        current.set(new Batch<T>(batch.generation + 1, getMaxTelemetriesInBatch()));
+                        if (!getSender().sendNow(batch.drain(count))) {
+                            InternalLogger.INSTANCE.error("Failed to send buffer data to network");
+                        }
+                    }
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * The method will flush the telemetries currently in the buffer to the {@link com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter}
+     */
+    @Override
+    public void flush() {
+        Batch<T> batch = current.get();
+        if (batch.size() == 0) {
+            return;
+        }
+
+        int count = batch.seal();
+        if (count <= 0) {
+            // Either another thread owns the batch, or it was empty and we only need a fresh one
+            if (count == 0) {
+                current.set(new Batch<T>(batch.generation + 1, getMaxTelemetriesInBatch()));
+            }
+            return;
+        }
+
+        current.set(new Batch<T>(batch.generation + 1, getMaxTelemetriesInBatch()));
+        if (!getSender().sendNow(batch.drain(count))) {
+            InternalLogger.INSTANCE.error("Failed to flush buffer data to network");
+        }
+    }
+
+    private static void backOff(int attempt) {
+        if (attempt < YIELDS_BEFORE_PARKING) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+/**
+ * What the {@link TransmitterImpl} does with a batch of telemetries when it already
+ * holds as many pending batches as it may.
+ */
+public enum OverflowPolicy {
+    /**
+     * The new batch is dropped, the default.
+     */
+    DROP_NEWEST,
+
+    /**
+     * The oldest pending batch is dropped to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The new batch is handed to a thread of the transmitter that compresses it and writes it to the
+     * transmission storage, from which it is sent later on. It is dropped if the storage is full,
+     * or if as many batches as may be pending already wait to be written.
+     */
+    SPILL_TO_DISK,
+
+    /**
+     * The calling thread waits for room up to a timeout, the batch is dropped if there is still none.
+     */
+    BLOCK_WITH_TIMEOUT;
+
+    /**
+     * Parses names like 'DropOldest', 'drop-oldest' or 'DROP_OLDEST', case insensitive.
+     * @return The policy, or {@link #DROP_NEWEST} when the name is empty or unknown.
+     */
+    public static OverflowPolicy fromName(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return DROP_NEWEST;
+        }
+
+        String normalized = name.trim().replace("_", "").replace("-", "");
+        for (OverflowPolicy policy : values()) {
+            if (policy.name().replace("_", "").equalsIgnoreCase(normalized)) {
+                return policy;
+            }
+        }
+
+        InternalLogger.INSTANCE.warn("Unknown overflow policy '%s', using %s", name, DROP_NEWEST);
+        return DROP_NEWEST;
+    }
+}
@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
@@ -17,6 +18,7 @@ import com.google.common.base.Optional;
 import com.microsoft.applicationinsights.internal.channel.TransmissionHandler;
 import com.microsoft.applicationinsights.internal.channel.TransmissionHandlerArgs;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
 
 /**
  * This class implements the retry logic for partially accepted transmissions.
@@ -166,8 +168,13 @@ public class PartialSuccessHandler implements TransmissionHandler {
      */
     boolean sendNewTransmission(TransmissionHandlerArgs args, List<String> newTransmission) {
         if (!newTransmission.isEmpty()) {
+            List<byte[]> telemetries = new ArrayList<byte[]>(newTransmission.size());
+            for (String telemetry : newTransmission) {
+                telemetries.add(telemetry.getBytes(StandardCharsets.UTF_8));
+            }
             GzipTelemetrySerializer serializer = new GzipTelemetrySerializer();
-            Optional<Transmission> newT = serializer.serialize(newTransmission);
+            Optional<Transmission> newT = serializer.serialize(telemetries);
+            SdkMetrics.INSTANCE.getRetries().increment();
             args.getTransmissionDispatcher().dispatch(newT.get());
             return true;
         }
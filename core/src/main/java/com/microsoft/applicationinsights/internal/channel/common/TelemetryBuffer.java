@@ -45,7 +45,7 @@ import com.microsoft.applicationinsights.telemetry.Telemetry;
  *
  * Created by gupele on 12/17/2014.
  */
-public class TelemetryBuffer<T> {
+public class TelemetryBuffer<T> extends TelemetryBufferBase<T> {
     /**
      * An inner helper class that will let the Sender class to fetch the relevant Telemetries.
      *
@@ -77,17 +77,6 @@ public class TelemetryBuffer<T> {
         }
     }
 
-    /// The sender we use to send Telemetry containers
-    private final TelemetriesTransmitter<T> sender;
-
-    /// The maximum amount of Telemetries in a batch. If the buffer is
-    /// full before the timeout expired, we will need to send it anyway and not wait for the timeout to expire
-    private int maxTelemetriesInBatch;
-    private LimitsEnforcer maxTelemetriesInBatchEnforcer;
-
-    private int transmitBufferTimeoutInSeconds;
-    private LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer;
-
     /// The Telemetry instances are kept here
     private List<T> telemetries;
 
@@ -104,66 +93,31 @@ public class TelemetryBuffer<T> {
      * @param transmitBufferTimeoutInSecondsEnforcer For getting the number of transmit buffer timeout in seconds within limits
      */
     public TelemetryBuffer(TelemetriesTransmitter<T> sender, LimitsEnforcer maxTelemetriesInBatchEnforcer, LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer) {
-        Preconditions.checkNotNull(sender, "sender must be non-null value");
-        Preconditions.checkNotNull(maxTelemetriesInBatchEnforcer, "maxTelemetriesInBatchEnforcer must be non-null value");
-        Preconditions.checkNotNull(transmitBufferTimeoutInSecondsEnforcer, "transmitBufferTimeoutInSecondsEnforcer must be non-null value");
-        Preconditions.checkArgument(maxTelemetriesInBatchEnforcer.getCurrentValue() > 0, "maxTelemetriesInBatch must be a positive number");
-        Preconditions.checkArgument(transmitBufferTimeoutInSecondsEnforcer.getCurrentValue() > 0, "transmitBufferTimeoutInSeconds must be a positive number");
-
-        this.maxTelemetriesInBatchEnforcer = maxTelemetriesInBatchEnforcer;
-        this.maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.getCurrentValue();
-        telemetries = new ArrayList<>(this.maxTelemetriesInBatch);
-
-        this.sender = sender;
-        this.transmitBufferTimeoutInSecondsEnforcer = transmitBufferTimeoutInSecondsEnforcer;
-        this.transmitBufferTimeoutInSeconds = transmitBufferTimeoutInSecondsEnforcer.getCurrentValue();
+        super(sender, maxTelemetriesInBatchEnforcer, transmitBufferTimeoutInSecondsEnforcer);
+
+        telemetries = new ArrayList<>(getMaxTelemetriesInBatch());
     }
 
     /**
      * Sets the maximum number of telemetries in a batch
      * @param value The max amount of Telemetries that are allowed in a batch.
      */
+    @Override
     public void setMaxTelemetriesInBatch(int value) {
+        List<T> readyToBeSent = null;
         synchronized (lock) {
-            maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.normalizeValue(value);
+            int maxTelemetriesInBatch = updateMaxTelemetriesInBatch(value);
             if (telemetries != null && maxTelemetriesInBatch < telemetries.size()) {
                 // Request for smaller buffers, we flush if our buffer contains more elements
-                flush();
+                readyToBeSent = prepareTelemetriesForSend();
             }
         }
-    }
-
-    /**
-     * Gets the maximum number of telemetries in a batch
-     * @return The maximum number of telemetries in a batch
-     */
-    public int getMaxTelemetriesInBatch() {
-        return this.maxTelemetriesInBatch;
-    }
 
-    /**
-     * Sets the transmit buffer timeout in seconds
-     * @param value The amount of time to wait before sending the buffer.
-     */
-    public void setTransmitBufferTimeoutInSeconds(int value) {
-        synchronized (lock) {
-            int oldValue = transmitBufferTimeoutInSeconds;
-            transmitBufferTimeoutInSeconds = this.transmitBufferTimeoutInSecondsEnforcer.normalizeValue(value);
-            // Request for quicker flushes, we flush if the previous timeout is bigger
-            if (transmitBufferTimeoutInSeconds < oldValue) {
-                flush();
-            }
+        if (readyToBeSent != null && !getSender().sendNow(readyToBeSent)) {
+            InternalLogger.INSTANCE.error("Failed to flush buffer data to network");
         }
     }
 
-    /**
-     * Gets the transmit buffer timeout in seconds
-     * @return The transmit buffer timeout in seconds
-     */
-    public int getTransmitBufferTimeoutInSeconds() {
-        return this.transmitBufferTimeoutInSeconds;
-    }
-
     /**
      * The method will add the incoming {@link Telemetry} to its internal container of Telemetries
      *
@@ -171,45 +125,55 @@ public class TelemetryBuffer<T> {
      * If by adding that item we exceeded the maximum number of instances, we trigger a send request now.
      *
      * Note that a lock is used to make sure we avoid race conditions and to make sure that we cleanly
-     * move from a ready to send buffer to a new one
+     * move from a ready to send buffer to a new one. The ready buffer is handed to the sender after
+     * the lock is released, since the sender's {@link OverflowPolicy} may block or write to disk.
      * @param telemetry The {@link com.microsoft.applicationinsights.telemetry.Telemetry} to add to the buffer.
      */
+    @Override
     public void add(T telemetry) {
         Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
 
+        List<T> readyToBeSent = null;
         synchronized (lock) {
             telemetries.add(telemetry);
 
             int currentSize = telemetries.size();
 
-            if (currentSize >= maxTelemetriesInBatch) {
-                if (!sender.sendNow(prepareTelemetriesForSend())) {
-                    // 'prepareTelemetriesForSend' already created a new container
-                    // so basically we have nothing to do, the old container is lost
-                    InternalLogger.INSTANCE.error("Failed to send buffer data to network");
-                }
+            if (currentSize >= getMaxTelemetriesInBatch()) {
+                readyToBeSent = prepareTelemetriesForSend();
             } else if (currentSize == 1) {
-                if (!sender.scheduleSend(new TelemetryBufferTelemetriesFetcher(generation), transmitBufferTimeoutInSeconds, TimeUnit.SECONDS)) {
-                    // We cannot schedule send so we give up the Telemetry
+                if (!getSender().scheduleSend(new TelemetryBufferTelemetriesFetcher(generation), getTransmitBufferTimeoutInSeconds(), TimeUnit.SECONDS)) {
+                    // We cannot schedule send so we send the Telemetry now, the sender decides whether there is room for it
                     // The reason for this is that in case the maximum buffer size is greater than 2
-                    // than in case a new Telemetry arrives it won't trigger the schedule and might be lost too
+                    // than in case a new Telemetry arrives it won't trigger the schedule and might be lost
                     InternalLogger.INSTANCE.error("Failed to schedule send of the buffer to network");
-                    telemetries.clear();
+                    readyToBeSent = prepareTelemetriesForSend();
                 }
             }
         }
+
+        if (readyToBeSent != null && !getSender().sendNow(readyToBeSent)) {
+            // 'prepareTelemetriesForSend' already created a new container
+            // so basically we have nothing to do, the old container is lost
+            InternalLogger.INSTANCE.error("Failed to send buffer data to network");
+        }
     }
 
     /**
      * The method will flush the telemetries currently in the buffer to the {@link com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter}
      */
+    @Override
     public void flush() {
+        List<T> readyToBeSent;
         synchronized (lock) {
-            if (telemetries.size() != 0) {
-                if (!sender.sendNow(prepareTelemetriesForSend())) {
-                    InternalLogger.INSTANCE.error("Failed to flush buffer data to network");
-                }
+            if (telemetries.size() == 0) {
+                return;
             }
+            readyToBeSent = prepareTelemetriesForSend();
+        }
+
+        if (!getSender().sendNow(readyToBeSent)) {
+            InternalLogger.INSTANCE.error("Failed to flush buffer data to network");
         }
     }
 
@@ -225,7 +189,7 @@ public class TelemetryBuffer<T> {
 
         final List<T> readyToBeSent = telemetries;
 
-        telemetries = new ArrayList<T>(maxTelemetriesInBatch);
+        telemetries = new ArrayList<T>(getMaxTelemetriesInBatch());
 
         return readyToBeSent;
     }
@@ -0,0 +1,124 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+
+/**
+ * What the telemetry buffers have in common: the sender they hand their batches to, the maximum size
+ * of a batch and how long a batch waits before it is sent.
+ *
+ * How the items are kept until they are sent is up to the subclasses, see {@link TelemetryBuffer}
+ * and {@link LockFreeTelemetryBuffer}.
+ */
+public abstract class TelemetryBufferBase<T> {
+    /// The sender we use to send Telemetry containers
+    private final TelemetriesTransmitter<T> sender;
+
+    /// The maximum amount of Telemetries in a batch. If the buffer is
+    /// full before the timeout expired, we will need to send it anyway and not wait for the timeout to expire
+    private volatile int maxTelemetriesInBatch;
+    private final LimitsEnforcer maxTelemetriesInBatchEnforcer;
+
+    private volatile int transmitBufferTimeoutInSeconds;
+    private final LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer;
+
+    /**
+     * @param sender The sender object for transmitting the telemetries
+     * @param maxTelemetriesInBatchEnforcer For getting the number of maximum number of telemetries in a batch within limits
+     * @param transmitBufferTimeoutInSecondsEnforcer For getting the number of transmit buffer timeout in seconds within limits
+     */
+    protected TelemetryBufferBase(TelemetriesTransmitter<T> sender, LimitsEnforcer maxTelemetriesInBatchEnforcer, LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer) {
+        Preconditions.checkNotNull(sender, "sender must be non-null value");
+        Preconditions.checkNotNull(maxTelemetriesInBatchEnforcer, "maxTelemetriesInBatchEnforcer must be non-null value");
+        Preconditions.checkNotNull(transmitBufferTimeoutInSecondsEnforcer, "transmitBufferTimeoutInSecondsEnforcer must be non-null value");
+        Preconditions.checkArgument(maxTelemetriesInBatchEnforcer.getCurrentValue() > 0, "maxTelemetriesInBatch must be a positive number");
+        Preconditions.checkArgument(transmitBufferTimeoutInSecondsEnforcer.getCurrentValue() > 0, "transmitBufferTimeoutInSeconds must be a positive number");
+
+        this.sender = sender;
+        this.maxTelemetriesInBatchEnforcer = maxTelemetriesInBatchEnforcer;
+        this.maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.getCurrentValue();
+        this.transmitBufferTimeoutInSecondsEnforcer = transmitBufferTimeoutInSecondsEnforcer;
+        this.transmitBufferTimeoutInSeconds = transmitBufferTimeoutInSecondsEnforcer.getCurrentValue();
+    }
+
+    /**
+     * Adds the telemetry to the current batch, the batch is sent when it is full or when its timeout expires.
+     * @param telemetry The telemetry to add to the buffer.
+     */
+    public abstract void add(T telemetry);
+
+    /**
+     * Sends the telemetries currently in the buffer to the {@link TelemetriesTransmitter}
+     */
+    public abstract void flush();
+
+    /**
+     * Sets the maximum number of telemetries in a batch
+     * @param value The max amount of Telemetries that are allowed in a batch.
+     */
+    public abstract void setMaxTelemetriesInBatch(int value);
+
+    /**
+     * Gets the maximum number of telemetries in a batch
+     * @return The maximum number of telemetries in a batch
+     */
+    public int getMaxTelemetriesInBatch() {
+        return this.maxTelemetriesInBatch;
+    }
+
+    /**
+     * Sets the transmit buffer timeout in seconds, the buffer is flushed if the timeout gets shorter
+     * @param value The amount of time to wait before sending the buffer.
+     */
+    public void setTransmitBufferTimeoutInSeconds(int value) {
+        int oldValue = transmitBufferTimeoutInSeconds;
+        transmitBufferTimeoutInSeconds = this.transmitBufferTimeoutInSecondsEnforcer.normalizeValue(value);
+        // Request for quicker flushes, we flush if the previous timeout is bigger
+        if (transmitBufferTimeoutInSeconds < oldValue) {
+            flush();
+        }
+    }
+
+    /**
+     * Gets the transmit buffer timeout in seconds
+     * @return The transmit buffer timeout in seconds
+     */
+    public int getTransmitBufferTimeoutInSeconds() {
+        return this.transmitBufferTimeoutInSeconds;
+    }
+
+    protected TelemetriesTransmitter<T> getSender() {
+        return sender;
+    }
+
+    /**
+     * Stores the new maximum, within the limits of the enforcer, for the subclasses' setMaxTelemetriesInBatch
+     * @return The value that was stored
+     */
+    protected int updateMaxTelemetriesInBatch(int value) {
+        maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.normalizeValue(value);
+        return maxTelemetriesInBatch;
+    }
+}
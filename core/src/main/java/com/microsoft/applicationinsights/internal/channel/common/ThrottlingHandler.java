@@ -13,6 +13,7 @@ import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.internal.channel.TransmissionHandler;
 import com.microsoft.applicationinsights.internal.channel.TransmissionHandlerArgs;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
 
 /**
  * This class implements the retry logic for throttled requests. HTTP status
@@ -59,6 +60,7 @@ public class ThrottlingHandler implements TransmissionHandler {
             case TransmissionSendResult.THROTTLED:
             case TransmissionSendResult.THROTTLED_OVER_EXTENDED_TIME:
                 suspendTransmissions(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, args.getRetryHeader());
+                SdkMetrics.INSTANCE.getRetries().increment();
                 args.getTransmissionDispatcher().dispatch(args.getTransmission());
                 return true;
             default:
@@ -21,6 +21,10 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.io.ObjectInput;
@@ -46,6 +50,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
 
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import com.microsoft.applicationinsights.internal.util.LocalFileSystemUtils;
@@ -65,6 +70,10 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
  * With that data it knows how to store incoming Transmissions and store them into files that can be later
  * be read back into Transmissions.
  *
+ * By default every Transmission is kept in a file of its own. When created with a segment store the
+ * Transmissions are appended to memory-mapped segment files instead, see {@link TransmissionSegmentStore},
+ * Transmission files that were left by an earlier run are still sent before the segments.
+ *
  * Created by gupele on 12/18/2014.
  */
 public final class TransmissionFileSystemOutput implements TransmissionOutput {
@@ -83,6 +92,9 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
     private final static int MIN_CAPACITY_MEGABYTES = 1;
     private static final String MAX_TRANSMISSION_STORAGE_CAPACITY_NAME = "Channel.MaxTransmissionStorageCapacityInMB";
 
+    private final static int SEGMENT_RECORD_FORMAT_VERSION = 1;
+    private final static int SEGMENTS_PER_CAPACITY = 8;
+
 
     /// The folder in which we save transmission files
     private File folder;
@@ -99,7 +111,17 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
     private final ArrayList<File> cacheOfOldestFiles = new ArrayList<File>();
     private final HashSet<String> filesThatAreBeingLoaded = new HashSet<String>();
 
+    /// Null when every transmission is kept in a file of its own
+    private final TransmissionSegmentStore segmentStore;
+
+    /// Set once there are no transmission files left from before the segment store was used
+    private volatile boolean transmissionFilesDrained;
+
     public TransmissionFileSystemOutput(String folderPath, String maxTransmissionStorageCapacity) {
+        this(folderPath, maxTransmissionStorageCapacity, false);
+    }
+
+    public TransmissionFileSystemOutput(String folderPath, String maxTransmissionStorageCapacity, boolean useSegmentStore) {
         if (folderPath == null) {
             folderPath = new File(LocalFileSystemUtils.getTempDir(), TRANSMISSION_DEFAULT_FOLDER).getPath();
         }
@@ -123,6 +145,8 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
 
         long currentSize = getTotalSizeOfTransmissionFiles();
         size = new AtomicLong(currentSize);
+
+        segmentStore = useSegmentStore ? openSegmentStore() : null;
     }
 
     public TransmissionFileSystemOutput() {
@@ -137,14 +161,18 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
     public boolean send(Transmission transmission) {
 
         long currentSizeInBytes = size.get();
+        if (segmentStore != null) {
+            currentSizeInBytes += segmentStore.getSizeInBytes();
+        }
         if (currentSizeInBytes >= capacityInBytes) {
-            InternalLogger.INSTANCE.logAlways(InternalLogger.LoggingLevel.WARN, "Persistent storage max capacity has been reached; "
-                + "currently at %.3f KB. Telemetry will be lost, "
-                + "please consider increasing the value of MaxTransmissionStorageFilesCapacityInMB property in the configuration file.",
-                (currentSizeInBytes / 1024.0));
+            logCapacityReached(currentSizeInBytes);
             return false;
         }
 
+        if (segmentStore != null) {
+            return sendToSegmentStore(transmission);
+        }
+
         Optional<File> tempTransmissionFile = createTemporaryFile();
         if (!tempTransmissionFile.isPresent()) {
             return false;
@@ -158,15 +186,45 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
             return false;
         }
 
+        SdkMetrics.INSTANCE.getSpilledTransmissions().increment();
         InternalLogger.INSTANCE.info("Data persisted to file. To be sent when the network is available.");
         return true;
     }
 
+    /**
+     * The disk space taken by the transmissions that are saved and not fetched yet, segments count whole.
+     */
+    public long getStoredBytes() {
+        long storedBytes = size.get();
+        if (segmentStore != null) {
+            storedBytes += segmentStore.getSizeInBytes();
+        }
+        return storedBytes;
+    }
+
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
+        if (segmentStore != null) {
+            segmentStore.close();
+        }
     }
 
     public Transmission fetchOldestFile() {
+        if (segmentStore != null) {
+            if (!transmissionFilesDrained) {
+                Transmission transmission = fetchOldestTransmissionFile();
+                if (transmission != null) {
+                    return transmission;
+                }
+            }
+
+            return fetchFromSegmentStore();
+        }
+
+        return fetchOldestTransmissionFile();
+    }
+
+    private Transmission fetchOldestTransmissionFile() {
         try {
             Optional<File> oldestFile = fetchOldestFromCache();
             if (!oldestFile.isPresent()) {
@@ -215,6 +273,103 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
         this.capacityInBytes = capacityEnforcer.normalizeValue(suggestedCapacity) * 1024 * 1024;
     }
 
+    private TransmissionSegmentStore openSegmentStore() {
+        int segmentSizeInBytes = (int)Math.max(TransmissionSegmentStore.MIN_SEGMENT_SIZE_IN_BYTES,
+                                               Math.min(TransmissionSegmentStore.MAX_SEGMENT_SIZE_IN_BYTES, capacityInBytes / SEGMENTS_PER_CAPACITY));
+        try {
+            TransmissionSegmentStore store = TransmissionSegmentStore.open(folder, segmentSizeInBytes);
+            if (store == null) {
+                InternalLogger.INSTANCE.warn("Transmission segments in '%s' are already in use, transmissions will be saved to files",
+                        folder.getPath());
+            }
+            return store;
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to open transmission segments, transmissions will be saved to files, exception: %s", e.toString());
+        }
+
+        return null;
+    }
+
+    private boolean sendToSegmentStore(Transmission transmission) {
+        byte[] record;
+        try {
+            record = toSegmentRecord(transmission);
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to save transmission, exception: %s", e.toString());
+            return false;
+        }
+
+        if (!segmentStore.enqueue(record, capacityInBytes - size.get())) {
+            logCapacityReached(size.get() + segmentStore.getSizeInBytes());
+            return false;
+        }
+
+        SdkMetrics.INSTANCE.getSpilledTransmissions().increment();
+        InternalLogger.INSTANCE.info("Data persisted to file. To be sent when the network is available.");
+        return true;
+    }
+
+    private Transmission fetchFromSegmentStore() {
+        byte[] record = segmentStore.dequeue();
+        if (record == null) {
+            return null;
+        }
+
+        try {
+            return fromSegmentRecord(record);
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to load transmission from segment, io exception: %s", e.toString());
+        }
+
+        return null;
+    }
+
+    private static byte[] toSegmentRecord(Transmission transmission) throws IOException {
+        byte[] content = transmission.getContent();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length + 128);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(SEGMENT_RECORD_FORMAT_VERSION);
+            output.writeInt(transmission.getVersion());
+            output.writeInt(transmission.getNumberOfSends());
+            output.writeInt(transmission.getNumberOfPersistence());
+            output.writeUTF(transmission.getWebContentType());
+            output.writeUTF(transmission.getWebContentEncodingType());
+            output.writeInt(content.length);
+            output.write(content);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static Transmission fromSegmentRecord(byte[] record) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(record))) {
+            int formatVersion = input.readInt();
+            if (formatVersion != SEGMENT_RECORD_FORMAT_VERSION) {
+                throw new IOException("Unknown segment record format " + formatVersion);
+            }
+
+            int version = input.readInt();
+            int numberOfSends = input.readInt();
+            int numberOfPersistence = input.readInt();
+            String webContentType = input.readUTF();
+            String webContentEncodingType = input.readUTF();
+            byte[] content = new byte[input.readInt()];
+            input.readFully(content);
+
+            Transmission transmission = new Transmission(content, webContentType, webContentEncodingType, version);
+            transmission.setNumberOfSends(numberOfSends);
+            transmission.setNumberOfPersistence(numberOfPersistence);
+            return transmission;
+        }
+    }
+
+    private void logCapacityReached(long currentSizeInBytes) {
+        InternalLogger.INSTANCE.logAlways(InternalLogger.LoggingLevel.WARN, "Persistent storage max capacity has been reached; "
+            + "currently at %.3f KB. Telemetry will be lost, "
+            + "please consider increasing the value of MaxTransmissionStorageFilesCapacityInMB property in the configuration file.",
+            (currentSizeInBytes / 1024.0));
+    }
+
     private List<File> sortOldestLastAndTrim(Collection<File> transmissions, int limit) {
         List<File> asList;
         if (!(transmissions instanceof List)) {
@@ -334,7 +489,8 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
                 Collection<File> transmissions = FileUtils.listFiles(folder, new String[] {TRANSMISSION_FILE_EXTENSION_FOR_SEARCH}, false);
 
                 if (transmissions.isEmpty()) {
-                    // No files
+                    // No files, new transmissions go to the segments if there are any
+                    transmissionFilesDrained = segmentStore != null;
                     return Optional.absent();
                 }
 
@@ -27,11 +27,13 @@ import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher
 import com.microsoft.applicationinsights.internal.channel.TransmissionHandlerArgs;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.util.EntityUtils;
@@ -41,22 +43,28 @@ import java.io.IOException;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * The class is responsible for the actual sending of
  * {@link com.microsoft.applicationinsights.internal.channel.common.Transmission}
  *
- * The class uses Apache's HttpClient framework for that.
+ * The class uses Apache's HttpClient framework for that, either blocking the calling
+ * thread until the response arrives, or handing the request to the non-blocking
+ * {@link ApacheAsyncSender} and handling the response in a callback.
  *
  * Created by gupele on 12/18/2014.
  */
-public final class TransmissionNetworkOutput implements TransmissionOutput {
+public final class TransmissionNetworkOutput implements TransmissionOutput, TransmissionReplayScheduler.LiveTraffic {
     private final static String CONTENT_TYPE_HEADER = "Content-Type";
     private final static String CONTENT_ENCODING_HEADER = "Content-Encoding";
     private final static String RESPONSE_THROTTLING_HEADER = "Retry-After";
 
     public final static String DEFAULT_SERVER_URI = "https://dc.services.visualstudio.com/v2/track";
 
+    public final static int DEFAULT_ASYNC_MAX_CONNECTIONS_PER_ROUTE = ApacheAsyncSender.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    public final static int MAX_ASYNC_MAX_CONNECTIONS_PER_ROUTE = ApacheAsyncSender.MAX_TOTAL_CONNECTIONS;
+
     // For future use: re-send a failed transmission back to the dispatcher
     private TransmissionDispatcher transmissionDispatcher;
 
@@ -67,6 +75,9 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
     // Use one instance for optimization
     private final ApacheSender httpClient;
 
+    // Null unless the output sends without blocking
+    private final ApacheAsyncSender asyncHttpClient;
+
     private TransmissionPolicyManager transmissionPolicyManager;
 
     /**
@@ -95,8 +106,49 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
      */
     public static TransmissionNetworkOutput create(String endpoint,
             TransmissionPolicyManager transmissionPolicyManager) {
+        return create(endpoint, transmissionPolicyManager, false);
+    }
+
+    /**
+     * Creates an instance of the network transmission class.
+     *
+     * @param endpoint
+     *            The HTTP endpoint to send our telemetry too.
+     * @param transmissionPolicyManager
+     *            The transmission policy used to mark this sender active or
+     *            blocked.
+     * @param async
+     *            True to send without blocking the calling thread, in which case
+     *            {@link #send(Transmission)} returns as soon as the request is
+     *            handed to the I/O threads.
+     * @return
+     */
+    public static TransmissionNetworkOutput create(String endpoint,
+            TransmissionPolicyManager transmissionPolicyManager, boolean async) {
+        return create(endpoint, transmissionPolicyManager, async, DEFAULT_ASYNC_MAX_CONNECTIONS_PER_ROUTE);
+    }
+
+    /**
+     * Creates an instance of the network transmission class.
+     *
+     * @param endpoint
+     *            The HTTP endpoint to send our telemetry too.
+     * @param transmissionPolicyManager
+     *            The transmission policy used to mark this sender active or
+     *            blocked.
+     * @param async
+     *            True to send without blocking the calling thread, in which case
+     *            {@link #send(Transmission)} returns as soon as the request is
+     *            handed to the I/O threads.
+     * @param asyncMaxConnectionsPerRoute
+     *            The number of connections the non-blocking sender may open to the endpoint,
+     *            up to {@link #MAX_ASYNC_MAX_CONNECTIONS_PER_ROUTE}.
+     * @return
+     */
+    public static TransmissionNetworkOutput create(String endpoint,
+            TransmissionPolicyManager transmissionPolicyManager, boolean async, int asyncMaxConnectionsPerRoute) {
         String realEndpoint = Strings.isNullOrEmpty(endpoint) ? DEFAULT_SERVER_URI : endpoint;
-        return new TransmissionNetworkOutput(realEndpoint, transmissionPolicyManager);
+        return new TransmissionNetworkOutput(realEndpoint, transmissionPolicyManager, async, asyncMaxConnectionsPerRoute);
     }
 
     /**
@@ -107,8 +159,13 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
      * @param serverUri
      *            The HTTP endpoint to send our telemetry too.
      * @param transmissionPolicyManager
+     * @param async
+     *            True to also create the non-blocking sender.
+     * @param asyncMaxConnectionsPerRoute
+     *            The number of connections of the non-blocking sender.
      */
-    private TransmissionNetworkOutput(String serverUri, TransmissionPolicyManager transmissionPolicyManager) {
+    private TransmissionNetworkOutput(String serverUri, TransmissionPolicyManager transmissionPolicyManager, boolean async,
+                                      int asyncMaxConnectionsPerRoute) {
         Preconditions.checkNotNull(serverUri, "serverUri should be a valid non-null value");
         Preconditions.checkArgument(!Strings.isNullOrEmpty(serverUri), "serverUri should be a valid non-null value");
         Preconditions.checkNotNull(transmissionPolicyManager,
@@ -117,6 +174,7 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
         this.serverUri = serverUri;
 
         httpClient = ApacheSenderFactory.INSTANCE.create();
+        asyncHttpClient = async ? ApacheSenderFactory.INSTANCE.createAsync(asyncMaxConnectionsPerRoute) : null;
         this.transmissionPolicyManager = transmissionPolicyManager;
         stopped = false;
 
@@ -147,8 +205,27 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
             return;
         }
 
-        httpClient.close();
+        // Set first so requests cancelled by closing the async sender are not handled as failures
         stopped = true;
+        if (asyncHttpClient != null) {
+            asyncHttpClient.close();
+        }
+        httpClient.close();
+    }
+
+    /**
+     * Whether {@link #send(Transmission)} hands the transmission to the non-blocking sender.
+     */
+    public boolean isAsync() {
+        return asyncHttpClient != null;
+    }
+
+    /**
+     * Busy while half of the non-blocking sender's in-flight requests are taken, never busy when blocking.
+     */
+    @Override
+    public boolean isBusy() {
+        return asyncHttpClient != null && asyncHttpClient.getInFlightRequests() >= asyncHttpClient.getMaxInFlightRequests() / 2;
     }
 
     /**
@@ -172,6 +249,10 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
                 return false;
             }
 
+            if (asyncHttpClient != null) {
+                return sendAsync(transmission);
+            }
+
             HttpResponse response = null;
             HttpPost request = null;
             int code = 0;
@@ -183,12 +264,14 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
                 // POST the transmission data to the endpoint
                 request = createTransmissionPostRequest(transmission);
                 httpClient.enhanceRequest(request);
+                long start = System.nanoTime();
                 response = httpClient.sendPostRequest(request);
                 HttpEntity respEntity = response.getEntity();
                 code = response.getStatusLine().getStatusCode();
                 reason = response.getStatusLine().getReasonPhrase();
                 respString = EntityUtils.toString(respEntity);
                 retryAfterHeader = response.getFirstHeader(RESPONSE_THROTTLING_HEADER);
+                SdkMetrics.INSTANCE.getSendLatencyInMillis().record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
 
                 // After we reach our instant retry limit we should fail to second TransmissionOutput
                 if (code > HttpStatus.SC_PARTIAL_CONTENT && transmission.getNumberOfSends() > this.transmissionPolicyManager.getMaxInstantRetries()) {
@@ -200,26 +283,9 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
                 }
                 return true;
 
-            } catch (ConnectionPoolTimeoutException e) {
-                ex = e;
-                InternalLogger.INSTANCE.error("Failed to send, connection pool timeout exception%nStack Trace:%n%s",
-                        ExceptionUtils.getStackTrace(e));
-            } catch (SocketException e) {
-                ex = e;
-                InternalLogger.INSTANCE.error("Failed to send, socket exception.%nStack Trace:%n%s",
-                        ExceptionUtils.getStackTrace(e));
-            } catch (UnknownHostException e) {
-                ex = e;
-                InternalLogger.INSTANCE.error(
-                        "Failed to send, wrong host address or cannot reach address due to network issues.%nStack Trace:%n%s",
-                        ExceptionUtils.getStackTrace(e));
-            } catch (IOException ioe) {
-                ex = ioe;
-                InternalLogger.INSTANCE.error("Failed to send.%nStack Trace:%n%s", ExceptionUtils.getStackTrace(ioe));
             } catch (Exception e) {
                 ex = e;
-                InternalLogger.INSTANCE.error("Failed to send, unexpected exception.%nStack Trace:%n%s",
-                        ExceptionUtils.getStackTrace(e));
+                logSendFailure(e);
             } catch (ThreadDeath td) {
                 throw td;
             } catch (Throwable t) {
@@ -237,21 +303,7 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
                 }
                 httpClient.dispose(response);
 
-                if (code == HttpStatus.SC_BAD_REQUEST) {
-                    InternalLogger.INSTANCE.error("Error sending data: %s", reason);
-                } else if (code != HttpStatus.SC_OK) {
-                    // Invoke the listeners for handling things like errors
-                    // The listeners will handle the back off logic as well as the dispatch
-                    // operation
-                    TransmissionHandlerArgs args = new TransmissionHandlerArgs();
-                    args.setTransmission(transmission);
-                    args.setTransmissionDispatcher(transmissionDispatcher);
-                    args.setResponseBody(respString);
-                    args.setResponseCode(code);
-                    args.setException(ex);
-                    args.setRetryHeader(retryAfterHeader);
-                    this.transmissionPolicyManager.onTransmissionSent(args);
-                }
+                onTransmissionSent(transmission, code, reason, respString, ex, retryAfterHeader);
             }
         }
         // If we end up here we've hit an error code we do not expect (403, 401, 400,
@@ -261,6 +313,128 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
         return true;
     }
 
+    /**
+     * Hands the transmission to the non-blocking sender, the response is handled by an {@link AsyncSendCallback}.
+     *
+     * Once the transmission is handed over, failures go through the transmission handlers, which
+     * back off and dispatch it again, so the file system output gets it while the policy is blocked.
+     *
+     * @param transmission
+     *            The data to send
+     * @return False if too many transmissions are in flight, so the next TransmissionOutput should take it.
+     */
+    private boolean sendAsync(Transmission transmission) {
+        HttpPost request = createTransmissionPostRequest(transmission);
+        if (!asyncHttpClient.sendPostRequest(request, new AsyncSendCallback(transmission))) {
+            InternalLogger.INSTANCE.trace("Async sender has %d transmissions in flight, passing transmission on",
+                    asyncHttpClient.getInFlightRequests());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Lets the transmission handlers act on anything but a successful send, the
+     * handlers take care of the back off logic as well as of dispatching the
+     * transmission again.
+     */
+    private void onTransmissionSent(Transmission transmission, int code, String reason, String respString,
+                                    Throwable ex, Header retryAfterHeader) {
+        if (code == HttpStatus.SC_BAD_REQUEST) {
+            InternalLogger.INSTANCE.error("Error sending data: %s", reason);
+        } else if (code != HttpStatus.SC_OK) {
+            // Invoke the listeners for handling things like errors
+            // The listeners will handle the back off logic as well as the dispatch
+            // operation
+            TransmissionHandlerArgs args = new TransmissionHandlerArgs();
+            args.setTransmission(transmission);
+            args.setTransmissionDispatcher(transmissionDispatcher);
+            args.setResponseBody(respString);
+            args.setResponseCode(code);
+            args.setException(ex);
+            args.setRetryHeader(retryAfterHeader);
+            this.transmissionPolicyManager.onTransmissionSent(args);
+        }
+    }
+
+    private static void logSendFailure(Exception e) {
+        if (e instanceof ConnectionPoolTimeoutException) {
+            InternalLogger.INSTANCE.error("Failed to send, connection pool timeout exception%nStack Trace:%n%s",
+                    ExceptionUtils.getStackTrace(e));
+        } else if (e instanceof SocketException) {
+            InternalLogger.INSTANCE.error("Failed to send, socket exception.%nStack Trace:%n%s",
+                    ExceptionUtils.getStackTrace(e));
+        } else if (e instanceof UnknownHostException) {
+            InternalLogger.INSTANCE.error(
+                    "Failed to send, wrong host address or cannot reach address due to network issues.%nStack Trace:%n%s",
+                    ExceptionUtils.getStackTrace(e));
+        } else if (e instanceof IOException) {
+            InternalLogger.INSTANCE.error("Failed to send.%nStack Trace:%n%s", ExceptionUtils.getStackTrace(e));
+        } else {
+            InternalLogger.INSTANCE.error("Failed to send, unexpected exception.%nStack Trace:%n%s",
+                    ExceptionUtils.getStackTrace(e));
+        }
+    }
+
+    /**
+     * Handles the outcome of a transmission sent by the non-blocking sender, on one of its I/O threads.
+     */
+    private final class AsyncSendCallback implements FutureCallback<HttpResponse> {
+        private final Transmission transmission;
+
+        private final long startNanos = System.nanoTime();
+
+        private AsyncSendCallback(Transmission transmission) {
+            this.transmission = transmission;
+        }
+
+        @Override
+        public void completed(HttpResponse response) {
+            int code = 0;
+            String reason = null;
+            String respString = null;
+            Throwable ex = null;
+            Header retryAfterHeader = null;
+            try {
+                code = response.getStatusLine().getStatusCode();
+                reason = response.getStatusLine().getReasonPhrase();
+                HttpEntity respEntity = response.getEntity();
+                if (respEntity != null) {
+                    respString = EntityUtils.toString(respEntity);
+                }
+                retryAfterHeader = response.getFirstHeader(RESPONSE_THROTTLING_HEADER);
+                SdkMetrics.INSTANCE.getSendLatencyInMillis().record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+
+                if (code == HttpStatus.SC_OK) {
+                    transmissionPolicyManager.clearBackoff();
+                }
+            } catch (Exception e) {
+                ex = e;
+                logSendFailure(e);
+            } finally {
+                onTransmissionSent(transmission, code, reason, respString, ex, retryAfterHeader);
+            }
+        }
+
+        @Override
+        public void failed(Exception e) {
+            if (stopped) {
+                return;
+            }
+            logSendFailure(e);
+            onTransmissionSent(transmission, 0, null, null, e, null);
+        }
+
+        @Override
+        public void cancelled() {
+            if (stopped) {
+                return;
+            }
+            InternalLogger.INSTANCE.error("Failed to send, the request did not complete before its deadline");
+            onTransmissionSent(transmission, 0, null, null, new TimeoutException("Request deadline exceeded"), null);
+        }
+    }
+
     /**
      * Generates the HTTP POST to send to the endpoint.
      *
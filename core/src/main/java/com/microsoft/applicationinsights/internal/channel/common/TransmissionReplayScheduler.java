@@ -0,0 +1,458 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
+import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
+import com.microsoft.applicationinsights.internal.util.ReusableByteArrayOutputStream;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * Replays the transmissions that were saved to the disk, a replacement of the {@link ActiveTransmissionLoader}
+ * for draining a large backlog, like the one left by a long ingestion outage, without hurting live telemetry.
+ *
+ * A few threads fetch the oldest transmissions and dispatch them back through the normal path:
+ * <ul>
+ *     <li>Small transmissions are merged into larger ones, so the backlog takes fewer requests.</li>
+ *     <li>The bytes replayed are limited by a bandwidth budget, shared by the threads.</li>
+ *     <li>Nothing is replayed while {@link LiveTraffic} is busy, live telemetry gets the sending capacity first.</li>
+ * </ul>
+ *
+ * While draining, the progress is logged every {@value #PROGRESS_INTERVAL_IN_SECONDS} seconds.
+ */
+public final class TransmissionReplayScheduler implements TransmissionsLoader {
+    /**
+     * Tells whether the outputs are busy with live telemetry, in which case nothing is replayed.
+     */
+    public interface LiveTraffic {
+        boolean isBusy();
+    }
+
+    public static final int DEFAULT_NUMBER_OF_THREADS = 2;
+
+    public static final int PROGRESS_INTERVAL_IN_SECONDS = 30;
+
+    /// Transmissions up to this size are merged with the ones after them
+    static final int MAX_MERGEABLE_TRANSMISSION_BYTES = 32 * 1024;
+
+    /// A merged transmission is made of compressed transmissions up to this size
+    static final int MAX_MERGED_BYTES = 256 * 1024;
+
+    static final int MAX_MERGED_TRANSMISSIONS = 64;
+
+    private static final String GZIP_ENCODING_TYPE = "gzip";
+
+    private static final long SLEEP_INTERVAL_WHEN_NO_TRANSMISSIONS_FOUND_IN_MILLS = 2000;
+    private static final long SLEEP_INTERVAL_WHEN_BUSY_IN_MILLS = 100;
+
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ReusableByteArrayOutputStream> DECOMPRESSION_BUFFERS = new ThreadLocal<ReusableByteArrayOutputStream>() {
+        @Override
+        protected ReusableByteArrayOutputStream initialValue() {
+            return new ReusableByteArrayOutputStream(MAX_MERGEABLE_TRANSMISSION_BYTES * 8, MAX_RETAINED_BUFFER_SIZE);
+        }
+    };
+
+    private final TransmissionFileSystemOutput fileSystem;
+
+    private final TransmissionDispatcher dispatcher;
+
+    private final TransmissionPolicyStateFetcher transmissionPolicyFetcher;
+
+    private final LiveTraffic liveTraffic;
+
+    private final TelemetrySerializer serializer;
+
+    /// Permits are bytes, shared by the threads
+    private final RateLimiter bandwidthBudget;
+
+    private final AtomicBoolean done = new AtomicBoolean(false);
+
+    private final CountDownLatch latch;
+
+    private final Thread[] threads;
+
+    private final AtomicLong replayedTransmissions = new AtomicLong();
+    private final AtomicLong replayedBytes = new AtomicLong();
+    private final AtomicLong mergedTransmissions = new AtomicLong();
+
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private volatile long drainStartNanos;
+    private volatile long drainStartReplayedBytes;
+    private final AtomicLong nextProgressReportNanos = new AtomicLong();
+
+    /**
+     * @param bandwidthInBytesPerSecond The compressed bytes that may be replayed per second by all the threads together
+     */
+    public TransmissionReplayScheduler(TransmissionFileSystemOutput fileSystem,
+                                       TransmissionDispatcher dispatcher,
+                                       TransmissionPolicyStateFetcher transmissionPolicy,
+                                       LiveTraffic liveTraffic,
+                                       TelemetrySerializer serializer,
+                                       long bandwidthInBytesPerSecond,
+                                       int numberOfThreads) {
+        Preconditions.checkNotNull(fileSystem, "fileSystem must be a non-null value");
+        Preconditions.checkNotNull(dispatcher, "dispatcher must be a non-null value");
+        Preconditions.checkNotNull(transmissionPolicy, "transmissionPolicy must be a non-null value");
+        Preconditions.checkNotNull(liveTraffic, "liveTraffic must be a non-null value");
+        Preconditions.checkNotNull(serializer, "serializer must be a non-null value");
+        Preconditions.checkArgument(bandwidthInBytesPerSecond > 0, "bandwidthInBytesPerSecond must be a positive number");
+        Preconditions.checkArgument(numberOfThreads > 0, "numberOfThreads must be a positive number");
+        Preconditions.checkArgument(numberOfThreads < ActiveTransmissionLoader.MAX_THREADS_ALLOWED,
+                "numberOfThreads must be smaller than %s", ActiveTransmissionLoader.MAX_THREADS_ALLOWED);
+
+        this.fileSystem = fileSystem;
+        this.dispatcher = dispatcher;
+        this.transmissionPolicyFetcher = transmissionPolicy;
+        this.liveTraffic = liveTraffic;
+        this.serializer = serializer;
+        this.bandwidthBudget = RateLimiter.create(bandwidthInBytesPerSecond);
+
+        threads = new Thread[numberOfThreads];
+        latch = new CountDownLatch(numberOfThreads);
+        final String threadNameFmt = String.format("%s-worker-%%d", TransmissionReplayScheduler.class.getSimpleName());
+        for (int i = 0; i < numberOfThreads; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+
+                    // Avoid un-expected exit of threads
+                    while (!done.get()) {
+                        try {
+                            runOnce();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        } catch (ThreadDeath td) {
+                            throw td;
+                        } catch (Throwable t) {
+                            try {
+                                InternalLogger.INSTANCE.error("Error while replaying transmissions: '%s'", t.toString());
+                                InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(t));
+                            } catch (ThreadDeath td) {
+                                throw td;
+                            } catch (Throwable t2) {
+                                // chomp
+                            }
+                        }
+                    }
+                }
+            }, String.format(threadNameFmt, i));
+            threads[i].setDaemon(true);
+        }
+    }
+
+    @Override
+    public synchronized boolean load(boolean waitForThreadsToStart) {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        if (!waitForThreadsToStart) {
+            return true;
+        }
+
+        try {
+            latch.await();
+            return true;
+        } catch (InterruptedException e) {
+            InternalLogger.INSTANCE.error("Interrupted waiting for threads to start: %s", e.toString());
+            Thread.currentThread().interrupt();
+        }
+
+        return false;
+    }
+
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(timeUnit.toMillis(timeout));
+            } catch (InterruptedException e) {
+                InternalLogger.INSTANCE.error("Interrupted during join of transmission replay scheduler, exception: %s", e.toString());
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /**
+     * The transmissions dispatched since the scheduler started, a merged transmission counts once.
+     */
+    public long getReplayedTransmissions() {
+        return replayedTransmissions.get();
+    }
+
+    /**
+     * The compressed bytes dispatched since the scheduler started.
+     */
+    public long getReplayedBytes() {
+        return replayedBytes.get();
+    }
+
+    /**
+     * The saved transmissions that were merged into others before being dispatched.
+     */
+    public long getMergedTransmissions() {
+        return mergedTransmissions.get();
+    }
+
+    /**
+     * The disk space taken by the transmissions that are still saved, see {@link TransmissionFileSystemOutput#getStoredBytes()}.
+     */
+    public long getBytesLeft() {
+        return fileSystem.getStoredBytes();
+    }
+
+    /**
+     * Whether the scheduler found saved transmissions the last time it looked.
+     */
+    public boolean isDraining() {
+        return draining.get();
+    }
+
+    /* Visible for Testing */
+    void runOnce() throws InterruptedException {
+        TransmissionPolicy currentTransmissionState = transmissionPolicyFetcher.getCurrentState();
+        switch (currentTransmissionState) {
+            case UNBLOCKED:
+                if (liveTraffic.isBusy()) {
+                    Thread.sleep(SLEEP_INTERVAL_WHEN_BUSY_IN_MILLS);
+                } else if (!replayNext()) {
+                    Thread.sleep(SLEEP_INTERVAL_WHEN_NO_TRANSMISSIONS_FOUND_IN_MILLS);
+                }
+                break;
+
+            case BACKOFF:
+            case BLOCKED_BUT_CAN_BE_PERSISTED:
+                Thread.sleep(SLEEP_INTERVAL_WHEN_BUSY_IN_MILLS);
+                break;
+
+            case BLOCKED_AND_CANNOT_BE_PERSISTED:
+                // Fetching without dispatching cleans the disk as needed by that policy
+                if (fileSystem.fetchOldestFile() == null) {
+                    Thread.sleep(SLEEP_INTERVAL_WHEN_NO_TRANSMISSIONS_FOUND_IN_MILLS);
+                }
+                break;
+
+            default:
+                InternalLogger.INSTANCE.error("Could not find transmission policy '%s'", currentTransmissionState);
+                Thread.sleep(SLEEP_INTERVAL_WHEN_BUSY_IN_MILLS);
+                break;
+        }
+    }
+
+    /**
+     * @return False if there was nothing to replay.
+     */
+    private boolean replayNext() {
+        Transmission oldest = fileSystem.fetchOldestFile();
+        if (oldest == null) {
+            onDrained();
+            return false;
+        }
+
+        onReplaying();
+
+        if (!isMergeable(oldest, oldest)) {
+            dispatch(oldest);
+            return true;
+        }
+
+        List<Transmission> toMerge = new ArrayList<Transmission>();
+        toMerge.add(oldest);
+        long mergedBytes = oldest.getContent().length;
+        Transmission notMergeable = null;
+        while (toMerge.size() < MAX_MERGED_TRANSMISSIONS && mergedBytes < MAX_MERGED_BYTES) {
+            Transmission next = fileSystem.fetchOldestFile();
+            if (next == null) {
+                break;
+            }
+            if (!isMergeable(oldest, next)) {
+                notMergeable = next;
+                break;
+            }
+            toMerge.add(next);
+            mergedBytes += next.getContent().length;
+        }
+
+        dispatchMerged(toMerge);
+        if (notMergeable != null) {
+            // It is newer than the transmissions it could not be merged with, so it goes after them
+            dispatch(notMergeable);
+        }
+        return true;
+    }
+
+    private void dispatchMerged(List<Transmission> toMerge) {
+        if (toMerge.size() == 1) {
+            dispatch(toMerge.get(0));
+            return;
+        }
+
+        Optional<Transmission> merged = merge(toMerge);
+        if (merged.isPresent()) {
+            mergedTransmissions.addAndGet(toMerge.size());
+            dispatch(merged.get());
+        } else {
+            for (Transmission transmission : toMerge) {
+                dispatch(transmission);
+            }
+        }
+    }
+
+    /**
+     * Dispatches the transmission once the bandwidth budget allows it. The transmission was already
+     * taken off the disk, so if the scheduler is stopped while it waits it is saved back rather than lost.
+     */
+    private void dispatch(Transmission transmission) {
+        int length = transmission.getContent().length;
+        if (length > 0 && !acquireBandwidth(length)) {
+            if (!fileSystem.send(transmission)) {
+                InternalLogger.INSTANCE.error("Failed to save back a transmission of %d bytes while stopping, it is lost", length);
+            }
+            return;
+        }
+
+        dispatcher.dispatch(transmission);
+
+        replayedTransmissions.incrementAndGet();
+        replayedBytes.addAndGet(length);
+        SdkMetrics.INSTANCE.getReplayedTransmissions().increment();
+    }
+
+    /**
+     * @return False if the scheduler was stopped before the budget allowed the bytes.
+     */
+    private boolean acquireBandwidth(int bytes) {
+        while (!bandwidthBudget.tryAcquire(bytes, SLEEP_INTERVAL_WHEN_BUSY_IN_MILLS, TimeUnit.MILLISECONDS)) {
+            if (done.get()) {
+                return false;
+            }
+            try {
+                Thread.sleep(SLEEP_INTERVAL_WHEN_BUSY_IN_MILLS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isMergeable(Transmission first, Transmission transmission) {
+        return transmission.getContent().length <= MAX_MERGEABLE_TRANSMISSION_BYTES
+                && GZIP_ENCODING_TYPE.equals(transmission.getWebContentEncodingType())
+                && first.getWebContentEncodingType().equals(transmission.getWebContentEncodingType())
+                && first.getWebContentType().equals(transmission.getWebContentType());
+    }
+
+    /**
+     * Decompresses the transmissions and compresses their telemetries as one transmission, in the same order.
+     */
+    /* Visible for Testing */
+    Optional<Transmission> merge(List<Transmission> transmissions) {
+        List<byte[]> contents = new ArrayList<byte[]>(transmissions.size());
+        int numberOfSends = 0;
+        int numberOfPersistence = 0;
+        try {
+            for (Transmission transmission : transmissions) {
+                contents.add(decompress(transmission.getContent()));
+                numberOfSends = Math.max(numberOfSends, transmission.getNumberOfSends());
+                numberOfPersistence = Math.max(numberOfPersistence, transmission.getNumberOfPersistence());
+            }
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to merge saved transmissions, they are replayed one by one, exception: %s", e.toString());
+            return Optional.absent();
+        }
+
+        Optional<Transmission> merged = serializer.serialize(contents);
+        if (merged.isPresent()) {
+            merged.get().setNumberOfSends(numberOfSends);
+            merged.get().setNumberOfPersistence(numberOfPersistence);
+        }
+        return merged;
+    }
+
+    private static byte[] decompress(byte[] content) throws IOException {
+        ReusableByteArrayOutputStream output = DECOMPRESSION_BUFFERS.get();
+        output.reset();
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(content))) {
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = input.read(chunk)) != -1) {
+                output.write(chunk, 0, read);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private void onReplaying() {
+        long now = System.nanoTime();
+        if (draining.compareAndSet(false, true)) {
+            drainStartNanos = now;
+            drainStartReplayedBytes = replayedBytes.get();
+            nextProgressReportNanos.set(now + TimeUnit.SECONDS.toNanos(PROGRESS_INTERVAL_IN_SECONDS));
+            InternalLogger.INSTANCE.info("Replaying transmissions saved to the disk, %.1f KB to replay", getBytesLeft() / 1024.0);
+            return;
+        }
+
+        long nextReport = nextProgressReportNanos.get();
+        if (now - nextReport >= 0 && nextProgressReportNanos.compareAndSet(nextReport, now + TimeUnit.SECONDS.toNanos(PROGRESS_INTERVAL_IN_SECONDS))) {
+            long bytes = replayedBytes.get() - drainStartReplayedBytes;
+            double seconds = (now - drainStartNanos) / 1000000000.0;
+            double bytesPerSecond = seconds > 0 ? bytes / seconds : 0.0;
+            long bytesLeft = getBytesLeft();
+            InternalLogger.INSTANCE.info("Replayed %.1f KB of saved transmissions at %.1f KB/s, %.1f KB left, about %.0f seconds to go",
+                    bytes / 1024.0, bytesPerSecond / 1024.0, bytesLeft / 1024.0, bytesPerSecond > 0 ? bytesLeft / bytesPerSecond : 0.0);
+        }
+    }
+
+    private void onDrained() {
+        if (draining.compareAndSet(true, false)) {
+            InternalLogger.INSTANCE.info("Replayed the transmissions saved to the disk, %.1f KB in %.0f seconds",
+                    (replayedBytes.get() - drainStartReplayedBytes) / 1024.0, (System.nanoTime() - drainStartNanos) / 1000000000.0);
+        }
+    }
+}
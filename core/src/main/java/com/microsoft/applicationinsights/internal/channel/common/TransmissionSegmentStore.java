@@ -0,0 +1,574 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * A persistent FIFO queue of records that lives in memory-mapped segment files.
+ *
+ * Records are appended to the last segment and read from the first one. Each record is framed
+ * by its length and CRC32, the length is written last so a record that was torn by a crash is never read.
+ * When a segment is full a new one is created, and a segment is deleted once all of its records were read.
+ * The read position is kept in a small index file, so neither enqueue nor dequeue needs to list or
+ * scan the folder: the segments are enumerated once, when the store is opened.
+ *
+ * The store takes an exclusive lock on its index file, a second store that opens the same folder
+ * gets null from {@link #open(File, int)} and should keep using another storage.
+ *
+ * The class is thread safe.
+ */
+final class TransmissionSegmentStore {
+    final static String SEGMENT_FILE_PREFIX = "Segment_";
+    final static String SEGMENT_FILE_EXTENSION = ".seg";
+    final static String INDEX_FILE_NAME = "segments.idx";
+
+    final static int MIN_SEGMENT_SIZE_IN_BYTES = 64 * 1024;
+    final static int MAX_SEGMENT_SIZE_IN_BYTES = 1024 * 1024;
+
+    private final static int SEGMENT_MAGIC = 0x41495347;
+    private final static int SEGMENT_FORMAT_VERSION = 1;
+
+    /// Magic and format version
+    final static int SEGMENT_HEADER_SIZE = 8;
+
+    /// Length and CRC32 of the payload
+    final static int RECORD_HEADER_SIZE = 8;
+
+    /// Every record is followed by a zero length that marks the end of the segment's data
+    private final static int END_MARKER_SIZE = 4;
+
+    /// Head segment sequence, read position in that segment and a checksum of both
+    private final static int INDEX_SIZE = 20;
+
+    private final static Object UNSAFE = findUnsafe();
+    private final static Method INVOKE_CLEANER = findInvokeCleaner(UNSAFE);
+
+    private final static class Segment {
+        final long sequence;
+        final File file;
+        final int length;
+
+        MappedByteBuffer buffer;
+        int readPosition = SEGMENT_HEADER_SIZE;
+        int writePosition = SEGMENT_HEADER_SIZE;
+
+        Segment(long sequence, File file, int length) {
+            this.sequence = sequence;
+            this.file = file;
+            this.length = length;
+        }
+
+        MappedByteBuffer map() throws IOException {
+            if (buffer == null) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+                }
+            }
+            return buffer;
+        }
+
+        void unmap() {
+            if (buffer != null) {
+                TransmissionSegmentStore.unmap(buffer);
+                buffer = null;
+            }
+        }
+
+        boolean hasRoomFor(int recordLength) {
+            return writePosition + RECORD_HEADER_SIZE + recordLength + END_MARKER_SIZE <= length;
+        }
+
+        boolean isFullyRead() {
+            return readPosition >= writePosition;
+        }
+
+        void append(byte[] record) throws IOException {
+            MappedByteBuffer mapped = map();
+            int position = writePosition;
+            ByteBuffer target = mapped.duplicate();
+            target.position(position + RECORD_HEADER_SIZE);
+            target.put(record);
+            mapped.putInt(position + 4, checksum(record));
+            mapped.putInt(position + RECORD_HEADER_SIZE + record.length, 0);
+
+            // The length commits the record
+            mapped.putInt(position, record.length);
+            writePosition = position + RECORD_HEADER_SIZE + record.length;
+        }
+
+        /**
+         * Reads the record at the given position, returns null when there is no valid record there.
+         */
+        byte[] readAt(int position, int limit) throws IOException {
+            if (position + RECORD_HEADER_SIZE > limit) {
+                return null;
+            }
+
+            MappedByteBuffer mapped = map();
+            int recordLength = mapped.getInt(position);
+            if (recordLength <= 0 || recordLength > limit - position - RECORD_HEADER_SIZE) {
+                return null;
+            }
+
+            byte[] record = new byte[recordLength];
+            ByteBuffer source = mapped.duplicate();
+            source.position(position + RECORD_HEADER_SIZE);
+            source.get(record);
+            if (checksum(record) != mapped.getInt(position + 4)) {
+                return null;
+            }
+
+            return record;
+        }
+
+        boolean hasDataAt(int position) throws IOException {
+            return position + END_MARKER_SIZE <= length && map().getInt(position) != 0;
+        }
+
+        boolean hasValidHeader() throws IOException {
+            MappedByteBuffer mapped = map();
+            return length >= SEGMENT_HEADER_SIZE && mapped.getInt(0) == SEGMENT_MAGIC && mapped.getInt(4) == SEGMENT_FORMAT_VERSION;
+        }
+    }
+
+    private final File folder;
+    private final int segmentSizeInBytes;
+    private final RandomAccessFile indexFile;
+    private final FileLock indexLock;
+    private final MappedByteBuffer index;
+
+    /// Oldest segment first, the last one is the segment that is written to
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+
+    /// Segments that could not be deleted yet, typically because the platform still holds their mapping,
+    /// with their size: they take disk space until they are gone
+    private final Map<File, Long> filesToDelete = new HashMap<File, Long>();
+
+    private long nextSequence = 1;
+
+    /// The size of the segment files we have on the disk, including the ones that are waiting to be deleted
+    private long sizeInBytes;
+
+    private boolean closed;
+
+    private TransmissionSegmentStore(File folder, int segmentSizeInBytes, RandomAccessFile indexFile, FileLock indexLock) throws IOException {
+        this.folder = folder;
+        this.segmentSizeInBytes = segmentSizeInBytes;
+        this.indexFile = indexFile;
+        this.indexLock = indexLock;
+        this.index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, INDEX_SIZE);
+    }
+
+    /**
+     * Opens the store that is kept in the folder, recovering the segments that a previous process left there.
+     *
+     * @param folder The folder of the segment files.
+     * @param segmentSizeInBytes The size of a new segment, records that are bigger get a segment of their own.
+     * @return The store, or null if the folder is already used by another store.
+     * @throws IOException If the index or the segments could not be opened.
+     */
+    static TransmissionSegmentStore open(File folder, int segmentSizeInBytes) throws IOException {
+        Preconditions.checkNotNull(folder, "folder must be a non-null value");
+        Preconditions.checkArgument(segmentSizeInBytes > SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + END_MARKER_SIZE, "segmentSizeInBytes is too small");
+
+        RandomAccessFile indexFile = new RandomAccessFile(new File(folder, INDEX_FILE_NAME), "rw");
+        TransmissionSegmentStore store = null;
+        try {
+            FileLock lock;
+            try {
+                lock = indexFile.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                // Already opened by this process
+                lock = null;
+            }
+            if (lock == null) {
+                indexFile.close();
+                return null;
+            }
+
+            store = new TransmissionSegmentStore(folder, segmentSizeInBytes, indexFile, lock);
+            store.recover();
+            return store;
+        } catch (IOException | RuntimeException e) {
+            if (store != null) {
+                store.close();
+            } else {
+                indexFile.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a record to the end of the queue.
+     *
+     * @param record The record to store.
+     * @param availableBytes The disk space the store may grow to, a new segment is only created if it fits.
+     * @return True if the record was stored.
+     */
+    synchronized boolean enqueue(byte[] record, long availableBytes) {
+        Preconditions.checkNotNull(record, "record must be a non-null value");
+        Preconditions.checkArgument(record.length > 0, "record must not be empty");
+
+        if (closed) {
+            return false;
+        }
+
+        try {
+            Segment tail = segments.peekLast();
+            if (tail == null || !tail.hasRoomFor(record.length)) {
+                retryDeletes();
+                if (tail != null && segments.size() == 1 && tail.isFullyRead()) {
+                    segments.removeLast();
+                    deleteSegment(tail);
+                    tail = null;
+                }
+
+                int newSegmentSize = Math.max(segmentSizeInBytes, SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + record.length + END_MARKER_SIZE);
+                if (sizeInBytes + newSegmentSize > availableBytes) {
+                    return false;
+                }
+
+                if (tail != null && tail != segments.peekFirst()) {
+                    // Sealed segments are mapped again when it is their turn to be read
+                    tail.unmap();
+                }
+                tail = createSegment(newSegmentSize);
+            }
+
+            tail.append(record);
+            return true;
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to append to segment file, exception: %s", e.toString());
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes the oldest record from the queue.
+     *
+     * @return The oldest record, or null if the queue is empty.
+     */
+    synchronized byte[] dequeue() {
+        if (closed) {
+            return null;
+        }
+
+        while (!segments.isEmpty()) {
+            Segment head = segments.peekFirst();
+            boolean isTail = head == segments.peekLast();
+            try {
+                byte[] record = head.readAt(head.readPosition, head.writePosition);
+                if (record != null) {
+                    head.readPosition += RECORD_HEADER_SIZE + record.length;
+                    saveIndex(head.sequence, head.readPosition);
+                    return record;
+                }
+
+                if (!isTail && head.hasDataAt(head.readPosition)) {
+                    InternalLogger.INSTANCE.error("Segment file '%s' is corrupted at position %s, skipping the rest of it", head.file.getName(), head.readPosition);
+                }
+            } catch (IOException e) {
+                InternalLogger.INSTANCE.error("Failed to read segment file '%s', skipping it, exception: %s", head.file.getName(), e.toString());
+            }
+
+            if (isTail) {
+                return null;
+            }
+
+            segments.removeFirst();
+            deleteSegment(head);
+        }
+
+        return null;
+    }
+
+    synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    synchronized boolean isEmpty() {
+        return segments.isEmpty() || (segments.size() == 1 && segments.peekFirst().isFullyRead());
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        for (Segment segment : segments) {
+            segment.unmap();
+        }
+        unmap(index);
+
+        try {
+            indexLock.release();
+        } catch (IOException e) {
+            // chomp
+        }
+        try {
+            indexFile.close();
+        } catch (IOException e) {
+            // chomp
+        }
+    }
+
+    private void recover() throws IOException {
+        File[] segmentFiles = folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_EXTENSION) && parseSequence(name) > 0;
+            }
+        });
+
+        long headSequence = 0;
+        int headPosition = SEGMENT_HEADER_SIZE;
+        long savedSequence = index.getLong(0);
+        int savedPosition = index.getInt(8);
+        if (index.getLong(12) == indexChecksum(savedSequence, savedPosition)) {
+            headSequence = savedSequence;
+            headPosition = savedPosition;
+        }
+
+        if (segmentFiles == null) {
+            segmentFiles = new File[0];
+        }
+        Arrays.sort(segmentFiles, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long sequence1 = parseSequence(file1.getName());
+                long sequence2 = parseSequence(file2.getName());
+                return sequence1 < sequence2 ? -1 : (sequence1 == sequence2 ? 0 : 1);
+            }
+        });
+
+        for (File file : segmentFiles) {
+            long sequence = parseSequence(file.getName());
+            nextSequence = Math.max(nextSequence, sequence + 1);
+
+            long fileLength = file.length();
+            sizeInBytes += fileLength;
+            if (sequence < headSequence || fileLength > Integer.MAX_VALUE) {
+                deleteFile(file, fileLength);
+                continue;
+            }
+
+            Segment segment = new Segment(sequence, file, (int)fileLength);
+            if (!segment.hasValidHeader()) {
+                InternalLogger.INSTANCE.error("Segment file '%s' has no valid header, deleting it", file.getName());
+                segment.unmap();
+                deleteFile(file, fileLength);
+                continue;
+            }
+
+            if (sequence == headSequence && headPosition >= SEGMENT_HEADER_SIZE && headPosition <= segment.length) {
+                segment.readPosition = headPosition;
+            }
+            segment.writePosition = segment.length;
+            segments.addLast(segment);
+        }
+
+        Segment tail = segments.peekLast();
+        if (tail != null) {
+            // Find the end of the written records, anything after the last valid record is discarded
+            int position = SEGMENT_HEADER_SIZE;
+            byte[] record;
+            while ((record = tail.readAt(position, tail.length)) != null) {
+                position += RECORD_HEADER_SIZE + record.length;
+            }
+            tail.writePosition = position;
+            if (position + END_MARKER_SIZE <= tail.length) {
+                tail.buffer.putInt(position, 0);
+            }
+            tail.readPosition = Math.min(tail.readPosition, tail.writePosition);
+        }
+
+        // Only the head and the tail are needed right away
+        Iterator<Segment> iterator = segments.iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment != segments.peekFirst() && segment != tail) {
+                segment.unmap();
+            }
+        }
+
+        Segment head = segments.peekFirst();
+        if (head != null) {
+            saveIndex(head.sequence, head.readPosition);
+        }
+    }
+
+    private Segment createSegment(int length) throws IOException {
+        long sequence = nextSequence++;
+        File file = new File(folder, String.format("%s%020d%s", SEGMENT_FILE_PREFIX, sequence, SEGMENT_FILE_EXTENSION));
+        Segment segment = new Segment(sequence, file, length);
+        MappedByteBuffer mapped = segment.map();
+        mapped.putInt(SEGMENT_HEADER_SIZE, 0);
+        mapped.putInt(4, SEGMENT_FORMAT_VERSION);
+        mapped.putInt(0, SEGMENT_MAGIC);
+
+        if (segments.isEmpty()) {
+            saveIndex(sequence, SEGMENT_HEADER_SIZE);
+        }
+        segments.addLast(segment);
+        sizeInBytes += length;
+
+        return segment;
+    }
+
+    private void deleteSegment(Segment segment) {
+        segment.unmap();
+        deleteFile(segment.file, segment.length);
+
+        Segment head = segments.peekFirst();
+        if (head != null) {
+            saveIndex(head.sequence, head.readPosition);
+        }
+    }
+
+    /**
+     * Deletes a file that is counted in {@link #sizeInBytes}, its length is only released once the file is gone.
+     */
+    private void deleteFile(File file, long length) {
+        if (file.delete() || !file.exists()) {
+            sizeInBytes -= length;
+        } else {
+            filesToDelete.put(file, length);
+        }
+    }
+
+    private void retryDeletes() {
+        Iterator<Map.Entry<File, Long>> iterator = filesToDelete.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<File, Long> entry = iterator.next();
+            File file = entry.getKey();
+            if (file.delete() || !file.exists()) {
+                sizeInBytes -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void saveIndex(long sequence, int position) {
+        index.putLong(0, sequence);
+        index.putInt(8, position);
+        index.putLong(12, indexChecksum(sequence, position));
+    }
+
+    private static long indexChecksum(long sequence, int position) {
+        return (sequence * 31 + position) ^ SEGMENT_MAGIC;
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        return (int)crc.getValue();
+    }
+
+    private static long parseSequence(String fileName) {
+        try {
+            return Long.parseLong(fileName.substring(SEGMENT_FILE_PREFIX.length(), fileName.length() - SEGMENT_FILE_EXTENSION.length()));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Releases the mapping right away instead of waiting for the buffer to be collected,
+     * otherwise the segment file cannot be deleted on some platforms.
+     *
+     * Java 9 and later do not let us reach the buffer's cleaner, there Unsafe.invokeCleaner does the same.
+     *
+     * @return True if the mapping was released, false if it is only released when the buffer is collected.
+     */
+    /* Visible for Testing */
+    static boolean unmap(MappedByteBuffer buffer) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                return true;
+            }
+
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+                return true;
+            }
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            // chomp, the mapping is released when the buffer is collected
+        }
+        return false;
+    }
+
+    private static Object findUnsafe() {
+        try {
+            Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return field.get(null);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    private static Method findInvokeCleaner(Object unsafe) {
+        if (unsafe == null) {
+            return null;
+        }
+        try {
+            return unsafe.getClass().getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (NoSuchMethodException e) {
+            // Before Java 9
+            return null;
+        }
+    }
+}
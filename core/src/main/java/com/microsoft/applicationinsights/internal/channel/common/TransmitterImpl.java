@@ -21,18 +21,26 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
 import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
 
 import com.google.common.base.Optional;
@@ -46,43 +54,36 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
  * Telemetry instances buffered in a collection are sent through this class.
  *
  * The class makes sure that the container of telemetries is sent using internal threads
- * and not the 'application' threads
+ * and not the 'application' threads, the telemetries are compressed by a {@link CompressionStage}
+ * that might have threads of its own
+ *
+ * At most a fixed number of batches wait for the sending threads, what happens to a batch
+ * that finds no room is decided by the {@link OverflowPolicy}, see {@link #sendNow(Collection)}.
+ * Scheduled sends have a budget of their own, so that a burst of full batches does not keep
+ * the buffers from scheduling the pick-up of their next batch, and the other way around.
  *
  * Created by gupele on 12/18/2014.
  */
-public final class TransmitterImpl implements TelemetriesTransmitter<String> {
+public final class TransmitterImpl implements TelemetriesTransmitter<byte[]> {
     private static abstract class SendHandler {
-        protected final TransmissionDispatcher transmissionDispatcher;
-
-        protected final TelemetrySerializer serializer;
+        protected final CompressionStage compressionStage;
 
-        protected SendHandler(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer) {
-            Preconditions.checkNotNull(transmissionDispatcher, "transmissionDispatcher should be a non-null value");
-            Preconditions.checkNotNull(serializer, "serializer should be a non-null value");
+        protected SendHandler(CompressionStage compressionStage) {
+            Preconditions.checkNotNull(compressionStage, "compressionStage should be a non-null value");
 
-            this.transmissionDispatcher = transmissionDispatcher;
-            this.serializer = serializer;
+            this.compressionStage = compressionStage;
         }
 
-        protected void dispatch(Collection<String> telemetries) {
-            if (telemetries.isEmpty()) {
-                return;
-            }
-
-            Optional<Transmission> transmission = serializer.serialize(telemetries);
-            if (!transmission.isPresent()) {
-                return;
-            }
-
-            transmissionDispatcher.dispatch(transmission.get());
+        protected void dispatch(Collection<byte[]> telemetries) {
+            compressionStage.submit(telemetries);
         }
     }
 
     private static final class ScheduledSendHandler extends SendHandler implements Runnable {
-        private final TelemetriesFetcher<String> telemetriesFetcher;
+        private final TelemetriesFetcher<byte[]> telemetriesFetcher;
 
-        public ScheduledSendHandler(TransmissionDispatcher transmissionDispatcher, TelemetriesFetcher<String> telemetriesFetcher, TelemetrySerializer serializer) {
-            super(transmissionDispatcher,  serializer);
+        public ScheduledSendHandler(CompressionStage compressionStage, TelemetriesFetcher<byte[]> telemetriesFetcher) {
+            super(compressionStage);
 
             Preconditions.checkNotNull(telemetriesFetcher, "telemetriesFetcher should be a non-null value");
 
@@ -91,29 +92,42 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
 
         @Override
         public void run() {
-            Collection<String> telemetriesToSend = telemetriesFetcher.fetch();
+            Collection<byte[]> telemetriesToSend = telemetriesFetcher.fetch();
             dispatch(telemetriesToSend);
         }
     }
 
     private static final class SendNowHandler extends SendHandler implements Runnable {
-        private final Collection<String> telemetries;
+        private final Deque<Collection<byte[]>> pendingBatches;
 
-        public SendNowHandler(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, Collection<String> telemetries) {
-            super(transmissionDispatcher,  serializer);
+        public SendNowHandler(CompressionStage compressionStage, Deque<Collection<byte[]>> pendingBatches) {
+            super(compressionStage);
 
-            Preconditions.checkNotNull(telemetries, "telemetries should be non-null value");
+            Preconditions.checkNotNull(pendingBatches, "pendingBatches should be non-null value");
 
-            this.telemetries = telemetries;
+            this.pendingBatches = pendingBatches;
         }
 
         @Override
         public void run() {
-            dispatch(telemetries);
+            // Each submitted run has a batch of its own, though not necessarily the one
+            // submitted with it since the oldest batches might have been replaced
+            Collection<byte[]> telemetries;
+            synchronized (pendingBatches) {
+                telemetries = pendingBatches.pollFirst();
+            }
+            if (telemetries != null) {
+                dispatch(telemetries);
+            }
         }
     }
 
-    private static final int MAX_PENDING_SCHEDULE_REQUESTS = 16384;
+    /**
+     * The maximum number of batches that wait for the sending threads, and separately, of scheduled sends.
+     */
+    public static final int MAX_PENDING_BATCHES = 16384;
+
+    public static final int DEFAULT_BLOCK_TIMEOUT_IN_MILLIS = 1000;
 
     private static final AtomicInteger INSTANCE_ID_POOL = new AtomicInteger(1);
 
@@ -121,23 +135,97 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
 
     private final TelemetrySerializer serializer;
 
+    private final CompressionStage compressionStage;
+
     private final ScheduledExecutorService threadPool;
 
     private final TransmissionsLoader transmissionsLoader;
 
     private final Semaphore semaphore;
 
+    /// Bounds the scheduled sends, which do not take permits of 'semaphore'
+    private final Semaphore scheduledSemaphore;
+
+    private final int maxPendingBatches;
+
+    /// The batches given to 'sendNow' that were not dispatched yet, oldest first, guarded by itself
+    private final Deque<Collection<byte[]>> pendingBatches = new ArrayDeque<Collection<byte[]>>();
+
+    private final SendNowHandler sendNowHandler;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final long blockTimeoutInMillis;
+
+    /// Where batches are spilled to with SPILL_TO_DISK, null otherwise
+    private final TransmissionOutput spillOutput;
+
+    /// Compresses and writes the spilled batches off the application threads, null unless SPILL_TO_DISK
+    private final ThreadPoolExecutor spillThread;
+
+    private final AtomicLong droppedNewestItems = new AtomicLong();
+    private final AtomicLong droppedOldestItems = new AtomicLong();
+    private final AtomicLong timedOutItems = new AtomicLong();
+    private final AtomicLong notSpilledItems = new AtomicLong();
+    private final AtomicLong spilledItems = new AtomicLong();
+
     private final int instanceId = INSTANCE_ID_POOL.getAndIncrement();
 
     public TransmitterImpl(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, TransmissionsLoader transmissionsLoader) {
+        this(transmissionDispatcher, serializer, transmissionsLoader, 0);
+    }
+
+    /**
+     * @param compressionThreads The number of threads that compress the batches, with 0 they are
+     *                           compressed by the two threads that send them
+     */
+    public TransmitterImpl(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, TransmissionsLoader transmissionsLoader,
+                           int compressionThreads) {
+        this(transmissionDispatcher, serializer, transmissionsLoader, compressionThreads,
+                OverflowPolicy.DROP_NEWEST, MAX_PENDING_BATCHES, DEFAULT_BLOCK_TIMEOUT_IN_MILLIS, null);
+    }
+
+    /**
+     * @param compressionThreads The number of threads that compress the batches, with 0 they are
+     *                           compressed by the two threads that send them
+     * @param overflowPolicy What 'sendNow' does when there are already 'maxPendingBatches' pending batches
+     * @param maxPendingBatches The maximum number of batches that wait to be sent, at most {@link #MAX_PENDING_BATCHES},
+     *                          and separately the maximum number of pending scheduled sends
+     * @param blockTimeoutInMillis How long 'sendNow' waits for room with {@link OverflowPolicy#BLOCK_WITH_TIMEOUT}
+     * @param spillOutput The storage batches are written to with {@link OverflowPolicy#SPILL_TO_DISK}, may be null otherwise
+     */
+    public TransmitterImpl(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, TransmissionsLoader transmissionsLoader,
+                           int compressionThreads, OverflowPolicy overflowPolicy, int maxPendingBatches, long blockTimeoutInMillis,
+                           TransmissionOutput spillOutput) {
         Preconditions.checkNotNull(transmissionDispatcher, "transmissionDispatcher must be non-null value");
         Preconditions.checkNotNull(serializer, "serializer must be non-null value");
         Preconditions.checkNotNull(transmissionsLoader, "transmissionsLoader must be non-null value");
+        Preconditions.checkNotNull(overflowPolicy, "overflowPolicy must be non-null value");
+        Preconditions.checkArgument(maxPendingBatches > 0 && maxPendingBatches <= MAX_PENDING_BATCHES,
+                "maxPendingBatches must be between 1 and " + MAX_PENDING_BATCHES);
+        Preconditions.checkArgument(blockTimeoutInMillis >= 0, "blockTimeoutInMillis must not be negative");
+        Preconditions.checkArgument(overflowPolicy != OverflowPolicy.SPILL_TO_DISK || spillOutput != null,
+                "spillOutput must be non-null value when spilling to disk");
 
         this.transmissionDispatcher = transmissionDispatcher;
         this.serializer = serializer;
+        this.compressionStage = new CompressionStage(transmissionDispatcher, serializer, compressionThreads, instanceId);
+        this.sendNowHandler = new SendNowHandler(compressionStage, pendingBatches);
+        this.overflowPolicy = overflowPolicy;
+        this.maxPendingBatches = maxPendingBatches;
+        this.blockTimeoutInMillis = blockTimeoutInMillis;
+        this.spillOutput = spillOutput;
+        if (overflowPolicy == OverflowPolicy.SPILL_TO_DISK) {
+            spillThread = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(maxPendingBatches),
+                    ThreadPoolUtils.createDaemonThreadFactory(TransmitterImpl.class, "spill_" + instanceId),
+                    new ThreadPoolExecutor.AbortPolicy());
+        } else {
+            spillThread = null;
+        }
 
-        semaphore = new Semaphore(MAX_PENDING_SCHEDULE_REQUESTS);
+        semaphore = new Semaphore(maxPendingBatches);
+        scheduledSemaphore = new Semaphore(maxPendingBatches);
 
         threadPool = Executors.newScheduledThreadPool(2, ThreadPoolUtils.createDaemonThreadFactory(TransmitterImpl.class, instanceId));
 
@@ -145,20 +233,26 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
         this.transmissionsLoader.load(false);
     }
 
+    /**
+     * Schedules the fetcher to be run by the internal threads.
+     *
+     * @return False if there are already too many pending scheduled sends, the caller should then
+     *         send its telemetries with {@link #sendNow(Collection)} so that the {@link OverflowPolicy} applies.
+     */
     @Override
     public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
         Preconditions.checkNotNull(telemetriesFetcher, "telemetriesFetcher should be non-null value");
 
-        if (!semaphore.tryAcquire()) {
+        if (!scheduledSemaphore.tryAcquire()) {
             return false;
         }
 
         try {
-            final Runnable command = new ScheduledSendHandler(transmissionDispatcher, telemetriesFetcher, serializer);
+            final Runnable command = new ScheduledSendHandler(compressionStage, telemetriesFetcher);
             threadPool.schedule(new Runnable() {
                 public void run() {
                     try {
-                        semaphore.release();
+                        scheduledSemaphore.release();
                         command.run();
                     } catch (ThreadDeath td) {
                         throw td;
@@ -180,7 +274,7 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
             throw td;
         } catch (Throwable t) {
             try {
-                semaphore.release();
+                scheduledSemaphore.release();
                 InternalLogger.INSTANCE.error("Error in scheduledSend of telemetry items failed. %d items were not sent ", telemetriesFetcher.fetch().size());
                 InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(t));
             } catch (ThreadDeath td) {
@@ -193,21 +287,133 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
         return true;
     }
 
+    /**
+     * Queues the batch to be compressed and sent by the internal threads. When there are already
+     * too many pending batches the {@link OverflowPolicy} decides what happens, and the items that
+     * are lost because of it are counted.
+     *
+     * @return False if the batch was dropped.
+     */
     @Override
-    public boolean sendNow(Collection<String> telemetries) {
+    public boolean sendNow(Collection<byte[]> telemetries) {
         Preconditions.checkNotNull(telemetries, "telemetries should be non-null value");
 
-        if (!semaphore.tryAcquire()) {
-            return false;
+        if (telemetries.isEmpty()) {
+            return true;
+        }
+
+        if (semaphore.tryAcquire()) {
+            return enqueue(telemetries);
+        }
+
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                return replaceOldest(telemetries);
+
+            case SPILL_TO_DISK:
+                return spill(telemetries);
+
+            case BLOCK_WITH_TIMEOUT:
+                return waitAndEnqueue(telemetries);
+
+            default:
+                droppedNewestItems.addAndGet(telemetries.size());
+                return false;
         }
+    }
+
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        transmissionsLoader.stop(timeout, timeUnit);
+        ThreadPoolUtils.stop(threadPool, timeout, timeUnit);
+        ThreadPoolUtils.stop(spillThread, timeout, timeUnit);
+        compressionStage.stop(timeout, timeUnit);
+        transmissionDispatcher.stop(timeout, timeUnit);
+    }
+
+    public CompressionStage getCompressionStage() {
+        return compressionStage;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public int getMaxPendingBatches() {
+        return maxPendingBatches;
+    }
+
+    /**
+     * The number of batches that wait for the sending threads.
+     */
+    public int getPendingBatches() {
+        return maxPendingBatches - semaphore.availablePermits();
+    }
+
+    /**
+     * The number of scheduled sends whose time has not come yet.
+     */
+    public int getPendingScheduledSends() {
+        return maxPendingBatches - scheduledSemaphore.availablePermits();
+    }
+
+    /**
+     * The number of items dropped because there was no room for their batch, with {@link OverflowPolicy#DROP_NEWEST}.
+     */
+    public long getDroppedNewestItems() {
+        return droppedNewestItems.get();
+    }
+
+    /**
+     * The number of items dropped to make room for newer batches, with {@link OverflowPolicy#DROP_OLDEST}.
+     */
+    public long getDroppedOldestItems() {
+        return droppedOldestItems.get();
+    }
 
-        final Runnable command = new SendNowHandler(transmissionDispatcher, serializer, telemetries);
+    /**
+     * The number of items dropped after waiting for room, with {@link OverflowPolicy#BLOCK_WITH_TIMEOUT}.
+     */
+    public long getTimedOutItems() {
+        return timedOutItems.get();
+    }
+
+    /**
+     * The number of items that could not be written to disk, or found too many batches waiting to be written,
+     * and were dropped, with {@link OverflowPolicy#SPILL_TO_DISK}.
+     */
+    public long getNotSpilledItems() {
+        return notSpilledItems.get();
+    }
+
+    /**
+     * The number of items written to disk instead of being queued, with {@link OverflowPolicy#SPILL_TO_DISK}.
+     */
+    public long getSpilledItems() {
+        return spilledItems.get();
+    }
+
+    /**
+     * The number of items dropped under any of the policies.
+     */
+    public long getDroppedItems() {
+        return droppedNewestItems.get() + droppedOldestItems.get() + timedOutItems.get() + notSpilledItems.get();
+    }
+
+    /**
+     * Must be called with a permit of the semaphore, which is released when the batch is taken for sending.
+     */
+    private boolean enqueue(Collection<byte[]> telemetries) {
+        synchronized (pendingBatches) {
+            pendingBatches.offerLast(telemetries);
+        }
+        SdkMetrics.INSTANCE.getQueueDepth().record(getPendingBatches());
         try {
             threadPool.execute(new Runnable() {
                 public void run() {
                     try {
                         semaphore.release();
-                        command.run();
+                        sendNowHandler.run();
                     } catch (ThreadDeath td) {
                         throw td;
                     } catch (Throwable t) {
@@ -219,7 +425,6 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
                         } catch (Throwable t2) {
                             // chomp
                         }
-                    } finally {
                     }
                 }
             });
@@ -229,6 +434,9 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
             throw td;
         } catch (Throwable t) {
             try {
+                synchronized (pendingBatches) {
+                    pendingBatches.removeLastOccurrence(telemetries);
+                }
                 semaphore.release();
                 InternalLogger.INSTANCE.error("Error in scheduledSend of telemetry items failed. %d items were not sent ", telemetries.size());
                 InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(t));
@@ -242,10 +450,82 @@ public final class TransmitterImpl implements TelemetriesTransmitter<String> {
         return false;
     }
 
-    @Override
-    public void stop(long timeout, TimeUnit timeUnit) {
-        transmissionsLoader.stop(timeout, timeUnit);
-        ThreadPoolUtils.stop(threadPool, timeout, timeUnit);
-        transmissionDispatcher.stop(timeout, timeUnit);
+    private boolean replaceOldest(Collection<byte[]> telemetries) {
+        // The new batch takes the place of the oldest one, and of the permit and the run that were submitted for it.
+        // Both are done under the lock the runs poll with, so that no run finds the deque empty in between.
+        Collection<byte[]> oldest;
+        synchronized (pendingBatches) {
+            oldest = pendingBatches.pollFirst();
+            if (oldest != null) {
+                pendingBatches.offerLast(telemetries);
+            }
+        }
+        if (oldest != null) {
+            droppedOldestItems.addAndGet(oldest.size());
+            return true;
+        }
+
+        // All the permits are held by scheduled sends or were just released
+        if (semaphore.tryAcquire()) {
+            return enqueue(telemetries);
+        }
+
+        droppedOldestItems.addAndGet(telemetries.size());
+        return false;
+    }
+
+    /**
+     * @return False if there are already too many batches waiting to be spilled, the batch is then dropped.
+     */
+    private boolean spill(final Collection<byte[]> telemetries) {
+        try {
+            spillThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writeToDisk(telemetries);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            // The spill queue is full as well, or the transmitter is stopping
+            notSpilledItems.addAndGet(telemetries.size());
+            return false;
+        }
+    }
+
+    private void writeToDisk(Collection<byte[]> telemetries) {
+        try {
+            Optional<Transmission> transmission = serializer.serialize(telemetries);
+            if (transmission.isPresent() && spillOutput.send(transmission.get())) {
+                spilledItems.addAndGet(telemetries.size());
+                return;
+            }
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("Failed to spill %d telemetry items to disk, exception: %s", telemetries.size(), t.toString());
+                InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(t));
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+
+        notSpilledItems.addAndGet(telemetries.size());
+    }
+
+    private boolean waitAndEnqueue(Collection<byte[]> telemetries) {
+        try {
+            if (semaphore.tryAcquire(blockTimeoutInMillis, TimeUnit.MILLISECONDS)) {
+                return enqueue(telemetries);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        timedOutItems.addAndGet(telemetries.size());
+        return false;
     }
 }
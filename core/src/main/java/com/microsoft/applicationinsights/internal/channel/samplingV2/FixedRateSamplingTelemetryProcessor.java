@@ -3,6 +3,7 @@ package com.microsoft.applicationinsights.internal.channel.samplingV2;
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
 import com.microsoft.applicationinsights.telemetry.EventTelemetry;
 import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
 import com.microsoft.applicationinsights.telemetry.PageViewTelemetry;
@@ -171,6 +172,7 @@ public final class FixedRateSamplingTelemetryProcessor implements TelemetryProce
                 if (SamplingScoreGeneratorV2.getSamplingScore(telemetry) >= sp) {
 
                     InternalLogger.INSTANCE.info("Item %s sampled out", telemetry.getClass().getSimpleName());
+                    SdkMetrics.INSTANCE.getItemsSampledOut().increment();
                     return false;
                 }
 
@@ -182,6 +184,40 @@ public final class FixedRateSamplingTelemetryProcessor implements TelemetryProce
         return true;
     }
 
+    /**
+     * Makes the sampling decision for an item that already has an operation id, before the telemetry
+     * initializers and processors run, so that an item that is sampled out skips that work.
+     * Items without an operation id are left to {@link #process(Telemetry)}, since an initializer might still set it.
+     *
+     * @param telemetry
+     * @return true if the item is sampled out
+     */
+    public boolean isSampledOutEarly(Telemetry telemetry) {
+        if (!(telemetry instanceof SupportSampling) || !isSamplingApplicable(telemetry.getClass())) {
+            return false;
+        }
+
+        Double sp = ((SupportSampling) telemetry).getSamplingPercentage();
+        if (sp == null) {
+            sp = this.samplingPercentage;
+        }
+        if (sp >= DEFAULT_SAMPLING_PERCENTAGE) {
+            return false;
+        }
+
+        String operationId = telemetry.getContext().getOperation().getId();
+        if (StringUtils.isEmpty(operationId)) {
+            return false;
+        }
+
+        if (SamplingScoreGeneratorV2.getSamplingScore(operationId) >= sp) {
+            InternalLogger.INSTANCE.info("Item %s sampled out", telemetry.getClass().getSimpleName());
+            return true;
+        }
+
+        return false;
+    }
+
     /**
      * Determines if the argument is applicable for sampling
      *
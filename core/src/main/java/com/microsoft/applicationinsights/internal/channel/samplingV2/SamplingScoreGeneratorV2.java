@@ -14,6 +14,21 @@ public class SamplingScoreGeneratorV2 {
 
     private static Random random = new Random();
 
+    private static final int SCORE_CACHE_SIZE = 1024;
+
+    /// Scores of recent operation ids, so the items of an operation hash its id only once
+    private static final ScoreCacheEntry[] scoreCache = new ScoreCacheEntry[SCORE_CACHE_SIZE];
+
+    private static final class ScoreCacheEntry {
+        final String operationId;
+        final double score;
+
+        ScoreCacheEntry(String operationId, double score) {
+            this.operationId = operationId;
+            this.score = score;
+        }
+    }
+
     /**
      * This method takes the telemetry and returns the hash of the operation id if it is present already
      * or uses the random number generator to generate the sampling score.
@@ -22,34 +37,63 @@ public class SamplingScoreGeneratorV2 {
      */
     public static double getSamplingScore(Telemetry telemetry) {
 
-        double samplingScore = 0.0;
-
-        if (!StringUtils.isEmpty(telemetry.getContext().getOperation().getId())) {
-            samplingScore =  ((double) getSamplingHashCode(telemetry.getContext().getOperation().getId()) / Integer.MAX_VALUE);
+        String operationId = telemetry.getContext().getOperation().getId();
+        if (!StringUtils.isEmpty(operationId)) {
+            return getSamplingScore(operationId);
         }
 
-        else {
-            long val = Math.abs(random.nextLong());
-            samplingScore =  ((double)Math.abs(val)/ Long.MAX_VALUE);
-        }
+        long val = Math.abs(random.nextLong());
+        double samplingScore =  ((double)Math.abs(val)/ Long.MAX_VALUE);
 
         return samplingScore * 100;
     }
 
-     static int getSamplingHashCode(String input) {
+    /**
+     * Returns the sampling score of an operation id, scores are cached by operation id.
+     * @param operationId A non empty operation id
+     * @return
+     */
+    static double getSamplingScore(String operationId) {
+        int hash = operationId.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (SCORE_CACHE_SIZE - 1);
+
+        // Entries are immutable, a racing thread at worst replaces an entry or computes the score again
+        ScoreCacheEntry entry = scoreCache[slot];
+        if (entry != null && entry.operationId.equals(operationId)) {
+            return entry.score;
+        }
+
+        double samplingScore = ((double) getSamplingHashCode(operationId) / Integer.MAX_VALUE);
+        double score = samplingScore * 100;
+        scoreCache[slot] = new ScoreCacheEntry(operationId, score);
+
+        return score;
+    }
+
+    /**
+     * The djb2 hash of the input repeated until it is at least 8 characters long,
+     * the same hash the other Application Insights SDKs compute so that all of them sample an operation alike.
+     * The repetitions are hashed in place instead of being built as a string.
+     * @param input
+     * @return a non-negative hash, 0 for an empty input
+     */
+    public static int getSamplingHashCode(String input) {
         if (StringUtils.isEmpty(input)) {
             return 0;
         }
 
-        StringBuilder inputBuilder = new StringBuilder(input);
-        while (inputBuilder.length() < 8) {
-            inputBuilder.append(input);
+        int length = input.length();
+        int hashedLength = length;
+        while (hashedLength < 8) {
+            hashedLength += length;
         }
 
         int hash = 5381;
 
-        for (int i = 0; i < inputBuilder.length(); ++i) {
-            hash = ((hash << 5) + hash) + (int) inputBuilder.charAt(i);
+        for (int repeated = 0; repeated < hashedLength; repeated += length) {
+            for (int i = 0; i < length; ++i) {
+                hash = ((hash << 5) + hash) + (int) input.charAt(i);
+            }
         }
 
         return hash == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(hash);
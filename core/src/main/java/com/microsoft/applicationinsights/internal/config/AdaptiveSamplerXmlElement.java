@@ -21,12 +21,16 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
+
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 
 /**
  * Created by gupele on 11/14/2016.
  */
-public class AdaptiveSamplerXmlElement {
+public class AdaptiveSamplerXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamAlias("IncludeTypes")
     private String includeTypes;
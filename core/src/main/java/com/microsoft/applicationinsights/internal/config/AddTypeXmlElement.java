@@ -21,6 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -33,7 +34,9 @@ import com.thoughtworks.xstream.annotations.XStreamImplicit;
 /**
  * Created by gupele on 3/15/2015.
  */
-public class AddTypeXmlElement {
+public class AddTypeXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamAsAttribute
     private String type;
@@ -21,6 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -31,7 +32,9 @@ import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 /**
  * Created by gupele on 3/15/2015.
  */
-public class ChannelXmlElement {
+public class ChannelXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamAlias("EndpointAddress")
     private String endpointAddress;
@@ -54,6 +57,39 @@ public class ChannelXmlElement {
     @XStreamAlias("MaxInstantRetry")
     private String maxInstantRetry;
 
+    @XStreamAlias("LockFreeTelemetryBuffer")
+    private boolean lockFreeTelemetryBuffer;
+
+    @XStreamAlias("SegmentedTransmissionStorage")
+    private boolean segmentedTransmissionStorage;
+
+    @XStreamAlias("CompressionThreads")
+    private String compressionThreads;
+
+    @XStreamAlias("AsyncNetworkSender")
+    private boolean asyncNetworkSender;
+
+    @XStreamAlias("AsyncMaxConnectionsPerRoute")
+    private String asyncMaxConnectionsPerRoute;
+
+    @XStreamAlias("OverflowPolicy")
+    private String overflowPolicy;
+
+    @XStreamAlias("MaxPendingBatches")
+    private String maxPendingBatches;
+
+    @XStreamAlias("OverflowBlockTimeoutInMillis")
+    private String overflowBlockTimeoutInMillis;
+
+    @XStreamAlias("ReplayBandwidthInKBPerSecond")
+    private String replayBandwidthInKBPerSecond;
+
+    @XStreamAlias("ReplayThreads")
+    private String replayThreads;
+
+    @XStreamAlias("LocalForwarderSpillToDisk")
+    private boolean localForwarderSpillToDisk;
+
     @XStreamAsAttribute
     private String type = "com.microsoft.applicationinsights.channel.concrete.inprocess.InProcessTelemetryChannel";
 
@@ -122,6 +158,94 @@ public class ChannelXmlElement {
         this.maxInstantRetry = maxInstantRetry;
     }
 
+    public boolean getLockFreeTelemetryBuffer() {
+        return lockFreeTelemetryBuffer;
+    }
+
+    public void setLockFreeTelemetryBuffer(boolean lockFreeTelemetryBuffer) {
+        this.lockFreeTelemetryBuffer = lockFreeTelemetryBuffer;
+    }
+
+    public boolean getSegmentedTransmissionStorage() {
+        return segmentedTransmissionStorage;
+    }
+
+    public void setSegmentedTransmissionStorage(boolean segmentedTransmissionStorage) {
+        this.segmentedTransmissionStorage = segmentedTransmissionStorage;
+    }
+
+    public String getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    public void setCompressionThreads(String compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+    public boolean getAsyncNetworkSender() {
+        return asyncNetworkSender;
+    }
+
+    public void setAsyncNetworkSender(boolean asyncNetworkSender) {
+        this.asyncNetworkSender = asyncNetworkSender;
+    }
+
+    public String getAsyncMaxConnectionsPerRoute() {
+        return asyncMaxConnectionsPerRoute;
+    }
+
+    public void setAsyncMaxConnectionsPerRoute(String asyncMaxConnectionsPerRoute) {
+        this.asyncMaxConnectionsPerRoute = asyncMaxConnectionsPerRoute;
+    }
+
+    public String getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(String overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public String getMaxPendingBatches() {
+        return maxPendingBatches;
+    }
+
+    public void setMaxPendingBatches(String maxPendingBatches) {
+        this.maxPendingBatches = maxPendingBatches;
+    }
+
+    public String getOverflowBlockTimeoutInMillis() {
+        return overflowBlockTimeoutInMillis;
+    }
+
+    public void setOverflowBlockTimeoutInMillis(String overflowBlockTimeoutInMillis) {
+        this.overflowBlockTimeoutInMillis = overflowBlockTimeoutInMillis;
+    }
+
+    public String getReplayBandwidthInKBPerSecond() {
+        return replayBandwidthInKBPerSecond;
+    }
+
+    public void setReplayBandwidthInKBPerSecond(String replayBandwidthInKBPerSecond) {
+        this.replayBandwidthInKBPerSecond = replayBandwidthInKBPerSecond;
+    }
+
+    public String getReplayThreads() {
+        return replayThreads;
+    }
+
+    public void setReplayThreads(String replayThreads) {
+        this.replayThreads = replayThreads;
+    }
+
+    public boolean getLocalForwarderSpillToDisk() {
+        return localForwarderSpillToDisk;
+    }
+
+    public void setLocalForwarderSpillToDisk(boolean localForwarderSpillToDisk) {
+        this.localForwarderSpillToDisk = localForwarderSpillToDisk;
+    }
+
     public Map<String, String> getData() {
         HashMap<String, String> data = new HashMap<String, String>();
         if (developerMode) {
@@ -151,6 +275,50 @@ public class ChannelXmlElement {
 
         data.put("Throttling", throttling ? "true" : "false");
 
+        if (lockFreeTelemetryBuffer) {
+            data.put("LockFreeTelemetryBuffer", "true");
+        }
+
+        if (segmentedTransmissionStorage) {
+            data.put("SegmentedTransmissionStorage", "true");
+        }
+
+        if (!Strings.isNullOrEmpty(compressionThreads)) {
+            data.put("CompressionThreads", compressionThreads);
+        }
+
+        if (asyncNetworkSender) {
+            data.put("AsyncNetworkSender", "true");
+        }
+
+        if (!Strings.isNullOrEmpty(asyncMaxConnectionsPerRoute)) {
+            data.put("AsyncMaxConnectionsPerRoute", asyncMaxConnectionsPerRoute);
+        }
+
+        if (!Strings.isNullOrEmpty(overflowPolicy)) {
+            data.put("OverflowPolicy", overflowPolicy);
+        }
+
+        if (!Strings.isNullOrEmpty(maxPendingBatches)) {
+            data.put("MaxPendingBatches", maxPendingBatches);
+        }
+
+        if (!Strings.isNullOrEmpty(overflowBlockTimeoutInMillis)) {
+            data.put("OverflowBlockTimeoutInMillis", overflowBlockTimeoutInMillis);
+        }
+
+        if (!Strings.isNullOrEmpty(replayBandwidthInKBPerSecond)) {
+            data.put("ReplayBandwidthInKBPerSecond", replayBandwidthInKBPerSecond);
+        }
+
+        if (!Strings.isNullOrEmpty(replayThreads)) {
+            data.put("ReplayThreads", replayThreads);
+        }
+
+        if (localForwarderSpillToDisk) {
+            data.put("LocalForwarderSpillToDisk", "true");
+        }
+
         return data;
     }
 }
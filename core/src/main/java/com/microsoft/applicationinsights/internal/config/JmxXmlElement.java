@@ -21,13 +21,17 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
+
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 
 /**
  * Created by gupele on 3/15/2015.
  */
 @XStreamAlias("Add")
-public class JmxXmlElement {
+public class JmxXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private String displayName;
     private String objectName;
@@ -21,12 +21,16 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
+
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 
 /**
  * Created by gupele on 8/8/2016.
  */
-public class JvmXmlElement {
+public class JvmXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamAsAttribute
     private String name;
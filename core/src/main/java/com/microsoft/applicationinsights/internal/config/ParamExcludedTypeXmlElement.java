@@ -1,5 +1,6 @@
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
 import java.util.List;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
@@ -8,7 +9,9 @@ import com.thoughtworks.xstream.annotations.XStreamImplicit;
 /**
  * This is the class for binding the xml array list of {@code <ExcludedTypes>}
  */
-public class ParamExcludedTypeXmlElement {
+public class ParamExcludedTypeXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public List<String> getExcludedType() {
         return excludedType;
@@ -1,5 +1,6 @@
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
 import java.util.List;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
@@ -8,7 +9,9 @@ import com.thoughtworks.xstream.annotations.XStreamImplicit;
 /**
  * This class is used to bind the xml array list of {@code <IncludeTypes>}
  */
-public class ParamIncludedTypeXmlElement {
+public class ParamIncludedTypeXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public List<String> getIncludedType() {
         return includedType;
@@ -21,12 +21,16 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
+
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 
 /**
  * Created by yonisha on 3/16/2015.
  */
-public class ParamXmlElement {
+public class ParamXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamAsAttribute
     private String name;
@@ -21,6 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -32,7 +33,9 @@ import com.thoughtworks.xstream.annotations.XStreamImplicit;
 /**
  * Created by gupele on 8/8/2016.
  */
-public class PerformanceCounterJvmSectionXmlElement {
+public class PerformanceCounterJvmSectionXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamImplicit(itemFieldName = "JvmPC")
     private ArrayList<JvmXmlElement> jvmXmlElements;
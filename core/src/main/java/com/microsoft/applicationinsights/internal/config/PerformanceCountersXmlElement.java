@@ -21,6 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
@@ -29,7 +30,9 @@ import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 /**
  * Created by gupele on 3/15/2015.
  */
-public class PerformanceCountersXmlElement {
+public class PerformanceCountersXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamAlias("UseBuiltIn")
     private boolean useBuiltIn = true;
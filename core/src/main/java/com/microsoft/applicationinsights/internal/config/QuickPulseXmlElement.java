@@ -21,12 +21,16 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
+
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 
 /**
  * Created by gupele on 12/13/2016.
  */
-public class QuickPulseXmlElement {
+public class QuickPulseXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamAsAttribute
     private boolean enabled = true;
@@ -21,6 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -30,7 +31,9 @@ import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 /**
  * Created by gupele on 3/15/2015.
  */
-public class SDKLoggerXmlElement {
+public class SDKLoggerXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamAsAttribute
     private String type = "CONSOLE";
@@ -50,6 +53,9 @@ public class SDKLoggerXmlElement {
     @XStreamAlias("NumberOfTotalSizeInMB")
     private String numberOfTotalSizeInMB;
 
+    @XStreamAlias("Async")
+    private String async;
+
     public String getType() {
         return type;
     }
@@ -98,6 +104,14 @@ public class SDKLoggerXmlElement {
         this.numberOfTotalSizeInMB = numberOfTotalSizeInMB;
     }
 
+    public String getAsync() {
+        return async;
+    }
+
+    public void setAsync(String async) {
+        this.async = async;
+    }
+
     public Map<String, String> getData() {
         HashMap<String, String> data = new HashMap<String, String>();
         data.put("Level", getLevel());
@@ -105,6 +119,7 @@ public class SDKLoggerXmlElement {
         data.put("NumberOfFiles", getNumberOfFiles());
         data.put("NumberOfTotalSizeInMB", getNumberOfTotalSizeInMB());
         data.put("BaseFolderPath", getBaseFolderPath());
+        data.put("Async", getAsync());
         return data;
     }
 }
@@ -21,12 +21,16 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
+
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 
 /**
  * Created by gupele on 11/2/2016.
  */
-public class SamplerXmlElement {
+public class SamplerXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamAlias("Fixed")
     private FixedSamplerXmlElement fixedSamplerXmlElement;
@@ -0,0 +1,231 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * Builds the configuration from a binary snapshot of a previous build of the same configuration file,
+ * so that starting an application again does not load XStream nor parse the XML.
+ *
+ * The first build of a configuration file parses it with the XML builder and writes the snapshot.
+ * A snapshot is named after a digest of the file and the SDK version, so editing the file or
+ * upgrading the SDK builds from the XML again. Snapshots of other files are then deleted.
+ *
+ * Snapshots are Java serialization of the {@link ApplicationInsightsXmlConfiguration}, read back
+ * with only the configuration classes, strings and array lists allowed.
+ */
+class SnapshotAppInsightsConfigurationBuilder implements AppInsightsConfigurationBuilder {
+    static final String SNAPSHOT_FILE_EXTENSION = ".snapshot";
+
+    private static final String CONFIGURATION_CLASSES_PACKAGE = ApplicationInsightsXmlConfiguration.class.getPackage().getName() + ".";
+    private static final int MAX_CONFIGURATION_FILE_SIZE_IN_BYTES = 1024 * 1024;
+
+    private final AppInsightsConfigurationBuilder xmlBuilder;
+    private final File snapshotFolder;
+    private final String sdkVersion;
+
+    SnapshotAppInsightsConfigurationBuilder(AppInsightsConfigurationBuilder xmlBuilder, File snapshotFolder, String sdkVersion) {
+        Preconditions.checkNotNull(xmlBuilder, "xmlBuilder must be a non-null value");
+        Preconditions.checkNotNull(snapshotFolder, "snapshotFolder must be a non-null value");
+        Preconditions.checkNotNull(sdkVersion, "sdkVersion must be a non-null value");
+
+        this.xmlBuilder = xmlBuilder;
+        this.snapshotFolder = snapshotFolder;
+        this.sdkVersion = sdkVersion;
+    }
+
+    /**
+     * @param resourceFile input stream for resourceFile. Does not close stream.
+     * @return null if resourceFile is null or if there was an error parsing the file
+     */
+    @Override
+    public ApplicationInsightsXmlConfiguration build(InputStream resourceFile) {
+        if (resourceFile == null) {
+            return null;
+        }
+
+        byte[] xml;
+        try {
+            xml = readConfigurationFile(resourceFile);
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to read configuration file: '%s'", ExceptionUtils.getStackTrace(e));
+            return null;
+        }
+
+        String snapshotName = getSnapshotName(xml);
+        if (snapshotName == null) {
+            return xmlBuilder.build(new ByteArrayInputStream(xml));
+        }
+
+        File snapshotFile = new File(snapshotFolder, snapshotName);
+        ApplicationInsightsXmlConfiguration configuration = readSnapshot(snapshotFile);
+        if (configuration != null) {
+            InternalLogger.INSTANCE.trace("Configuration was built from snapshot '%s'", snapshotFile);
+            return configuration;
+        }
+
+        configuration = xmlBuilder.build(new ByteArrayInputStream(xml));
+        if (configuration != null) {
+            writeSnapshot(configuration, snapshotFile);
+        }
+        return configuration;
+    }
+
+    private static byte[] readConfigurationFile(InputStream resourceFile) throws IOException {
+        ByteArrayOutputStream xml = new ByteArrayOutputStream(8192);
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = resourceFile.read(chunk)) != -1) {
+            xml.write(chunk, 0, read);
+            if (xml.size() > MAX_CONFIGURATION_FILE_SIZE_IN_BYTES) {
+                throw new IOException("Configuration file is larger than " + MAX_CONFIGURATION_FILE_SIZE_IN_BYTES + " bytes");
+            }
+        }
+        return xml.toByteArray();
+    }
+
+    private String getSnapshotName(byte[] xml) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(sdkVersion.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(xml);
+
+            StringBuilder name = new StringBuilder(64 + SNAPSHOT_FILE_EXTENSION.length());
+            for (byte b : digest.digest()) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.append(SNAPSHOT_FILE_EXTENSION).toString();
+        } catch (NoSuchAlgorithmException e) {
+            InternalLogger.INSTANCE.warn("Configuration snapshots are disabled, SHA-256 is not available");
+            return null;
+        }
+    }
+
+    private static ApplicationInsightsXmlConfiguration readSnapshot(File snapshotFile) {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+
+        try (ObjectInputStream input = new ConfigurationObjectInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            Object configuration = input.readObject();
+            if (configuration instanceof ApplicationInsightsXmlConfiguration) {
+                return (ApplicationInsightsXmlConfiguration) configuration;
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            InternalLogger.INSTANCE.trace("Configuration snapshot '%s' could not be read: %s", snapshotFile, ExceptionUtils.getStackTrace(e));
+        }
+
+        // Unreadable snapshots are rewritten by this build
+        if (!snapshotFile.delete()) {
+            InternalLogger.INSTANCE.trace("Failed to delete configuration snapshot '%s'", snapshotFile);
+        }
+        return null;
+    }
+
+    private void writeSnapshot(ApplicationInsightsXmlConfiguration configuration, File snapshotFile) {
+        if (!snapshotFolder.isDirectory() && !snapshotFolder.mkdirs()) {
+            InternalLogger.INSTANCE.warn("Failed to create configuration snapshot folder '%s'", snapshotFolder);
+            return;
+        }
+
+        File tempFile = null;
+        try {
+            // Written aside and renamed, so that another process starting at the same time never reads half a snapshot
+            tempFile = File.createTempFile("config", ".tmp", snapshotFolder);
+            try (ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                output.writeObject(configuration);
+            }
+            if (!tempFile.renameTo(snapshotFile) && !snapshotFile.isFile()) {
+                InternalLogger.INSTANCE.warn("Failed to move configuration snapshot to '%s'", snapshotFile);
+                return;
+            }
+            deleteOtherSnapshots(snapshotFile.getName());
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.warn("Failed to write configuration snapshot '%s': %s", snapshotFile, ExceptionUtils.getStackTrace(e));
+        } finally {
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+                InternalLogger.INSTANCE.trace("Failed to delete '%s'", tempFile);
+            }
+        }
+    }
+
+    private void deleteOtherSnapshots(final String currentSnapshotName) {
+        File[] snapshots = snapshotFolder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SNAPSHOT_FILE_EXTENSION) && !name.equals(currentSnapshotName);
+            }
+        });
+        if (snapshots == null) {
+            return;
+        }
+        for (File snapshot : snapshots) {
+            if (!snapshot.delete()) {
+                InternalLogger.INSTANCE.trace("Failed to delete configuration snapshot '%s'", snapshot);
+            }
+        }
+    }
+
+    /**
+     * Only resolves the classes a configuration is made of, so a snapshot cannot create anything else.
+     */
+    private static final class ConfigurationObjectInputStream extends ObjectInputStream {
+        ConfigurationObjectInputStream(InputStream input) throws IOException {
+            super(input);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            if (!name.startsWith(CONFIGURATION_CLASSES_PACKAGE)
+                    && !name.equals(String.class.getName())
+                    && !name.equals(ArrayList.class.getName())) {
+                throw new InvalidClassException(name, "Class is not allowed in a configuration snapshot");
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
@@ -24,6 +24,7 @@ package com.microsoft.applicationinsights.internal.config;
 import com.microsoft.applicationinsights.channel.concrete.localforwarder.LocalForwarderTelemetryChannel;
 import com.microsoft.applicationinsights.internal.channel.samplingV2.FixedRateSamplingTelemetryProcessor;
 import com.microsoft.applicationinsights.internal.heartbeat.HeartBeatModule;
+import java.io.File;
 import java.io.InputStream;
 import java.util.HashSet;
 import java.util.Map;
@@ -50,13 +51,16 @@ import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounter
 
 import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.internal.perfcounter.ProcessPerformanceCountersModule;
+import com.microsoft.applicationinsights.internal.processor.ExceptionDeduplicationFilter;
 import com.microsoft.applicationinsights.internal.processor.PageViewTelemetryFilter;
 import com.microsoft.applicationinsights.internal.processor.RequestTelemetryFilter;
 import com.microsoft.applicationinsights.internal.processor.SyntheticSourceFilter;
 import com.microsoft.applicationinsights.internal.processor.TelemetryEventFilter;
 import com.microsoft.applicationinsights.internal.processor.TraceTelemetryFilter;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulse;
+import com.microsoft.applicationinsights.internal.util.LocalFileSystemUtils;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+import com.microsoft.applicationinsights.internal.util.PropertyHelper;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 /**
@@ -82,12 +86,20 @@ public enum TelemetryConfigurationFactory {
      */
     public static final String PERFORMANCE_MODULES_SCANNING_ENABLED_PROPERTY = "applicationinsights.modules.performance.scanning.enabled";
 
+    /**
+     * This enables building the configuration from a binary snapshot of the configuration file, written the first time it is parsed.
+     * If set "true" (case insensitive) snapshots will be used. Otherwise (by default), the configuration file is parsed on every start.
+     */
+    public static final String CONFIGURATION_SNAPSHOT_ENABLED_PROPERTY = "applicationinsights.configuration.snapshot.enabled";
+
+    private static final String CONFIGURATION_SNAPSHOT_FOLDER = "configuration";
+
     private String performanceCountersSection = DEFAULT_PERFORMANCE_MODULES_PACKAGE;
 
     static final String EXTERNAL_PROPERTY_IKEY_NAME = "APPLICATION_INSIGHTS_IKEY";
     static final String EXTERNAL_PROPERTY_IKEY_NAME_SECONDARY = "APPINSIGHTS_INSTRUMENTATIONKEY";
 
-    private AppInsightsConfigurationBuilder builder = new JaxbAppInsightsConfigurationBuilder();
+    private AppInsightsConfigurationBuilder builder = createBuilder();
 
     private static final Set<String> defaultPerformaceModuleClassNames = new HashSet<>();
 
@@ -103,6 +115,16 @@ public enum TelemetryConfigurationFactory {
     TelemetryConfigurationFactory() {
     }
 
+    private static AppInsightsConfigurationBuilder createBuilder() {
+        AppInsightsConfigurationBuilder xmlBuilder = new JaxbAppInsightsConfigurationBuilder();
+        if (!System.getProperty(CONFIGURATION_SNAPSHOT_ENABLED_PROPERTY, "false").equalsIgnoreCase("true")) {
+            return xmlBuilder;
+        }
+
+        File snapshotFolder = new File(LocalFileSystemUtils.getTempDir(), CONFIGURATION_SNAPSHOT_FOLDER);
+        return new SnapshotAppInsightsConfigurationBuilder(xmlBuilder, snapshotFolder, PropertyHelper.getQualifiedSdkVersionString());
+    }
+
     /**
      * Currently we do the following:
      *
@@ -271,6 +293,7 @@ public enum TelemetryConfigurationFactory {
 
     private void addDefaultBuiltInProcessors(List<String> p) {
         p.add(FixedRateSamplingTelemetryProcessor.class.getCanonicalName());
+        p.add(ExceptionDeduplicationFilter.class.getCanonicalName());
         p.add(PageViewTelemetryFilter.class.getCanonicalName());
         p.add(RequestTelemetryFilter.class.getCanonicalName());
         p.add(SyntheticSourceFilter.class.getCanonicalName());
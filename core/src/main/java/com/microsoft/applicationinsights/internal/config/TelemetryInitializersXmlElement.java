@@ -21,6 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,7 +31,9 @@ import com.thoughtworks.xstream.annotations.XStreamImplicit;
 /**
  * Created by gupele on 3/15/2015.
  */
-public class TelemetryInitializersXmlElement {
+public class TelemetryInitializersXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamImplicit(itemFieldName = "Add")
     private ArrayList<AddTypeXmlElement> adds;
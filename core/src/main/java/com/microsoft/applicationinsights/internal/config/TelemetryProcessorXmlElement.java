@@ -21,6 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
@@ -31,7 +32,9 @@ import com.thoughtworks.xstream.annotations.XStreamImplicit;
  * Created by gupele on 7/26/2016.
  */
 @XStreamAlias("Processor")
-public class TelemetryProcessorXmlElement {
+public class TelemetryProcessorXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamAsAttribute
     private String type;
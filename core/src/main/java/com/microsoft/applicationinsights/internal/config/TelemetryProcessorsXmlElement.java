@@ -21,6 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
@@ -28,7 +29,9 @@ import com.thoughtworks.xstream.annotations.XStreamAlias;
 /**
  * Created by gupele on 7/26/2016.
  */
-public class TelemetryProcessorsXmlElement {
+public class TelemetryProcessorsXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamAlias("CustomProcessors")
     private ArrayList<TelemetryProcessorXmlElement> custom = new ArrayList<>();
@@ -21,6 +21,8 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.io.Serializable;
+
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 
@@ -28,7 +30,9 @@ import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
  * Created by gupele on 3/30/2015.
  */
 @XStreamAlias("Add")
-public class WindowsPerformanceCounterXmlElement {
+public class WindowsPerformanceCounterXmlElement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @XStreamAsAttribute
     private String displayName;
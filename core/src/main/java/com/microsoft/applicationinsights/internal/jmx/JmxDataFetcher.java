@@ -22,25 +22,45 @@
 package com.microsoft.applicationinsights.internal.jmx;
 
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+
+import java.io.Closeable;
+import java.io.IOException;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
-import javax.management.MBeanException;
+import javax.management.JMException;
 import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
 import javax.management.ReflectionException;
-import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
 import java.lang.management.ManagementFactory;
 
 /**
  * A utility class that knows how to fetch JMX data.
  *
+ * The object names that an object name pattern resolves to are kept until an MBean that matches the pattern
+ * is registered or unregistered, which the MBean server notifies. The attributes of each object are read
+ * with a single getAttributes call, and composite and tabular attribute paths are split once.
+ *
  * Created by gupele on 3/15/2015.
  */
 public class JmxDataFetcher {
@@ -53,6 +73,11 @@ public class JmxDataFetcher {
         REGULAR
     }
 
+    private static final ConcurrentMap<String, ResolvedObjectName> objectNames = new ConcurrentHashMap<String, ResolvedObjectName>();
+    private static final ConcurrentMap<String, AttributeAccessor> accessors = new ConcurrentHashMap<String, AttributeAccessor>();
+    /// Invalidates the cached object names, null while not added to the MBean server
+    private static RegistrationListener registrationListener;
+
     /**
      * Gets an object name and its attributes to fetch and will return the data.
      * @param objectName The object name to search.
@@ -65,66 +90,236 @@ public class JmxDataFetcher {
         Map<String, Collection<Object>> result = new HashMap<String, Collection<Object>>();
 
         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
-        Set<ObjectName> objects = server.queryNames(new ObjectName(objectName), null);
+        ResolvedObjectName resolved = getResolvedObjectName(server, objectName);
+        Set<ObjectName> objects = resolved.getObjects(server);
         if (objects.isEmpty()) {
             String errorMsg = String.format("Cannot find object name '%s'", objectName);
             throw new IllegalArgumentException(errorMsg);
         }
 
+        ArrayList<AttributeAccessor> attributeAccessors = new ArrayList<AttributeAccessor>(attributes.size());
+        Set<String> attributeNames = new LinkedHashSet<String>();
         for (JmxAttributeData attribute : attributes) {
+            AttributeAccessor accessor = getAccessor(attribute);
+            attributeAccessors.add(accessor);
+            attributeNames.add(accessor.attributeName);
+            result.put(attribute.displayName, new ArrayList<Object>());
+        }
+        String[] names = attributeNames.toArray(new String[attributeNames.size()]);
+
+        for (ObjectName object : objects) {
+            Map<String, Object> values;
             try {
-                Collection<Object> resultForAttribute = fetch(server, objects, attribute.name, attribute.type);
-                result.put(attribute.displayName, resultForAttribute);
-            } catch (Exception e) {
-                InternalLogger.INSTANCE.error("Failed to fetch JMX object '%s' with attribute '%s': '%s'", objectName, attribute.name, e.toString());
+                values = getAttributes(server, object, names);
+            } catch (InstanceNotFoundException e) {
+                resolved.invalidate();
+                InternalLogger.INSTANCE.error("Failed to fetch JMX object '%s': '%s'", objectName, e.toString());
                 throw e;
             }
+
+            int i = 0;
+            for (JmxAttributeData attribute : attributes) {
+                AttributeAccessor accessor = attributeAccessors.get(i++);
+                try {
+                    if (!values.containsKey(accessor.attributeName)) {
+                        throw new AttributeNotFoundException("No such attribute: " + accessor.attributeName);
+                    }
+                    Object obj = accessor.extract(values.get(accessor.attributeName));
+                    if (obj != null) {
+                        result.get(attribute.displayName).add(obj);
+                    }
+                } catch (Exception e) {
+                    InternalLogger.INSTANCE.error("Failed to fetch JMX object '%s' with attribute '%s': '%s'", objectName, attribute.name, e.toString());
+                    throw e;
+                }
+            }
         }
 
         return result;
     }
 
-    private static Collection<Object> fetch(MBeanServer server, Set<ObjectName> objects, String attributeName, String attributeType) throws AttributeNotFoundException, MBeanException, ReflectionException, InstanceNotFoundException {
-        ArrayList<Object> result = new ArrayList<Object>();
+    private static Map<String, Object> getAttributes(MBeanServer server, ObjectName object, String[] names) throws InstanceNotFoundException, ReflectionException {
+        // Attributes that could not be read are left out of the list
+        AttributeList list = server.getAttributes(object, names);
+        Map<String, Object> values = new HashMap<String, Object>(list.size() * 2);
+        for (Object item : list) {
+            Attribute attribute = (Attribute) item;
+            values.put(attribute.getName(), attribute.getValue());
+        }
+        return values;
+    }
 
-        String[] inners = null;
+    private static ResolvedObjectName getResolvedObjectName(MBeanServer server, String objectName) throws MalformedObjectNameException {
+        ResolvedObjectName resolved = objectNames.get(objectName);
+        if (resolved == null) {
+            boolean cached = listenToRegistrations(server);
+            resolved = new ResolvedObjectName(new ObjectName(objectName));
+            if (cached) {
+                ResolvedObjectName previous = objectNames.putIfAbsent(objectName, resolved);
+                if (previous != null) {
+                    resolved = previous;
+                }
+            }
+        }
+        return resolved;
+    }
 
-        AttributeType innerAttributeType = AttributeType.REGULAR;
-        if (COMPOSITE_ATTRIBUTE_TYPE.equals(attributeType)) {
-            innerAttributeType = AttributeType.COMPOSITE;
-        } else if (TABULAR_ATTRIBUTE_TYPE.equals(attributeType)) {
-            innerAttributeType = AttributeType.TABULAR;
+    private static AttributeAccessor getAccessor(JmxAttributeData attribute) {
+        String key = attribute.type + ':' + attribute.name;
+        AttributeAccessor accessor = accessors.get(key);
+        if (accessor == null) {
+            accessor = new AttributeAccessor(attribute.name, attribute.type);
+            AttributeAccessor previous = accessors.putIfAbsent(key, accessor);
+            if (previous != null) {
+                accessor = previous;
+            }
         }
+        return accessor;
+    }
 
-        if (innerAttributeType != AttributeType.REGULAR) {
-            inners = attributeName.split("\\.");
+    /**
+     * Starts listening to MBean registrations, once, until the SDK shuts down.
+     * @return false if the server does not allow it, in which case object names are resolved on every fetch.
+     */
+    private static synchronized boolean listenToRegistrations(final MBeanServer server) {
+        if (registrationListener != null) {
+            return true;
         }
 
-        for (ObjectName object : objects) {
+        try {
+            RegistrationListener listener = new RegistrationListener();
+            server.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, listener, null, null);
+            registrationListener = listener;
+            SDKShutdownActivity.INSTANCE.register(new Closeable() {
+                @Override
+                public void close() throws IOException {
+                    stopListeningToRegistrations(server);
+                }
+            });
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.warn("Failed to listen to MBean registrations, JMX object names will not be cached: '%s'", e.toString());
+        }
+        return registrationListener != null;
+    }
 
-            Object obj;
+    /**
+     * Removes the registration listener, which would otherwise keep the SDK classes reachable from the MBean server,
+     * and forgets the object names it kept up to date.
+     */
+    /* Visible for Testing */
+    static synchronized void stopListeningToRegistrations(MBeanServer server) throws IOException {
+        if (registrationListener == null) {
+            return;
+        }
 
-            if (inners != null) { // implies innerAttributeType != AttributeType.REGULAR
-                obj = server.getAttribute(object, inners[0]);
+        try {
+            server.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, registrationListener);
+        } catch (JMException e) {
+            throw new IOException(e);
+        } finally {
+            registrationListener = null;
+            objectNames.clear();
+        }
+    }
 
-                javax.management.openmbean.CompositeDataSupport compositeData = null;
-                if (innerAttributeType == AttributeType.TABULAR) {
-                    javax.management.openmbean.TabularDataSupport tabularData = (javax.management.openmbean.TabularDataSupport)obj;
-                    compositeData = (CompositeDataSupport) tabularData.get(inners[1]);
-                    obj = compositeData.get(inners[2]);
-                } else {
-                    compositeData = (javax.management.openmbean.CompositeDataSupport)obj;
-                    obj = compositeData.get(inners[1]);
+    /**
+     * Invalidates the object names whose pattern matches an MBean that was registered or unregistered.
+     */
+    private static final class RegistrationListener implements NotificationListener {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!(notification instanceof MBeanServerNotification)) {
+                return;
+            }
+
+            ObjectName changed = ((MBeanServerNotification) notification).getMBeanName();
+            for (ResolvedObjectName resolved : objectNames.values()) {
+                if (resolved.pattern.apply(changed)) {
+                    resolved.invalidate();
                 }
+            }
+        }
+    }
+
+    /**
+     * An object name, which can be a pattern, and the names it resolved to when last queried.
+     *
+     * Every invalidation moves the generation on, and a query result is only used by the generation
+     * it started in: a registration that happens while the server is queried is not missed.
+     */
+    private static final class ResolvedObjectName {
+        private static final class Resolution {
+            final int generation;
+            final Set<ObjectName> objects;
+
+            Resolution(int generation, Set<ObjectName> objects) {
+                this.generation = generation;
+                this.objects = objects;
+            }
+        }
+
+        final ObjectName pattern;
+        private final AtomicInteger generation = new AtomicInteger();
+        private volatile Resolution resolution;
+
+        ResolvedObjectName(ObjectName pattern) {
+            this.pattern = pattern;
+        }
+
+        Set<ObjectName> getObjects(MBeanServer server) {
+            int currentGeneration = generation.get();
+            Resolution current = resolution;
+            if (current == null || current.generation != currentGeneration) {
+                current = new Resolution(currentGeneration, server.queryNames(pattern, null));
+                resolution = current;
+            }
+            return current.objects;
+        }
+
+        void invalidate() {
+            generation.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reads one attribute out of the value of an MBean attribute, following its composite or tabular path.
+     */
+    private static final class AttributeAccessor {
+        final String attributeName;
+        private final AttributeType type;
+        private final String[] inners;
+
+        AttributeAccessor(String name, String attributeType) {
+            if (COMPOSITE_ATTRIBUTE_TYPE.equals(attributeType)) {
+                type = AttributeType.COMPOSITE;
+            } else if (TABULAR_ATTRIBUTE_TYPE.equals(attributeType)) {
+                type = AttributeType.TABULAR;
             } else {
-                obj = server.getAttribute(object, attributeName);
+                type = AttributeType.REGULAR;
             }
-            if (obj != null) {
-                result.add(obj);
+
+            if (type != AttributeType.REGULAR) {
+                inners = name.split("\\.");
+                attributeName = inners[0];
+            } else {
+                inners = null;
+                attributeName = name;
             }
         }
 
-        return result;
+        Object extract(Object value) {
+            switch (type) {
+                case TABULAR:
+                    CompositeData row = (CompositeData) ((TabularData) value).get(new Object[] { inners[1] });
+                    return row.get(inners[2]);
+
+                case COMPOSITE:
+                    return ((CompositeData) value).get(inners[1]);
+
+                default:
+                    return value;
+            }
+        }
     }
 
     private JmxDataFetcher() {
@@ -0,0 +1,279 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * Folds metric values locally, per metric name and set of dimensions, and sends one aggregated
+ * {@link MetricTelemetry} per series every aggregation interval through its {@link TelemetryClient}.
+ *
+ * The number of series is limited, values of series past the limit are not aggregated and
+ * {@link #getSeries(String, Map)} returns null for them.
+ *
+ * All the aggregators share one daemon thread that is stopped when the SDK shuts down. That thread only holds
+ * an aggregator weakly: the periodic flush stops on {@link #close()} or once the aggregator, and the client
+ * it belongs to, are garbage collected.
+ */
+public final class MetricAggregator {
+    private static final class SeriesKey {
+        private final String name;
+        private final Map<String, String> dimensions;
+        private final int hashCode;
+
+        private SeriesKey(String name, Map<String, String> dimensions) {
+            this.name = name;
+            this.dimensions = dimensions;
+            this.hashCode = 31 * name.hashCode() + dimensions.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof SeriesKey)) {
+                return false;
+            }
+            SeriesKey that = (SeriesKey) other;
+            return name.equals(that.name) && dimensions.equals(that.dimensions);
+        }
+    }
+
+    /**
+     * Flushes its aggregator every interval, until the aggregator is closed or collected.
+     */
+    private static final class FlushTask implements Runnable {
+        private final WeakReference<MetricAggregator> aggregator;
+        private volatile ScheduledFuture<?> future;
+
+        private FlushTask(MetricAggregator aggregator) {
+            this.aggregator = new WeakReference<MetricAggregator>(aggregator);
+        }
+
+        @Override
+        public void run() {
+            MetricAggregator current = aggregator.get();
+            if (current == null) {
+                cancel();
+                return;
+            }
+
+            try {
+                current.flush();
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                try {
+                    InternalLogger.INSTANCE.error("Error while sending aggregated metrics: '%s'", t.toString());
+                    InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(t));
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            }
+        }
+
+        private void cancel() {
+            ScheduledFuture<?> scheduled = future;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+
+    public final static long DEFAULT_AGGREGATION_INTERVAL_IN_SEC = 60;
+    public final static int MAX_SERIES_COUNT = 1000;
+
+    private static ScheduledThreadPoolExecutor threads;
+
+    private final TelemetryClient telemetryClient;
+
+    private final FlushTask flushTask;
+
+    // Series without dimensions are found by their name only, which does not allocate
+    private final ConcurrentMap<String, MetricSeries> seriesByName = new ConcurrentHashMap<String, MetricSeries>();
+    private final ConcurrentMap<SeriesKey, MetricSeries> seriesByKey = new ConcurrentHashMap<SeriesKey, MetricSeries>();
+    private final AtomicInteger seriesCount = new AtomicInteger();
+    private volatile boolean seriesLimitReported;
+
+    private volatile long periodStartInMillis = System.currentTimeMillis();
+
+    public MetricAggregator(TelemetryClient telemetryClient) {
+        this(telemetryClient, DEFAULT_AGGREGATION_INTERVAL_IN_SEC);
+    }
+
+    public MetricAggregator(TelemetryClient telemetryClient, long aggregationIntervalInSec) {
+        Preconditions.checkNotNull(telemetryClient, "telemetryClient must be a non-null value");
+        Preconditions.checkArgument(aggregationIntervalInSec > 0, "aggregationIntervalInSec must be a positive number");
+
+        this.telemetryClient = telemetryClient;
+
+        flushTask = new FlushTask(this);
+        flushTask.future = getThreads().scheduleAtFixedRate(flushTask, aggregationIntervalInSec, aggregationIntervalInSec, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Gets the series of a metric, creating it if needed. Callers that track values in a loop
+     * should keep the series and call {@link MetricSeries#trackValue(double)} on it.
+     *
+     * @param name The name of the metric.
+     * @param dimensions The dimensions of the series, might be null.
+     * @return The series, or null if the limit of series was reached.
+     */
+    public MetricSeries getSeries(String name, Map<String, String> dimensions) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(name), "name must be a non-empty value");
+
+        if (dimensions == null || dimensions.isEmpty()) {
+            MetricSeries series = seriesByName.get(name);
+            if (series != null) {
+                return series;
+            }
+            if (!reserveSeries()) {
+                return null;
+            }
+            series = new MetricSeries(name, null);
+            MetricSeries existing = seriesByName.putIfAbsent(name, series);
+            if (existing != null) {
+                seriesCount.decrementAndGet();
+                return existing;
+            }
+            return series;
+        }
+
+        MetricSeries series = seriesByKey.get(new SeriesKey(name, dimensions));
+        if (series != null) {
+            return series;
+        }
+        if (!reserveSeries()) {
+            return null;
+        }
+        Map<String, String> dimensionsCopy = Collections.unmodifiableMap(new HashMap<String, String>(dimensions));
+        series = new MetricSeries(name, dimensionsCopy);
+        MetricSeries existing = seriesByKey.putIfAbsent(new SeriesKey(name, dimensionsCopy), series);
+        if (existing != null) {
+            seriesCount.decrementAndGet();
+            return existing;
+        }
+        return series;
+    }
+
+    /**
+     * Adds a value to the aggregate of its series.
+     *
+     * @param name The name of the metric.
+     * @param value The value.
+     * @param dimensions The dimensions of the series, might be null.
+     * @return False if the limit of series was reached and the value was not aggregated.
+     */
+    public boolean trackValue(String name, double value, Map<String, String> dimensions) {
+        MetricSeries series = getSeries(name, dimensions);
+        if (series == null) {
+            return false;
+        }
+
+        series.trackValue(value);
+        return true;
+    }
+
+    /**
+     * Sends the aggregates of the current period and starts a new period.
+     */
+    public synchronized void flush() {
+        Date periodStart = new Date(periodStartInMillis);
+        periodStartInMillis = System.currentTimeMillis();
+
+        for (MetricSeries series : seriesByName.values()) {
+            send(series.takeAggregate(periodStart));
+        }
+        for (MetricSeries series : seriesByKey.values()) {
+            send(series.takeAggregate(periodStart));
+        }
+    }
+
+    /**
+     * Sends the aggregates of the current period and stops the periodic flush.
+     */
+    public void close() {
+        flushTask.cancel();
+        flush();
+    }
+
+    /* Visible for Testing */
+    boolean isScheduled() {
+        ScheduledFuture<?> scheduled = flushTask.future;
+        return scheduled != null && !scheduled.isDone();
+    }
+
+    private void send(MetricTelemetry aggregate) {
+        if (aggregate != null) {
+            telemetryClient.track(aggregate);
+        }
+    }
+
+    private boolean reserveSeries() {
+        if (seriesCount.incrementAndGet() <= MAX_SERIES_COUNT) {
+            return true;
+        }
+
+        seriesCount.decrementAndGet();
+        if (!seriesLimitReported) {
+            seriesLimitReported = true;
+            InternalLogger.INSTANCE.error("The limit of %d aggregated metric series was reached, values of new series are sent without aggregation", MAX_SERIES_COUNT);
+        }
+        return false;
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getThreads() {
+        if (threads == null) {
+            threads = new ScheduledThreadPoolExecutor(1, ThreadPoolUtils.createDaemonThreadFactory(MetricAggregator.class));
+            threads.setRemoveOnCancelPolicy(true);
+            SDKShutdownActivity.INSTANCE.register(threads);
+        }
+        return threads;
+    }
+}
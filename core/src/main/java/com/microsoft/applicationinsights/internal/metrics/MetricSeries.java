@@ -0,0 +1,178 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.internal.util.StripedLongCounter;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+/**
+ * One metric series, a metric name and a set of dimensions, whose values are aggregated locally.
+ *
+ * Values are folded into one of a few cells picked by the calling thread, the same way a
+ * {@link StripedLongCounter} picks its stripe. Every cell keeps the count, sum, min, max and
+ * the variance terms in primitives under its own lock.
+ * The cells are combined only when the aggregate is taken, once per aggregation interval.
+ */
+public final class MetricSeries {
+    private static final class Cell {
+        private long count;
+        private double sum;
+        private double mean;
+        private double m2;
+        private double min;
+        private double max;
+
+        // Keeps cells that were allocated together from sharing a cache line
+        @SuppressWarnings("unused")
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private final static int MAX_CELLS = 16;
+
+    private final String name;
+    private final Map<String, String> dimensions;
+    private final Cell[] cells;
+
+    MetricSeries(String name, Map<String, String> dimensions) {
+        this.name = name;
+        this.dimensions = dimensions == null ? Collections.<String, String>emptyMap() : dimensions;
+
+        int numberOfCells = Math.min(StripedLongCounter.numberOfStripes(), MAX_CELLS);
+        cells = new Cell[numberOfCells];
+        for (int i = 0; i < numberOfCells; ++i) {
+            cells[i] = new Cell();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, String> getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Adds a value to the current aggregate of this series.
+     *
+     * @param value The value to add.
+     */
+    public void trackValue(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+
+        Cell cell = cells[StripedLongCounter.stripeOfCurrentThread(cells.length)];
+        synchronized (cell) {
+            long count = ++cell.count;
+            cell.sum += value;
+
+            // Welford's update, which keeps the variance accurate for large values
+            double delta = value - cell.mean;
+            cell.mean += delta / count;
+            cell.m2 += delta * (value - cell.mean);
+
+            if (count == 1) {
+                cell.min = value;
+                cell.max = value;
+            } else {
+                if (value < cell.min) {
+                    cell.min = value;
+                }
+                if (value > cell.max) {
+                    cell.max = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the aggregate of the values that were tracked since the previous call and starts a new one.
+     *
+     * @param periodStart The time the aggregated period started.
+     * @return The aggregate as an {@link com.microsoft.applicationinsights.internal.schemav2.DataPointType#Aggregation},
+     * or null if no value was tracked.
+     */
+    MetricTelemetry takeAggregate(Date periodStart) {
+        long count = 0;
+        double sum = 0;
+        double mean = 0;
+        double m2 = 0;
+        double min = 0;
+        double max = 0;
+
+        for (Cell cell : cells) {
+            long cellCount;
+            double cellSum, cellMean, cellM2, cellMin, cellMax;
+            synchronized (cell) {
+                cellCount = cell.count;
+                if (cellCount == 0) {
+                    continue;
+                }
+                cellSum = cell.sum;
+                cellMean = cell.mean;
+                cellM2 = cell.m2;
+                cellMin = cell.min;
+                cellMax = cell.max;
+
+                cell.count = 0;
+                cell.sum = 0;
+                cell.mean = 0;
+                cell.m2 = 0;
+            }
+
+            if (count == 0) {
+                min = cellMin;
+                max = cellMax;
+            } else {
+                min = Math.min(min, cellMin);
+                max = Math.max(max, cellMax);
+            }
+
+            // Chan's formula for combining the variance terms of two sets
+            long total = count + cellCount;
+            double delta = cellMean - mean;
+            mean += delta * cellCount / total;
+            m2 += cellM2 + delta * delta * count * cellCount / total;
+            sum += cellSum;
+            count = total;
+        }
+
+        if (count == 0) {
+            return null;
+        }
+
+        MetricTelemetry telemetry = new MetricTelemetry(name, sum);
+        telemetry.setCount(count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) count);
+        telemetry.setMin(min);
+        telemetry.setMax(max);
+        telemetry.setStandardDeviation(Math.sqrt(m2 / count));
+        telemetry.getProperties().putAll(dimensions);
+        telemetry.setTimestamp(periodStart);
+
+        return telemetry;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.util.LongHistogram;
+import com.microsoft.applicationinsights.internal.util.StripedLongCounter;
+
+/**
+ * The metrics of the SDK's own pipeline, from the items tracked by the application to the
+ * transmissions sent to the endpoint, kept to capacity plan the SDK itself.
+ *
+ * The metrics are striped counters and histograms that the pipeline updates as it goes, they are
+ * published through JMX as '{@value #OBJECT_NAME}', until the SDK shuts down, and as metric telemetries by the {@link SdkMetricsModule}.
+ */
+public enum SdkMetrics {
+    INSTANCE;
+
+    public static final String OBJECT_NAME = "com.microsoft.applicationinsights:type=SdkMetrics";
+
+    private final StripedLongCounter itemsTracked = new StripedLongCounter();
+    private final StripedLongCounter itemsSampledOut = new StripedLongCounter();
+    private final StripedLongCounter serializedBytes = new StripedLongCounter();
+    private final StripedLongCounter retries = new StripedLongCounter();
+    private final StripedLongCounter spilledTransmissions = new StripedLongCounter();
+    private final StripedLongCounter replayedTransmissions = new StripedLongCounter();
+    private final LongHistogram batchSize = new LongHistogram();
+    private final LongHistogram compressionTimeInMicros = new LongHistogram();
+    private final LongHistogram sendLatencyInMillis = new LongHistogram();
+    private final LongHistogram queueDepth = new LongHistogram();
+
+    private final Map<String, StripedLongCounter> counters;
+    private final Map<String, LongHistogram> histograms;
+
+    SdkMetrics() {
+        Map<String, StripedLongCounter> counters = new LinkedHashMap<String, StripedLongCounter>();
+        counters.put("ItemsTracked", itemsTracked);
+        counters.put("ItemsSampledOut", itemsSampledOut);
+        counters.put("SerializedBytes", serializedBytes);
+        counters.put("Retries", retries);
+        counters.put("SpilledTransmissions", spilledTransmissions);
+        counters.put("ReplayedTransmissions", replayedTransmissions);
+        this.counters = Collections.unmodifiableMap(counters);
+
+        Map<String, LongHistogram> histograms = new LinkedHashMap<String, LongHistogram>();
+        histograms.put("BatchSize", batchSize);
+        histograms.put("CompressionTimeInMicros", compressionTimeInMicros);
+        histograms.put("SendLatencyInMillis", sendLatencyInMillis);
+        histograms.put("QueueDepth", queueDepth);
+        this.histograms = Collections.unmodifiableMap(histograms);
+
+        registerMBean();
+    }
+
+    /**
+     * The items given to an enabled telemetry client, whether they are sent or not, without the SDK metrics themselves.
+     */
+    public StripedLongCounter getItemsTracked() {
+        return itemsTracked;
+    }
+
+    public StripedLongCounter getItemsSampledOut() {
+        return itemsSampledOut;
+    }
+
+    /**
+     * The size of the items as uncompressed json.
+     */
+    public StripedLongCounter getSerializedBytes() {
+        return serializedBytes;
+    }
+
+    /**
+     * The transmissions dispatched again after they failed to be sent.
+     */
+    public StripedLongCounter getRetries() {
+        return retries;
+    }
+
+    /**
+     * The transmissions written to disk, to be sent later on.
+     */
+    public StripedLongCounter getSpilledTransmissions() {
+        return spilledTransmissions;
+    }
+
+    /**
+     * The transmissions read back from disk and dispatched by the replay scheduler.
+     */
+    public StripedLongCounter getReplayedTransmissions() {
+        return replayedTransmissions;
+    }
+
+    /**
+     * The number of items in a batch that is compressed into a transmission.
+     */
+    public LongHistogram getBatchSize() {
+        return batchSize;
+    }
+
+    public LongHistogram getCompressionTimeInMicros() {
+        return compressionTimeInMicros;
+    }
+
+    /**
+     * The time from sending a transmission to reading its response.
+     */
+    public LongHistogram getSendLatencyInMillis() {
+        return sendLatencyInMillis;
+    }
+
+    /**
+     * The number of batches that wait for the sending threads, recorded whenever a batch is queued.
+     */
+    public LongHistogram getQueueDepth() {
+        return queueDepth;
+    }
+
+    public Map<String, StripedLongCounter> getCounters() {
+        return counters;
+    }
+
+    public Map<String, LongHistogram> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * The current values, a counter by its name and a histogram by its name followed by
+     * 'Count', 'Mean', 'Max', 'P50', 'P95' and 'P99'.
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<String, Number>();
+        for (Map.Entry<String, StripedLongCounter> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        for (Map.Entry<String, LongHistogram> entry : histograms.entrySet()) {
+            String name = entry.getKey();
+            LongHistogram histogram = entry.getValue();
+            values.put(name + "Count", histogram.getCount());
+            values.put(name + "Mean", histogram.getMean());
+            values.put(name + "Max", histogram.getMax());
+            LongHistogram.Snapshot percentiles = histogram.snapshot();
+            values.put(name + "P50", percentiles.valueAtPercentile(50));
+            values.put(name + "P95", percentiles.valueAtPercentile(95));
+            values.put(name + "P99", percentiles.valueAtPercentile(99));
+        }
+        return values;
+    }
+
+    /* Visible for Testing */
+    void registerMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                // Left by an earlier deployment of the application, whose metrics are no longer updated
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new SdkMetricsMBean(this), name);
+
+            // Keeps the MBean server from holding on to the application's class loader once it is undeployed
+            SDKShutdownActivity.INSTANCE.register(new Closeable() {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        if (server.isRegistered(name)) {
+                            server.unregisterMBean(name);
+                        }
+                    } catch (JMException e) {
+                        throw new IOException(e);
+                    }
+                }
+            });
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.trace("Failed to register the SDK metrics with JMX: %s", t.toString());
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+}
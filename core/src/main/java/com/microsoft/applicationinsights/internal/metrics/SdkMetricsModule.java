@@ -0,0 +1,185 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.extensibility.TelemetryModule;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.util.LongHistogram;
+import com.microsoft.applicationinsights.internal.util.StripedLongCounter;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * Sends the {@link SdkMetrics} as metric telemetries every interval, it is added like this:
+ *
+ * <pre>
+ * {@code
+ *     <TelemetryModules>
+ *         <Add type="com.microsoft.applicationinsights.internal.metrics.SdkMetricsModule">
+ *             <Param name="IntervalInSeconds" value="60"/>
+ *         </Add>
+ *     </TelemetryModules>
+ * }
+ * </pre>
+ *
+ * A counter is sent as its increase during the interval, a histogram as the sum of the values
+ * recorded during the interval with their count, both named '{@value #METRIC_NAME_PREFIX}' followed by the metric's name.
+ * These telemetries go through the telemetry client like any other, but they are not counted in 'ItemsTracked'.
+ */
+public final class SdkMetricsModule implements TelemetryModule {
+    public static final String INTERVAL_IN_SECONDS_NAME = "IntervalInSeconds";
+    public static final long DEFAULT_INTERVAL_IN_SECONDS = 60;
+    public static final String METRIC_NAME_PREFIX = "ApplicationInsightsSdk.";
+
+    private final SdkMetrics metrics;
+
+    private final long intervalInSeconds;
+
+    // The values that were sent last, only touched by the publishing thread
+    private final Map<String, Long> lastCounts = new HashMap<String, Long>();
+    private final Map<String, Long> lastSums = new HashMap<String, Long>();
+
+    private ScheduledThreadPoolExecutor thread;
+
+    public SdkMetricsModule() {
+        this(SdkMetrics.INSTANCE, DEFAULT_INTERVAL_IN_SECONDS);
+    }
+
+    public SdkMetricsModule(Map<String, String> properties) {
+        this(SdkMetrics.INSTANCE, parseInterval(properties));
+    }
+
+    SdkMetricsModule(SdkMetrics metrics, long intervalInSeconds) {
+        this.metrics = metrics;
+        this.intervalInSeconds = intervalInSeconds;
+    }
+
+    public long getIntervalInSeconds() {
+        return intervalInSeconds;
+    }
+
+    @Override
+    public synchronized void initialize(TelemetryConfiguration configuration) {
+        if (thread != null) {
+            return;
+        }
+
+        final TelemetryClient telemetryClient = new TelemetryClient(configuration);
+        thread = new ScheduledThreadPoolExecutor(1, ThreadPoolUtils.createDaemonThreadFactory(SdkMetricsModule.class));
+        SDKShutdownActivity.INSTANCE.register(thread);
+
+        thread.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (MetricTelemetry telemetry : collect()) {
+                        telemetryClient.trackMetric(telemetry);
+                    }
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t) {
+                    try {
+                        InternalLogger.INSTANCE.error("Error while sending SDK metrics: '%s'", t.toString());
+                        InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(t));
+                    } catch (ThreadDeath td) {
+                        throw td;
+                    } catch (Throwable t2) {
+                        // chomp
+                    }
+                }
+            }
+        }, intervalInSeconds, intervalInSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates the telemetries of what changed since the last call, histograms without new values are left out.
+     */
+    /* Visible for Testing */
+    List<MetricTelemetry> collect() {
+        List<MetricTelemetry> telemetries = new ArrayList<MetricTelemetry>();
+        for (Map.Entry<String, StripedLongCounter> counter : metrics.getCounters().entrySet()) {
+            long increase = takeIncrease(lastCounts, counter.getKey(), counter.getValue().sum());
+            telemetries.add(new MetricTelemetry(METRIC_NAME_PREFIX + counter.getKey(), increase));
+        }
+
+        for (Map.Entry<String, LongHistogram> entry : metrics.getHistograms().entrySet()) {
+            String name = entry.getKey();
+            LongHistogram histogram = entry.getValue();
+            long sum = takeIncrease(lastSums, name, histogram.getSum());
+            long count = takeIncrease(lastCounts, name, histogram.getCount());
+            if (count == 0) {
+                continue;
+            }
+
+            MetricTelemetry telemetry = new MetricTelemetry(METRIC_NAME_PREFIX + name, sum);
+            telemetry.setCount((int) Math.min(count, Integer.MAX_VALUE));
+            telemetries.add(telemetry);
+        }
+        return telemetries;
+    }
+
+    /**
+     * @return True for the telemetries sent by this module, which are not items tracked by the application.
+     */
+    public static boolean isSdkMetric(Telemetry telemetry) {
+        if (!(telemetry instanceof MetricTelemetry)) {
+            return false;
+        }
+        String name = ((MetricTelemetry) telemetry).getName();
+        return name != null && name.startsWith(METRIC_NAME_PREFIX);
+    }
+
+    private static long takeIncrease(Map<String, Long> lastValues, String name, long value) {
+        Long last = lastValues.put(name, value);
+        return last == null ? value : value - last;
+    }
+
+    private static long parseInterval(Map<String, String> properties) {
+        String value = properties == null ? null : properties.get(INTERVAL_IN_SECONDS_NAME);
+        if (value == null) {
+            return DEFAULT_INTERVAL_IN_SECONDS;
+        }
+
+        try {
+            long interval = Long.parseLong(value.trim());
+            if (interval > 0) {
+                return interval;
+            }
+        } catch (NumberFormatException e) {
+            // falls through to the default
+        }
+        InternalLogger.INSTANCE.warn("Invalid %s '%s' for the SDK metrics, using %d", INTERVAL_IN_SECONDS_NAME, value, DEFAULT_INTERVAL_IN_SECONDS);
+        return DEFAULT_INTERVAL_IN_SECONDS;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.annotation.ProcessedTelemetryTypes;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * The class sends an exception once per interval for each exception fingerprint, the exception types and stack frames
+ * of the exception and its causes, and filters out the repeats.
+ * The first exception sent after repeats were filtered out carries their number in the {@value #DUPLICATE_COUNT_METRIC} metric.
+ * <p>
+ * Exceptions tracked without a {@link Throwable} are always sent.
+ * At most {@link #DEFAULT_MAX_FINGERPRINTS} fingerprints are tracked at once, after which the tracking starts over.
+ */
+@BuiltInProcessor("ExceptionDeduplicationFilter")
+@ProcessedTelemetryTypes(ExceptionTelemetry.class)
+public final class ExceptionDeduplicationFilter implements TelemetryProcessor {
+    public static final String DUPLICATE_COUNT_METRIC = "DuplicateCount";
+
+    static final long DEFAULT_INTERVAL_IN_SECONDS = 60;
+    static final int DEFAULT_MAX_FINGERPRINTS = 1000;
+
+    // Causes beyond that rarely tell exceptions apart
+    private static final int MAX_FINGERPRINT_CAUSES = 8;
+
+    private final ConcurrentMap<Long, Occurrences> occurrences = new ConcurrentHashMap<Long, Occurrences>();
+    private long intervalInMillis = TimeUnit.SECONDS.toMillis(DEFAULT_INTERVAL_IN_SECONDS);
+    private int maxFingerprints = DEFAULT_MAX_FINGERPRINTS;
+
+    @Override
+    public boolean process(Telemetry telemetry) {
+        return process(telemetry, System.currentTimeMillis());
+    }
+
+    /*@VisibleForTesting*/
+    boolean process(Telemetry telemetry, long nowInMillis) {
+        if (!(telemetry instanceof ExceptionTelemetry)) {
+            return true;
+        }
+
+        ExceptionTelemetry exceptionTelemetry = (ExceptionTelemetry) telemetry;
+        Throwable throwable = exceptionTelemetry.getThrowable();
+        if (throwable == null) {
+            return true;
+        }
+
+        Long fingerprint = fingerprint(throwable);
+        Occurrences current = occurrences.get(fingerprint);
+        if (current == null) {
+            if (occurrences.size() >= maxFingerprints) {
+                occurrences.clear();
+            }
+            current = occurrences.putIfAbsent(fingerprint, new Occurrences(nowInMillis));
+            if (current == null) {
+                return true;
+            }
+        }
+
+        long intervalStart = current.intervalStart.get();
+        if (nowInMillis - intervalStart >= intervalInMillis && current.intervalStart.compareAndSet(intervalStart, nowInMillis)) {
+            long duplicates = current.duplicates.getAndSet(0);
+            if (duplicates > 0) {
+                exceptionTelemetry.getMetrics().put(DUPLICATE_COUNT_METRIC, (double) duplicates);
+            }
+            return true;
+        }
+
+        current.duplicates.incrementAndGet();
+        return false;
+    }
+
+    public void setIntervalInSeconds(String intervalInSeconds) throws Throwable {
+        try {
+            long value = Long.parseLong(intervalInSeconds.trim());
+            if (value < 0) {
+                throw new IllegalArgumentException(String.format("IntervalInSeconds must not be negative: %s", intervalInSeconds));
+            }
+            this.intervalInMillis = TimeUnit.SECONDS.toMillis(value);
+            InternalLogger.INSTANCE.trace("ExceptionDeduplicationFilter: set IntervalInSeconds: %s", intervalInSeconds);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("ExceptionDeduplicationFilter: failed to parse IntervalInSeconds: %s, exception : %s",
+                        intervalInSeconds, ExceptionUtils.getStackTrace(t));
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+            throw t;
+        }
+    }
+
+    public void setMaxFingerprints(String maxFingerprints) throws Throwable {
+        try {
+            int value = Integer.parseInt(maxFingerprints.trim());
+            if (value < 1) {
+                throw new IllegalArgumentException(String.format("MaxFingerprints must be positive: %s", maxFingerprints));
+            }
+            this.maxFingerprints = value;
+            InternalLogger.INSTANCE.trace("ExceptionDeduplicationFilter: set MaxFingerprints: %s", maxFingerprints);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                InternalLogger.INSTANCE.error("ExceptionDeduplicationFilter: failed to parse MaxFingerprints: %s, exception : %s",
+                        maxFingerprints, ExceptionUtils.getStackTrace(t));
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+            throw t;
+        }
+    }
+
+    /*@VisibleForTesting*/
+    static long fingerprint(Throwable throwable) {
+        long hash = 17;
+        int causes = 0;
+        for (Throwable current = throwable; current != null && causes < MAX_FINGERPRINT_CAUSES; current = current.getCause(), causes++) {
+            hash = 31 * hash + current.getClass().getName().hashCode();
+            for (StackTraceElement element : current.getStackTrace()) {
+                hash = 31 * hash + element.hashCode();
+            }
+        }
+        return hash;
+    }
+
+    private static final class Occurrences {
+        final AtomicLong intervalStart;
+        final AtomicLong duplicates = new AtomicLong(0);
+
+        Occurrences(long intervalStart) {
+            this.intervalStart = new AtomicLong(intervalStart);
+        }
+    }
+}
@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.List;
 
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.annotation.ProcessedTelemetryTypes;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
@@ -39,6 +40,7 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
  * <p>
  * Created by gupele on 8/7/2016.
  */
+@ProcessedTelemetryTypes(MetricTelemetry.class)
 public final class MetricTelemetryFilter implements TelemetryProcessor {
     private HashSet<String> notNeeded = new HashSet<String>();
 
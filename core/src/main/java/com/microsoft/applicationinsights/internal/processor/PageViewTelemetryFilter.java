@@ -29,6 +29,7 @@ import java.util.Set;
 
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.annotation.ProcessedTelemetryTypes;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 import com.microsoft.applicationinsights.telemetry.PageViewTelemetry;
@@ -46,6 +47,7 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
  * Created by gupele on 7/26/2016.
  */
 @BuiltInProcessor("PageViewTelemetryFilter")
+@ProcessedTelemetryTypes(PageViewTelemetry.class)
 public final class PageViewTelemetryFilter implements TelemetryProcessor {
 
     private long durationThresholdInMS = 0l;
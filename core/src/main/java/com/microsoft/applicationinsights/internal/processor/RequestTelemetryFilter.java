@@ -21,6 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.processor;
 
+import java.util.BitSet;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.List;
@@ -29,6 +30,7 @@ import java.util.Arrays;
 
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.annotation.ProcessedTelemetryTypes;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 import com.microsoft.applicationinsights.telemetry.Duration;
@@ -46,6 +48,7 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
  * Created by gupele on 7/26/2016.
  */
 @BuiltInProcessor("RequestTelemetryFilter")
+@ProcessedTelemetryTypes(RequestTelemetry.class)
 public final class RequestTelemetryFilter implements TelemetryProcessor {
     private final class FromTo {
         public final int from;
@@ -57,9 +60,13 @@ public final class RequestTelemetryFilter implements TelemetryProcessor {
         }
     }
 
+    // response code ranges are looked up in a bit set up to this code, and scanned above it
+    private static final int MAX_INDEXED_RESPONSE_CODE = 999;
+
     private long minimumDurationInMS = 0;
     private boolean hasBlocked;
     private final Set<String> exactBadResponseCodes = new HashSet<String>();
+    private final BitSet ignoredResponseCodes = new BitSet(MAX_INDEXED_RESPONSE_CODE + 1);
     private final List<FromTo> ignoredResponseCodeRange = new ArrayList<FromTo>();
 
     public RequestTelemetryFilter() {
@@ -79,15 +86,12 @@ public final class RequestTelemetryFilter implements TelemetryProcessor {
             RequestTelemetry requestTelemetry = (RequestTelemetry) telemetry;
             String responseCode = requestTelemetry.getResponseCode();
 
-            if (exactBadResponseCodes.contains(requestTelemetry.getResponseCode())) {
+            if (!exactBadResponseCodes.isEmpty() && exactBadResponseCodes.contains(responseCode)) {
                 return false;
             }
 
-            int asInt = Integer.valueOf(responseCode);
-            for (FromTo fromTo : ignoredResponseCodeRange) {
-                if (fromTo.from <= asInt && fromTo.to >= asInt) {
-                    return false;
-                }
+            if (isInIgnoredRange(responseCode)) {
+                return false;
             }
 
             Duration requestDuration = requestTelemetry.getDuration();
@@ -103,6 +107,60 @@ public final class RequestTelemetryFilter implements TelemetryProcessor {
         return true;
     }
 
+    private void addIgnoredRange(int from, int to) {
+        if (from > to) {
+            return;
+        }
+        if (from >= 0 && from <= MAX_INDEXED_RESPONSE_CODE) {
+            ignoredResponseCodes.set(from, Math.min(to, MAX_INDEXED_RESPONSE_CODE) + 1);
+        }
+        if (from < 0 || to > MAX_INDEXED_RESPONSE_CODE) {
+            ignoredResponseCodeRange.add(new FromTo(from, to));
+        }
+    }
+
+    private boolean isInIgnoredRange(String responseCode) {
+        if (ignoredResponseCodes.isEmpty() && ignoredResponseCodeRange.isEmpty()) {
+            return false;
+        }
+
+        int asInt;
+        try {
+            asInt = parseResponseCode(responseCode);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        if (asInt >= 0 && asInt <= MAX_INDEXED_RESPONSE_CODE && ignoredResponseCodes.get(asInt)) {
+            return true;
+        }
+        for (FromTo fromTo : ignoredResponseCodeRange) {
+            if (fromTo.from <= asInt && fromTo.to >= asInt) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the usual response codes (up to 9 digits) without going through {@link Integer#parseInt(String)}.
+     */
+    private static int parseResponseCode(String responseCode) {
+        int length = responseCode == null ? 0 : responseCode.length();
+        if (length == 0 || length > 9) {
+            return Integer.parseInt(responseCode);
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = responseCode.charAt(i);
+            if (c < '0' || c > '9') {
+                return Integer.parseInt(responseCode);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
     public void setMinimumDurationInMS(String minimumDurationInMS) throws Throwable {
         try {
             this.minimumDurationInMS = Long.valueOf(minimumDurationInMS);
@@ -147,9 +205,9 @@ public final class RequestTelemetryFilter implements TelemetryProcessor {
                     }
                     int f = Integer.valueOf(fromTo.get(0));
                     int t = Integer.valueOf(fromTo.get(1));
-                    ignoredResponseCodeRange.add(new FromTo(f, t));
+                    addIgnoredRange(f, t);
                 }
-                hasBlocked = !exactBadResponseCodes.isEmpty() || !ignoredResponseCodeRange.isEmpty();
+                hasBlocked = !exactBadResponseCodes.isEmpty() || !ignoredResponseCodes.isEmpty() || !ignoredResponseCodeRange.isEmpty();
             }
 
             InternalLogger.INSTANCE.trace(String.format("ResponseCodeFilter: successfully set non needed response codes: %s", notNeededResponseCodes));
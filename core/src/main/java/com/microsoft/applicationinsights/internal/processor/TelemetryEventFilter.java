@@ -28,6 +28,7 @@ import java.util.Set;
 
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.annotation.ProcessedTelemetryTypes;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 import com.microsoft.applicationinsights.telemetry.EventTelemetry;
@@ -42,6 +43,7 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
  * Created by gupele on 7/26/2016.
  */
 @BuiltInProcessor("TelemetryEventFilter")
+@ProcessedTelemetryTypes(EventTelemetry.class)
 public final class TelemetryEventFilter implements TelemetryProcessor {
     private final Set<String> notNeededNames = new HashSet<String>();
 
@@ -0,0 +1,119 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.annotation.ProcessedTelemetryTypes;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.FixedRateSamplingTelemetryProcessor;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * The telemetry processors of a configuration, compiled so that a telemetry is only passed to the processors
+ * acting on its type, see {@link ProcessedTelemetryTypes}. The processors keep their configured order.
+ *
+ * The processors of each type of telemetry are resolved the first time such a telemetry is processed.
+ * A sampling processor can only decide before the others run when it comes first, see {@link #getLeadingSampler(Telemetry)}.
+ */
+public final class TelemetryProcessorChain {
+    private final TelemetryProcessor[] processors;
+    private final Class<?>[][] processedTypes;
+
+    /// The modification count of the TelemetryProcessorList this chain was compiled from
+    private final int modificationCount;
+    private final ConcurrentMap<Class<?>, TelemetryProcessor[]> processorsByType = new ConcurrentHashMap<Class<?>, TelemetryProcessor[]>();
+
+    TelemetryProcessorChain(TelemetryProcessor[] processors, int modificationCount) {
+        this.processors = processors;
+        this.modificationCount = modificationCount;
+        this.processedTypes = new Class<?>[processors.length][];
+        for (int i = 0; i < processors.length; i++) {
+            ProcessedTelemetryTypes types = processors[i].getClass().getAnnotation(ProcessedTelemetryTypes.class);
+            processedTypes[i] = types == null ? null : types.value();
+        }
+    }
+
+    public static TelemetryProcessorChain compile(List<TelemetryProcessor> processors) {
+        return new TelemetryProcessorChain(processors.toArray(new TelemetryProcessor[processors.size()]), 0);
+    }
+
+    int getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * @param telemetry The telemetry to process.
+     * @return The sampling processor the telemetry is passed to first, or null if another processor comes before it,
+     * in which case sampling must wait for that processor.
+     */
+    public FixedRateSamplingTelemetryProcessor getLeadingSampler(Telemetry telemetry) {
+        TelemetryProcessor[] result = getProcessors(telemetry);
+        if (result.length == 0 || !(result[0] instanceof FixedRateSamplingTelemetryProcessor)) {
+            return null;
+        }
+        return (FixedRateSamplingTelemetryProcessor) result[0];
+    }
+
+    /**
+     * @param telemetry The telemetry to process.
+     * @return The processors the telemetry should be passed to, in order. The array must not be modified.
+     */
+    public TelemetryProcessor[] getProcessors(Telemetry telemetry) {
+        if (telemetry == null) {
+            return processors;
+        }
+
+        Class<?> type = telemetry.getClass();
+        TelemetryProcessor[] result = processorsByType.get(type);
+        if (result == null) {
+            result = resolve(type);
+            processorsByType.putIfAbsent(type, result);
+        }
+        return result;
+    }
+
+    private TelemetryProcessor[] resolve(Class<?> telemetryType) {
+        List<TelemetryProcessor> result = new ArrayList<TelemetryProcessor>(processors.length);
+        for (int i = 0; i < processors.length; i++) {
+            if (processes(processedTypes[i], telemetryType)) {
+                result.add(processors[i]);
+            }
+        }
+        return result.size() == processors.length ? processors : result.toArray(new TelemetryProcessor[result.size()]);
+    }
+
+    private static boolean processes(Class<?>[] processedTypes, Class<?> telemetryType) {
+        if (processedTypes == null) {
+            return true;
+        }
+        for (Class<?> processedType : processedTypes) {
+            if (processedType.isAssignableFrom(telemetryType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import java.util.ArrayList;
+
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+
+/**
+ * The telemetry processors of a configuration. The list keeps its {@link TelemetryProcessorChain},
+ * which is only compiled again after the list was changed.
+ */
+public final class TelemetryProcessorList extends ArrayList<TelemetryProcessor> {
+    private static final long serialVersionUID = 4176356325482733918L;
+
+    private transient volatile TelemetryProcessorChain chain;
+
+    @Override
+    public TelemetryProcessor set(int index, TelemetryProcessor element) {
+        // ArrayList does not count a replaced element as a modification
+        ++modCount;
+        return super.set(index, element);
+    }
+
+    /**
+     * @return The chain compiled from the current processors.
+     */
+    public TelemetryProcessorChain getChain() {
+        TelemetryProcessorChain current = chain;
+        int modificationCount = modCount;
+        if (current == null || current.getModificationCount() != modificationCount) {
+            current = new TelemetryProcessorChain(toArray(new TelemetryProcessor[size()]), modificationCount);
+            chain = current;
+        }
+        return current;
+    }
+}
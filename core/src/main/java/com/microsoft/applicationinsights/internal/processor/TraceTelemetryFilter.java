@@ -23,6 +23,7 @@ package com.microsoft.applicationinsights.internal.processor;
 
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.annotation.ProcessedTelemetryTypes;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 import com.microsoft.applicationinsights.telemetry.SeverityLevel;
@@ -48,6 +49,7 @@ import java.util.Map;
  * Created by gupele on 7/26/2016.
  */
 @BuiltInProcessor("TraceTelemetryFilter")
+@ProcessedTelemetryTypes(TraceTelemetry.class)
 public final class TraceTelemetryFilter implements TelemetryProcessor {
     private SeverityLevel fromSeverityLevel = null;
 
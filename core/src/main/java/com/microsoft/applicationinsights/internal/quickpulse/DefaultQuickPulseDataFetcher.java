@@ -21,6 +21,7 @@
 
 package com.microsoft.applicationinsights.internal.quickpulse;
 
+import java.io.IOException;
 import java.util.Date;
 import java.util.concurrent.ArrayBlockingQueue;
 
@@ -41,8 +42,7 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
     private final TelemetryConfiguration config;
     private final String ikey;
     private final QuickPulseNetworkHelper networkHelper = new QuickPulseNetworkHelper();
-    private String postPrefix;
-    private final String sdkVersion;
+    private final QuickPulsePayloadWriter payloadWriter;
 
     public DefaultQuickPulseDataFetcher(ArrayBlockingQueue<HttpPost> sendQueue, TelemetryConfiguration config,
                                         String instanceName, String quickPulseId) {
@@ -59,17 +59,7 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
         this.sendQueue = sendQueue;
         this.config = config;
         this.ikey = ikey;
-        sdkVersion = getCurrentSdkVersion();
-        final StringBuilder sb = new StringBuilder();
-        sb.append("[{");
-        formatDocuments(sb);
-        sb.append("\"Instance\": \"" + instanceName + "\",");
-        sb.append("\"InstrumentationKey\": \"" + ikey + "\",");
-        sb.append("\"InvariantVersion\": 1,");
-        sb.append("\"MachineName\": \"" + instanceName + "\",");
-        sb.append("\"StreamId\": \"" + quickPulseId + "\",");
-
-        postPrefix = sb.toString();
+        payloadWriter = new QuickPulsePayloadWriter(instanceName, ikey, quickPulseId, getCurrentSdkVersion());
     }
 
     /**
@@ -116,49 +106,7 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
         }
     }
 
-    private ByteArrayEntity buildPostEntity(QuickPulseDataCollector.FinalCounters counters) {
-        StringBuilder sb = new StringBuilder(postPrefix);
-        formatMetrics(counters, sb);
-        sb.append("\"Timestamp\": \"\\/Date(");
-        long ms = System.currentTimeMillis();
-        sb.append(ms);
-        sb.append(")\\/\",");
-        sb.append("\"Version\": \"");
-        sb.append(sdkVersion);
-        sb.append("\"}]");
-        return new ByteArrayEntity(sb.toString().getBytes());
-    }
-
-    private void formatDocuments(StringBuilder sb) {
-        sb.append("\"Documents\": [] ,");
-    }
-
-    private void formatSingleMetric(StringBuilder sb, String metricName, double metricValue, int metricWeight, Boolean includeComma) {
-        String comma = includeComma ? "," : "";
-        sb.append(String.format("{\"Name\": \"%s\",\"Value\": %s,\"Weight\": %s}%s", metricName, metricValue, metricWeight, comma));
-    }
-    private void formatSingleMetric(StringBuilder sb, String metricName, long metricValue, int metricWeight, Boolean includeComma) {
-        String comma = includeComma ? "," : "";
-        sb.append(String.format("{\"Name\": \"%s\",\"Value\": %s,\"Weight\": %s}%s", metricName, metricValue, metricWeight, comma));
-    }
-    private void formatSingleMetric(StringBuilder sb, String metricName, int metricValue, int metricWeight, Boolean includeComma) {
-        String comma = includeComma ? "," : "";
-        sb.append(String.format("{\"Name\": \"%s\",\"Value\": %s,\"Weight\": %s}%s", metricName, metricValue, metricWeight, comma));
-    }
-
-    private void formatMetrics(QuickPulseDataCollector.FinalCounters counters, StringBuilder sb) {
-        sb.append("\"Metrics\":[");
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests\\/Sec", counters.requests, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Request Duration", counters.requestsDuration, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests Failed\\/Sec", counters.unsuccessfulRequests, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests Succeeded\\/Sec", (counters.requests - counters.unsuccessfulRequests), 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls\\/Sec", counters.rdds, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Call Duration", counters.rddsDuration, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls Failed\\/Sec", counters.unsuccessfulRdds, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls Succeeded\\/Sec", counters.rdds - counters.unsuccessfulRdds, 1, true);
-        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Exceptions\\/Sec", counters.exceptions, 1, true);
-        formatSingleMetric(sb, "\\\\Memory\\\\Committed Bytes", counters.memoryCommitted, 1, true);
-        formatSingleMetric(sb, "\\\\Processor(_Total)\\\\% Processor Time", counters.cpuUsage, 1, false);
-        sb.append("],");
+    private ByteArrayEntity buildPostEntity(QuickPulseDataCollector.FinalCounters counters) throws IOException {
+        return new ByteArrayEntity(payloadWriter.write(counters, System.currentTimeMillis()));
     }
 }
@@ -24,13 +24,16 @@ package com.microsoft.applicationinsights.internal.quickpulse;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.perfcounter.CpuPerformanceCounterCalculator;
+import com.microsoft.applicationinsights.internal.util.LongHistogram;
+import com.microsoft.applicationinsights.internal.util.StripedLongCounter;
 import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
 import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
@@ -51,13 +54,26 @@ public enum QuickPulseDataCollector {
         public final long requests;
         public final double requestsDuration;
         public final long unsuccessfulRequests;
+        public final long requestsDurationP50;
+        public final long requestsDurationP95;
+        public final long requestsDurationP99;
         public final long rdds;
         public final double rddsDuration;
         public final long unsuccessfulRdds;
+        public final long rddsDurationP50;
+        public final long rddsDurationP95;
+        public final long rddsDurationP99;
         public final long memoryCommitted;
         public final double cpuUsage;
+        public final List<String> documents;
 
         public FinalCounters(Counters currentCounters, MemoryMXBean memory, CpuPerformanceCounterCalculator cpuPerformanceCounterCalculator) {
+            this(currentCounters, memory, cpuPerformanceCounterCalculator, Collections.<String>emptyList());
+        }
+
+        public FinalCounters(Counters currentCounters, MemoryMXBean memory, CpuPerformanceCounterCalculator cpuPerformanceCounterCalculator,
+                             List<String> documents) {
+            this.documents = documents;
             if (memory != null && memory.getHeapMemoryUsage() != null) {
                 memoryCommitted = memory.getHeapMemoryUsage().getCommitted();
             } else {
@@ -72,56 +88,46 @@ public enum QuickPulseDataCollector {
             } else {
                 cpuUsage = -1;
             }
-            exceptions = currentCounters.exceptions.get();
-
-            CountAndDuration countAndDuration = Counters.decodeCountAndDuration(currentCounters.requestsAndDurations.get());
-            requests = countAndDuration.count;
-            this.requestsDuration = countAndDuration.duration;
-            this.unsuccessfulRequests = currentCounters.unsuccessfulRequests.get();
-
-            countAndDuration = Counters.decodeCountAndDuration(currentCounters.rddsAndDuations.get());
-            this.rdds = countAndDuration.count;
-            this.rddsDuration = countAndDuration.duration;
-            this.unsuccessfulRdds = currentCounters.unsuccessfulRdds.get();
-        }
-    }
-
-    static class CountAndDuration {
-        public final long count;
-        public final long duration;
-
-        private CountAndDuration(long count, long duration) {
-            this.count = count;
-            this.duration = duration;
+            exceptions = currentCounters.exceptions.sum();
+
+            requests = currentCounters.requests.sum();
+            requestsDuration = currentCounters.requestsDuration.sum();
+            unsuccessfulRequests = currentCounters.unsuccessfulRequests.sum();
+            LongHistogram.Snapshot histogram = currentCounters.requestsDurationHistogram.snapshot();
+            requestsDurationP50 = histogram.valueAtPercentile(50);
+            requestsDurationP95 = histogram.valueAtPercentile(95);
+            requestsDurationP99 = histogram.valueAtPercentile(99);
+
+            rdds = currentCounters.rdds.sum();
+            rddsDuration = currentCounters.rddsDuration.sum();
+            unsuccessfulRdds = currentCounters.unsuccessfulRdds.sum();
+            histogram = currentCounters.rddsDurationHistogram.snapshot();
+            rddsDurationP50 = histogram.valueAtPercentile(50);
+            rddsDurationP95 = histogram.valueAtPercentile(95);
+            rddsDurationP99 = histogram.valueAtPercentile(99);
         }
     }
 
+    /**
+     * The counters of one interval. Every request thread adds to them, so each one is striped
+     * rather than a single atomic value, and none of them wraps around within an interval.
+     */
     static class Counters {
-        private static final long MAX_COUNT = 524287L;
-        private static final long MAX_DURATION = 17592186044415L;
-
-        public final AtomicInteger exceptions = new AtomicInteger(0);
-
-        final AtomicLong requestsAndDurations = new AtomicLong(0);
-        final AtomicInteger unsuccessfulRequests = new AtomicInteger(0);
+        final StripedLongCounter exceptions = new StripedLongCounter();
 
-        final AtomicLong rddsAndDuations = new AtomicLong(0);
-        final AtomicInteger unsuccessfulRdds = new AtomicInteger(0);
+        final StripedLongCounter requests = new StripedLongCounter();
+        final StripedLongCounter requestsDuration = new StripedLongCounter();
+        final StripedLongCounter unsuccessfulRequests = new StripedLongCounter();
+        final LongHistogram requestsDurationHistogram = new LongHistogram();
 
-        static long encodeCountAndDuration(long  count, long duration) {
-            if (count > MAX_COUNT || duration > MAX_DURATION) {
-                return 0;
-            }
-
-            return (count << 44) + duration;
-        }
-
-        static CountAndDuration decodeCountAndDuration(long countAndDuration) {
-            return new CountAndDuration(countAndDuration >> 44, countAndDuration & MAX_DURATION);
-        }
+        final StripedLongCounter rdds = new StripedLongCounter();
+        final StripedLongCounter rddsDuration = new StripedLongCounter();
+        final StripedLongCounter unsuccessfulRdds = new StripedLongCounter();
+        final LongHistogram rddsDurationHistogram = new LongHistogram();
     }
 
     private AtomicReference<Counters> counters = new AtomicReference<Counters>(null);
+    private final QuickPulseDocumentBuffer documentBuffer = new QuickPulseDocumentBuffer();
     private final MemoryMXBean memory;
     private final CpuPerformanceCounterCalculator cpuPerformanceCounterCalculator;
 
@@ -147,25 +153,30 @@ public enum QuickPulseDataCollector {
 
     public synchronized void disable() {
         counters.set(null);
+        documentBuffer.clear();
     }
 
     @Deprecated
     public synchronized void enable(final String ikey) {
         this.ikey = ikey;
         this.config = null;
+        documentBuffer.clear();
         counters.set(new Counters());
     }
 
     public synchronized void enable(TelemetryConfiguration config) {
         this.config = config;
         this.ikey = null;
+        documentBuffer.clear();
         counters.set(new Counters());
     }
 
     public synchronized FinalCounters getAndRestart() {
         final Counters currentCounters = counters.getAndSet(new Counters());
         if (currentCounters != null) {
-            return new FinalCounters(currentCounters, memory, cpuPerformanceCounterCalculator);
+            List<String> documents = new ArrayList<String>();
+            documentBuffer.drainTo(documents);
+            return new FinalCounters(currentCounters, memory, cpuPerformanceCounterCalculator, documents);
         }
 
         return null;
@@ -191,7 +202,7 @@ public enum QuickPulseDataCollector {
         } else if (telemetry instanceof RemoteDependencyTelemetry) {
             addDependency((RemoteDependencyTelemetry) telemetry);
         } else if (telemetry instanceof ExceptionTelemetry) {
-            addException();
+            addException((ExceptionTelemetry) telemetry);
         }
     }
 
@@ -208,20 +219,28 @@ public enum QuickPulseDataCollector {
         if (counters == null) {
             return;
         }
-        counters.rddsAndDuations.addAndGet(
-                Counters.encodeCountAndDuration(1, telemetry.getDuration().getTotalMilliseconds()));
+        long duration = telemetry.getDuration().getTotalMilliseconds();
+        counters.rdds.increment();
+        counters.rddsDuration.add(duration);
+        counters.rddsDurationHistogram.record(duration);
         if (!telemetry.getSuccess()) {
-            counters.unsuccessfulRdds.incrementAndGet();
+            counters.unsuccessfulRdds.increment();
+            if (documentBuffer.tryAcquireQuota()) {
+                documentBuffer.add(QuickPulseDocumentFormatter.formatDependency(telemetry));
+            }
         }
     }
 
-    private void addException() {
+    private void addException(ExceptionTelemetry telemetry) {
         Counters counters = this.counters.get();
         if (counters == null) {
             return;
         }
 
-        counters.exceptions.incrementAndGet();
+        counters.exceptions.increment();
+        if (documentBuffer.tryAcquireQuota()) {
+            documentBuffer.add(QuickPulseDocumentFormatter.formatException(telemetry));
+        }
     }
 
     private void addRequest(RequestTelemetry requestTelemetry) {
@@ -230,9 +249,15 @@ public enum QuickPulseDataCollector {
             return;
         }
 
-        counters.requestsAndDurations.addAndGet(Counters.encodeCountAndDuration(1, requestTelemetry.getDuration().getTotalMilliseconds()));
+        long duration = requestTelemetry.getDuration().getTotalMilliseconds();
+        counters.requests.increment();
+        counters.requestsDuration.add(duration);
+        counters.requestsDurationHistogram.record(duration);
         if (!requestTelemetry.isSuccess()) {
-            counters.unsuccessfulRequests.incrementAndGet();
+            counters.unsuccessfulRequests.increment();
+            if (documentBuffer.tryAcquireQuota()) {
+                documentBuffer.add(QuickPulseDocumentFormatter.formatRequest(requestTelemetry));
+            }
         }
     }
 }
@@ -0,0 +1,137 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded, lock-free ring buffer of the documents Live Metrics shows, each one already formatted as JSON.
+ *
+ * Adding never blocks: once the buffer is full the newest document overwrites the oldest one.
+ * Callers ask for quota before building a document, so no more than the configured number
+ * of documents per second are built, however many telemetries come in.
+ */
+final class QuickPulseDocumentBuffer {
+    static final int DEFAULT_CAPACITY = 64;
+    static final int DEFAULT_DOCUMENTS_PER_SECOND = 10;
+
+    private static final int QUOTA_BITS = 16;
+    private static final long QUOTA_MASK = (1L << QUOTA_BITS) - 1;
+
+    private final AtomicReferenceArray<String> documents;
+    private final AtomicLong writeSequence = new AtomicLong(0);
+    private final int documentsPerSecond;
+
+    // The second of the current quota window in the high bits, the documents it admitted in the low ones
+    private final AtomicLong quotaWindow = new AtomicLong(0);
+
+    QuickPulseDocumentBuffer() {
+        this(DEFAULT_CAPACITY, DEFAULT_DOCUMENTS_PER_SECOND);
+    }
+
+    QuickPulseDocumentBuffer(int capacity, int documentsPerSecond) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be a positive number");
+        Preconditions.checkArgument(documentsPerSecond >= 0 && documentsPerSecond <= QUOTA_MASK,
+                "documentsPerSecond must be between 0 and " + QUOTA_MASK);
+
+        this.documents = new AtomicReferenceArray<String>(capacity);
+        this.documentsPerSecond = documentsPerSecond;
+    }
+
+    /**
+     * Takes one document from the quota of the current second.
+     *
+     * @return True if the caller may build and add a document.
+     */
+    boolean tryAcquireQuota() {
+        return tryAcquireQuota(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime()));
+    }
+
+    /*@VisibleForTesting*/
+    boolean tryAcquireQuota(long currentSecond) {
+        while (true) {
+            long window = quotaWindow.get();
+            if ((window >> QUOTA_BITS) != currentSecond) {
+                if (documentsPerSecond == 0) {
+                    return false;
+                }
+                if (quotaWindow.compareAndSet(window, (currentSecond << QUOTA_BITS) | 1)) {
+                    return true;
+                }
+                continue;
+            }
+
+            if ((window & QUOTA_MASK) >= documentsPerSecond) {
+                return false;
+            }
+            if (quotaWindow.compareAndSet(window, window + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void add(String document) {
+        if (document == null) {
+            return;
+        }
+        long sequence = writeSequence.getAndIncrement();
+        documents.set((int) (sequence % documents.length()), document);
+    }
+
+    /**
+     * Moves the documents to the given list, oldest first, and leaves the buffer empty.
+     *
+     * @return The number of documents moved.
+     */
+    int drainTo(List<String> target) {
+        int capacity = documents.length();
+        int start = (int) (writeSequence.get() % capacity);
+        int drained = 0;
+        for (int i = 0; i < capacity; i++) {
+            String document = documents.getAndSet((start + i) % capacity, null);
+            if (document != null) {
+                target.add(document);
+                ++drained;
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Drops the documents and gives back the quota of the current second.
+     */
+    void clear() {
+        for (int i = 0; i < documents.length(); i++) {
+            documents.set(i, null);
+        }
+        quotaWindow.set(0);
+    }
+
+    int getCapacity() {
+        return documents.length();
+    }
+}
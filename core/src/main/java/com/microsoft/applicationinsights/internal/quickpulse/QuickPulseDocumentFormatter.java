@@ -0,0 +1,187 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.util.List;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.extensibility.context.OperationContext;
+import com.microsoft.applicationinsights.internal.schemav2.ExceptionDetails;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * Formats failed requests, failed dependencies and exceptions as the JSON documents
+ * that the Live Metrics service expects in the 'Documents' of a post.
+ */
+final class QuickPulseDocumentFormatter {
+    static final int MAX_PROPERTIES = 10;
+    static final int MAX_VALUE_LENGTH = 1024;
+    static final int MAX_EXCEPTION_LENGTH = 8192;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private QuickPulseDocumentFormatter() {
+    }
+
+    static String formatRequest(RequestTelemetry telemetry) {
+        StringBuilder sb = startDocument(telemetry, "RequestTelemetryDocument", "Request");
+        appendField(sb, "Name", telemetry.getName(), MAX_VALUE_LENGTH);
+        appendField(sb, "Success", telemetry.isSuccess());
+        appendField(sb, "Duration", formatDuration(telemetry.getDuration()), MAX_VALUE_LENGTH);
+        appendField(sb, "ResponseCode", telemetry.getResponseCode(), MAX_VALUE_LENGTH);
+        appendField(sb, "OperationName", getOperationName(telemetry), MAX_VALUE_LENGTH);
+        appendField(sb, "Url", telemetry.getUrlString(), MAX_VALUE_LENGTH);
+        return endDocument(sb, telemetry);
+    }
+
+    static String formatDependency(RemoteDependencyTelemetry telemetry) {
+        StringBuilder sb = startDocument(telemetry, "DependencyTelemetryDocument", "RemoteDependency");
+        appendField(sb, "Name", telemetry.getName(), MAX_VALUE_LENGTH);
+        appendField(sb, "Target", telemetry.getTarget(), MAX_VALUE_LENGTH);
+        appendField(sb, "Success", telemetry.getSuccess());
+        appendField(sb, "Duration", formatDuration(telemetry.getDuration()), MAX_VALUE_LENGTH);
+        appendField(sb, "ResultCode", telemetry.getResultCode(), MAX_VALUE_LENGTH);
+        appendField(sb, "CommandName", telemetry.getCommandName(), MAX_VALUE_LENGTH);
+        appendField(sb, "DependencyTypeName", telemetry.getType(), MAX_VALUE_LENGTH);
+        appendField(sb, "OperationName", getOperationName(telemetry), MAX_VALUE_LENGTH);
+        return endDocument(sb, telemetry);
+    }
+
+    static String formatException(ExceptionTelemetry telemetry) {
+        StringBuilder sb = startDocument(telemetry, "ExceptionTelemetryDocument", "Exception");
+        Throwable throwable = telemetry.getThrowable();
+        if (throwable != null) {
+            appendField(sb, "Exception", formatStackTrace(throwable), MAX_EXCEPTION_LENGTH);
+            appendField(sb, "ExceptionMessage", throwable.getMessage(), MAX_VALUE_LENGTH);
+            appendField(sb, "ExceptionType", throwable.getClass().getName(), MAX_VALUE_LENGTH);
+        } else {
+            List<ExceptionDetails> exceptions = telemetry.getExceptions();
+            ExceptionDetails outermost = exceptions == null || exceptions.isEmpty() ? null : exceptions.get(0);
+            appendField(sb, "Exception", outermost == null ? null : outermost.getStack(), MAX_EXCEPTION_LENGTH);
+            appendField(sb, "ExceptionMessage", outermost == null ? null : outermost.getMessage(), MAX_VALUE_LENGTH);
+            appendField(sb, "ExceptionType", outermost == null ? null : outermost.getTypeName(), MAX_VALUE_LENGTH);
+        }
+        return endDocument(sb, telemetry);
+    }
+
+    private static StringBuilder startDocument(Telemetry telemetry, String type, String documentType) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"__type\": \"").append(type).append("\",");
+        sb.append("\"DocumentType\": \"").append(documentType).append("\",");
+        sb.append("\"Version\": \"1.0\",");
+        OperationContext operation = telemetry.getContext().getOperation();
+        appendField(sb, "OperationId", operation.getId(), MAX_VALUE_LENGTH);
+        return sb;
+    }
+
+    private static String endDocument(StringBuilder sb, Telemetry telemetry) {
+        sb.append("\"Properties\": [");
+        int count = 0;
+        for (Map.Entry<String, String> property : telemetry.getProperties().entrySet()) {
+            if (count == MAX_PROPERTIES) {
+                break;
+            }
+            if (count > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"key\": ");
+            appendString(sb, property.getKey(), MAX_VALUE_LENGTH);
+            sb.append(",\"value\": ");
+            appendString(sb, property.getValue(), MAX_VALUE_LENGTH);
+            sb.append('}');
+            ++count;
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private static String getOperationName(Telemetry telemetry) {
+        return telemetry.getContext().getOperation().getName();
+    }
+
+    private static String formatDuration(Duration duration) {
+        return duration == null ? null : duration.toString();
+    }
+
+    private static String formatStackTrace(Throwable throwable) {
+        StringBuilder sb = new StringBuilder(throwable.toString());
+        for (StackTraceElement element : throwable.getStackTrace()) {
+            if (sb.length() >= MAX_EXCEPTION_LENGTH) {
+                break;
+            }
+            sb.append("\n\tat ").append(element);
+        }
+        return sb.toString();
+    }
+
+    private static void appendField(StringBuilder sb, String name, String value, int maxLength) {
+        sb.append('"').append(name).append("\": ");
+        appendString(sb, value, maxLength);
+        sb.append(',');
+    }
+
+    private static void appendField(StringBuilder sb, String name, boolean value) {
+        sb.append('"').append(name).append("\": ").append(value).append(',');
+    }
+
+    static void appendString(StringBuilder sb, String value, int maxLength) {
+        sb.append('"');
+        if (value != null) {
+            int length = Math.min(value.length(), maxLength);
+            if (length < value.length() && length > 0 && Character.isHighSurrogate(value.charAt(length - 1))) {
+                --length;
+            }
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        sb.append("\\\"");
+                        break;
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                        } else {
+                            sb.append(c);
+                        }
+                        break;
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
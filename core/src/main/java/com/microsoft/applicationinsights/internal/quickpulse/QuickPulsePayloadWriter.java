@@ -0,0 +1,268 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import com.microsoft.applicationinsights.internal.util.ReusableByteArrayOutputStream;
+import com.microsoft.applicationinsights.internal.util.Utf8Writer;
+
+/**
+ * Writes the body of a Live Metrics post into a reusable buffer.
+ *
+ * Everything but the documents, the metric values and the timestamp is the same in every post,
+ * so it is kept as a byte template built once. Each metric value has a fixed-width slot in the template,
+ * padded with spaces, which JSON allows. A post encodes the documents with a {@link Utf8Writer}, copies
+ * the template and patches the values into the body, so the only thing allocated is the body that is
+ * handed to the HTTP request.
+ *
+ * Not thread safe, posts are written by a single thread.
+ */
+final class QuickPulsePayloadWriter {
+    static final String[] METRIC_NAMES = {
+            "\\\\ApplicationInsights\\\\Requests\\/Sec",
+            "\\\\ApplicationInsights\\\\Request Duration",
+            "\\\\ApplicationInsights\\\\Request Duration P50",
+            "\\\\ApplicationInsights\\\\Request Duration P95",
+            "\\\\ApplicationInsights\\\\Request Duration P99",
+            "\\\\ApplicationInsights\\\\Requests Failed\\/Sec",
+            "\\\\ApplicationInsights\\\\Requests Succeeded\\/Sec",
+            "\\\\ApplicationInsights\\\\Dependency Calls\\/Sec",
+            "\\\\ApplicationInsights\\\\Dependency Call Duration",
+            "\\\\ApplicationInsights\\\\Dependency Call Duration P50",
+            "\\\\ApplicationInsights\\\\Dependency Call Duration P95",
+            "\\\\ApplicationInsights\\\\Dependency Call Duration P99",
+            "\\\\ApplicationInsights\\\\Dependency Calls Failed\\/Sec",
+            "\\\\ApplicationInsights\\\\Dependency Calls Succeeded\\/Sec",
+            "\\\\ApplicationInsights\\\\Exceptions\\/Sec",
+            "\\\\Memory\\\\Committed Bytes",
+            "\\\\Processor(_Total)\\\\% Processor Time"
+    };
+
+    // Wide enough for any long, and for any double written by writeDouble
+    static final int VALUE_SLOT_WIDTH = 24;
+
+    private static final int FRACTION_DIGITS = 6;
+    private static final long FRACTION_SCALE = 1000000L;
+    private static final double MAX_SCALED_DOUBLE = 1e12;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    private final byte[] documentsStart;
+    private final String instanceFields;
+    private final String sdkVersion;
+
+    private byte[] template;
+    private final int[] valueOffsets = new int[METRIC_NAMES.length];
+    private int timestampOffset;
+    private int timestampDigits;
+
+    private final ReusableByteArrayOutputStream buffer = new ReusableByteArrayOutputStream(INITIAL_BUFFER_SIZE, MAX_RETAINED_BUFFER_SIZE);
+    private final Utf8Writer documentsWriter = new Utf8Writer(buffer);
+
+    QuickPulsePayloadWriter(String instanceName, String ikey, String quickPulseId, String sdkVersion) {
+        this.documentsStart = "[{\"Documents\": [".getBytes(StandardCharsets.UTF_8);
+        this.instanceFields = "\"Instance\": \"" + instanceName + "\","
+                + "\"InstrumentationKey\": \"" + ikey + "\","
+                + "\"InvariantVersion\": 1,"
+                + "\"MachineName\": \"" + instanceName + "\","
+                + "\"StreamId\": \"" + quickPulseId + "\",";
+        this.sdkVersion = sdkVersion;
+    }
+
+    /**
+     * Writes the body of a post.
+     *
+     * @param counters The counters of the interval.
+     * @param timestampInMillis The time of the post.
+     * @return The body, a new array that the caller owns.
+     * @throws IOException Not thrown by the in-memory buffer, declared by the writer that encodes the documents.
+     */
+    byte[] write(QuickPulseDataCollector.FinalCounters counters, long timestampInMillis) throws IOException {
+        buffer.reset();
+        documentsWriter.reset(buffer);
+        buffer.write(documentsStart, 0, documentsStart.length);
+        List<String> documents = counters.documents;
+        for (int i = 0; i < documents.size(); i++) {
+            if (i > 0) {
+                documentsWriter.write(',');
+            }
+            documentsWriter.write(documents.get(i));
+        }
+        documentsWriter.close();
+
+        int digits = countDigits(timestampInMillis);
+        if (template == null || digits != timestampDigits) {
+            buildTemplate(digits);
+        }
+        int templateStart = buffer.size();
+        buffer.write(template, 0, template.length);
+
+        byte[] body = buffer.toByteArray();
+        int metric = 0;
+        writeLong(body, templateStart + valueOffsets[metric++], counters.requests);
+        writeDouble(body, templateStart + valueOffsets[metric++], counters.requestsDuration);
+        writeLong(body, templateStart + valueOffsets[metric++], counters.requestsDurationP50);
+        writeLong(body, templateStart + valueOffsets[metric++], counters.requestsDurationP95);
+        writeLong(body, templateStart + valueOffsets[metric++], counters.requestsDurationP99);
+        writeLong(body, templateStart + valueOffsets[metric++], counters.unsuccessfulRequests);
+        writeLong(body, templateStart + valueOffsets[metric++], counters.requests - counters.unsuccessfulRequests);
+        writeLong(body, templateStart + valueOffsets[metric++], counters.rdds);
+        writeDouble(body, templateStart + valueOffsets[metric++], counters.rddsDuration);
+        writeLong(body, templateStart + valueOffsets[metric++], counters.rddsDurationP50);
+        writeLong(body, templateStart + valueOffsets[metric++], counters.rddsDurationP95);
+        writeLong(body, templateStart + valueOffsets[metric++], counters.rddsDurationP99);
+        writeLong(body, templateStart + valueOffsets[metric++], counters.unsuccessfulRdds);
+        writeLong(body, templateStart + valueOffsets[metric++], counters.rdds - counters.unsuccessfulRdds);
+        writeDouble(body, templateStart + valueOffsets[metric++], counters.exceptions);
+        writeLong(body, templateStart + valueOffsets[metric++], counters.memoryCommitted);
+        writeDouble(body, templateStart + valueOffsets[metric], counters.cpuUsage);
+        writeDigits(body, templateStart + timestampOffset + timestampDigits, timestampInMillis);
+
+        return body;
+    }
+
+    private void buildTemplate(int timestampDigits) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        appendTo(bytes, "] ,");
+        appendTo(bytes, instanceFields);
+        appendTo(bytes, "\"Metrics\":[");
+        byte[] emptySlot = new byte[VALUE_SLOT_WIDTH];
+        Arrays.fill(emptySlot, (byte) ' ');
+        for (int i = 0; i < METRIC_NAMES.length; i++) {
+            if (i > 0) {
+                bytes.write(',');
+            }
+            appendTo(bytes, "{\"Name\": \"" + METRIC_NAMES[i] + "\",\"Value\": ");
+            valueOffsets[i] = bytes.size();
+            bytes.write(emptySlot, 0, emptySlot.length);
+            appendTo(bytes, ",\"Weight\": 1}");
+        }
+        appendTo(bytes, "],");
+        appendTo(bytes, "\"Timestamp\": \"\\/Date(");
+        timestampOffset = bytes.size();
+        for (int i = 0; i < timestampDigits; i++) {
+            bytes.write('0');
+        }
+        appendTo(bytes, ")\\/\",");
+        appendTo(bytes, "\"Version\": \"" + sdkVersion + "\"}]");
+
+        template = bytes.toByteArray();
+        this.timestampDigits = timestampDigits;
+    }
+
+    private static void appendTo(ByteArrayOutputStream bytes, String value) {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        bytes.write(encoded, 0, encoded.length);
+    }
+
+    /*@VisibleForTesting*/
+    static void writeLong(byte[] buffer, int slot, long value) {
+        int end = slot + countDigits(value) + (value < 0 ? 1 : 0);
+        writeDigits(buffer, end, value);
+    }
+
+    /**
+     * Writes the value with up to six fraction digits, integral values get '.0' like {@link Double#toString(double)}.
+     */
+    /*@VisibleForTesting*/
+    static void writeDouble(byte[] buffer, int slot, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // Not valid JSON numbers
+            writeLong(buffer, slot, 0);
+            return;
+        }
+
+        double abs = Math.abs(value);
+        if (abs >= MAX_SCALED_DOUBLE) {
+            // Rare enough to allow the allocation, at most 24 chars
+            String text = Double.toString(value);
+            for (int i = 0; i < text.length(); i++) {
+                buffer[slot + i] = (byte) text.charAt(i);
+            }
+            return;
+        }
+
+        long scaled = Math.round(abs * FRACTION_SCALE);
+        long integral = scaled / FRACTION_SCALE;
+        long fraction = scaled % FRACTION_SCALE;
+        int position = slot;
+        if (value < 0 && scaled != 0) {
+            buffer[position++] = '-';
+        }
+        position += countDigits(integral);
+        writeDigits(buffer, position, integral);
+        buffer[position++] = '.';
+        if (fraction == 0) {
+            buffer[position] = '0';
+            return;
+        }
+        int fractionDigits = FRACTION_DIGITS;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            --fractionDigits;
+        }
+        for (int i = fractionDigits - 1; i >= 0; i--) {
+            buffer[position + i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+    }
+
+    /**
+     * Writes the digits of the value backwards, ending right before the given position.
+     */
+    private static void writeDigits(byte[] buffer, int end, long value) {
+        if (value == Long.MIN_VALUE) {
+            byte[] text = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(text, 0, buffer, end - text.length, text.length);
+            return;
+        }
+        boolean negative = value < 0;
+        long remaining = Math.abs(value);
+        int position = end;
+        do {
+            buffer[--position] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) {
+            buffer[--position] = '-';
+        }
+    }
+
+    private static int countDigits(long value) {
+        if (value == Long.MIN_VALUE) {
+            return 19;
+        }
+        long remaining = Math.abs(value);
+        int digits = 1;
+        while (remaining >= 10) {
+            remaining /= 10;
+            ++digits;
+        }
+        return digits;
+    }
+}
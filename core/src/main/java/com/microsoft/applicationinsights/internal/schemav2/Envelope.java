@@ -25,9 +25,11 @@ package com.microsoft.applicationinsights.internal.schemav2;
 
 import com.google.common.base.Preconditions;
 import com.microsoft.applicationinsights.telemetry.JsonSerializable;
+import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
 
 import java.io.IOException;
+import java.util.Date;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -52,6 +54,11 @@ public class Envelope
      */
     private String time;
 
+    /**
+     * Backing field for property Time when it is set as a date, formatted by the writer.
+     */
+    private Date timestamp;
+
     /**
      * Backing field for property SampleRate.
      */
@@ -117,6 +124,9 @@ public class Envelope
      * Gets the Time property.
      */
     public String getTime() {
+        if (this.time == null && this.timestamp != null) {
+            return LocalStringsUtils.getDateFormatter().format(this.timestamp);
+        }
         return this.time;
     }
 
@@ -125,6 +135,15 @@ public class Envelope
      */
     public void setTime(String value) {
         this.time = value;
+        this.timestamp = null;
+    }
+
+    /**
+     * Sets the Time property as a date, that is written without formatting it to a string first.
+     */
+    public void setTime(Date value) {
+        this.timestamp = value;
+        this.time = null;
     }
 
     /**
@@ -220,7 +239,11 @@ public class Envelope
     {
         writer.write("ver", ver);
         writer.writeRequired("name", name, 1024);
-        writer.writeRequired("time", time, 64);
+        if (timestamp != null) {
+            writer.write("time", timestamp);
+        } else {
+            writer.writeRequired("time", time, 64);
+        }
         if (this.sampleRate > 0.0d) {
             writer.write("sampleRate", sampleRate);
         }
@@ -0,0 +1,429 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A concurrent map made of the entries of this layer on top of immutable entries it inherits.
+ *
+ * Entries of this layer take precedence over the inherited ones and removing an inherited key
+ * only hides it in this layer, the inherited entries are shared, never copied. The two layers are
+ * merged when the map is iterated, typically when it is serialized.
+ *
+ * {@link #snapshot()} returns an immutable copy of the map that is kept until the map changes,
+ * so many maps can inherit the same entries while the source map is not modified.
+ *
+ * Without inherited entries all the operations go straight to a {@link ConcurrentHashMap}, which
+ * is created on the first write. With inherited entries writes are serialized on the map.
+ */
+public final class LayeredConcurrentMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+    private static final class Snapshot<K, V> {
+        private final long version;
+        private final Map<K, V> entries;
+
+        private Snapshot(long version, Map<K, V> entries) {
+            this.version = version;
+            this.entries = entries;
+        }
+    }
+
+    private final class LayeredEntry extends SimpleEntry<K, V> {
+        private LayeredEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    private final class LayeredIterator implements Iterator<Entry<K, V>> {
+        private final ConcurrentHashMap<K, V> currentLocal = local;
+        private final Map<K, V> currentParent = parent;
+        private final Set<K> currentHidden = hidden;
+        private final Iterator<Entry<K, V>> localIterator;
+        private final Iterator<Entry<K, V>> parentIterator = currentParent.entrySet().iterator();
+        private Entry<K, V> next;
+        private K lastKey;
+
+        private LayeredIterator() {
+            localIterator = currentLocal == null ? Collections.<Entry<K, V>>emptySet().iterator() : currentLocal.entrySet().iterator();
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            Entry<K, V> current = next;
+            lastKey = current.getKey();
+            advance();
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+
+            LayeredConcurrentMap.this.remove(lastKey);
+            lastKey = null;
+        }
+
+        private void advance() {
+            if (localIterator.hasNext()) {
+                Entry<K, V> entry = localIterator.next();
+                next = new LayeredEntry(entry.getKey(), entry.getValue());
+                return;
+            }
+
+            while (parentIterator.hasNext()) {
+                Entry<K, V> entry = parentIterator.next();
+                K key = entry.getKey();
+                if (!currentHidden.contains(key) && (currentLocal == null || !currentLocal.containsKey(key))) {
+                    next = new LayeredEntry(key, entry.getValue());
+                    return;
+                }
+            }
+
+            next = null;
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new LayeredIterator();
+        }
+
+        @Override
+        public int size() {
+            return LayeredConcurrentMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            LayeredConcurrentMap.this.clear();
+        }
+    }
+
+    private volatile ConcurrentHashMap<K, V> local;
+
+    private volatile Map<K, V> parent = Collections.emptyMap();
+
+    // Inherited keys that were removed in this layer, replaced on every change
+    private volatile Set<K> hidden = Collections.emptySet();
+
+    private final AtomicLong version = new AtomicLong();
+
+    private volatile Snapshot<K, V> snapshot;
+
+    public LayeredConcurrentMap() {
+    }
+
+    /**
+     * Places entries below the entries of this layer. The entries must not be modified afterwards,
+     * a {@link #snapshot()} of another map is meant to be used.
+     *
+     * @param entries The entries to inherit.
+     * @return False if the map inherits other entries already, in which case nothing is changed.
+     */
+    public synchronized boolean inherit(Map<K, V> entries) {
+        Preconditions.checkNotNull(entries, "entries must be a non-null value");
+
+        if (!parent.isEmpty()) {
+            return false;
+        }
+
+        parent = entries;
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Gets an immutable copy of the entries of this map. The copy is reused until the map is modified.
+     *
+     * @return The current entries.
+     */
+    public Map<K, V> snapshot() {
+        long currentVersion = version.get();
+        Snapshot<K, V> current = snapshot;
+        if (current != null && current.version == currentVersion) {
+            return current.entries;
+        }
+
+        Map<K, V> entries = isEmpty() ? Collections.<K, V>emptyMap() : Collections.unmodifiableMap(new HashMap<K, V>(this));
+
+        // Not kept if the map was modified while it was copied
+        if (version.get() == currentVersion) {
+            snapshot = new Snapshot<K, V>(currentVersion, entries);
+        }
+        return entries;
+    }
+
+    @Override
+    public V get(Object key) {
+        ConcurrentHashMap<K, V> currentLocal = local;
+        if (currentLocal != null) {
+            V value = currentLocal.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        return inherited(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        ConcurrentHashMap<K, V> currentLocal = local;
+        if (parent.isEmpty()) {
+            return currentLocal == null ? 0 : currentLocal.size();
+        }
+
+        int size = 0;
+        for (Iterator<Entry<K, V>> iterator = new LayeredIterator(); iterator.hasNext(); iterator.next()) {
+            ++size;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        ConcurrentHashMap<K, V> currentLocal = local;
+        if (currentLocal != null && !currentLocal.isEmpty()) {
+            return false;
+        }
+
+        return parent.isEmpty() || !new LayeredIterator().hasNext();
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (parent.isEmpty()) {
+            V previous = local().put(key, value);
+            version.incrementAndGet();
+            return previous;
+        }
+
+        synchronized (this) {
+            V previous = local().put(key, value);
+            if (previous == null) {
+                previous = inherited(key);
+            }
+            show(key);
+            version.incrementAndGet();
+            return previous;
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (parent.isEmpty()) {
+            ConcurrentHashMap<K, V> currentLocal = local;
+            if (currentLocal == null) {
+                return null;
+            }
+            V previous = currentLocal.remove(key);
+            version.incrementAndGet();
+            return previous;
+        }
+
+        synchronized (this) {
+            V previous = local == null ? null : local.remove(key);
+            V inheritedValue = inherited(key);
+            if (inheritedValue != null) {
+                hide(key);
+                if (previous == null) {
+                    previous = inheritedValue;
+                }
+            }
+            version.incrementAndGet();
+            return previous;
+        }
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        if (parent.isEmpty()) {
+            V previous = local().putIfAbsent(key, value);
+            if (previous == null) {
+                version.incrementAndGet();
+            }
+            return previous;
+        }
+
+        synchronized (this) {
+            V previous = get(key);
+            if (previous == null) {
+                put(key, value);
+            }
+            return previous;
+        }
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (parent.isEmpty()) {
+            ConcurrentHashMap<K, V> currentLocal = local;
+            if (currentLocal == null || !currentLocal.remove(key, value)) {
+                return false;
+            }
+            version.incrementAndGet();
+            return true;
+        }
+
+        synchronized (this) {
+            V current = get(key);
+            if (current == null || !current.equals(value)) {
+                return false;
+            }
+            remove(key);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (parent.isEmpty()) {
+            ConcurrentHashMap<K, V> currentLocal = local;
+            if (currentLocal == null || !currentLocal.replace(key, oldValue, newValue)) {
+                return false;
+            }
+            version.incrementAndGet();
+            return true;
+        }
+
+        synchronized (this) {
+            V current = get(key);
+            if (current == null || !current.equals(oldValue)) {
+                return false;
+            }
+            put(key, newValue);
+            return true;
+        }
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        if (parent.isEmpty()) {
+            ConcurrentHashMap<K, V> currentLocal = local;
+            if (currentLocal == null) {
+                return null;
+            }
+            V previous = currentLocal.replace(key, value);
+            if (previous != null) {
+                version.incrementAndGet();
+            }
+            return previous;
+        }
+
+        synchronized (this) {
+            if (get(key) == null) {
+                return null;
+            }
+            return put(key, value);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        if (local != null) {
+            local.clear();
+        }
+        parent = Collections.emptyMap();
+        hidden = Collections.emptySet();
+        version.incrementAndGet();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    private V inherited(Object key) {
+        Map<K, V> currentParent = parent;
+        if (currentParent.isEmpty() || hidden.contains(key)) {
+            return null;
+        }
+        return currentParent.get(key);
+    }
+
+    private ConcurrentHashMap<K, V> local() {
+        ConcurrentHashMap<K, V> currentLocal = local;
+        if (currentLocal == null) {
+            synchronized (this) {
+                currentLocal = local;
+                if (currentLocal == null) {
+                    currentLocal = new ConcurrentHashMap<K, V>();
+                    local = currentLocal;
+                }
+            }
+        }
+        return currentLocal;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void hide(Object key) {
+        Set<K> newHidden = new HashSet<K>(hidden);
+        newHidden.add((K) key);
+        hidden = newHidden;
+    }
+
+    private void show(K key) {
+        if (hidden.contains(key)) {
+            Set<K> newHidden = new HashSet<K>(hidden);
+            newHidden.remove(key);
+            hidden = newHidden;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A histogram of non-negative values, such as durations or sizes, recorded by many threads.
+ *
+ * The buckets are laid out like an HDR histogram: values below {@link #SUB_BUCKETS} have a bucket each,
+ * and every power of two above that is split into {@link #SUB_BUCKETS} equal buckets,
+ * so a percentile is off by at most 1/{@link #SUB_BUCKETS} of its value.
+ * Values above {@link #MAX_TRACKABLE_VALUE} are counted in the last bucket, negative values in the first one.
+ *
+ * Most values of a metric are about the same, so a few buckets get all the adds.
+ * Each bucket is therefore a {@link StripedLongCounter}, created the first time it is used,
+ * and so is the sum. The maximum is only written when it grows.
+ */
+public final class LongHistogram {
+    static final int SUB_BUCKETS = 16;
+    static final long MAX_TRACKABLE_VALUE = Integer.MAX_VALUE;
+
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+    private static final int NUMBER_OF_BUCKETS = bucketIndex(MAX_TRACKABLE_VALUE) + 1;
+
+    private final AtomicReferenceArray<StripedLongCounter> buckets = new AtomicReferenceArray<StripedLongCounter>(NUMBER_OF_BUCKETS);
+
+    private final StripedLongCounter sum = new StripedLongCounter();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value The value, negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        int index = bucketIndex(value);
+        StripedLongCounter bucket = buckets.get(index);
+        if (bucket == null) {
+            buckets.compareAndSet(index, null, new StripedLongCounter());
+            bucket = buckets.get(index);
+        }
+        bucket.increment();
+        sum.add(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            StripedLongCounter bucket = buckets.get(i);
+            if (bucket != null) {
+                count += bucket.sum();
+            }
+        }
+        return count;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0.0 : (double) getSum() / count;
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return See {@link Snapshot#valueAtPercentile(double)}.
+     */
+    public long getPercentile(double percentile) {
+        return snapshot().valueAtPercentile(percentile);
+    }
+
+    /**
+     * Takes a snapshot of the counts, so that several percentiles are read from the same data.
+     */
+    public Snapshot snapshot() {
+        long[] snapshot = new long[NUMBER_OF_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            StripedLongCounter bucket = buckets.get(i);
+            if (bucket != null) {
+                snapshot[i] = bucket.sum();
+                total += snapshot[i];
+            }
+        }
+        return new Snapshot(snapshot, total, max.get());
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+        private final long max;
+
+        private Snapshot(long[] counts, long totalCount, long max) {
+            this.counts = counts;
+            this.totalCount = totalCount;
+            this.max = max;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * @param percentile Between 0 and 100.
+         * @return The highest value of the bucket the percentile falls in, at most the maximum, or 0 if nothing was recorded.
+         */
+        public long valueAtPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            double clamped = Math.min(Math.max(percentile, 0.0), 100.0);
+            long rank = Math.max(1, (long) Math.ceil(clamped / 100.0 * totalCount));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueInBucket(i), max);
+                }
+            }
+            return Math.min(highestValueInBucket(counts.length - 1), max);
+        }
+    }
+
+    /*@VisibleForTesting*/
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        long clamped = Math.min(value, MAX_TRACKABLE_VALUE);
+        int exponent = 63 - Long.numberOfLeadingZeros(clamped);
+        int subBucket = (int) (clamped >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /*@VisibleForTesting*/
+    static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+}
@@ -24,7 +24,7 @@ package com.microsoft.applicationinsights.internal.util;
 import java.text.ParseException;
 import java.util.Date;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.google.common.base.Preconditions;
@@ -37,7 +37,7 @@ public class MapUtil
 {
     /**
      * Copies entries from the source map to the target map, overwrites any values in target.
-     * Filters out null values if target is a {@link ConcurrentHashMap}.
+     * Filters out null values if target is a {@link ConcurrentMap}.
      * @param source the source map. If null or empty, this is a nop.
      * @param target the target map. Cannot be null.
      * @param <Value> The type of the values in both maps
@@ -59,7 +59,7 @@ public class MapUtil
             }
 
             if (!target.containsKey(key)) {
-                if (target instanceof ConcurrentHashMap && entry.getValue() == null) {
+                if (target instanceof ConcurrentMap && entry.getValue() == null) {
                     continue;
                 } else {
                     target.put(key, entry.getValue());
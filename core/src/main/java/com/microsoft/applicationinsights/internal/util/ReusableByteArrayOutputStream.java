@@ -0,0 +1,49 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A {@link ByteArrayOutputStream} that is meant to be kept and reused, typically one per thread.
+ *
+ * Buffers that grew above 'maxRetainedSize' are released on
+ * {@link #reset()} so that a single huge item does not stay in memory for the life of the thread.
+ */
+public final class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+    private final int initialSize;
+    private final int maxRetainedSize;
+
+    public ReusableByteArrayOutputStream(int initialSize, int maxRetainedSize) {
+        super(initialSize);
+        this.initialSize = initialSize;
+        this.maxRetainedSize = maxRetainedSize;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        if (buf.length > maxRetainedSize) {
+            buf = new byte[initialSize];
+        }
+    }
+}
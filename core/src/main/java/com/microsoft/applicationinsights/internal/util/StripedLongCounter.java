@@ -0,0 +1,108 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is added to by many threads and read rarely, in the spirit of Java 8's LongAdder.
+ *
+ * Adds go to a single base value until two threads race on it. From then on each thread adds to
+ * one of several cells, picked by its thread id, and the cells are 64 bytes apart so threads
+ * on different cells do not share a cache line. The sum is the base plus all the cells.
+ *
+ * The sum read while adds are in flight may miss some of them, which is fine for metrics.
+ * Other striped structures pick their stripe with {@link #stripeOfCurrentThread(int)}, so a thread
+ * uses the same stripe everywhere.
+ */
+public final class StripedLongCounter {
+    // Longs between two cells, so each cell is on its own cache line
+    private static final int CELL_PADDING = 8;
+    private static final int MAX_CELLS = 64;
+    private static final int NUMBER_OF_CELLS = numberOfCells(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLong base = new AtomicLong(0);
+    private volatile AtomicLongArray cells;
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long value) {
+        AtomicLongArray current = cells;
+        if (current == null) {
+            long baseValue = base.get();
+            if (base.compareAndSet(baseValue, baseValue + value)) {
+                return;
+            }
+            current = createCells();
+        }
+        current.addAndGet(stripeOfCurrentThread(NUMBER_OF_CELLS) * CELL_PADDING, value);
+    }
+
+    public long sum() {
+        long sum = base.get();
+        AtomicLongArray current = cells;
+        if (current != null) {
+            for (int i = 0; i < current.length(); i += CELL_PADDING) {
+                sum += current.get(i);
+            }
+        }
+        return sum;
+    }
+
+    /*@VisibleForTesting*/
+    boolean isStriped() {
+        return cells != null;
+    }
+
+    private synchronized AtomicLongArray createCells() {
+        if (cells == null) {
+            cells = new AtomicLongArray(NUMBER_OF_CELLS * CELL_PADDING);
+        }
+        return cells;
+    }
+
+    /**
+     * @return The number of cells of a striped counter, a power of two.
+     */
+    public static int numberOfStripes() {
+        return NUMBER_OF_CELLS;
+    }
+
+    /**
+     * @param stripes A power of two.
+     * @return The stripe of the calling thread, between 0 and stripes - 1.
+     */
+    public static int stripeOfCurrentThread(int stripes) {
+        // Fibonacci hashing spreads consecutive thread ids over the stripes
+        int hash = (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32);
+        return hash & (stripes - 1);
+    }
+
+    /*@VisibleForTesting*/
+    static int numberOfCells(int processors) {
+        int cells = Integer.highestOneBit(Math.max(1, processors * 2 - 1)) << 1;
+        return Math.min(cells, MAX_CELLS);
+    }
+}
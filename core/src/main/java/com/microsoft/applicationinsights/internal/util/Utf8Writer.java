@@ -0,0 +1,140 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A {@link Writer} that encodes characters to UTF-8 straight into an {@link OutputStream}.
+ *
+ * Unlike {@link java.io.OutputStreamWriter} it does not go through a {@link java.nio.charset.CharsetEncoder},
+ * so it allocates nothing per write and can be reused for another stream with {@link #reset(OutputStream)}.
+ * Closing the writer flushes it but does not close the underlying stream.
+ *
+ * The class is not thread safe.
+ */
+public final class Utf8Writer extends Writer {
+    private static final int BUFFER_SIZE = 1024;
+
+    // A code point takes up to 4 bytes
+    private static final int MAX_BYTES_PER_CODE_POINT = 4;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private OutputStream out;
+
+    // The high surrogate of a pair that was split between two writes
+    private char pendingHighSurrogate;
+
+    public Utf8Writer(OutputStream out) {
+        reset(out);
+    }
+
+    public void reset(OutputStream out) {
+        this.out = out;
+        this.position = 0;
+        this.pendingHighSurrogate = 0;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; ++i) {
+            encode(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; ++i) {
+            encode(str.charAt(i));
+        }
+    }
+
+    /**
+     * Writes the encoded characters to the stream, a high surrogate that was just written is kept
+     * until its low surrogate comes.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (pendingHighSurrogate != 0) {
+            // Nothing more is coming, a lone high surrogate gets the same replacement as the JDK encoder
+            pendingHighSurrogate = 0;
+            buffer[position++] = '?';
+        }
+        flush();
+    }
+
+    private void encode(char c) throws IOException {
+        if (position > BUFFER_SIZE - MAX_BYTES_PER_CODE_POINT) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            // A lone high surrogate, same replacement as the JDK encoder
+            buffer[position++] = '?';
+            encode(c);
+            return;
+        }
+
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[position++] = '?';
+        } else {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+}
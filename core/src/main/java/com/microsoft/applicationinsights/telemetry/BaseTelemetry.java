@@ -24,7 +24,7 @@ package com.microsoft.applicationinsights.telemetry;
 import com.microsoft.applicationinsights.internal.schemav2.Data;
 import com.microsoft.applicationinsights.internal.schemav2.Domain;
 import com.microsoft.applicationinsights.internal.schemav2.Envelope;
-import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+import com.microsoft.applicationinsights.internal.util.LayeredConcurrentMap;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
 
 import java.io.IOException;
@@ -46,6 +46,10 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
 
     public static final String TELEMETRY_NAME_PREFIX = "Microsoft.ApplicationInsights.";
 
+    // Envelope names by envelope type and instrumentation key, applications rarely use more than a few keys
+    private static final int MAX_CACHED_INSTRUMENTATION_KEYS = 16;
+    private static final ConcurrentMap<String, ConcurrentMap<String, String>> telemetryNames = new ConcurrentHashMap<String, ConcurrentMap<String, String>>();
+
     protected BaseTelemetry() {
     }
 
@@ -55,7 +59,7 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
      * @param properties The context properties
      */
     protected void initialize(ConcurrentMap<String, String> properties) {
-        this.context = new TelemetryContext(properties, new ConcurrentHashMap<String, String>());
+        this.context = new TelemetryContext(properties, new LayeredConcurrentMap<String, String>());
     }
 
     public abstract int getVer();
@@ -147,7 +151,7 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
     @Override
     public void serialize(JsonTelemetryDataSerializer writer) throws IOException {
 
-        String telemetryName = getTelemetryName(normalizeInstrumentationKey(context.getInstrumentationKey()), this.getEnvelopName());
+        String telemetryName = getCachedTelemetryName(context.getInstrumentationKey(), this.getEnvelopName());
 
         Envelope envelope = new Envelope();
         envelope.setName(telemetryName);
@@ -159,7 +163,7 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
         tmp.setBaseData(getData());
         tmp.setBaseType(this.getBaseTypeName());
         envelope.setData(tmp);
-        if (getTimestamp() != null) envelope.setTime(LocalStringsUtils.getDateFormatter().format(getTimestamp()));
+        if (getTimestamp() != null) envelope.setTime(getTimestamp());
         envelope.setTags(context.getTags());
 
         envelope.serialize(writer);
@@ -223,6 +227,27 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
         }
     }
 
+    private static String getCachedTelemetryName(String instrumentationKey, String envelopType) {
+        String key = instrumentationKey == null ? "" : instrumentationKey;
+        ConcurrentMap<String, String> names = telemetryNames.get(envelopType);
+        if (names == null) {
+            names = new ConcurrentHashMap<String, String>();
+            ConcurrentMap<String, String> existing = telemetryNames.putIfAbsent(envelopType, names);
+            if (existing != null) {
+                names = existing;
+            }
+        }
+
+        String telemetryName = names.get(key);
+        if (telemetryName == null) {
+            telemetryName = getTelemetryName(normalizeInstrumentationKey(key), envelopType);
+            if (names.size() < MAX_CACHED_INSTRUMENTATION_KEYS) {
+                names.putIfAbsent(key, telemetryName);
+            }
+        }
+        return telemetryName;
+    }
+
     public static String getTelemetryName(String normalizedInstrumentationKey, String envelopType){
         return String.format(
                 "%s%s%s",
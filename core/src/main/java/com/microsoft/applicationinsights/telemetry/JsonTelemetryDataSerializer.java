@@ -21,16 +21,15 @@
 
 package com.microsoft.applicationinsights.telemetry;
 
-import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.internal.schemav2.DataPointType;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.text.StringCharacterIterator;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -38,31 +37,61 @@ import java.util.Set;
 
 /**
  * This class knows how to transform data that is relevant to {@link Telemetry} instances into JSON.
+ *
+ * The serializer writes straight to its {@link Writer}: numbers, dates and durations are formatted
+ * through a scratch buffer and strings are escaped char by char, so a serializer that is reused
+ * through {@link #reset(Writer)} does not allocate per field.
+ *
+ * Nested {@link JsonSerializable} objects are written in place. The name and the opening of such an
+ * object are only written once its first field is, which keeps empty objects out of the output.
  */
 public final class JsonTelemetryDataSerializer {
 
-    private final static String JSON_SEPARATOR = ",";
-    private final static String JSON_START_OBJECT = "{";
-    private final static String JSON_CLOSE_OBJECT = "}";
-    private final static String JSON_START_ARRAY = "[";
-    private final static String JSON_CLOSE_ARRAY = "]";
-    private final static String JSON_COMMA = "\"";
-    private final static String JSON_NAME_VALUE_SEPARATOR = ":";
-    private final static String JSON_EMPTY_OBJECT = "{}";
+    private final static char JSON_SEPARATOR = ',';
+    private final static char JSON_START_OBJECT = '{';
+    private final static char JSON_CLOSE_OBJECT = '}';
+    private final static char JSON_START_ARRAY = '[';
+    private final static char JSON_CLOSE_ARRAY = ']';
+    private final static char JSON_COMMA = '"';
+    private final static char JSON_NAME_VALUE_SEPARATOR = ':';
+    private final static String JSON_NULL = "null";
+    private final static String JSON_ZERO = "0.0";
+    private final static String EMPTY_KEY_NAME = "(required property name is empty)";
     private final static int DELTA = 2;
+    private final static int MAX_KEY_LENGTH = 150;
+    private final static int MAX_ITEM_LENGTH = 8192;
+
+    private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private final static long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L};
+
+    // Doubles in that range with up to 3 decimal digits are written without Double.toString
+    private final static double MIN_FAST_DOUBLE = 1e-3;
+    private final static double MAX_FAST_DOUBLE = 1e7;
 
     private static final Set<Class<?>> WRAPPER_TYPES = getWrapperTypes();
 
     private Writer out;
 
-    private String separator = "";
+    private boolean needsSeparator;
+
+    private final char[] scratch = new char[32];
+
+    private Calendar calendar;
+
+    // Nested objects that were started, the first 'openedDepth' of them were already written
+    private String[] pendingNames = new String[8];
+    private boolean[] pendingSeparators = new boolean[8];
+    private int depth;
+    private int openedDepth;
 
     public JsonTelemetryDataSerializer(Writer out) throws IOException {
         reset(out);
     }
 
     public void reset(Writer out) throws IOException {
-        separator = "";
+        needsSeparator = false;
+        depth = 0;
+        openedDepth = 0;
         this.out = out;
         this.out.write(JSON_START_OBJECT);
     }
@@ -74,31 +103,37 @@ public final class JsonTelemetryDataSerializer {
 
     public void write(String name, Duration value) throws IOException {
         writeName(name);
-        write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        out.write(JSON_COMMA);
+        if (value == null) {
+            out.write(JSON_NULL);
+        } else {
+            writeDuration(value);
+        }
+        out.write(JSON_COMMA);
+        needsSeparator = true;
     }
 
     public void write(String name, DataPointType value) throws IOException {
         if (value != null) {
             writeName(name);
-            out.write(String.valueOf(value.getValue()));
-            separator = JSON_SEPARATOR;
+            writeLong(value.getValue());
+            needsSeparator = true;
         }
     }
 
     public void write(String name, int value) throws IOException {
         writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        writeLong(value);
+        needsSeparator = true;
     }
 
     public void write(String name, com.microsoft.applicationinsights.internal.schemav2.SeverityLevel value) throws IOException {
         if (value != null) {
             writeName(name);
             out.write(JSON_COMMA);
-            out.write(String.valueOf(value));
+            out.write(value.name());
             out.write(JSON_COMMA);
-            separator = JSON_SEPARATOR;
+            needsSeparator = true;
         }
     }
 
@@ -108,14 +143,14 @@ public final class JsonTelemetryDataSerializer {
         }
 
         writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        writeLong(value);
+        needsSeparator = true;
     }
 
     public void write(String name, double value) throws IOException {
         writeName(name);
-        out.write(Double.isNaN(value) || Double.isInfinite(value) ? "0.0" : String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        writeDouble(value);
+        needsSeparator = true;
     }
 
     public void write(String name, Double value) throws IOException {
@@ -124,14 +159,14 @@ public final class JsonTelemetryDataSerializer {
         }
 
         writeName(name);
-        out.write(Double.isNaN(value) || Double.isInfinite(value) ? "0.0" : String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        writeDouble(value);
+        needsSeparator = true;
     }
 
     public void write(String name, short value) throws IOException {
         writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        writeLong(value);
+        needsSeparator = true;
     }
 
     public void write(String name, Short value) throws IOException {
@@ -140,14 +175,14 @@ public final class JsonTelemetryDataSerializer {
         }
 
         writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        writeLong(value);
+        needsSeparator = true;
     }
 
     public void write(String name, long value) throws IOException {
         writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        writeLong(value);
+        needsSeparator = true;
     }
 
     public void write(String name, Long value) throws IOException {
@@ -156,14 +191,14 @@ public final class JsonTelemetryDataSerializer {
         }
 
         writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        writeLong(value);
+        needsSeparator = true;
     }
 
     public void write(String name, boolean value) throws IOException {
         writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        out.write(value ? "true" : "false");
+        needsSeparator = true;
     }
 
     public void write(String name, Boolean value) throws IOException {
@@ -171,9 +206,7 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
-        writeName(name);
-        out.write(String.valueOf(value));
-        separator = JSON_SEPARATOR;
+        write(name, value.booleanValue());
     }
 
     public void write(String name, Date value) throws IOException {
@@ -182,8 +215,10 @@ public final class JsonTelemetryDataSerializer {
         }
 
         writeName(name);
-        write(LocalStringsUtils.getDateFormatter().format(value));
-        separator = JSON_SEPARATOR;
+        out.write(JSON_COMMA);
+        writeDate(value);
+        out.write(JSON_COMMA);
+        needsSeparator = true;
     }
 
     /**
@@ -210,7 +245,13 @@ public final class JsonTelemetryDataSerializer {
     public void writeRequired(String name, String value, int len) throws IOException{
         //If field is required and not present set default value
         if (value == null || value.equals("")) {
-            value = "DEFAULT " + name;
+            writeName(name);
+            out.write(JSON_COMMA);
+            int written = writeSanitized("DEFAULT ", 0, 8, len, 0);
+            writeSanitized(name, 0, name.length(), len, written);
+            out.write(JSON_COMMA);
+            needsSeparator = true;
+            return;
         }
         writeToJson(name, value, len);
     }
@@ -219,10 +260,9 @@ public final class JsonTelemetryDataSerializer {
 
         writeName(name);
         out.write(JSON_COMMA);
-        String sanitizedValue = sanitizeStringForJSON(value, len);
-        out.write(sanitizedValue);
+        writeSanitized(value, 0, value.length(), len, 0);
         out.write(JSON_COMMA);
-        separator = JSON_SEPARATOR;
+        needsSeparator = true;
     }
 
     public <T extends JsonSerializable> void write(String name, T value) throws IOException {
@@ -230,15 +270,7 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
-        String jsonStringToAppend = createJsonFor(value);
-        if (Strings.isNullOrEmpty(jsonStringToAppend)) {
-            return;
-        }
-
-        writeName(name);
-        out.write(jsonStringToAppend);
-
-        separator = JSON_SEPARATOR;
+        writeObject(name, value);
     }
 
     public <T> void write(String name, Map<String, T> map) throws IOException {
@@ -251,16 +283,26 @@ public final class JsonTelemetryDataSerializer {
         try {
             out.write(JSON_START_OBJECT);
 
-            separator = "";
+            needsSeparator = false;
             for (Map.Entry<String, T> entry : map.entrySet()) {
-                writeName(sanitizeKey(entry.getKey()));
-                write(entry.getValue());
-                separator = JSON_SEPARATOR;
+                T value = entry.getValue();
+                if (value instanceof JsonSerializable) {
+                    writeObject(sanitizeKey(entry.getKey()), (JsonSerializable) value);
+                    continue;
+                }
+
+                writeSeparator();
+                out.write(JSON_COMMA);
+                writeSanitizedKey(entry.getKey());
+                out.write(JSON_COMMA);
+                out.write(JSON_NAME_VALUE_SEPARATOR);
+                write(value);
+                needsSeparator = true;
             }
 
             out.write(JSON_CLOSE_OBJECT);
         } finally {
-            separator = JSON_SEPARATOR;
+            needsSeparator = true;
         }
     }
 
@@ -270,73 +312,270 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
+        if (list instanceof ParsedStackCache.ParsedStack) {
+            String json = ((ParsedStackCache.ParsedStack) list).toJson();
+            if (json != null) {
+                writeName(name);
+                out.write(json);
+                needsSeparator = true;
+                return;
+            }
+        }
+
         writeName(name);
         try {
             if (list.size() < 1) {
-                out.write("null");
+                out.write(JSON_NULL);
             } else {
                 out.write(JSON_START_ARRAY);
-                separator = "";
+                needsSeparator = false;
                 for (T item : list) {
-                    out.write(separator);
+                    if (item instanceof JsonSerializable) {
+                        writeObject(null, (JsonSerializable) item);
+                        continue;
+                    }
+
+                    writeSeparator();
                     write(item);
-                    separator = JSON_SEPARATOR;
+                    needsSeparator = true;
                 }
 
                 out.write(JSON_CLOSE_ARRAY);
             }
         } finally {
-            separator = JSON_SEPARATOR;
+            needsSeparator = true;
         }
     }
 
     private <T> void write(T item) throws IOException {
-        if (item instanceof JsonSerializable) {
-            StringWriter stringWriter = new StringWriter();
-
-            String jsonStringToAppend = createJsonFor((JsonSerializable)item);
-            if (Strings.isNullOrEmpty(jsonStringToAppend)) {
-                return;
+        if (WRAPPER_TYPES.contains(item.getClass())) {
+            if (item instanceof Double) {
+                writeDouble((Double) item);
+            } else if (item instanceof Long || item instanceof Integer || item instanceof Short || item instanceof Byte) {
+                writeLong(((Number) item).longValue());
+            } else {
+                out.write(String.valueOf(item));
             }
-
-            out.write(jsonStringToAppend);
         } else {
-            if (WRAPPER_TYPES.contains(item.getClass()))
-            {
-                out.write(String.valueOf(item));
+            String value = String.valueOf(item);
+            out.write(JSON_COMMA);
+            writeSanitized(value, 0, Math.min(value.length(), MAX_ITEM_LENGTH), MAX_ITEM_LENGTH, 0);
+            out.write(JSON_COMMA);
+        }
+    }
+
+    /**
+     * Writes a nested object in place. The name and the opening brace are written lazily,
+     * by {@link #openPendingObjects()}, so an object without fields leaves no trace.
+     *
+     * @param name The name of the object, or null for an array item
+     */
+    private void writeObject(String name, JsonSerializable value) throws IOException {
+        if (depth == pendingNames.length) {
+            String[] names = new String[depth * 2];
+            boolean[] separators = new boolean[depth * 2];
+            System.arraycopy(pendingNames, 0, names, 0, depth);
+            System.arraycopy(pendingSeparators, 0, separators, 0, depth);
+            pendingNames = names;
+            pendingSeparators = separators;
+        }
+
+        pendingNames[depth] = name;
+        pendingSeparators[depth] = needsSeparator;
+        ++depth;
+        needsSeparator = false;
+        try {
+            value.serialize(this);
+        } finally {
+            --depth;
+            pendingNames[depth] = null;
+            if (openedDepth > depth) {
+                openedDepth = depth;
+                out.write(JSON_CLOSE_OBJECT);
+                needsSeparator = true;
             } else {
-                String truncatedName = truncate(String.valueOf(item), 8192);
-                String sanitizedItem = sanitizeStringForJSON(truncatedName, 8192);
+                needsSeparator = pendingSeparators[depth];
+            }
+        }
+    }
+
+    private void openPendingObjects() throws IOException {
+        while (openedDepth < depth) {
+            if (pendingSeparators[openedDepth]) {
+                out.write(JSON_SEPARATOR);
+            }
+            String name = pendingNames[openedDepth];
+            if (name != null) {
                 out.write(JSON_COMMA);
-                out.write(sanitizedItem);
+                out.write(name);
                 out.write(JSON_COMMA);
+                out.write(JSON_NAME_VALUE_SEPARATOR);
             }
+            out.write(JSON_START_OBJECT);
+            ++openedDepth;
         }
     }
 
-    private <T extends JsonSerializable> String createJsonFor(T value) throws IOException {
-        StringWriter stringWriter = new StringWriter();
-        JsonTelemetryDataSerializer temp = new JsonTelemetryDataSerializer(new BufferedWriter(stringWriter));
-
-        value.serialize(temp);
-        temp.close();
-        String jsonStringToAppend = stringWriter.toString();
-        if (Strings.isNullOrEmpty(jsonStringToAppend) || JSON_EMPTY_OBJECT.equals(jsonStringToAppend)) {
-            return "";
+    private void writeSeparator() throws IOException {
+        openPendingObjects();
+        if (needsSeparator) {
+            out.write(JSON_SEPARATOR);
         }
-
-        return jsonStringToAppend;
     }
 
     private void writeName(String name) throws IOException {
 
-        out.write(separator);
+        writeSeparator();
         out.write(JSON_COMMA);
         out.write(name);
         out.write(JSON_COMMA);
         out.write(JSON_NAME_VALUE_SEPARATOR);
     }
 
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            out.write(String.valueOf(Long.MIN_VALUE));
+            return;
+        }
+
+        int position = scratch.length;
+        boolean negative = value < 0;
+        long remaining = negative ? -value : value;
+        do {
+            scratch[--position] = (char) ('0' + (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) {
+            scratch[--position] = '-';
+        }
+
+        out.write(scratch, position, scratch.length - position);
+    }
+
+    /**
+     * Writes the same text as {@link String#valueOf(double)}. Values with up to 3 decimal digits between
+     * 0.001 and 10^7 are formatted here, the others, which need the exponent notation or the shortest
+     * decimal representation algorithm of the JDK, still go through {@link String#valueOf(double)}.
+     */
+    private void writeDouble(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.write(JSON_ZERO);
+            return;
+        }
+
+        if (value == 0) {
+            out.write(1 / value < 0 ? "-0.0" : JSON_ZERO);
+            return;
+        }
+
+        double absolute = Math.abs(value);
+        if (absolute >= MIN_FAST_DOUBLE && absolute < MAX_FAST_DOUBLE) {
+            for (int decimals = 0; decimals < POWERS_OF_TEN.length; ++decimals) {
+                long power = POWERS_OF_TEN[decimals];
+                double scaled = absolute * power;
+                long digits = (long) scaled;
+                if (digits == scaled && (double) digits / power == absolute) {
+                    if (value < 0) {
+                        out.write('-');
+                    }
+                    writeLong(digits / power);
+                    out.write('.');
+
+                    // 'scaled' may only be exact for a scale larger than needed, as in 2247.47 * 1000
+                    long fraction = digits % power;
+                    while (decimals > 1 && fraction % 10 == 0) {
+                        fraction /= 10;
+                        --decimals;
+                    }
+                    writePadded(fraction, Math.max(decimals, 1));
+                    return;
+                }
+            }
+        }
+
+        out.write(String.valueOf(value));
+    }
+
+    /**
+     * Writes a non negative value with at least 'width' digits, the same as '%0[width]d'.
+     */
+    private void writePadded(long value, int width) throws IOException {
+        int position = scratch.length;
+        long remaining = value;
+        do {
+            scratch[--position] = (char) ('0' + (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        while (scratch.length - position < width) {
+            scratch[--position] = '0';
+        }
+
+        out.write(scratch, position, scratch.length - position);
+    }
+
+    /**
+     * Writes the same text as {@link Duration#toString()}.
+     */
+    private void writeDuration(Duration value) throws IOException {
+        if (value.getDays() < 0 || value.getHours() < 0 || value.getMinutes() < 0 || value.getSeconds() < 0 || value.getMilliseconds() < 0) {
+            String text = value.toString();
+            writeSanitized(text, 0, text.length(), MAX_ITEM_LENGTH, 0);
+            return;
+        }
+
+        if (value.getDays() != 0) {
+            writePadded(value.getDays(), 2);
+            out.write('.');
+        }
+        writePadded(value.getHours(), 2);
+        out.write(':');
+        writePadded(value.getMinutes(), 2);
+        out.write(':');
+        writePadded(value.getSeconds(), 2);
+        if (value.getMilliseconds() > 0) {
+            out.write('.');
+            writePadded(value.getMilliseconds(), 3);
+            out.write("0000");
+        }
+    }
+
+    /**
+     * Writes the same text as {@link LocalStringsUtils#getDateFormatter()}, 'yyyy-MM-dd'T'HH:mm:ss.SSSZZ'
+     * in the default time zone, with a calendar that is kept by this serializer.
+     */
+    private void writeDate(Date value) throws IOException {
+        if (calendar == null) {
+            calendar = Calendar.getInstance();
+        }
+        calendar.setTime(value);
+
+        int year = calendar.get(Calendar.YEAR);
+        if (calendar.get(Calendar.ERA) != GregorianCalendar.AD || year < 1900 || year > 9999) {
+            out.write(LocalStringsUtils.getDateFormatter().format(value));
+            return;
+        }
+
+        writePadded(year, 4);
+        out.write('-');
+        writePadded(calendar.get(Calendar.MONTH) + 1, 2);
+        out.write('-');
+        writePadded(calendar.get(Calendar.DAY_OF_MONTH), 2);
+        out.write('T');
+        writePadded(calendar.get(Calendar.HOUR_OF_DAY), 2);
+        out.write(':');
+        writePadded(calendar.get(Calendar.MINUTE), 2);
+        out.write(':');
+        writePadded(calendar.get(Calendar.SECOND), 2);
+        out.write('.');
+        writePadded(calendar.get(Calendar.MILLISECOND), 3);
+
+        int offsetInMinutes = (calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET)) / 60000;
+        out.write(offsetInMinutes < 0 ? '-' : '+');
+        offsetInMinutes = Math.abs(offsetInMinutes);
+        writePadded(offsetInMinutes / 60, 2);
+        writePadded(offsetInMinutes % 60, 2);
+    }
+
     private static Set<Class<?>> getWrapperTypes()
     {
         Set<Class<?>> ret = new HashSet<Class<?>>();
@@ -352,77 +591,87 @@ public final class JsonTelemetryDataSerializer {
         return ret;
     }
 
-    private String sanitizeStringForJSON(String text, int maxLength) {
-
-        final StringBuilder result = new StringBuilder();
-        StringCharacterIterator iterator = new StringCharacterIterator(text);
-        for (char curr = iterator.current(); curr != iterator.DONE && result.length() < maxLength - DELTA; curr = iterator.next()) {
-            if( curr == '\"' ){
-                result.append("\\\"");
-            }
-            else if(curr == '\\'){
-                result.append("\\\\");
-            }
-            else if(curr == '\b'){
-                result.append("\\b");
-            }
-            else if(curr == '\f'){
-                result.append("\\f");
-            }
-            else if(curr == '\n'){
-                result.append("\\n");
-            }
-            else if(curr == '\r'){
-                result.append("\\r");
-            }
-            else if(curr == '\t'){
-                result.append("\\t");
-            }
-            else if (!Character.isISOControl(curr)){
-                result.append(curr);
-            }
-            else {
-                if (result.length() + 7 < maxLength) { // needs 7 more character space to be appended
-                    result.append("\\u");
-                    result.append((String.format( "%04x", Integer.valueOf(curr))));
+    /**
+     * Escapes the chars of text between 'start' and 'end' straight to the writer.
+     *
+     * At most 'maxLength' - 2 chars are written, escape sequences included, and the count starts at 'written'.
+     *
+     * @return The number of chars written so far
+     */
+    private int writeSanitized(String text, int start, int end, int maxLength, int written) throws IOException {
+        for (int i = start; i < end && written < maxLength - DELTA; ++i) {
+            char curr = text.charAt(i);
+            if (curr == '\"') {
+                out.write("\\\"");
+                written += 2;
+            } else if (curr == '\\') {
+                out.write("\\\\");
+                written += 2;
+            } else if (curr == '\b') {
+                out.write("\\b");
+                written += 2;
+            } else if (curr == '\f') {
+                out.write("\\f");
+                written += 2;
+            } else if (curr == '\n') {
+                out.write("\\n");
+                written += 2;
+            } else if (curr == '\r') {
+                out.write("\\r");
+                written += 2;
+            } else if (curr == '\t') {
+                out.write("\\t");
+                written += 2;
+            } else if (!Character.isISOControl(curr)) {
+                out.write(curr);
+                ++written;
+            } else {
+                if (written + 7 < maxLength) { // needs 7 more character space to be appended
+                    out.write("\\u");
+                    out.write(HEX_DIGITS[(curr >> 12) & 0xF]);
+                    out.write(HEX_DIGITS[(curr >> 8) & 0xF]);
+                    out.write(HEX_DIGITS[(curr >> 4) & 0xF]);
+                    out.write(HEX_DIGITS[curr & 0xF]);
+                    written += 6;
                 }
                 else {
                     break;
                 }
             }
         }
-        return result.toString();
+        return written;
     }
 
-    private String sanitizeKey(String key) {
-        String sanitizedKey = trimAndTruncate(key, 150);
-        sanitizedKey = sanitizeStringForJSON(sanitizedKey, 150);
-        sanitizedKey = MakeKeyNonEmpty(sanitizedKey);
-        return sanitizedKey;
-    }
-
-    private static String trimAndTruncate(String value, int maxLength) {
-        if (value == null) {
-            return value;
+    /**
+     * Writes the key trimmed, truncated and escaped, the same as {@link #sanitizeKey(String)} does.
+     */
+    private void writeSanitizedKey(String key) throws IOException {
+        int start = 0;
+        int end = key == null ? 0 : key.length();
+        while (start < end && key.charAt(start) <= ' ') {
+            ++start;
         }
-
-        String sanitized = value.trim();
-        if (sanitized.length() > maxLength) {
-            sanitized = sanitized.substring(0, maxLength);
+        while (end > start && key.charAt(end - 1) <= ' ') {
+            --end;
         }
 
-        return sanitized;
-    }
+        if (start == end) {
+            out.write(EMPTY_KEY_NAME);
+            return;
+        }
 
-    private String MakeKeyNonEmpty(String key) {
-        return Strings.isNullOrEmpty(key) ? "(required property name is empty)" : key;
+        writeSanitized(key, start, Math.min(end, start + MAX_KEY_LENGTH), MAX_KEY_LENGTH, 0);
     }
 
-    private String truncate(String value, int len) {
-        if (value.length() > len) {
-            return value.substring(0, len);
+    private String sanitizeKey(String key) throws IOException {
+        StringWriter sanitizedKey = new StringWriter();
+        Writer originalOut = out;
+        out = sanitizedKey;
+        try {
+            writeSanitizedKey(key);
+        } finally {
+            out = originalOut;
         }
-        return value;
+        return sanitizedKey.toString();
     }
-
 }
@@ -0,0 +1,235 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Strings;
+import com.microsoft.applicationinsights.internal.schemav2.StackFrame;
+
+/**
+ * Keeps the parsed stacks of recently tracked exceptions, keyed by their stack trace,
+ * so that an exception that is thrown over and over is parsed and serialized once.
+ *
+ * The cache keeps the frames as immutable values with their JSON. Every {@link ExceptionTelemetry} gets its own
+ * {@link ParsedStack}, which creates its frames the first time they are accessed, so a change to one exception's
+ * frames is not seen by the other exceptions with the same stack trace.
+ * When the cache is full it is cleared, which keeps it bounded and lets the stacks that are still thrown come back.
+ */
+final class ParsedStackCache {
+    static final int DEFAULT_CAPACITY = 512;
+
+    static final ParsedStackCache INSTANCE = new ParsedStackCache(DEFAULT_CAPACITY);
+
+    private final int capacity;
+    private final ConcurrentMap<StackTraceKey, CachedStack> stacks;
+
+    ParsedStackCache(int capacity) {
+        this.capacity = capacity;
+        this.stacks = new ConcurrentHashMap<StackTraceKey, CachedStack>(capacity);
+    }
+
+    /**
+     * @param trace A non-empty stack trace, which is kept by the cache and must not be modified.
+     * @return The parsed stack, made from the cache if the same stack trace was parsed before.
+     */
+    List<StackFrame> getParsedStack(StackTraceElement[] trace) {
+        StackTraceKey key = new StackTraceKey(trace);
+        CachedStack stack = stacks.get(key);
+        if (stack == null) {
+            stack = new CachedStack(trace);
+            if (stacks.size() >= capacity) {
+                stacks.clear();
+            }
+            stacks.put(key, stack);
+        }
+        return new ParsedStack(stack);
+    }
+
+    /*@VisibleForTesting*/
+    int size() {
+        return stacks.size();
+    }
+
+    /**
+     * The frames of a stack trace, parsed once, and their JSON once it was serialized.
+     */
+    private static final class CachedStack {
+        private static final String FIELD_NAME = "f";
+        private static final String FIELD_PREFIX = "{\"" + FIELD_NAME + "\":";
+
+        private final int[] levels;
+        private final String[] methods;
+        private final String[] fileNames;
+        private final int[] lines;
+        private volatile String json;
+
+        CachedStack(StackTraceElement[] trace) {
+            int size = 0;
+            for (StackTraceElement elem : trace) {
+                if (!elem.isNativeMethod()) {
+                    size++;
+                }
+            }
+
+            levels = new int[size];
+            methods = new String[size];
+            fileNames = new String[size];
+            lines = new int[size];
+            int frame = 0;
+            for (int idx = 0; idx < trace.length; idx++) {
+                StackTraceElement elem = trace[idx];
+
+                if (elem.isNativeMethod()) {
+                    continue;
+                }
+
+                String className = elem.getClassName();
+                levels[frame] = idx;
+                fileNames[frame] = elem.getFileName();
+                lines[frame] = elem.getLineNumber();
+                if (!Strings.isNullOrEmpty(className)) {
+                    methods[frame] = elem.getClassName() + "." + elem.getMethodName();
+                }
+                else {
+                    methods[frame] = elem.getMethodName();
+                }
+                frame++;
+            }
+        }
+
+        int size() {
+            return levels.length;
+        }
+
+        ArrayList<StackFrame> createFrames() {
+            ArrayList<StackFrame> frames = new ArrayList<StackFrame>(levels.length);
+            for (int i = 0; i < levels.length; i++) {
+                StackFrame frame = new StackFrame();
+                frame.setLevel(levels[i]);
+                frame.setMethod(methods[i]);
+                frame.setFileName(fileNames[i]);
+                frame.setLine(lines[i]);
+                frames.add(frame);
+            }
+            return frames;
+        }
+
+        String toJson() throws IOException {
+            String current = json;
+            if (current == null) {
+                StringWriter writer = new StringWriter();
+                JsonTelemetryDataSerializer serializer = new JsonTelemetryDataSerializer(writer);
+                serializer.write(FIELD_NAME, createFrames());
+                current = writer.toString().substring(FIELD_PREFIX.length());
+                json = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * The parsed stack of one exception. Until its frames are accessed it is written by
+     * {@link JsonTelemetryDataSerializer} as the cached JSON; from then on it is a list of its own
+     * frames, which may be modified, and is written like any other list.
+     */
+    static final class ParsedStack extends AbstractList<StackFrame> implements RandomAccess {
+        private final CachedStack cached;
+        private ArrayList<StackFrame> frames;
+
+        private ParsedStack(CachedStack cached) {
+            this.cached = cached;
+        }
+
+        /**
+         * @return The JSON of the frames, or null if they were accessed and so might have been modified.
+         */
+        String toJson() throws IOException {
+            return frames == null ? cached.toJson() : null;
+        }
+
+        @Override
+        public StackFrame get(int index) {
+            return frames().get(index);
+        }
+
+        @Override
+        public StackFrame set(int index, StackFrame element) {
+            return frames().set(index, element);
+        }
+
+        @Override
+        public void add(int index, StackFrame element) {
+            frames().add(index, element);
+            modCount++;
+        }
+
+        @Override
+        public StackFrame remove(int index) {
+            StackFrame removed = frames().remove(index);
+            modCount++;
+            return removed;
+        }
+
+        @Override
+        public int size() {
+            return frames == null ? cached.size() : frames.size();
+        }
+
+        private ArrayList<StackFrame> frames() {
+            if (frames == null) {
+                frames = cached.createFrames();
+            }
+            return frames;
+        }
+    }
+
+    private static final class StackTraceKey {
+        private final StackTraceElement[] trace;
+        private final int hashCode;
+
+        StackTraceKey(StackTraceElement[] trace) {
+            this.trace = trace;
+            this.hashCode = Arrays.hashCode(trace);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof StackTraceKey
+                    && hashCode == ((StackTraceKey) other).hashCode
+                    && Arrays.equals(trace, ((StackTraceKey) other).trace);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -30,9 +30,9 @@ import com.microsoft.applicationinsights.extensibility.context.LocationContext;
 import com.microsoft.applicationinsights.extensibility.context.OperationContext;
 import com.microsoft.applicationinsights.extensibility.context.SessionContext;
 import com.microsoft.applicationinsights.extensibility.context.UserContext;
+import com.microsoft.applicationinsights.internal.util.LayeredConcurrentMap;
 import com.microsoft.applicationinsights.internal.util.MapUtil;
 
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 /**
@@ -61,7 +61,7 @@ public final class TelemetryContext {
      * Default Ctor
      */
     public TelemetryContext() {
-        this(new ConcurrentHashMap<String, String>(), new ConcurrentHashMap<String, String>());
+        this(new LayeredConcurrentMap<String, String>(), new LayeredConcurrentMap<String, String>());
     }
 
     /**
@@ -200,8 +200,22 @@ public final class TelemetryContext {
         if (Strings.isNullOrEmpty(this.instrumentationKey) && !Strings.isNullOrEmpty(source.getInstrumentationKey()))
             setInstrumentationKey(source.getInstrumentationKey());
 
-        MapUtil.copy(source.tags, this.tags);
-        MapUtil.copy(source.properties, this.properties);
+        inherit(source.tags, this.tags);
+        inherit(source.properties, this.properties);
+    }
+
+    /**
+     * The target shares a snapshot of the source entries when both maps are layered,
+     * the entries are copied otherwise, in both cases entries of the target take precedence.
+     */
+    private static void inherit(ConcurrentMap<String, String> source, ConcurrentMap<String, String> target) {
+        if (source instanceof LayeredConcurrentMap && target instanceof LayeredConcurrentMap) {
+            if (((LayeredConcurrentMap<String, String>) target).inherit(((LayeredConcurrentMap<String, String>) source).snapshot())) {
+                return;
+            }
+        }
+
+        MapUtil.copy(source, target);
     }
 
     public InternalContext getInternal() {
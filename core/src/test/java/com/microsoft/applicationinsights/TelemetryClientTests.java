@@ -32,7 +32,9 @@ import java.util.concurrent.TimeUnit;
 import com.microsoft.applicationinsights.channel.TelemetryChannel;
 import com.microsoft.applicationinsights.extensibility.ContextInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.channel.TelemetrySampler;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.FixedRateSamplingTelemetryProcessor;
 import com.microsoft.applicationinsights.internal.processor.RequestTelemetryFilter;
 import com.microsoft.applicationinsights.telemetry.*;
 
@@ -506,6 +508,49 @@ public final class TelemetryClientTests {
         Mockito.verify(channel, Mockito.times(1)).send(rt);
     }
 
+    @Test
+    public void testItemsSampledOutEarlySkipInitializers() {
+        FixedRateSamplingTelemetryProcessor sampler = new FixedRateSamplingTelemetryProcessor();
+        sampler.setSamplingPercentage("10");
+        configuration.getTelemetryProcessors().add(sampler);
+        TelemetryInitializer mockTelemetryInitializer = Mockito.mock(TelemetryInitializer.class);
+        configuration.getTelemetryInitializers().add(mockTelemetryInitializer);
+
+        final int itemsToGenerate = 200;
+        for (int i = 0; i < itemsToGenerate; ++i) {
+            RequestTelemetry rt = new RequestTelemetry();
+            rt.getContext().getOperation().setId("operation" + i);
+            client.trackRequest(rt);
+        }
+
+        assertTrue(eventsSent.size() > 0);
+        assertTrue(eventsSent.size() < itemsToGenerate);
+        Mockito.verify(mockTelemetryInitializer, Mockito.times(eventsSent.size())).initialize(any(Telemetry.class));
+        for (Telemetry telemetry : eventsSent) {
+            assertEquals((Double) 10.0, ((SupportSampling) telemetry).getSamplingPercentage());
+        }
+    }
+
+    @Test
+    public void testItemsAreNotSampledOutEarlyWhenAnotherProcessorComesFirst() {
+        TelemetryProcessor mockTelemetryProcessor = Mockito.mock(TelemetryProcessor.class);
+        Mockito.when(mockTelemetryProcessor.process(any(Telemetry.class))).thenReturn(true);
+        configuration.getTelemetryProcessors().add(mockTelemetryProcessor);
+        FixedRateSamplingTelemetryProcessor sampler = new FixedRateSamplingTelemetryProcessor();
+        sampler.setSamplingPercentage("10");
+        configuration.getTelemetryProcessors().add(sampler);
+
+        final int itemsToGenerate = 200;
+        for (int i = 0; i < itemsToGenerate; ++i) {
+            RequestTelemetry rt = new RequestTelemetry();
+            rt.getContext().getOperation().setId("operation" + i);
+            client.trackRequest(rt);
+        }
+
+        assertTrue(eventsSent.size() < itemsToGenerate);
+        Mockito.verify(mockTelemetryProcessor, Mockito.times(itemsToGenerate)).process(any(Telemetry.class));
+    }
+
     // endregion Track tests
 
     // region Private methods
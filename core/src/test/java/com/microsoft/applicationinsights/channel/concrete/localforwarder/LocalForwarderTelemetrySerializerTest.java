@@ -0,0 +1,76 @@
+package com.microsoft.applicationinsights.channel.concrete.localforwarder;
+
+import com.google.common.base.Optional;
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+import com.microsoft.applicationinsights.internal.channel.common.TransmissionFileSystemOutput;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import com.microsoft.localforwarder.library.inputs.contracts.Telemetry;
+import com.microsoft.localforwarder.library.inputs.contracts.TelemetryBatch;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class LocalForwarderTelemetrySerializerTest {
+
+    private final LocalForwarderTelemetrySerializer serializer = new LocalForwarderTelemetrySerializer();
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testSerializedBatchIsReadBack() throws IOException {
+        List<Telemetry> telemetries = createTelemetries();
+
+        Optional<Transmission> transmission = serializer.serialize(telemetries);
+
+        assertTrue(transmission.isPresent());
+        assertEquals(LocalForwarderTelemetrySerializer.PROTOBUF_WEB_CONTENT_TYPE, transmission.get().getWebContentType());
+        assertEquals(LocalForwarderTelemetrySerializer.GZIP_WEB_ENCODING_TYPE, transmission.get().getWebContentEncodingType());
+        assertEquals(telemetries, serializer.deserialize(transmission.get()).getItemsList());
+    }
+
+    @Test
+    public void testSerializedBatchIsReadBackFromDisk() throws IOException {
+        TransmissionFileSystemOutput fileSystem = new TransmissionFileSystemOutput(tmpFolder.newFolder().getAbsolutePath());
+        List<Telemetry> telemetries = createTelemetries();
+
+        assertTrue(fileSystem.send(serializer.serialize(telemetries).get()));
+        Transmission fetched = fileSystem.fetchOldestFile();
+
+        assertNotNull(fetched);
+        assertTrue(LocalForwarderTelemetrySerializer.isSerializedBatch(fetched));
+        TelemetryBatch batch = serializer.deserialize(fetched);
+        assertEquals(telemetries, batch.getItemsList());
+    }
+
+    @Test(expected = IOException.class)
+    public void testJsonTransmissionIsNotDeserialized() throws IOException {
+        Transmission json = new Transmission(new byte[] {1, 2, 3}, "application/x-json-stream", "gzip");
+
+        assertFalse(LocalForwarderTelemetrySerializer.isSerializedBatch(json));
+        serializer.deserialize(json);
+    }
+
+    private static List<Telemetry> createTelemetries() {
+        RequestTelemetry request = new RequestTelemetry("GET /api/orders", new Date(), 123L, "200", true);
+        request.getContext().setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        TraceTelemetry trace = new TraceTelemetry("Processed order 42");
+        trace.getContext().setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+
+        List<Telemetry> telemetries = new ArrayList<>();
+        telemetries.add(LocalForwarderModelTransformer.transform(request));
+        telemetries.add(LocalForwarderModelTransformer.transform(trace));
+        return telemetries;
+    }
+}
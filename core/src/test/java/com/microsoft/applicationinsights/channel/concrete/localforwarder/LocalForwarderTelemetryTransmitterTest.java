@@ -2,11 +2,14 @@ package com.microsoft.applicationinsights.channel.concrete.localforwarder;
 
 
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter.TelemetriesFetcher;
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+import com.microsoft.applicationinsights.internal.channel.common.TransmissionFileSystemOutput;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
 import com.microsoft.localforwarder.library.inputs.contracts.AITelemetryServiceGrpc.AITelemetryServiceImplBase;
 import com.microsoft.localforwarder.library.inputs.contracts.AiResponse;
 import com.microsoft.localforwarder.library.inputs.contracts.Telemetry;
 import com.microsoft.localforwarder.library.inputs.contracts.TelemetryBatch;
+import io.grpc.Status;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.stub.StreamObserver;
@@ -14,6 +17,7 @@ import io.grpc.testing.GrpcCleanupRule;
 import io.grpc.util.MutableHandlerRegistry;
 import org.apache.commons.lang3.time.StopWatch;
 import org.junit.*;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -21,6 +25,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
@@ -33,12 +38,17 @@ public class LocalForwarderTelemetryTransmitterTest {
 
     @Rule
     public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+    @Rule
+    public final TemporaryFolder tmpFolder = new TemporaryFolder();
     private AITelemetryServiceImplBase fakeServer;
+    private String serverName;
+    private volatile boolean serverFails;
+    private final AtomicInteger receivedBatches = new AtomicInteger();
 
     @Before
     public void setup() throws IOException {
         StopWatch sw = StopWatch.createStarted();
-        String serverName = InProcessServerBuilder.generateName();
+        serverName = InProcessServerBuilder.generateName();
         grpcCleanup.register(
                 InProcessServerBuilder.forName(serverName)
                         .fallbackHandlerRegistry(serviceRegistry)
@@ -51,9 +61,17 @@ public class LocalForwarderTelemetryTransmitterTest {
             public StreamObserver<TelemetryBatch> sendTelemetryBatch(final StreamObserver<AiResponse> responseObserver) {
                 System.out.println("Server: Got a batch!");
                 return new StreamObserver<TelemetryBatch>() {
+                    private boolean failed;
+
                     @Override
                     public void onNext(TelemetryBatch value) {
                         System.out.println("Server NEXT: " + value);
+                        receivedBatches.incrementAndGet();
+                        if (serverFails) {
+                            failed = true;
+                            responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                            return;
+                        }
                         responseObserver.onNext(AiResponse.newBuilder().build());
                     }
 
@@ -66,7 +84,9 @@ public class LocalForwarderTelemetryTransmitterTest {
                     @Override
                     public void onCompleted() {
                         System.out.println("Server DONE!");
-                        responseObserver.onCompleted();
+                        if (!failed) {
+                            responseObserver.onCompleted();
+                        }
                     }
                 };
             }
@@ -133,6 +153,61 @@ public class LocalForwarderTelemetryTransmitterTest {
         assertTrue("timeout waiting for response", latch.await(5, TimeUnit.SECONDS));
     }
 
+    @Test
+    public void failedSendIsSavedToDisk() throws Exception {
+        TransmissionFileSystemOutput spillOutput = useSpillOutput();
+        serverFails = true;
+        Collection<Telemetry> telemetries = generateTelemetryCollection();
+
+        assertTrue("sendNow should return true", underTest.sendNow(telemetries));
+
+        for (int i = 0; i < 20 && spillOutput.getStoredBytes() == 0; ++i) {
+            Thread.sleep(100);
+        }
+        Transmission saved = spillOutput.fetchOldestFile();
+        assertNotNull("the failed batch should be saved", saved);
+        assertEquals(telemetries, new LocalForwarderTelemetrySerializer().deserialize(saved).getItemsList());
+    }
+
+    @Test
+    public void replaySendsSavedBatchesAndEmptiesFolder() throws Exception {
+        TransmissionFileSystemOutput spillOutput = useSpillOutput();
+        saveBatches(spillOutput, 2);
+
+        underTest.replaySavedBatches();
+
+        assertEquals(2, receivedBatches.get());
+        assertNull(spillOutput.fetchOldestFile());
+    }
+
+    @Test
+    public void failedReplayIsSavedAgainAndStopsReplaying() throws Exception {
+        TransmissionFileSystemOutput spillOutput = useSpillOutput();
+        saveBatches(spillOutput, 2);
+        serverFails = true;
+
+        underTest.replaySavedBatches();
+
+        assertEquals(1, receivedBatches.get());
+        assertNotNull(spillOutput.fetchOldestFile());
+        assertNotNull(spillOutput.fetchOldestFile());
+        assertNull(spillOutput.fetchOldestFile());
+    }
+
+    private TransmissionFileSystemOutput useSpillOutput() throws IOException {
+        underTest.stop(10, TimeUnit.SECONDS);
+        TransmissionFileSystemOutput spillOutput = new TransmissionFileSystemOutput(tmpFolder.newFolder().getAbsolutePath());
+        underTest = new LocalForwarderTelemetriesTransmitter(InProcessChannelBuilder.forName(serverName).directExecutor(), false, 0, spillOutput);
+        return spillOutput;
+    }
+
+    private void saveBatches(TransmissionFileSystemOutput spillOutput, int count) {
+        LocalForwarderTelemetrySerializer serializer = new LocalForwarderTelemetrySerializer();
+        for (int i = 0; i < count; ++i) {
+            assertTrue(spillOutput.send(serializer.serialize(generateTelemetryCollection()).get()));
+        }
+    }
+
     private Collection<Telemetry> generateTelemetryCollection() {
         Collection<Telemetry> rval = new ArrayList<>();
 
@@ -0,0 +1,100 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public final class ApacheAsyncSenderTest {
+    private static final class RecordingCallback implements FutureCallback<HttpResponse> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean completed;
+
+        @Override
+        public void completed(HttpResponse response) {
+            completed = true;
+            done.countDown();
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            done.countDown();
+        }
+
+        @Override
+        public void cancelled() {
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void testRequestThatMissesItsDeadlineIsNotCompleted() throws Exception {
+        // The server's backlog accepts the connection but nothing ever answers
+        try (ServerSocket silentServer = new ServerSocket(0)) {
+            ApacheAsyncSender sender = new ApacheAsyncSender(4, 200);
+            try {
+                RecordingCallback callback = new RecordingCallback();
+                assertTrue(sender.sendPostRequest(new HttpPost("http://localhost:" + silentServer.getLocalPort() + "/v2/track"), callback));
+
+                assertTrue(callback.done.await(10, TimeUnit.SECONDS));
+                assertFalse(callback.completed);
+                assertEquals(0, sender.getInFlightRequests());
+            } finally {
+                sender.close();
+            }
+        }
+    }
+
+    @Test
+    public void testRequestsAboveTheInFlightLimitAreRejected() throws Exception {
+        try (ServerSocket silentServer = new ServerSocket(0)) {
+            ApacheAsyncSender sender = new ApacheAsyncSender(2, 10000);
+            try {
+                String uri = "http://localhost:" + silentServer.getLocalPort() + "/v2/track";
+                assertTrue(sender.sendPostRequest(new HttpPost(uri), new RecordingCallback()));
+                assertTrue(sender.sendPostRequest(new HttpPost(uri), new RecordingCallback()));
+
+                assertFalse(sender.sendPostRequest(new HttpPost(uri), new RecordingCallback()));
+                assertEquals(2, sender.getInFlightRequests());
+            } finally {
+                sender.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSendAfterCloseIsRejected() throws Exception {
+        ApacheAsyncSender sender = new ApacheAsyncSender(2, 1000);
+        sender.close();
+
+        assertFalse(sender.sendPostRequest(new HttpPost("http://localhost:1/v2/track"), new RecordingCallback()));
+        assertEquals(0, sender.getInFlightRequests());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
+import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.metrics.SdkMetrics;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class CompressionStageTest {
+    private static final class CollectingDispatcher implements TransmissionDispatcher {
+        final ConcurrentLinkedQueue<Transmission> dispatched = new ConcurrentLinkedQueue<Transmission>();
+        final ConcurrentLinkedQueue<String> threads = new ConcurrentLinkedQueue<String>();
+
+        @Override
+        public void dispatch(Transmission transmission) {
+            dispatched.add(transmission);
+            threads.add(Thread.currentThread().getName());
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+    }
+
+    @Test
+    public void testBatchIsCompressedBySubmitterWithNoThreads() {
+        CollectingDispatcher dispatcher = new CollectingDispatcher();
+        CompressionStage tested = new CompressionStage(dispatcher, new GzipTelemetrySerializer(), 0, 1);
+        long batchesBefore = SdkMetrics.INSTANCE.getBatchSize().getCount();
+        long telemetriesBefore = SdkMetrics.INSTANCE.getBatchSize().getSum();
+
+        tested.submit(createBatch(100));
+
+        assertEquals(1, dispatcher.dispatched.size());
+        assertEquals(Thread.currentThread().getName(), dispatcher.threads.peek());
+        assertEquals(batchesBefore + 1, SdkMetrics.INSTANCE.getBatchSize().getCount());
+        assertEquals(telemetriesBefore + 100, SdkMetrics.INSTANCE.getBatchSize().getSum());
+        assertEquals(dispatcher.dispatched.peek().getContent().length, tested.getCompressedBytes());
+        assertTrue(tested.getUncompressedBytes() > tested.getCompressedBytes());
+        assertTrue(tested.getCompressionRatio() > 1.0);
+        assertEquals(0, tested.getBatchesCompressedBySubmitter());
+    }
+
+    @Test
+    public void testEmptyBatchIsIgnored() {
+        CollectingDispatcher dispatcher = new CollectingDispatcher();
+        CompressionStage tested = new CompressionStage(dispatcher, new GzipTelemetrySerializer(), 0, 1);
+
+        tested.submit(Collections.<byte[]>emptyList());
+
+        assertEquals(0, dispatcher.dispatched.size());
+        assertEquals(0.0, tested.getCompressionRatio(), 0.0);
+    }
+
+    @Test
+    public void testFailedSerializationIsNotDispatched() {
+        CollectingDispatcher dispatcher = new CollectingDispatcher();
+        TelemetrySerializer failingSerializer = new TelemetrySerializer() {
+            @Override
+            public Optional<Transmission> serialize(Collection<byte[]> telemetries) {
+                return Optional.absent();
+            }
+        };
+        CompressionStage tested = new CompressionStage(dispatcher, failingSerializer, 0, 1);
+
+        tested.submit(createBatch(10));
+
+        assertEquals(0, dispatcher.dispatched.size());
+        assertEquals(1, tested.getFailedBatches());
+    }
+
+    @Test
+    public void testFullQueueIsCompressedBySubmitter() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final TelemetrySerializer gzip = new GzipTelemetrySerializer();
+        TelemetrySerializer blockingSerializer = new TelemetrySerializer() {
+            @Override
+            public Optional<Transmission> serialize(Collection<byte[]> telemetries) {
+                if (!Thread.currentThread().getName().startsWith(CompressionStage.class.getSimpleName())) {
+                    return gzip.serialize(telemetries);
+                }
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return gzip.serialize(telemetries);
+            }
+        };
+
+        CollectingDispatcher dispatcher = new CollectingDispatcher();
+        CompressionStage tested = new CompressionStage(dispatcher, blockingSerializer, 2, 1);
+        int batches = 2 + tested.getQueueCapacity() + 3;
+        try {
+            for (int i = 0; i < batches; ++i) {
+                tested.submit(createBatch(10));
+            }
+
+            // Two batches are held by the threads, the queue is full and the rest were compressed here
+            assertEquals(3, tested.getBatchesCompressedBySubmitter());
+            assertEquals(3, dispatcher.dispatched.size());
+            assertEquals(tested.getQueueCapacity(), tested.getMaxQueueDepth());
+        } finally {
+            release.countDown();
+            tested.stop(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(batches, dispatcher.dispatched.size());
+        assertEquals(0, tested.getQueueDepth());
+    }
+
+    private static List<byte[]> createBatch(int size) {
+        List<byte[]> batch = new ArrayList<byte[]>();
+        for (int i = 0; i < size; ++i) {
+            batch.add(("{\"name\":\"Microsoft.ApplicationInsights.Event\",\"iKey\":\"00000000-0000-0000-0000-000000000000\",\"seq\":" + i + "}").getBytes());
+        }
+        return batch;
+    }
+}
@@ -133,7 +133,7 @@ public final class GzipTelemetrySerializerTest {
     @Test(expected = IllegalArgumentException.class)
     public void testNoData() throws Exception {
         GzipTelemetrySerializer tested = new GzipTelemetrySerializer();
-        tested.serialize(new ArrayList<String>());
+        tested.serialize(new ArrayList<byte[]>());
     }
 
     @Test
@@ -155,7 +155,7 @@ public final class GzipTelemetrySerializerTest {
         GzipTelemetrySerializer tested = new GzipTelemetrySerializer();
 
         List<Telemetry> telemetries = new ArrayList<Telemetry>(amount);
-        List<String> telemetriesSerialized = new ArrayList<String>(amount);
+        List<byte[]> telemetriesSerialized = new ArrayList<byte[]>(amount);
 
         HashMap<String, StubTelemetry> expected = new HashMap<String, StubTelemetry>();
 
@@ -169,7 +169,7 @@ public final class GzipTelemetrySerializerTest {
             jsonWriter.close();
             String asJson = writer.toString();
 
-            telemetriesSerialized.add(asJson);
+            telemetriesSerialized.add(asJson.getBytes("UTF-8"));
             writer.getBuffer().setLength(0);
             jsonWriter.reset(writer);
 
@@ -197,7 +197,7 @@ public final class GzipTelemetrySerializerTest {
                 totalLen += len;
             }
 
-            String value = new String(contents.toByteArray());
+            String value = new String(contents.toByteArray(), "UTF-8");
             String[] stubStrings = value.split(System.getProperty("line.separator"));
 
             assertEquals(stubStrings.length, amount);
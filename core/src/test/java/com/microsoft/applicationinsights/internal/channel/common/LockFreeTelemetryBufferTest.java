@@ -0,0 +1,200 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyLong;
+
+public final class LockFreeTelemetryBufferTest {
+    private final static String MOCK_PROPERTY_NAME = "MockProperty";
+
+    private static class CountingSender implements TelemetriesTransmitter<String> {
+        private final AtomicInteger sent = new AtomicInteger(0);
+        private final AtomicInteger sendNowCalls = new AtomicInteger(0);
+
+        @Override
+        public boolean scheduleSend(TelemetriesFetcher<String> telemetriesFetcher, long value, TimeUnit timeUnit) {
+            // Fetch right away, as if the timer expired while other threads keep adding
+            sent.addAndGet(telemetriesFetcher.fetch().size());
+            return true;
+        }
+
+        @Override
+        public boolean sendNow(Collection<String> telemetries) {
+            sendNowCalls.incrementAndGet();
+            sent.addAndGet(telemetries.size());
+            return true;
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+    }
+
+    @Test
+    public void testAddOneTelemetry() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).scheduleSend(any(TelemetriesTransmitter.TelemetriesFetcher.class), anyLong(), any(TimeUnit.class));
+
+        LockFreeTelemetryBuffer<String> testedBuffer = createBuffer(mockSender, 128);
+
+        testedBuffer.add("mockTelemetry");
+
+        Mockito.verify(mockSender, Mockito.times(1)).scheduleSend(any(TelemetriesTransmitter.TelemetriesFetcher.class), anyLong(), any(TimeUnit.class));
+        Mockito.verify(mockSender, Mockito.never()).sendNow(anyCollectionOf(String.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBatchIsSentNowWhenScheduleSendFails() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).sendNow(anyCollectionOf(String.class));
+
+        LockFreeTelemetryBuffer<String> testedBuffer = createBuffer(mockSender, 128);
+
+        testedBuffer.add("mockTelemetry");
+
+        ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(mockSender, Mockito.times(1)).sendNow(captor.capture());
+        assertEquals("mockTelemetry", captor.getValue().iterator().next());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSendWhenBufferIsFull() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).sendNow(anyCollectionOf(String.class));
+        Mockito.doReturn(true).when(mockSender).scheduleSend(any(TelemetriesTransmitter.TelemetriesFetcher.class), anyLong(), any(TimeUnit.class));
+
+        LockFreeTelemetryBuffer<String> testedBuffer = createBuffer(mockSender, 3);
+
+        for (int i = 0; i < 7; ++i) {
+            testedBuffer.add("mockTelemetry" + i);
+        }
+
+        ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(mockSender, Mockito.times(3)).scheduleSend(any(TelemetriesTransmitter.TelemetriesFetcher.class), anyLong(), any(TimeUnit.class));
+        Mockito.verify(mockSender, Mockito.times(2)).sendNow(captor.capture());
+        assertEquals(3, captor.getAllValues().get(0).size());
+        assertEquals("mockTelemetry3", captor.getAllValues().get(1).iterator().next());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFetcherOfOldGenerationReturnsNothing() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).sendNow(anyCollectionOf(String.class));
+        Mockito.doReturn(true).when(mockSender).scheduleSend(any(TelemetriesTransmitter.TelemetriesFetcher.class), anyLong(), any(TimeUnit.class));
+
+        LockFreeTelemetryBuffer<String> testedBuffer = createBuffer(mockSender, 2);
+
+        testedBuffer.add("mockTelemetry");
+
+        ArgumentCaptor<TelemetriesTransmitter.TelemetriesFetcher> captor = ArgumentCaptor.forClass(TelemetriesTransmitter.TelemetriesFetcher.class);
+        Mockito.verify(mockSender).scheduleSend(captor.capture(), anyLong(), any(TimeUnit.class));
+
+        testedBuffer.add("mockTelemetry");
+
+        assertTrue(captor.getValue().fetch().isEmpty());
+    }
+
+    @Test
+    public void testFlushWithZero() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+
+        LockFreeTelemetryBuffer<String> testedBuffer = createBuffer(mockSender, 10);
+        testedBuffer.flush();
+
+        Mockito.verify(mockSender, Mockito.never()).sendNow(anyCollectionOf(String.class));
+    }
+
+    @Test
+    public void testSetMaxTelemetriesInBatchWithSmallerSizeButLargerThanWhatInBuffer() throws Exception {
+        CountingSender sender = new CountingSender() {
+            @Override
+            public boolean scheduleSend(TelemetriesFetcher<String> telemetriesFetcher, long value, TimeUnit timeUnit) {
+                return true;
+            }
+        };
+
+        LockFreeTelemetryBuffer<String> testedBuffer = createBuffer(sender, 10);
+
+        for (int i = 0; i < 2; ++i) {
+            testedBuffer.add("mockTelemetry");
+        }
+        testedBuffer.setMaxTelemetriesInBatch(3);
+        assertEquals(0, sender.sendNowCalls.get());
+
+        testedBuffer.add("mockTelemetry");
+
+        assertEquals(1, sender.sendNowCalls.get());
+        assertEquals(3, sender.sent.get());
+    }
+
+    @Test
+    public void testConcurrentAddsAreAllSent() throws Exception {
+        final int numberOfThreads = 8;
+        final int itemsPerThread = 10000;
+
+        CountingSender sender = new CountingSender();
+        final LockFreeTelemetryBuffer<String> testedBuffer = createBuffer(sender, 7);
+
+        final CountDownLatch done = new CountDownLatch(numberOfThreads);
+        for (int i = 0; i < numberOfThreads; ++i) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < itemsPerThread; ++j) {
+                        testedBuffer.add("mockTelemetry");
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        testedBuffer.flush();
+
+        assertEquals(numberOfThreads * itemsPerThread, sender.sent.get());
+    }
+
+    private static LockFreeTelemetryBuffer<String> createBuffer(TelemetriesTransmitter<String> sender, int maxTelemetriesInBatch) {
+        LimitsEnforcer maxEnforcer = LimitsEnforcer.createWithClosestLimitOnError(MOCK_PROPERTY_NAME, 1, 1000, 500, maxTelemetriesInBatch);
+        LimitsEnforcer sendEnforcer = LimitsEnforcer.createWithClosestLimitOnError(MOCK_PROPERTY_NAME, 1, 200, 20, 30);
+
+        return new LockFreeTelemetryBuffer<String>(sender, maxEnforcer, sendEnforcer);
+    }
+}
@@ -24,6 +24,7 @@ package com.microsoft.applicationinsights.internal.channel.common;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.util.Collection;
@@ -103,6 +104,90 @@ public final class TransmissionFileSystemOutputTest {
         }
     }
 
+    @Test
+    public void testSegmentStoreSendsLeftoverFilesFirst() throws Exception {
+        File folder = tmpFolder.newFolder(TEMP_TEST_FOLDER + "3");
+        TransmissionFileSystemOutput legacy = new TransmissionFileSystemOutput(folder.getAbsolutePath());
+        for (int i = 1; i <= 2; ++i) {
+            String iAsString = String.valueOf(i);
+            legacy.send(new Transmission((MOCK_CONTENT + iAsString).getBytes(), MOCK_CONTENT_TYPE_BASE + iAsString, MOCK_ENCODING_TYPE_BASE + iAsString));
+            TimeUnit.MILLISECONDS.sleep(150); // sleep a bit so 2 files can never have the same timestamp.
+        }
+
+        TransmissionFileSystemOutput tested = new TransmissionFileSystemOutput(folder.getAbsolutePath(), null, true);
+        try {
+            for (int i = 3; i <= 10; ++i) {
+                String iAsString = String.valueOf(i);
+                Transmission transmission = new Transmission((MOCK_CONTENT + iAsString).getBytes(), MOCK_CONTENT_TYPE_BASE + iAsString, MOCK_ENCODING_TYPE_BASE + iAsString);
+                transmission.setNumberOfSends(i);
+                transmission.setNumberOfPersistence(1);
+                assertTrue(tested.send(transmission));
+            }
+            assertEquals(2, FileUtils.listFiles(folder, new String[]{TRANSMISSION_FILE_EXTENSION}, false).size());
+
+            for (int i = 1; i <= 10; ++i) {
+                Transmission transmission = tested.fetchOldestFile();
+                assertNotNull(transmission);
+
+                String iAsString = String.valueOf(i);
+                assertEquals(MOCK_CONTENT_TYPE_BASE + iAsString, transmission.getWebContentType());
+                assertEquals(MOCK_ENCODING_TYPE_BASE + iAsString, transmission.getWebContentEncodingType());
+                assertEquals(MOCK_CONTENT + iAsString, new String(transmission.getContent()));
+                if (i > 2) {
+                    assertEquals(i, transmission.getNumberOfSends());
+                    assertEquals(1, transmission.getNumberOfPersistence());
+                }
+            }
+
+            assertNull(tested.fetchOldestFile());
+        } finally {
+            tested.stop(0, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSegmentStoreSurvivesRestart() throws Exception {
+        File folder = tmpFolder.newFolder(TEMP_TEST_FOLDER + "4");
+        TransmissionFileSystemOutput tested = new TransmissionFileSystemOutput(folder.getAbsolutePath(), null, true);
+        for (int i = 1; i <= 5; ++i) {
+            tested.send(new Transmission((MOCK_CONTENT + i).getBytes(), MOCK_CONTENT_TYPE_BASE, MOCK_ENCODING_TYPE_BASE));
+        }
+        assertEquals(MOCK_CONTENT + 1, new String(tested.fetchOldestFile().getContent()));
+        tested.stop(0, TimeUnit.SECONDS);
+
+        tested = new TransmissionFileSystemOutput(folder.getAbsolutePath(), null, true);
+        try {
+            for (int i = 2; i <= 5; ++i) {
+                assertEquals(MOCK_CONTENT + i, new String(tested.fetchOldestFile().getContent()));
+            }
+            assertNull(tested.fetchOldestFile());
+        } finally {
+            tested.stop(0, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSegmentStoreWhereThereIsNoRoomForTheLastOnes() throws Exception {
+        File folder = tmpFolder.newFolder(TEMP_TEST_FOLDER + "5");
+        TransmissionFileSystemOutput tested = new TransmissionFileSystemOutput(folder.getAbsolutePath(), String.valueOf(SIZE_OF_MOCK_TRANSMISSION), true);
+        try {
+            int stored = 0;
+            for (int i = 0; i < 12; ++i) {
+                if (tested.send(new Transmission(new byte[SIZE_OF_TRANSMISSION_CONTENT], "MockContentType", "MockEncodingType"))) {
+                    ++stored;
+                }
+            }
+
+            // Every transmission takes a segment of its own, with their headers only two fit in 1 MB
+            assertEquals(2, stored);
+            assertNotNull(tested.fetchOldestFile());
+            assertNotNull(tested.fetchOldestFile());
+            assertNull(tested.fetchOldestFile());
+        } finally {
+            tested.stop(0, TimeUnit.SECONDS);
+        }
+    }
+
     private TransmissionFileSystemOutput testSuccessfulSends(int amount) throws Exception {
         return testSuccessfulSends(amount, amount, null, null);
     }
@@ -0,0 +1,240 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public final class TransmissionReplaySchedulerTest {
+    private static final class CollectingDispatcher implements TransmissionDispatcher {
+        final ConcurrentLinkedQueue<Transmission> dispatched = new ConcurrentLinkedQueue<Transmission>();
+
+        @Override
+        public void dispatch(Transmission transmission) {
+            dispatched.add(transmission);
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+    }
+
+    private static final class StubLiveTraffic implements TransmissionReplayScheduler.LiveTraffic {
+        volatile boolean busy;
+
+        @Override
+        public boolean isBusy() {
+            return busy;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private final CollectingDispatcher dispatcher = new CollectingDispatcher();
+    private final StubLiveTraffic liveTraffic = new StubLiveTraffic();
+    private final TransmissionPolicyState policyState = new TransmissionPolicyState();
+    private final GzipTelemetrySerializer serializer = new GzipTelemetrySerializer();
+
+    @Test
+    public void testSmallTransmissionsAreMergedInOrder() throws Exception {
+        TransmissionFileSystemOutput fileSystem = createFileSystem();
+        for (int i = 0; i < 3; ++i) {
+            Transmission transmission = createTransmission("item" + i);
+            transmission.setNumberOfSends(i);
+            fileSystem.send(transmission);
+        }
+        TransmissionReplayScheduler tested = createScheduler(fileSystem, 1024 * 1024);
+
+        tested.runOnce();
+
+        assertEquals(1, dispatcher.dispatched.size());
+        Transmission merged = dispatcher.dispatched.peek();
+        String[] lines = decompress(merged).split(System.getProperty("line.separator"));
+        assertEquals(3, lines.length);
+        for (int i = 0; i < 3; ++i) {
+            assertEquals("item" + i, lines[i]);
+        }
+        assertEquals(2, merged.getNumberOfSends());
+        assertEquals(3, tested.getMergedTransmissions());
+        assertEquals(1, tested.getReplayedTransmissions());
+        assertEquals(merged.getContent().length, tested.getReplayedBytes());
+        assertTrue(tested.isDraining());
+    }
+
+    @Test
+    public void testTransmissionsThatAreNotGzipAreReplayedOneByOne() throws Exception {
+        TransmissionFileSystemOutput fileSystem = new TransmissionFileSystemOutput(tmpFolder.newFolder().getAbsolutePath());
+        fileSystem.send(new Transmission("a".getBytes(), "application/json", "none"));
+        fileSystem.send(new Transmission("b".getBytes(), "application/json", "none"));
+        TransmissionReplayScheduler tested = createScheduler(fileSystem, 1024 * 1024);
+
+        tested.runOnce();
+        tested.runOnce();
+
+        assertEquals(2, dispatcher.dispatched.size());
+        assertEquals(0, tested.getMergedTransmissions());
+        assertEquals(2, tested.getReplayedTransmissions());
+        assertEquals(0, tested.getBytesLeft());
+    }
+
+    @Test
+    public void testMergedTransmissionsAreDispatchedBeforeTheOneThatEndedTheMerge() throws Exception {
+        TransmissionFileSystemOutput fileSystem = createFileSystem();
+        fileSystem.send(createTransmission("a"));
+        fileSystem.send(createTransmission("b"));
+        fileSystem.send(new Transmission("c".getBytes(), "application/json", "none"));
+        TransmissionReplayScheduler tested = createScheduler(fileSystem, 1024 * 1024);
+
+        tested.runOnce();
+
+        assertEquals(2, dispatcher.dispatched.size());
+        assertEquals("a" + System.getProperty("line.separator") + "b", decompress(dispatcher.dispatched.poll()));
+        assertEquals("c", new String(dispatcher.dispatched.poll().getContent()));
+    }
+
+    @Test
+    public void testTransmissionWaitingForTheBudgetIsSavedBackOnStop() throws Exception {
+        TransmissionFileSystemOutput fileSystem = new TransmissionFileSystemOutput(tmpFolder.newFolder().getAbsolutePath());
+        fileSystem.send(new Transmission(new byte[1000], "application/json", "none"));
+        fileSystem.send(new Transmission(new byte[1000], "application/json", "none"));
+        TransmissionReplayScheduler tested = createScheduler(fileSystem, 100);
+
+        tested.load(true);
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((dispatcher.dispatched.isEmpty() || tested.getBytesLeft() > 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // The first one used the budget of the next 10 seconds, the second one is held until then
+        tested.stop(5, TimeUnit.SECONDS);
+
+        assertEquals(1, dispatcher.dispatched.size());
+        Transmission savedBack = fileSystem.fetchOldestFile();
+        assertNotNull(savedBack);
+        assertEquals(1000, savedBack.getContent().length);
+    }
+
+    @Test
+    public void testNothingIsReplayedWhileLiveTrafficIsBusy() throws Exception {
+        TransmissionFileSystemOutput fileSystem = createFileSystem();
+        fileSystem.send(createTransmission("item"));
+        TransmissionReplayScheduler tested = createScheduler(fileSystem, 1024 * 1024);
+        liveTraffic.busy = true;
+
+        tested.runOnce();
+
+        assertEquals(0, dispatcher.dispatched.size());
+        assertTrue(tested.getBytesLeft() > 0);
+
+        liveTraffic.busy = false;
+        tested.runOnce();
+
+        assertEquals(1, dispatcher.dispatched.size());
+    }
+
+    @Test
+    public void testNothingIsReplayedWhileInBackOff() throws Exception {
+        TransmissionFileSystemOutput fileSystem = createFileSystem();
+        fileSystem.send(createTransmission("item"));
+        TransmissionReplayScheduler tested = createScheduler(fileSystem, 1024 * 1024);
+        policyState.setCurrentState(TransmissionPolicy.BACKOFF);
+
+        tested.runOnce();
+
+        assertEquals(0, dispatcher.dispatched.size());
+        assertTrue(tested.getBytesLeft() > 0);
+    }
+
+    @Test
+    public void testBandwidthBudgetDelaysTheReplay() throws Exception {
+        TransmissionFileSystemOutput fileSystem = createFileSystem();
+        fileSystem.send(new Transmission(new byte[1000], "application/json", "none"));
+        fileSystem.send(new Transmission(new byte[1000], "application/json", "none"));
+        TransmissionReplayScheduler tested = createScheduler(fileSystem, 2000);
+
+        long start = System.nanoTime();
+        tested.runOnce();
+        tested.runOnce();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(2, dispatcher.dispatched.size());
+        assertTrue("Replay was not delayed, took " + elapsedMillis + "ms", elapsedMillis >= 400);
+    }
+
+    @Test
+    public void testMergeKeepsAllTelemetries() throws Exception {
+        TransmissionReplayScheduler tested = createScheduler(createFileSystem(), 1024 * 1024);
+        List<Transmission> transmissions = new ArrayList<Transmission>();
+        transmissions.add(createTransmission("a"));
+        transmissions.add(createTransmission("b"));
+
+        Optional<Transmission> merged = tested.merge(transmissions);
+
+        assertTrue(merged.isPresent());
+        assertEquals("a" + System.getProperty("line.separator") + "b", decompress(merged.get()));
+    }
+
+    private TransmissionReplayScheduler createScheduler(TransmissionFileSystemOutput fileSystem, long bandwidthInBytesPerSecond) {
+        return new TransmissionReplayScheduler(fileSystem, dispatcher, policyState, liveTraffic, serializer, bandwidthInBytesPerSecond, 1);
+    }
+
+    private TransmissionFileSystemOutput createFileSystem() throws IOException {
+        File folder = tmpFolder.newFolder();
+        return new TransmissionFileSystemOutput(folder.getAbsolutePath(), null, true);
+    }
+
+    private Transmission createTransmission(String telemetry) {
+        List<byte[]> telemetries = new ArrayList<byte[]>();
+        telemetries.add(telemetry.getBytes());
+        return serializer.serialize(telemetries).get();
+    }
+
+    private static String decompress(Transmission transmission) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(transmission.getContent()))) {
+            byte[] chunk = new byte[1024];
+            int read;
+            while ((read = input.read(chunk)) != -1) {
+                output.write(chunk, 0, read);
+            }
+        }
+        return new String(output.toByteArray());
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class TransmissionSegmentStoreTest {
+    private final static int SEGMENT_SIZE = 1024;
+    private final static long UNLIMITED = Long.MAX_VALUE;
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsAreDequeuedInOrderAcrossSegments() throws Exception {
+        File folder = tmpFolder.newFolder();
+        TransmissionSegmentStore tested = TransmissionSegmentStore.open(folder, SEGMENT_SIZE);
+        try {
+            for (int i = 0; i < 100; ++i) {
+                assertTrue(tested.enqueue(record(i, 100), UNLIMITED));
+            }
+            assertTrue(segmentFiles(folder).length > 1);
+
+            for (int i = 0; i < 100; ++i) {
+                assertArrayEquals(record(i, 100), tested.dequeue());
+            }
+            assertNull(tested.dequeue());
+            assertTrue(tested.isEmpty());
+            assertEquals(1, segmentFiles(folder).length);
+        } finally {
+            tested.close();
+        }
+    }
+
+    @Test
+    public void testRecordBiggerThanSegmentGetsItsOwnSegment() throws Exception {
+        File folder = tmpFolder.newFolder();
+        TransmissionSegmentStore tested = TransmissionSegmentStore.open(folder, SEGMENT_SIZE);
+        try {
+            assertTrue(tested.enqueue(record(1, 10), UNLIMITED));
+            assertTrue(tested.enqueue(record(2, SEGMENT_SIZE * 3), UNLIMITED));
+            assertTrue(tested.enqueue(record(3, 10), UNLIMITED));
+
+            assertArrayEquals(record(1, 10), tested.dequeue());
+            assertArrayEquals(record(2, SEGMENT_SIZE * 3), tested.dequeue());
+            assertArrayEquals(record(3, 10), tested.dequeue());
+            assertNull(tested.dequeue());
+        } finally {
+            tested.close();
+        }
+    }
+
+    @Test
+    public void testReopenedStoreContinuesFromTheLastReadRecord() throws Exception {
+        File folder = tmpFolder.newFolder();
+        TransmissionSegmentStore tested = TransmissionSegmentStore.open(folder, SEGMENT_SIZE);
+        for (int i = 0; i < 30; ++i) {
+            tested.enqueue(record(i, 100), UNLIMITED);
+        }
+        for (int i = 0; i < 12; ++i) {
+            tested.dequeue();
+        }
+        tested.close();
+
+        tested = TransmissionSegmentStore.open(folder, SEGMENT_SIZE);
+        try {
+            for (int i = 12; i < 30; ++i) {
+                assertArrayEquals(record(i, 100), tested.dequeue());
+            }
+            assertNull(tested.dequeue());
+
+            assertTrue(tested.enqueue(record(30, 100), UNLIMITED));
+            assertArrayEquals(record(30, 100), tested.dequeue());
+        } finally {
+            tested.close();
+        }
+    }
+
+    @Test
+    public void testTornRecordIsDiscardedOnRecovery() throws Exception {
+        File folder = tmpFolder.newFolder();
+        TransmissionSegmentStore tested = TransmissionSegmentStore.open(folder, SEGMENT_SIZE);
+        tested.enqueue(record(1, 100), UNLIMITED);
+        tested.enqueue(record(2, 100), UNLIMITED);
+        tested.close();
+
+        // Corrupt the payload of the second record as if the process died while writing it
+        File segment = segmentFiles(folder)[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            int secondPayload = TransmissionSegmentStore.SEGMENT_HEADER_SIZE + 2 * TransmissionSegmentStore.RECORD_HEADER_SIZE + 100;
+            file.seek(secondPayload + 50);
+            file.write(0xFF);
+        }
+
+        tested = TransmissionSegmentStore.open(folder, SEGMENT_SIZE);
+        try {
+            assertArrayEquals(record(1, 100), tested.dequeue());
+            assertNull(tested.dequeue());
+
+            assertTrue(tested.enqueue(record(3, 100), UNLIMITED));
+            assertArrayEquals(record(3, 100), tested.dequeue());
+        } finally {
+            tested.close();
+        }
+    }
+
+    @Test
+    public void testEnqueueFailsWhenNewSegmentExceedsAvailableBytes() throws Exception {
+        File folder = tmpFolder.newFolder();
+        TransmissionSegmentStore tested = TransmissionSegmentStore.open(folder, SEGMENT_SIZE);
+        try {
+            int stored = 0;
+            while (tested.enqueue(record(stored, 100), 2 * SEGMENT_SIZE)) {
+                ++stored;
+            }
+
+            assertTrue(stored > 0);
+            assertEquals(2 * SEGMENT_SIZE, tested.getSizeInBytes());
+            for (int i = 0; i < stored; ++i) {
+                assertArrayEquals(record(i, 100), tested.dequeue());
+            }
+            assertTrue(tested.getSizeInBytes() <= SEGMENT_SIZE);
+        } finally {
+            tested.close();
+        }
+    }
+
+    @Test
+    public void testSecondStoreOnSameFolderIsNotOpened() throws Exception {
+        File folder = tmpFolder.newFolder();
+        TransmissionSegmentStore tested = TransmissionSegmentStore.open(folder, SEGMENT_SIZE);
+        try {
+            assertNotNull(tested);
+            assertNull(TransmissionSegmentStore.open(folder, SEGMENT_SIZE));
+        } finally {
+            tested.close();
+        }
+
+        TransmissionSegmentStore reopened = TransmissionSegmentStore.open(folder, SEGMENT_SIZE);
+        assertNotNull(reopened);
+        reopened.close();
+        assertFalse(reopened.enqueue(record(1, 10), UNLIMITED));
+    }
+
+    @Test
+    public void testMappingIsReleasedRightAway() throws Exception {
+        File file = tmpFolder.newFile();
+        MappedByteBuffer mapped;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+
+        assertTrue(TransmissionSegmentStore.unmap(mapped));
+        assertTrue(file.delete());
+    }
+
+    private static byte[] record(int id, int length) {
+        byte[] record = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            record[i] = (byte)(id * 31 + i);
+        }
+        return record;
+    }
+
+    private static File[] segmentFiles(File folder) {
+        return folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(TransmissionSegmentStore.SEGMENT_FILE_EXTENSION);
+            }
+        });
+    }
+}
@@ -24,12 +24,16 @@ package com.microsoft.applicationinsights.internal.channel.common;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
 import com.microsoft.applicationinsights.telemetry.TelemetryContext;
@@ -38,6 +42,9 @@ import org.mockito.Mockito;
 
 import com.google.common.base.Optional;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.any;
 
@@ -172,7 +179,7 @@ public final class TransmitterImplTest {
                     }
                 });
             }
-            ArrayList<String> asJsons = toJson(telemetries);
+            ArrayList<byte[]> asJsons = toJson(telemetries);
 
             Transmission mockTransmission = new Transmission(new byte[1], MOCK_WEB_CONTENT_TYPE, MOCK_CONTENT_ENCODING_TYPE);
             Optional<Transmission> mockSerialize = Optional.absent();
@@ -259,7 +266,7 @@ public final class TransmitterImplTest {
                     }
                 });
             }
-            Collection<String> asJsons = toJson(telemetries);
+            Collection<byte[]> asJsons = toJson(telemetries);
 
             Transmission mockTransmission = new Transmission(new byte[1], MOCK_WEB_CONTENT_TYPE, MOCK_CONTENT_ENCODING_TYPE);
             Optional<Transmission> mockSerialize = Optional.absent();
@@ -299,15 +306,313 @@ public final class TransmitterImplTest {
         }
     }
 
-    private static ArrayList<String> toJson(List<Telemetry> telemetries) throws IOException {
+    @Test
+    public void testSendNowDropsNewestBatchWhenFull() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TransmitterImpl transmitter = createFullTransmitter(dispatcher, OverflowPolicy.DROP_NEWEST, 0, null);
+        try {
+            assertFalse(transmitter.sendNow(batch("d", "e")));
+
+            assertEquals(2, transmitter.getDroppedNewestItems());
+            assertEquals(2, transmitter.getDroppedItems());
+
+            dispatcher.release.countDown();
+            dispatcher.waitForDispatched(3);
+            assertEquals(Arrays.asList("a", "b", "c"), dispatcher.getDispatched());
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSendNowDropsOldestBatchWhenFull() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TransmitterImpl transmitter = createFullTransmitter(dispatcher, OverflowPolicy.DROP_OLDEST, 0, null);
+        try {
+            assertTrue(transmitter.sendNow(batch("d", "e")));
+
+            assertEquals(1, transmitter.getDroppedOldestItems());
+            assertEquals(1, transmitter.getPendingBatches());
+
+            dispatcher.release.countDown();
+            dispatcher.waitForDispatched(3);
+            assertEquals(Arrays.asList("a", "b", "d"), dispatcher.getDispatched());
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSendNowBlocksUntilTimeoutWhenFull() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TransmitterImpl transmitter = createFullTransmitter(dispatcher, OverflowPolicy.BLOCK_WITH_TIMEOUT, 50, null);
+        try {
+            long start = System.nanoTime();
+            assertFalse(transmitter.sendNow(batch("d")));
+
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 40);
+            assertEquals(1, transmitter.getTimedOutItems());
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSendNowBlocksUntilThereIsRoom() throws Exception {
+        final BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TransmitterImpl transmitter = createFullTransmitter(dispatcher, OverflowPolicy.BLOCK_WITH_TIMEOUT, 5000, null);
+        try {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                    }
+                    dispatcher.release.countDown();
+                }
+            }).start();
+
+            assertTrue(transmitter.sendNow(batch("d")));
+
+            dispatcher.waitForDispatched(4);
+            assertEquals(0, transmitter.getTimedOutItems());
+            assertEquals(Arrays.asList("a", "b", "c", "d"), dispatcher.getDispatched());
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSendNowSpillsToDiskWhenFull() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        StubOutput spillOutput = new StubOutput(true);
+        TransmitterImpl transmitter = createFullTransmitter(dispatcher, OverflowPolicy.SPILL_TO_DISK, 0, spillOutput);
+        try {
+            assertTrue(transmitter.sendNow(batch("d", "e")));
+
+            waitForSpilled(transmitter, 2);
+            assertTrue(spillOutput.threads.get(0).startsWith(TransmitterImpl.class.getSimpleName()));
+            assertEquals(0, transmitter.getDroppedItems());
+            assertEquals(1, spillOutput.sent.size());
+            assertEquals("d", new String(spillOutput.sent.get(0).getContent(), "UTF-8"));
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSendNowCountsBatchesThatCouldNotBeSpilled() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TransmitterImpl transmitter = createFullTransmitter(dispatcher, OverflowPolicy.SPILL_TO_DISK, 0, new StubOutput(false));
+        try {
+            assertTrue(transmitter.sendNow(batch("d")));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (transmitter.getNotSpilledItems() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, transmitter.getSpilledItems());
+            assertEquals(1, transmitter.getNotSpilledItems());
+            assertEquals(1, transmitter.getDroppedItems());
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testScheduleSendHasItsOwnBudget() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TransmitterImpl transmitter = createFullTransmitter(dispatcher, OverflowPolicy.DROP_NEWEST, 0, null);
+        try {
+            TelemetriesTransmitter.TelemetriesFetcher fetcher = Mockito.mock(TelemetriesTransmitter.TelemetriesFetcher.class);
+            assertTrue(transmitter.scheduleSend(fetcher, 1L, TimeUnit.HOURS));
+            assertEquals(1, transmitter.getPendingScheduledSends());
+            assertFalse(transmitter.scheduleSend(fetcher, 1L, TimeUnit.HOURS));
+            assertEquals(0, transmitter.getDroppedItems());
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testFullBufferAppliesOverflowPolicy() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        StubOutput spillOutput = new StubOutput(true);
+        TransmitterImpl transmitter = createFullTransmitter(dispatcher, OverflowPolicy.SPILL_TO_DISK, 0, spillOutput);
+        try {
+            TelemetryBuffer<byte[]> buffer = createBuffer(transmitter, 2);
+
+            // the first item schedules the pick-up of the batch, the second one fills it
+            buffer.add("d".getBytes("UTF-8"));
+            buffer.add("e".getBytes("UTF-8"));
+            waitForSpilled(transmitter, 2);
+
+            // no room to schedule the pick-up, the batch is sent right away and spilled too
+            createBuffer(transmitter, 2).add("f".getBytes("UTF-8"));
+            waitForSpilled(transmitter, 3);
+            assertEquals(0, transmitter.getDroppedItems());
+            assertEquals(2, spillOutput.sent.size());
+            assertEquals("f", new String(spillOutput.sent.get(1).getContent(), "UTF-8"));
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSpillToDiskWithoutOutput() {
+        new TransmitterImpl(new BlockingDispatcher(), new FirstTelemetrySerializer(), new NoOpLoader(),
+                0, OverflowPolicy.SPILL_TO_DISK, 1, 0, null);
+    }
+
+    /**
+     * Creates a transmitter that may hold one pending batch, both its sending threads
+     * are blocked by the dispatcher on 'a' and 'b' and 'c' is pending.
+     */
+    private static TransmitterImpl createFullTransmitter(BlockingDispatcher dispatcher, OverflowPolicy policy, long blockTimeoutInMillis,
+                                                         TransmissionOutput spillOutput) throws IOException, InterruptedException {
+        TransmitterImpl transmitter = new TransmitterImpl(dispatcher, new FirstTelemetrySerializer(), new NoOpLoader(),
+                0, policy, 1, blockTimeoutInMillis, spillOutput);
+
+        assertTrue(transmitter.sendNow(batch("a")));
+        dispatcher.waitForStarted(1);
+        assertTrue(transmitter.sendNow(batch("b")));
+        dispatcher.waitForStarted(2);
+        assertTrue(transmitter.sendNow(batch("c")));
+        assertEquals(1, transmitter.getPendingBatches());
+
+        return transmitter;
+    }
+
+    private static TelemetryBuffer<byte[]> createBuffer(TransmitterImpl transmitter, int maxTelemetriesInBatch) {
+        return new TelemetryBuffer<byte[]>(transmitter,
+                LimitsEnforcer.createWithClosestLimitOnError("MaxTelemetryBufferCapacity", 1, 1000, maxTelemetriesInBatch, maxTelemetriesInBatch),
+                LimitsEnforcer.createWithClosestLimitOnError("FlushIntervalInSeconds", 1, 300, 300, 300));
+    }
+
+    private static List<byte[]> batch(String... telemetries) throws IOException {
+        List<byte[]> batch = new ArrayList<byte[]>();
+        for (String telemetry : telemetries) {
+            batch.add(telemetry.getBytes("UTF-8"));
+        }
+        return batch;
+    }
+
+    private static void waitForSpilled(TransmitterImpl transmitter, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (transmitter.getSpilledItems() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, transmitter.getSpilledItems());
+    }
+
+    private static void waitFor(AtomicInteger counter, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (counter.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue("Timed out waiting for " + expected, counter.get() >= expected);
+    }
+
+    /**
+     * Keeps the first telemetry of the batch as the content of the transmission.
+     */
+    private static final class FirstTelemetrySerializer implements TelemetrySerializer {
+        @Override
+        public Optional<Transmission> serialize(Collection<byte[]> telemetries) {
+            return Optional.of(new Transmission(telemetries.iterator().next(), MOCK_WEB_CONTENT_TYPE, MOCK_CONTENT_ENCODING_TYPE));
+        }
+    }
+
+    private static final class NoOpLoader implements TransmissionsLoader {
+        @Override
+        public boolean load(boolean waitForThreadsToStart) {
+            return true;
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+    }
+
+    private static final class StubOutput implements TransmissionOutput {
+        private final boolean result;
+        private final List<Transmission> sent = Collections.synchronizedList(new ArrayList<Transmission>());
+        private final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+        private StubOutput(boolean result) {
+            this.result = result;
+        }
+
+        @Override
+        public boolean send(Transmission transmission) {
+            sent.add(transmission);
+            threads.add(Thread.currentThread().getName());
+            return result;
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+    }
+
+    /**
+     * Holds the sending threads until released.
+     */
+    private static final class BlockingDispatcher implements TransmissionDispatcher {
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicInteger dispatchedCount = new AtomicInteger();
+        private final List<String> dispatched = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void dispatch(Transmission transmission) {
+            started.incrementAndGet();
+            try {
+                release.await();
+                dispatched.add(new String(transmission.getContent(), "UTF-8"));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            dispatchedCount.incrementAndGet();
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+
+        private void waitForStarted(int expected) throws InterruptedException {
+            waitFor(started, expected);
+        }
+
+        private void waitForDispatched(int expected) throws InterruptedException {
+            waitFor(dispatchedCount, expected);
+        }
+
+        private List<String> getDispatched() {
+            List<String> result = new ArrayList<String>(dispatched);
+            Collections.sort(result);
+            return result;
+        }
+    }
+
+    private static ArrayList<byte[]> toJson(List<Telemetry> telemetries) throws IOException {
         StringWriter writer = new StringWriter();
         JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
-        ArrayList<String> asJsons = new ArrayList<String>();
+        ArrayList<byte[]> asJsons = new ArrayList<byte[]>();
         for (Telemetry telemetry : telemetries) {
             telemetry.serialize(jsonWriter);
             jsonWriter.close();
             String asJson = writer.toString();
-            asJsons.add(asJson);
+            asJsons.add(asJson.getBytes("UTF-8"));
             writer.getBuffer().setLength(0);
             jsonWriter.reset(writer);
         }
@@ -68,6 +68,26 @@ public class FixedRateSamplingTelemetryProcessorTest {
         Assert.assertEquals(0, sentCount);
     }
 
+    @Test
+    public void earlyDecisionMatchesProcess() {
+        FixedRateSamplingTelemetryProcessor processor = new FixedRateSamplingTelemetryProcessor();
+        processor.setSamplingPercentage("25.0");
+        int sampledOut = 0;
+        for (int i = 0; i < 1000; ++i) {
+            Telemetry requestTelemetry = new RequestTelemetry();
+            requestTelemetry.getContext().getOperation().setId("operation" + i);
+            boolean sampledOutEarly = processor.isSampledOutEarly(requestTelemetry);
+            Assert.assertEquals(sampledOutEarly, !processor.process(requestTelemetry));
+            if (sampledOutEarly) {
+                ++sampledOut;
+            }
+        }
+        Assert.assertTrue(sampledOut > 0);
+
+        // Without an operation id the decision waits for the initializers
+        Assert.assertFalse(processor.isSampledOutEarly(new RequestTelemetry()));
+    }
+
     @Test
     public void dependencyTelemetryIsSubjectToSampling() {
         List<Telemetry> dependencyTelemetry = getListOfTelemetry("com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry",100);
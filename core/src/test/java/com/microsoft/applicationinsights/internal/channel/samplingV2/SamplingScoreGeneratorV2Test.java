@@ -14,6 +14,36 @@ public class SamplingScoreGeneratorV2Test {
 
     private static Random random = new Random();
 
+    // Operation ids and their sampling hash codes as computed by the original implementation. Other SDKs
+    // hash the same UTF-16 code units, so the values must not change or they would sample operations differently
+    private static final Object[][] HASH_CODE_CORPUS = {
+            {"a", 348946573},
+            {"ab", 1641601553},
+            {"abc", 883298903},
+            {"abcd", 1722244249},
+            {"abcde", 1221399165},
+            {"abcdefg", 256960957},
+            {"abcdefgh", 1722392489},
+            {"abcdefghi", 1004377394},
+            {"1", 435038451},
+            {"42", 18559331},
+            {"-1", 733196029},
+            {"0000000", 22093413},
+            {"5e7b0c35-8e6b-4e8f-9f2a-6b0d1c3e2f41", 317189114},
+            {"5e7b0c358e6b4e8f9f2a6b0d1c3e2f41", 2008744154},
+            {"0af7651916cd43dd8448eb211c80319c", 1133633597},
+            {"|0af7651916cd43dd8448eb211c80319c.b7ad6b7169203331.", 1253306732},
+            {"4bf92f3577b34da6a3ce929d0e0e4736", 718577102},
+            {"00f067aa0ba902b7", 1921161105},
+            {"-6217599373423556291", 1770980869},
+            {"7291948291765443218", 856458671},
+            {"ZgVZIY7mT2A=", 801041184},
+            {"userId@contoso.com", 1272647133},
+            {"\u00e9t\u00e9", 1026420343},
+            {"\u65e5\u672c\u8a9e", 85647058},
+            {"\ud83d\ude00", 404552455}
+    };
+
     @Test
     public void samplingScoreGeneratedUsingOperationIdIfPresent() {
 
@@ -136,6 +166,41 @@ public class SamplingScoreGeneratorV2Test {
 
     }
 
+    @Test
+    public void samplingHashCodeMatchesCorpus() {
+        for (Object[] entry : HASH_CODE_CORPUS) {
+            Assert.assertEquals("Hash code of " + entry[0], entry[1], SamplingScoreGeneratorV2.getSamplingHashCode((String) entry[0]));
+        }
+    }
+
+    @Test
+    public void samplingHashCodeOfEmptyInputIsZero() {
+        Assert.assertEquals(0, SamplingScoreGeneratorV2.getSamplingHashCode(""));
+        Assert.assertEquals(0, SamplingScoreGeneratorV2.getSamplingHashCode(null));
+    }
+
+    @Test
+    public void samplingHashCodeMatchesHashOfRepeatedInput() {
+        for (int i = 0; i < 10000; ++i) {
+            String input = i % 2 == 0 ? generateRandomUserId() : generateRandomOperationId();
+            Assert.assertEquals(input, hashOfRepeatedInput(input), SamplingScoreGeneratorV2.getSamplingHashCode(input));
+        }
+    }
+
+    private static int hashOfRepeatedInput(String input) {
+        StringBuilder inputBuilder = new StringBuilder(input);
+        while (inputBuilder.length() < 8) {
+            inputBuilder.append(input);
+        }
+
+        int hash = 5381;
+        for (int i = 0; i < inputBuilder.length(); ++i) {
+            hash = ((hash << 5) + hash) + (int) inputBuilder.charAt(i);
+        }
+
+        return hash == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(hash);
+    }
+
     private static String generateRandomUserId() {
         int max = 12;
         int min = 3;
@@ -0,0 +1,203 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public final class SnapshotAppInsightsConfigurationBuilderTest {
+    private static final String CONFIGURATION_XML = "<ApplicationInsights><InstrumentationKey>myikey</InstrumentationKey></ApplicationInsights>";
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File snapshotFolder;
+    private CountingBuilder xmlBuilder;
+
+    @Before
+    public void setUp() throws IOException {
+        snapshotFolder = new File(tmpFolder.newFolder(), "configuration");
+        xmlBuilder = new CountingBuilder();
+    }
+
+    @Test
+    public void testNullInputShouldReturnNull() {
+        assertNull(createBuilder("java:1.0").build(null));
+        assertEquals(0, xmlBuilder.builds);
+    }
+
+    @Test
+    public void testSecondBuildIsReadFromSnapshot() {
+        ApplicationInsightsXmlConfiguration first = createBuilder("java:1.0").build(xml(CONFIGURATION_XML));
+        ApplicationInsightsXmlConfiguration second = createBuilder("java:1.0").build(xml(CONFIGURATION_XML));
+
+        assertEquals(1, xmlBuilder.builds);
+        assertEquals(1, snapshots().length);
+        assertNotSame(first, second);
+        assertEquals("myikey", second.getInstrumentationKey());
+        assertEquals("myrole", second.getRoleName());
+        assertEquals("http://localhost/v2/track", second.getChannel().getEndpointAddress());
+        assertTrue(second.getChannel().getThrottling());
+        assertEquals("mypackage.MyCustomContextInitializer", second.getContextInitializers().getAdds().get(0).getType());
+        assertEquals("value", second.getContextInitializers().getAdds().get(0).getData().get("name"));
+    }
+
+    @Test
+    public void testChangedFileIsParsedAgain() {
+        createBuilder("java:1.0").build(xml(CONFIGURATION_XML));
+        createBuilder("java:1.0").build(xml(CONFIGURATION_XML.replace("myikey", "otherikey")));
+
+        assertEquals(2, xmlBuilder.builds);
+        assertEquals("old snapshot should be deleted", 1, snapshots().length);
+    }
+
+    @Test
+    public void testOtherSdkVersionParsesAgain() {
+        createBuilder("java:1.0").build(xml(CONFIGURATION_XML));
+        createBuilder("java:1.1").build(xml(CONFIGURATION_XML));
+
+        assertEquals(2, xmlBuilder.builds);
+    }
+
+    @Test
+    public void testCorruptSnapshotIsRewritten() throws IOException {
+        createBuilder("java:1.0").build(xml(CONFIGURATION_XML));
+        File snapshot = snapshots()[0];
+        try (FileOutputStream output = new FileOutputStream(snapshot)) {
+            output.write("not a snapshot".getBytes(StandardCharsets.UTF_8));
+        }
+
+        ApplicationInsightsXmlConfiguration configuration = createBuilder("java:1.0").build(xml(CONFIGURATION_XML));
+        assertEquals("myikey", configuration.getInstrumentationKey());
+        assertEquals(2, xmlBuilder.builds);
+
+        createBuilder("java:1.0").build(xml(CONFIGURATION_XML));
+        assertEquals(2, xmlBuilder.builds);
+    }
+
+    @Test
+    public void testSnapshotWithOtherClassesIsNotRead() throws IOException {
+        createBuilder("java:1.0").build(xml(CONFIGURATION_XML));
+        File snapshot = snapshots()[0];
+        try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(snapshot))) {
+            output.writeObject(new HashMap<String, String>());
+        }
+
+        ApplicationInsightsXmlConfiguration configuration = createBuilder("java:1.0").build(xml(CONFIGURATION_XML));
+        assertEquals("myikey", configuration.getInstrumentationKey());
+        assertEquals(2, xmlBuilder.builds);
+    }
+
+    @Test
+    public void testFailedParseWritesNoSnapshot() {
+        xmlBuilder.fail = true;
+
+        assertNull(createBuilder("java:1.0").build(xml(CONFIGURATION_XML)));
+        assertEquals(0, snapshots().length);
+    }
+
+    private SnapshotAppInsightsConfigurationBuilder createBuilder(String sdkVersion) {
+        return new SnapshotAppInsightsConfigurationBuilder(xmlBuilder, snapshotFolder, sdkVersion);
+    }
+
+    private File[] snapshots() {
+        File[] files = snapshotFolder.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        ArrayList<File> snapshots = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(SnapshotAppInsightsConfigurationBuilder.SNAPSHOT_FILE_EXTENSION)) {
+                snapshots.add(file);
+            }
+        }
+        return snapshots.toArray(new File[0]);
+    }
+
+    private static InputStream xml(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stands in for the XML parser, taking the instrumentation key from the file.
+     */
+    private static final class CountingBuilder implements AppInsightsConfigurationBuilder {
+        int builds;
+        boolean fail;
+
+        @Override
+        public ApplicationInsightsXmlConfiguration build(InputStream resourceFile) {
+            ++builds;
+            if (fail) {
+                return null;
+            }
+
+            String content = read(resourceFile);
+
+            ApplicationInsightsXmlConfiguration configuration = new ApplicationInsightsXmlConfiguration();
+            configuration.setInstrumentationKey(content.substring(content.indexOf("<InstrumentationKey>") + 20, content.indexOf("</InstrumentationKey>")));
+            configuration.setRoleName("myrole");
+            configuration.getChannel().setEndpointAddress("http://localhost/v2/track");
+
+            ParamXmlElement param = new ParamXmlElement();
+            param.setName("name");
+            param.setValue("value");
+            AddTypeXmlElement add = new AddTypeXmlElement();
+            add.setType("mypackage.MyCustomContextInitializer");
+            add.getParameters().add(param);
+            ContextInitializersXmlElement contextInitializers = new ContextInitializersXmlElement();
+            contextInitializers.setAdds(new ArrayList<AddTypeXmlElement>());
+            contextInitializers.getAdds().add(add);
+            configuration.setContextInitializers(contextInitializers);
+            return configuration;
+        }
+
+        private static String read(InputStream resourceFile) {
+            try {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] chunk = new byte[1024];
+                int read;
+                while ((read = resourceFile.read(chunk)) != -1) {
+                    content.write(chunk, 0, read);
+                }
+                return new String(content.toByteArray(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
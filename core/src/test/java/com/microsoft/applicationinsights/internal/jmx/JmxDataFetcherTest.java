@@ -89,6 +89,98 @@ public class JmxDataFetcherTest {
         performTest(attributes, 1000.0, 2000.0, 3000.0);
     }
 
+    @Test
+    public void testMBeansRegisteredAfterFirstFetchAreFound() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName first = new ObjectName("JSDKTests:type=TestStubPattern,name=first");
+        ObjectName second = new ObjectName("JSDKTests:type=TestStubPattern,name=second");
+        server.registerMBean(new TestStub(1, 2.0, 3L), first);
+        try {
+            List<JmxAttributeData> attributes = new ArrayList<JmxAttributeData>();
+            attributes.add(new JmxAttributeData("Int", "IntSample"));
+
+            Map<String, Collection<Object>> result = JmxDataFetcher.fetch("JSDKTests:type=TestStubPattern,*", attributes);
+            assertEquals(1, result.get("Int").size());
+
+            server.registerMBean(new TestStub(10, 20.0, 30L), second);
+            result = JmxDataFetcher.fetch("JSDKTests:type=TestStubPattern,*", attributes);
+            assertEquals(2, result.get("Int").size());
+
+            server.unregisterMBean(second);
+            result = JmxDataFetcher.fetch("JSDKTests:type=TestStubPattern,*", attributes);
+            assertEquals(1, result.get("Int").size());
+        } finally {
+            server.unregisterMBean(first);
+            if (server.isRegistered(second)) {
+                server.unregisterMBean(second);
+            }
+        }
+    }
+
+    @Test
+    public void testMBeanRegisteredAfterNotFoundIsFound() throws Exception {
+        List<JmxAttributeData> attributes = new ArrayList<JmxAttributeData>();
+        attributes.add(new JmxAttributeData("Long", "LongSample"));
+        try {
+            JmxDataFetcher.fetch("JSDKTests:type=TestStubLater", attributes);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // not registered yet
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName mxbeanName = new ObjectName("JSDKTests:type=TestStubLater");
+        server.registerMBean(new TestStub(1, 2.0, 3L), mxbeanName);
+        try {
+            Map<String, Collection<Object>> result = JmxDataFetcher.fetch("JSDKTests:type=TestStubLater", attributes);
+            verify(result, "Long", 3.0);
+        } finally {
+            server.unregisterMBean(mxbeanName);
+        }
+    }
+
+    @Test
+    public void testMBeansRegisteredAfterStoppingToListenAreFound() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName first = new ObjectName("JSDKTests:type=TestStubStopped,name=first");
+        ObjectName second = new ObjectName("JSDKTests:type=TestStubStopped,name=second");
+        server.registerMBean(new TestStub(1, 2.0, 3L), first);
+        try {
+            List<JmxAttributeData> attributes = new ArrayList<JmxAttributeData>();
+            attributes.add(new JmxAttributeData("Int", "IntSample"));
+
+            Map<String, Collection<Object>> result = JmxDataFetcher.fetch("JSDKTests:type=TestStubStopped,*", attributes);
+            assertEquals(1, result.get("Int").size());
+
+            JmxDataFetcher.stopListeningToRegistrations(server);
+            JmxDataFetcher.stopListeningToRegistrations(server);
+
+            server.registerMBean(new TestStub(10, 20.0, 30L), second);
+            result = JmxDataFetcher.fetch("JSDKTests:type=TestStubStopped,*", attributes);
+            assertEquals(2, result.get("Int").size());
+        } finally {
+            server.unregisterMBean(first);
+            if (server.isRegistered(second)) {
+                server.unregisterMBean(second);
+            }
+        }
+    }
+
+    @Test
+    public void testCompositeAttributes() throws Exception {
+        List<JmxAttributeData> attributes = new ArrayList<JmxAttributeData>();
+        attributes.add(new JmxAttributeData("Heap Used", "HeapMemoryUsage.used", "COMPOSITE"));
+        attributes.add(new JmxAttributeData("Heap Committed", "HeapMemoryUsage.committed", "COMPOSITE"));
+        attributes.add(new JmxAttributeData("Objects Pending Finalization", "ObjectPendingFinalizationCount"));
+
+        Map<String, Collection<Object>> result = JmxDataFetcher.fetch("java.lang:type=Memory", attributes);
+
+        assertEquals(3, result.size());
+        assertTrue((Long) result.get("Heap Used").iterator().next() > 0);
+        assertTrue((Long) result.get("Heap Committed").iterator().next() > 0);
+        assertEquals(1, result.get("Objects Pending Finalization").size());
+    }
+
     private static void performTest(
             List<JmxAttributeData> attributes,
             double expectedInt,
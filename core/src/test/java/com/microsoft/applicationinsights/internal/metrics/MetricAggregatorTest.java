@@ -0,0 +1,197 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.internal.schemav2.DataPointType;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class MetricAggregatorTest {
+    private static final class TelemetryClientStub extends TelemetryClient {
+        private final List<MetricTelemetry> sent = new ArrayList<MetricTelemetry>();
+
+        public TelemetryClientStub() {
+            super(new TelemetryConfiguration());
+        }
+
+        @Override
+        public synchronized void track(Telemetry telemetry) {
+            sent.add((MetricTelemetry) telemetry);
+        }
+    }
+
+    @Test
+    public void testValuesAreFoldedIntoOneAggregate() {
+        TelemetryClientStub client = new TelemetryClientStub();
+        MetricAggregator aggregator = new MetricAggregator(client);
+
+        for (double value : new double[] {2, 4, 4, 4, 5, 5, 7, 9}) {
+            aggregator.trackValue("Metric", value, null);
+        }
+        aggregator.flush();
+
+        assertEquals(1, client.sent.size());
+        MetricTelemetry aggregate = client.sent.get(0);
+        assertEquals("Metric", aggregate.getName());
+        assertEquals(DataPointType.Aggregation, aggregate.getKind());
+        assertEquals(40.0, aggregate.getValue(), 0.0);
+        assertEquals(8, aggregate.getCount().intValue());
+        assertEquals(2.0, aggregate.getMin(), 0.0);
+        assertEquals(9.0, aggregate.getMax(), 0.0);
+        assertEquals(2.0, aggregate.getStandardDeviation(), 1e-9);
+        assertTrue(aggregate.getProperties().isEmpty());
+    }
+
+    @Test
+    public void testCloseSendsTheAggregatesAndStopsTheFlush() {
+        TelemetryClientStub client = new TelemetryClientStub();
+        MetricAggregator aggregator = new MetricAggregator(client);
+        aggregator.trackValue("Metric", 1, null);
+
+        assertTrue(aggregator.isScheduled());
+        aggregator.close();
+
+        assertFalse(aggregator.isScheduled());
+        assertEquals(1, client.sent.size());
+    }
+
+    @Test
+    public void testScheduledFlushDoesNotKeepTheAggregatorReachable() throws InterruptedException {
+        WeakReference<MetricAggregator> aggregator = createAggregator();
+
+        for (int i = 0; i < 50 && aggregator.get() != null; ++i) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertNull(aggregator.get());
+    }
+
+    @Test
+    public void testNothingIsSentForAnIdlePeriod() {
+        TelemetryClientStub client = new TelemetryClientStub();
+        MetricAggregator aggregator = new MetricAggregator(client);
+
+        aggregator.trackValue("Metric", 1, null);
+        aggregator.flush();
+        aggregator.flush();
+
+        assertEquals(1, client.sent.size());
+    }
+
+    @Test
+    public void testDimensionsDefineSeparateSeries() {
+        TelemetryClientStub client = new TelemetryClientStub();
+        MetricAggregator aggregator = new MetricAggregator(client);
+
+        Map<String, String> dimensions = new HashMap<String, String>();
+        dimensions.put("region", "west");
+        aggregator.trackValue("Metric", 1, null);
+        aggregator.trackValue("Metric", 2, dimensions);
+        aggregator.trackValue("Metric", 3, new HashMap<String, String>(dimensions));
+        dimensions.put("region", "east");
+        aggregator.trackValue("Metric", 4, dimensions);
+        aggregator.flush();
+
+        assertEquals(3, client.sent.size());
+        double westSum = -1;
+        for (MetricTelemetry aggregate : client.sent) {
+            if ("west".equals(aggregate.getProperties().get("region"))) {
+                westSum = aggregate.getValue();
+            }
+        }
+        assertEquals(5.0, westSum, 0.0);
+    }
+
+    @Test
+    public void testSeriesIsReused() {
+        MetricAggregator aggregator = new MetricAggregator(new TelemetryClientStub());
+
+        Map<String, String> dimensions = new HashMap<String, String>();
+        dimensions.put("region", "west");
+        assertSame(aggregator.getSeries("Metric", null), aggregator.getSeries("Metric", null));
+        assertSame(aggregator.getSeries("Metric", dimensions), aggregator.getSeries("Metric", new HashMap<String, String>(dimensions)));
+    }
+
+    @Test
+    public void testNoSeriesPastTheLimit() {
+        MetricAggregator aggregator = new MetricAggregator(new TelemetryClientStub());
+
+        for (int i = 0; i < MetricAggregator.MAX_SERIES_COUNT; ++i) {
+            assertNotNull(aggregator.getSeries("Metric" + i, null));
+        }
+
+        assertNull(aggregator.getSeries("OneTooMany", null));
+        assertTrue(!aggregator.trackValue("OneTooMany", 1, null));
+        assertNotNull(aggregator.getSeries("Metric0", null));
+    }
+
+    @Test
+    public void testConcurrentValuesAreAllCounted() throws InterruptedException {
+        TelemetryClientStub client = new TelemetryClientStub();
+        final MetricAggregator aggregator = new MetricAggregator(client);
+        final int numberOfThreads = 8;
+        final int valuesPerThread = 100000;
+        final CountDownLatch done = new CountDownLatch(numberOfThreads);
+
+        for (int i = 0; i < numberOfThreads; ++i) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    MetricSeries series = aggregator.getSeries("Metric", null);
+                    for (int j = 0; j < valuesPerThread; ++j) {
+                        series.trackValue(1);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        aggregator.flush();
+
+        assertEquals(1, client.sent.size());
+        assertEquals(numberOfThreads * valuesPerThread, client.sent.get(0).getCount().intValue());
+        assertEquals(numberOfThreads * valuesPerThread, client.sent.get(0).getValue(), 0.0);
+        assertEquals(0.0, client.sent.get(0).getStandardDeviation(), 0.0);
+    }
+
+    private static WeakReference<MetricAggregator> createAggregator() {
+        return new WeakReference<MetricAggregator>(new MetricAggregator(new TelemetryClientStub(), 1));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class SdkMetricsModuleTest {
+    @Test
+    public void testCountersAreSentAsTheirIncrease() {
+        SdkMetricsModule module = new SdkMetricsModule(SdkMetrics.INSTANCE, 60);
+        module.collect();
+
+        SdkMetrics.INSTANCE.getRetries().add(3);
+        Map<String, MetricTelemetry> sent = byName(module.collect());
+
+        assertEquals(3.0, sent.get(SdkMetricsModule.METRIC_NAME_PREFIX + "Retries").getValue(), 0.0);
+        assertEquals(0.0, sent.get(SdkMetricsModule.METRIC_NAME_PREFIX + "SpilledTransmissions").getValue(), 0.0);
+    }
+
+    @Test
+    public void testHistogramsAreSentAsSumAndCountOfTheInterval() {
+        SdkMetricsModule module = new SdkMetricsModule(SdkMetrics.INSTANCE, 60);
+        module.collect();
+
+        SdkMetrics.INSTANCE.getBatchSize().record(100);
+        SdkMetrics.INSTANCE.getBatchSize().record(300);
+        Map<String, MetricTelemetry> sent = byName(module.collect());
+
+        MetricTelemetry batchSize = sent.get(SdkMetricsModule.METRIC_NAME_PREFIX + "BatchSize");
+        assertEquals(400.0, batchSize.getValue(), 0.0);
+        assertEquals(Integer.valueOf(2), batchSize.getCount());
+
+        assertNull(byName(module.collect()).get(SdkMetricsModule.METRIC_NAME_PREFIX + "BatchSize"));
+    }
+
+    @Test
+    public void testOnlyTheModuleTelemetriesAreSdkMetrics() {
+        for (MetricTelemetry telemetry : new SdkMetricsModule(SdkMetrics.INSTANCE, 60).collect()) {
+            assertTrue(SdkMetricsModule.isSdkMetric(telemetry));
+        }
+
+        assertFalse(SdkMetricsModule.isSdkMetric(new MetricTelemetry("Orders", 1)));
+        assertFalse(SdkMetricsModule.isSdkMetric(new TraceTelemetry(SdkMetricsModule.METRIC_NAME_PREFIX)));
+        assertFalse(SdkMetricsModule.isSdkMetric(null));
+    }
+
+    @Test
+    public void testIntervalFromProperties() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(SdkMetricsModule.INTERVAL_IN_SECONDS_NAME, "15");
+        assertEquals(15, new SdkMetricsModule(properties).getIntervalInSeconds());
+
+        properties.put(SdkMetricsModule.INTERVAL_IN_SECONDS_NAME, "never");
+        assertEquals(SdkMetricsModule.DEFAULT_INTERVAL_IN_SECONDS, new SdkMetricsModule(properties).getIntervalInSeconds());
+    }
+
+    @Test
+    public void testMetricsArePublishedThroughJmx() throws Exception {
+        long before = SdkMetrics.INSTANCE.getItemsTracked().sum();
+        SdkMetrics.INSTANCE.getItemsTracked().increment();
+
+        Object value = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(SdkMetrics.OBJECT_NAME), "ItemsTracked");
+
+        assertTrue((Long) value >= before + 1);
+    }
+
+    @Test
+    public void testMBeanLeftByAnEarlierDeploymentIsReplaced() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(SdkMetrics.OBJECT_NAME);
+        server.unregisterMBean(name);
+        server.registerMBean(new StandardMBean(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, Runnable.class), name);
+
+        SdkMetrics.INSTANCE.registerMBean();
+
+        SdkMetrics.INSTANCE.getItemsTracked().increment();
+        assertTrue((Long) server.getAttribute(name, "ItemsTracked") >= 1);
+    }
+
+    private static Map<String, MetricTelemetry> byName(List<MetricTelemetry> telemetries) {
+        Map<String, MetricTelemetry> result = new HashMap<String, MetricTelemetry>();
+        for (MetricTelemetry telemetry : telemetries) {
+            result.put(telemetry.getName(), telemetry);
+        }
+        return result;
+    }
+}
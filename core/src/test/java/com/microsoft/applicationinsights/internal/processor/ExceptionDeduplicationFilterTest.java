@@ -0,0 +1,112 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public final class ExceptionDeduplicationFilterTest {
+
+    @Test
+    public void testOtherTelemetriesAreSent() {
+        ExceptionDeduplicationFilter filter = new ExceptionDeduplicationFilter();
+
+        assertTrue(filter.process(new TraceTelemetry("trace")));
+        assertTrue(filter.process(null));
+        assertTrue(filter.process(new ExceptionTelemetry()));
+        assertTrue(filter.process(new ExceptionTelemetry()));
+    }
+
+    @Test
+    public void testRepeatsAreCountedOnTheNextSentException() {
+        ExceptionDeduplicationFilter filter = new ExceptionDeduplicationFilter();
+        Exception[] exceptions = throwFromSamePlace(5);
+
+        assertTrue(filter.process(new ExceptionTelemetry(exceptions[0]), 0));
+        assertFalse(filter.process(new ExceptionTelemetry(exceptions[1]), 1000));
+        assertFalse(filter.process(new ExceptionTelemetry(exceptions[2]), 2000));
+
+        ExceptionTelemetry next = new ExceptionTelemetry(exceptions[3]);
+        assertTrue(filter.process(next, 60000));
+        assertEquals(2.0, next.getMetrics().get(ExceptionDeduplicationFilter.DUPLICATE_COUNT_METRIC), 0.0);
+
+        ExceptionTelemetry afterQuietInterval = new ExceptionTelemetry(exceptions[4]);
+        assertTrue(filter.process(afterQuietInterval, 120000));
+        assertNull(afterQuietInterval.getMetrics().get(ExceptionDeduplicationFilter.DUPLICATE_COUNT_METRIC));
+    }
+
+    @Test
+    public void testDifferentExceptionsAreSent() {
+        ExceptionDeduplicationFilter filter = new ExceptionDeduplicationFilter();
+
+        Exception exception = throwFromSamePlace(1)[0];
+        assertTrue(filter.process(new ExceptionTelemetry(exception), 0));
+        assertTrue(filter.process(new ExceptionTelemetry(new IllegalArgumentException()), 0));
+        assertTrue(filter.process(new ExceptionTelemetry(new RuntimeException(exception)), 0));
+    }
+
+    @Test
+    public void testMessageIsNotPartOfTheFingerprint() {
+        Exception[] exceptions = throwFromSamePlace(2);
+        assertEquals(ExceptionDeduplicationFilter.fingerprint(exceptions[0]), ExceptionDeduplicationFilter.fingerprint(exceptions[1]));
+        assertNotEquals(exceptions[0].getMessage(), exceptions[1].getMessage());
+    }
+
+    @Test
+    public void testIntervalIsConfigurable() throws Throwable {
+        ExceptionDeduplicationFilter filter = new ExceptionDeduplicationFilter();
+        filter.setIntervalInSeconds("1");
+
+        Exception[] exceptions = throwFromSamePlace(3);
+        assertTrue(filter.process(new ExceptionTelemetry(exceptions[0]), 0));
+        assertFalse(filter.process(new ExceptionTelemetry(exceptions[1]), 999));
+        assertTrue(filter.process(new ExceptionTelemetry(exceptions[2]), 1000));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testBadIntervalThrows() throws Throwable {
+        new ExceptionDeduplicationFilter().setIntervalInSeconds("soon");
+    }
+
+    @Test
+    public void testMaxFingerprintsStartsTrackingOver() throws Throwable {
+        ExceptionDeduplicationFilter filter = new ExceptionDeduplicationFilter();
+        filter.setMaxFingerprints("1");
+
+        Exception[] exceptions = throwFromSamePlace(2);
+        assertTrue(filter.process(new ExceptionTelemetry(exceptions[0]), 0));
+        assertTrue(filter.process(new ExceptionTelemetry(new IllegalArgumentException()), 0));
+        assertTrue(filter.process(new ExceptionTelemetry(exceptions[1]), 0));
+    }
+
+    // Exceptions that only differ by their message
+    private static Exception[] throwFromSamePlace(int count) {
+        Exception[] exceptions = new Exception[count];
+        for (int i = 0; i < count; i++) {
+            exceptions[i] = new IllegalStateException("same place " + i);
+        }
+        return exceptions;
+    }
+}
@@ -92,4 +92,41 @@ public class RequestTelemetryFilterTest {
             }
         }
     }
+
+    @Test
+    public void testErrorCodeRangesBeyondCommonCodes() throws Throwable {
+        RequestTelemetryFilter tested = new RequestTelemetryFilter();
+        tested.setNotNeededResponseCodes("990-1010, 5000-6000, 0");
+
+        RequestTelemetry rt = new RequestTelemetry();
+        for (int i = 0; i <= 7000; ++i) {
+            rt.setResponseCode(String.valueOf(i));
+            boolean result = tested.process(rt);
+
+            if (i == 0 || (i >= 990 && i <= 1010) || (i >= 5000 && i <= 6000)) {
+                assertFalse(String.valueOf(i), result);
+            } else {
+                assertTrue(String.valueOf(i), result);
+            }
+        }
+    }
+
+    @Test
+    public void testNonNumericResponseCode() throws Throwable {
+        RequestTelemetryFilter tested = new RequestTelemetryFilter();
+        tested.setNotNeededResponseCodes("200-400");
+        tested.setMinimumDurationInMS("100");
+
+        RequestTelemetry rt = new RequestTelemetry();
+        rt.setResponseCode("OK");
+        rt.setDuration(new Duration(200));
+        assertTrue(tested.process(rt));
+
+        rt.setDuration(new Duration(50));
+        assertFalse(tested.process(rt));
+
+        rt.setResponseCode("+300");
+        rt.setDuration(new Duration(200));
+        assertFalse(tested.process(rt));
+    }
 }
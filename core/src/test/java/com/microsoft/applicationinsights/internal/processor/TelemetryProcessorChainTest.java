@@ -0,0 +1,126 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.annotation.ProcessedTelemetryTypes;
+import com.microsoft.applicationinsights.internal.channel.samplingV2.FixedRateSamplingTelemetryProcessor;
+import com.microsoft.applicationinsights.telemetry.BaseTelemetry;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TelemetryProcessorChainTest {
+
+    private static class AnyTelemetryProcessor implements TelemetryProcessor {
+        @Override
+        public boolean process(Telemetry telemetry) {
+            return true;
+        }
+    }
+
+    @ProcessedTelemetryTypes({RequestTelemetry.class, EventTelemetry.class})
+    private static class RequestAndEventProcessor extends AnyTelemetryProcessor {
+    }
+
+    @ProcessedTelemetryTypes(BaseTelemetry.class)
+    private static class BaseTelemetryProcessor extends AnyTelemetryProcessor {
+    }
+
+    @Test
+    public void testProcessorsAreSelectedByTelemetryType() {
+        TelemetryProcessor any = new AnyTelemetryProcessor();
+        TelemetryProcessor requestAndEvent = new RequestAndEventProcessor();
+        TelemetryProcessor trace = new TraceTelemetryFilter();
+        TelemetryProcessor base = new BaseTelemetryProcessor();
+        TelemetryProcessorChain chain = TelemetryProcessorChain.compile(Arrays.asList(trace, requestAndEvent, any, base));
+
+        assertArrayEquals(new TelemetryProcessor[] {requestAndEvent, any, base}, chain.getProcessors(new RequestTelemetry()));
+        assertArrayEquals(new TelemetryProcessor[] {requestAndEvent, any, base}, chain.getProcessors(new EventTelemetry()));
+        assertArrayEquals(new TelemetryProcessor[] {trace, any, base}, chain.getProcessors(new TraceTelemetry()));
+        assertArrayEquals(new TelemetryProcessor[] {trace, requestAndEvent, any, base}, chain.getProcessors(null));
+    }
+
+    @Test
+    public void testBuiltInFiltersAreOnlyPassedTheirTelemetryType() {
+        List<TelemetryProcessor> processors = Arrays.<TelemetryProcessor>asList(new RequestTelemetryFilter(), new TraceTelemetryFilter(),
+                new MetricTelemetryFilter(), new PageViewTelemetryFilter(), new TelemetryEventFilter(), new ExceptionDeduplicationFilter(),
+                new SyntheticSourceFilter());
+        TelemetryProcessorChain chain = TelemetryProcessorChain.compile(processors);
+
+        TelemetryProcessor[] forTraces = chain.getProcessors(new TraceTelemetry());
+        assertEquals(2, forTraces.length);
+        assertTrue(forTraces[0] instanceof TraceTelemetryFilter);
+        assertTrue(forTraces[1] instanceof SyntheticSourceFilter);
+    }
+
+    @Test
+    public void testOnlyASamplerThatComesFirstLeads() {
+        FixedRateSamplingTelemetryProcessor sampler = new FixedRateSamplingTelemetryProcessor();
+
+        assertSame(sampler, TelemetryProcessorChain.compile(Arrays.<TelemetryProcessor>asList(sampler, new AnyTelemetryProcessor()))
+                .getLeadingSampler(new RequestTelemetry()));
+        assertNull(TelemetryProcessorChain.compile(Arrays.<TelemetryProcessor>asList(new AnyTelemetryProcessor(), sampler))
+                .getLeadingSampler(new RequestTelemetry()));
+        assertNull(TelemetryProcessorChain.compile(Arrays.<TelemetryProcessor>asList(new AnyTelemetryProcessor()))
+                .getLeadingSampler(new RequestTelemetry()));
+        assertNull(TelemetryProcessorChain.compile(Arrays.<TelemetryProcessor>asList())
+                .getLeadingSampler(new RequestTelemetry()));
+    }
+
+    @Test
+    public void testSamplerLeadsWhenTheProcessorsBeforeItSkipTheTelemetryType() {
+        FixedRateSamplingTelemetryProcessor sampler = new FixedRateSamplingTelemetryProcessor();
+        TelemetryProcessorChain chain = TelemetryProcessorChain.compile(Arrays.<TelemetryProcessor>asList(new RequestAndEventProcessor(), sampler));
+
+        assertSame(sampler, chain.getLeadingSampler(new TraceTelemetry()));
+        assertNull(chain.getLeadingSampler(new RequestTelemetry()));
+    }
+
+    @Test
+    public void testListCompilesItsChainAgainOnlyWhenChanged() {
+        TelemetryProcessorList processors = new TelemetryProcessorList();
+        TelemetryProcessor first = new AnyTelemetryProcessor();
+        processors.add(first);
+        TelemetryProcessorChain chain = processors.getChain();
+        assertSame(chain, processors.getChain());
+        assertArrayEquals(new TelemetryProcessor[] {first}, chain.getProcessors(null));
+
+        TelemetryProcessor second = new AnyTelemetryProcessor();
+        processors.add(second);
+        chain = processors.getChain();
+        assertArrayEquals(new TelemetryProcessor[] {first, second}, chain.getProcessors(null));
+
+        processors.set(0, second);
+        assertArrayEquals(new TelemetryProcessor[] {second, second}, processors.getChain().getProcessors(null));
+
+        processors.remove(1);
+        assertArrayEquals(new TelemetryProcessor[] {second}, processors.getChain().getProcessors(null));
+    }
+}
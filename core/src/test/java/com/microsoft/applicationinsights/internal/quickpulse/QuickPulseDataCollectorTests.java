@@ -1,6 +1,5 @@
 package com.microsoft.applicationinsights.internal.quickpulse;
 
-import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.CountAndDuration;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.Counters;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.FinalCounters;
 import com.microsoft.applicationinsights.telemetry.Duration;
@@ -144,13 +143,118 @@ public class QuickPulseDataCollectorTests {
     }
 
     @Test
-    public void encodeDecodeIsIdentity() {
-        final long count = 456L;
-        final long duration = 112233L;
-        final long encoded = Counters.encodeCountAndDuration(count, duration);
-        final CountAndDuration inputs = Counters.decodeCountAndDuration(encoded);
-        assertEquals(count, inputs.count);
-        assertEquals(duration, inputs.duration);
+    public void failuresAndExceptionsBecomeDocuments() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        RequestTelemetry rt = new RequestTelemetry("request-ok", new Date(), 10L, "200", true);
+        rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(rt);
+
+        rt = new RequestTelemetry("request-\"failed\"", new Date(), 10L, "500", false);
+        rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        rt.getContext().getOperation().setId("operation-1");
+        rt.getProperties().put("key", "value");
+        QuickPulseDataCollector.INSTANCE.add(rt);
+
+        RemoteDependencyTelemetry rdt = new RemoteDependencyTelemetry("dep-failed", "dep-cmd", new Duration(10L), false);
+        rdt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(rdt);
+
+        ExceptionTelemetry et = new ExceptionTelemetry(new IllegalStateException("boom"));
+        et.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(et);
+
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        assertEquals(3, counters.documents.size());
+
+        String request = counters.documents.get(0);
+        assertTrue(request.startsWith("{\"__type\": \"RequestTelemetryDocument\",\"DocumentType\": \"Request\","));
+        assertTrue(request.contains("\"Name\": \"request-\\\"failed\\\"\""));
+        assertTrue(request.contains("\"OperationId\": \"operation-1\""));
+        assertTrue(request.contains("\"ResponseCode\": \"500\""));
+        assertTrue(request.endsWith("\"Properties\": [{\"key\": \"key\",\"value\": \"value\"}]}"));
+
+        String dependency = counters.documents.get(1);
+        assertTrue(dependency.contains("\"DocumentType\": \"RemoteDependency\""));
+        assertTrue(dependency.contains("\"CommandName\": \"dep-cmd\""));
+
+        String exception = counters.documents.get(2);
+        assertTrue(exception.contains("\"DocumentType\": \"Exception\""));
+        assertTrue(exception.contains("\"ExceptionType\": \"java.lang.IllegalStateException\""));
+        assertTrue(exception.contains("\"ExceptionMessage\": \"boom\""));
+
+        assertTrue(QuickPulseDataCollector.INSTANCE.getAndRestart().documents.isEmpty());
+    }
+
+    @Test
+    public void documentsAreLimitedByQuota() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        final int failures = 1000;
+        for (int i = 0; i < failures; i++) {
+            RequestTelemetry rt = new RequestTelemetry("request-failed", new Date(), 10L, "500", false);
+            rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+            QuickPulseDataCollector.INSTANCE.add(rt);
+        }
+
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        assertEquals(failures, counters.unsuccessfulRequests);
+        assertFalse(counters.documents.isEmpty());
+        // The adds may straddle the start of a new second
+        assertTrue(counters.documents.size() <= 2 * QuickPulseDocumentBuffer.DEFAULT_DOCUMENTS_PER_SECOND);
+    }
+
+    @Test
+    public void peekDoesNotTakeDocuments() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        ExceptionTelemetry et = new ExceptionTelemetry(new Exception());
+        et.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(et);
+
+        assertTrue(QuickPulseDataCollector.INSTANCE.peek().documents.isEmpty());
+        assertEquals(1, QuickPulseDataCollector.INSTANCE.getAndRestart().documents.size());
+    }
+
+    @Test
+    public void countsDoNotWrapAround() {
+        final Counters counters = new Counters();
+        final long count = 524288L;
+        final long duration = 17592186044416L;
+        counters.requests.add(count);
+        counters.requestsDuration.add(duration);
+        counters.rdds.add(count);
+        counters.rddsDuration.add(duration);
+
+        final FinalCounters finalCounters = new FinalCounters(counters, null, null);
+        assertEquals(count, finalCounters.requests);
+        assertEquals((double) duration, finalCounters.requestsDuration, Math.ulp((double) duration));
+        assertEquals(count, finalCounters.rdds);
+        assertEquals((double) duration, finalCounters.rddsDuration, Math.ulp((double) duration));
+    }
+
+    @Test
+    public void durationPercentilesAreReported() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        for (int i = 1; i <= 100; i++) {
+            RequestTelemetry rt = new RequestTelemetry("request-test", new Date(), (long) i, "200", true);
+            rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+            QuickPulseDataCollector.INSTANCE.add(rt);
+        }
+        RemoteDependencyTelemetry rdt = new RemoteDependencyTelemetry("dep-test", "dep-test-cmd", new Duration(7L), true);
+        rdt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(rdt);
+
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        // Each bucket above 16 is 1/16 of its power of two wide, so the percentiles are the top of their bucket
+        assertEquals(51, counters.requestsDurationP50);
+        assertEquals(95, counters.requestsDurationP95);
+        assertEquals(99, counters.requestsDurationP99);
+        assertEquals(7, counters.rddsDurationP50);
+        assertEquals(7, counters.rddsDurationP99);
+
+        assertCountersReset(QuickPulseDataCollector.INSTANCE.peek());
     }
 
     private void assertCountersReset(FinalCounters counters) {
@@ -163,6 +267,7 @@ public class QuickPulseDataCollectorTests {
         assertEquals(0, counters.requests);
         assertEquals(0.0, counters.requestsDuration, Math.ulp(0.0));
         assertEquals(0, counters.unsuccessfulRequests);
+        assertEquals(0, counters.requestsDurationP99);
 
         // FIXME exceptions is stored as a double but counted as an int; is that correct?
         assertEquals(0, (int) counters.exceptions);
@@ -0,0 +1,98 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QuickPulseDocumentBufferTest {
+    @Test
+    public void drainReturnsDocumentsOldestFirstAndEmptiesTheBuffer() {
+        QuickPulseDocumentBuffer buffer = new QuickPulseDocumentBuffer(4, 10);
+        buffer.add("1");
+        buffer.add("2");
+        buffer.add("3");
+
+        List<String> documents = new ArrayList<String>();
+        assertEquals(3, buffer.drainTo(documents));
+        assertEquals(Arrays.asList("1", "2", "3"), documents);
+
+        documents.clear();
+        assertEquals(0, buffer.drainTo(documents));
+    }
+
+    @Test
+    public void newestDocumentsOverwriteOldestWhenFull() {
+        QuickPulseDocumentBuffer buffer = new QuickPulseDocumentBuffer(3, 10);
+        for (int i = 1; i <= 5; i++) {
+            buffer.add(String.valueOf(i));
+        }
+
+        List<String> documents = new ArrayList<String>();
+        buffer.drainTo(documents);
+        assertEquals(Arrays.asList("3", "4", "5"), documents);
+    }
+
+    @Test
+    public void quotaIsLimitedPerSecond() {
+        QuickPulseDocumentBuffer buffer = new QuickPulseDocumentBuffer(4, 2);
+
+        assertTrue(buffer.tryAcquireQuota(100));
+        assertTrue(buffer.tryAcquireQuota(100));
+        assertFalse(buffer.tryAcquireQuota(100));
+
+        assertTrue(buffer.tryAcquireQuota(101));
+        assertTrue(buffer.tryAcquireQuota(101));
+        assertFalse(buffer.tryAcquireQuota(101));
+    }
+
+    @Test
+    public void zeroQuotaAdmitsNothing() {
+        QuickPulseDocumentBuffer buffer = new QuickPulseDocumentBuffer(4, 0);
+
+        assertFalse(buffer.tryAcquireQuota(100));
+        assertFalse(buffer.tryAcquireQuota(101));
+    }
+
+    @Test
+    public void clearDropsDocumentsAndRestoresQuota() {
+        QuickPulseDocumentBuffer buffer = new QuickPulseDocumentBuffer(4, 1);
+        assertTrue(buffer.tryAcquireQuota(100));
+        buffer.add("1");
+
+        buffer.clear();
+
+        assertTrue(buffer.tryAcquireQuota(100));
+        List<String> documents = new ArrayList<String>();
+        assertEquals(0, buffer.drainTo(documents));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new QuickPulseDocumentBuffer(0, 1);
+    }
+}
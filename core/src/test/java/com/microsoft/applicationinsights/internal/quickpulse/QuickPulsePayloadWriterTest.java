@@ -0,0 +1,242 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.FinalCounters;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QuickPulsePayloadWriterTest {
+    private static final String FAKE_INSTRUMENTATION_KEY = "fake-instrumentation-key";
+    private static final Pattern VALUE = Pattern.compile("\"Value\": ([^,]*?) *,");
+
+    @Before
+    public void setup() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+    }
+
+    @After
+    public void tearDown() {
+        QuickPulseDataCollector.INSTANCE.disable();
+    }
+
+    @Test
+    public void payloadMatchesFormattedPayload() throws IOException {
+        addTelemetries();
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        assertFalse(counters.documents.isEmpty());
+
+        QuickPulsePayloadWriter writer = new QuickPulsePayloadWriter("instance", FAKE_INSTRUMENTATION_KEY, "stream-id", "java:2.0.0");
+        String written = new String(writer.write(counters, 1546300800000L), StandardCharsets.UTF_8);
+
+        assertPayloadsEqual(formatPayload(counters, "instance", FAKE_INSTRUMENTATION_KEY, "stream-id", "java:2.0.0", 1546300800000L), written);
+    }
+
+    @Test
+    public void writerCanBeReused() throws IOException {
+        QuickPulsePayloadWriter writer = new QuickPulsePayloadWriter("instance", FAKE_INSTRUMENTATION_KEY, "stream-id", "java:2.0.0");
+
+        addTelemetries();
+        FinalCounters busy = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        writer.write(busy, 1546300800000L);
+
+        FinalCounters idle = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        String written = new String(writer.write(idle, 1546300801000L), StandardCharsets.UTF_8);
+
+        assertPayloadsEqual(formatPayload(idle, "instance", FAKE_INSTRUMENTATION_KEY, "stream-id", "java:2.0.0", 1546300801000L), written);
+    }
+
+    @Test
+    public void timestampWithAnotherNumberOfDigitsRebuildsTheTemplate() throws IOException {
+        QuickPulsePayloadWriter writer = new QuickPulsePayloadWriter("instance", FAKE_INSTRUMENTATION_KEY, "stream-id", "java:2.0.0");
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+
+        writer.write(counters, 1546300800000L);
+        String written = new String(writer.write(counters, 12345L), StandardCharsets.UTF_8);
+
+        assertTrue(written.contains("\"Timestamp\": \"\\/Date(12345)\\/\""));
+    }
+
+    @Test
+    public void nonAsciiDocumentsAreUtf8() throws IOException {
+        RequestTelemetry rt = new RequestTelemetry("réquest-😀", new Date(), 10L, "500", false);
+        rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(rt);
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+
+        QuickPulsePayloadWriter writer = new QuickPulsePayloadWriter("instance", FAKE_INSTRUMENTATION_KEY, "stream-id", "java:2.0.0");
+        String written = new String(writer.write(counters, 1546300800000L), StandardCharsets.UTF_8);
+
+        assertTrue(written.contains("\"Name\": \"réquest-😀\""));
+    }
+
+    @Test
+    public void longsAreWrittenInFull() {
+        assertEquals("0", writeLong(0));
+        assertEquals("-1", writeLong(-1));
+        assertEquals("1234567890", writeLong(1234567890L));
+        assertEquals(String.valueOf(Long.MAX_VALUE), writeLong(Long.MAX_VALUE));
+        assertEquals(String.valueOf(Long.MIN_VALUE), writeLong(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void doublesAreWrittenWithUpToSixFractionDigits() {
+        assertEquals("0.0", writeDouble(0.0));
+        assertEquals("-1.0", writeDouble(-1.0));
+        assertEquals("1500.0", writeDouble(1500.0));
+        assertEquals("12.5", writeDouble(12.5));
+        assertEquals("-0.25", writeDouble(-0.25));
+        assertEquals("0.000001", writeDouble(0.000001));
+        assertEquals("33.333333", writeDouble(100.0 / 3));
+        assertEquals("0.0", writeDouble(-0.0000001));
+        assertEquals("1.5E13", writeDouble(1.5e13));
+        assertEquals("0", writeDouble(Double.NaN));
+        assertEquals("0", writeDouble(Double.POSITIVE_INFINITY));
+    }
+
+    private static String writeLong(long value) {
+        byte[] slot = emptySlot();
+        QuickPulsePayloadWriter.writeLong(slot, 0, value);
+        return new String(slot, StandardCharsets.US_ASCII).trim();
+    }
+
+    private static String writeDouble(double value) {
+        byte[] slot = emptySlot();
+        QuickPulsePayloadWriter.writeDouble(slot, 0, value);
+        return new String(slot, StandardCharsets.US_ASCII).trim();
+    }
+
+    private static byte[] emptySlot() {
+        byte[] slot = new byte[QuickPulsePayloadWriter.VALUE_SLOT_WIDTH];
+        Arrays.fill(slot, (byte) ' ');
+        return slot;
+    }
+
+    private static void addTelemetries() {
+        RequestTelemetry rt = new RequestTelemetry("request-ok", new Date(), 1500L, "200", true);
+        rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(rt);
+
+        rt = new RequestTelemetry("request-failed", new Date(), 250L, "500", false);
+        rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(rt);
+
+        RemoteDependencyTelemetry rdt = new RemoteDependencyTelemetry("dep", "dep-cmd", new Duration(42L), true);
+        rdt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(rdt);
+
+        ExceptionTelemetry et = new ExceptionTelemetry(new IllegalStateException("boom"));
+        et.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(et);
+    }
+
+    /**
+     * Compares the payloads with the padding of the values removed, and the values as numbers.
+     */
+    private static void assertPayloadsEqual(String expected, String actual) {
+        List<Double> expectedValues = new ArrayList<Double>();
+        List<Double> actualValues = new ArrayList<Double>();
+        assertEquals(stripValues(expected, expectedValues), stripValues(actual, actualValues));
+        assertEquals(expectedValues.size(), actualValues.size());
+        for (int i = 0; i < expectedValues.size(); i++) {
+            assertEquals(expectedValues.get(i), actualValues.get(i), 1e-6);
+        }
+    }
+
+    private static String stripValues(String payload, List<Double> values) {
+        Matcher matcher = VALUE.matcher(payload);
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+            values.add(Double.valueOf(matcher.group(1)));
+            matcher.appendReplacement(sb, "\"Value\": ,");
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    // The payload formatted the way it was before the writer
+    private static String formatPayload(FinalCounters counters, String instanceName, String ikey, String quickPulseId,
+                                        String sdkVersion, long ms) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[{");
+        sb.append("\"Documents\": [");
+        for (int i = 0; i < counters.documents.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(counters.documents.get(i));
+        }
+        sb.append("] ,");
+        sb.append("\"Instance\": \"" + instanceName + "\",");
+        sb.append("\"InstrumentationKey\": \"" + ikey + "\",");
+        sb.append("\"InvariantVersion\": 1,");
+        sb.append("\"MachineName\": \"" + instanceName + "\",");
+        sb.append("\"StreamId\": \"" + quickPulseId + "\",");
+        sb.append("\"Metrics\":[");
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests\\/Sec", counters.requests, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Request Duration", counters.requestsDuration, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Request Duration P50", counters.requestsDurationP50, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Request Duration P95", counters.requestsDurationP95, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Request Duration P99", counters.requestsDurationP99, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests Failed\\/Sec", counters.unsuccessfulRequests, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests Succeeded\\/Sec", (counters.requests - counters.unsuccessfulRequests), true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls\\/Sec", counters.rdds, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Call Duration", counters.rddsDuration, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Call Duration P50", counters.rddsDurationP50, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Call Duration P95", counters.rddsDurationP95, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Call Duration P99", counters.rddsDurationP99, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls Failed\\/Sec", counters.unsuccessfulRdds, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls Succeeded\\/Sec", counters.rdds - counters.unsuccessfulRdds, true);
+        formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Exceptions\\/Sec", counters.exceptions, true);
+        formatSingleMetric(sb, "\\\\Memory\\\\Committed Bytes", counters.memoryCommitted, true);
+        formatSingleMetric(sb, "\\\\Processor(_Total)\\\\% Processor Time", counters.cpuUsage, false);
+        sb.append("],");
+        sb.append("\"Timestamp\": \"\\/Date(");
+        sb.append(ms);
+        sb.append(")\\/\",");
+        sb.append("\"Version\": \"");
+        sb.append(sdkVersion);
+        sb.append("\"}]");
+        return sb.toString();
+    }
+
+    private static void formatSingleMetric(StringBuilder sb, String metricName, Object metricValue, boolean includeComma) {
+        String comma = includeComma ? "," : "";
+        sb.append(String.format("{\"Name\": \"%s\",\"Value\": %s,\"Weight\": %s}%s", metricName, metricValue, 1, comma));
+    }
+}
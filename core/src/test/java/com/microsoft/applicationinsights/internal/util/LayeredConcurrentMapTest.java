@@ -0,0 +1,127 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class LayeredConcurrentMapTest {
+    private static LayeredConcurrentMap<String, String> createInheriting(String... keysAndValues) {
+        LayeredConcurrentMap<String, String> source = new LayeredConcurrentMap<String, String>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            source.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+
+        LayeredConcurrentMap<String, String> map = new LayeredConcurrentMap<String, String>();
+        assertTrue(map.inherit(source.snapshot()));
+        return map;
+    }
+
+    @Test
+    public void testSnapshotIsReusedUntilTheMapChanges() {
+        LayeredConcurrentMap<String, String> map = new LayeredConcurrentMap<String, String>();
+        map.put("key", "value");
+
+        Map<String, String> snapshot = map.snapshot();
+        assertSame(snapshot, map.snapshot());
+
+        map.put("key", "other");
+        assertNotSame(snapshot, map.snapshot());
+        assertEquals("value", snapshot.get("key"));
+        assertEquals("other", map.snapshot().get("key"));
+    }
+
+    @Test
+    public void testLocalEntriesTakePrecedence() {
+        LayeredConcurrentMap<String, String> map = createInheriting("key", "inherited", "other", "inherited");
+
+        assertEquals("inherited", map.put("key", "local"));
+        assertEquals("local", map.get("key"));
+        assertEquals("inherited", map.putIfAbsent("other", "local"));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testRemovingAnInheritedKeyHidesIt() {
+        LayeredConcurrentMap<String, String> map = createInheriting("key", "inherited");
+
+        assertEquals("inherited", map.remove("key"));
+        assertFalse(map.containsKey("key"));
+        assertTrue(map.isEmpty());
+
+        assertNull(map.put("key", "local"));
+        assertEquals("local", map.get("key"));
+    }
+
+    @Test
+    public void testIterationMergesTheLayers() {
+        LayeredConcurrentMap<String, String> map = createInheriting("a", "inherited", "b", "inherited", "c", "inherited");
+        map.put("b", "local");
+        map.put("d", "local");
+        map.remove("c");
+
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("a", "inherited");
+        expected.put("b", "local");
+        expected.put("d", "local");
+        assertEquals(expected, new HashMap<String, String>(map));
+
+        for (Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator(); iterator.hasNext(); ) {
+            if ("a".equals(iterator.next().getKey())) {
+                iterator.remove();
+            }
+        }
+        assertFalse(map.containsKey("a"));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testInheritOnlyOnce() {
+        LayeredConcurrentMap<String, String> map = createInheriting("key", "inherited");
+
+        Map<String, String> other = new HashMap<String, String>();
+        other.put("key", "other");
+        assertFalse(map.inherit(other));
+        assertEquals("inherited", map.get("key"));
+    }
+
+    @Test
+    public void testClearDropsInheritedEntries() {
+        LayeredConcurrentMap<String, String> map = createInheriting("key", "inherited");
+        map.put("local", "local");
+
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.get("key"));
+    }
+}
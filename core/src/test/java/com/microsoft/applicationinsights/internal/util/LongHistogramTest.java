@@ -0,0 +1,131 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LongHistogramTest {
+    @Test
+    public void emptyHistogramHasZeroPercentiles() {
+        LongHistogram.Snapshot snapshot = new LongHistogram().snapshot();
+
+        assertEquals(0, snapshot.getTotalCount());
+        assertEquals(0, snapshot.valueAtPercentile(99));
+        assertEquals(0.0, new LongHistogram().getMean(), 0.0);
+    }
+
+    @Test
+    public void countSumMeanAndMax() {
+        LongHistogram histogram = new LongHistogram();
+        histogram.record(10);
+        histogram.record(20);
+        histogram.record(-5);
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(30, histogram.getSum());
+        assertEquals(10.0, histogram.getMean(), 0.0);
+        assertEquals(20, histogram.getMax());
+    }
+
+    @Test
+    public void percentilesAreAtMostTheMaximum() {
+        LongHistogram histogram = new LongHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(1000);
+
+        // 100 is in the bucket of 100 to 103, 1000 in the one of 992 to 1023
+        assertEquals(103, histogram.getPercentile(50));
+        assertEquals(103, histogram.getPercentile(99));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void recordsFromManyThreadsAreCounted() throws InterruptedException {
+        final LongHistogram histogram = new LongHistogram();
+        Thread[] workers = new Thread[8];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(j % 50);
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(80000, histogram.getCount());
+        assertEquals(49, histogram.getMax());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LongHistogram histogram = new LongHistogram();
+        for (int i = 0; i < 10; i++) {
+            histogram.record(i);
+        }
+        LongHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(10, snapshot.getTotalCount());
+        assertEquals(4, snapshot.valueAtPercentile(50));
+        assertEquals(9, snapshot.valueAtPercentile(100));
+        assertEquals(0, snapshot.valueAtPercentile(0));
+    }
+
+    @Test
+    public void bucketsCoverEveryValueWithBoundedError() {
+        for (long value = 0; value < 100000; value++) {
+            long highest = LongHistogram.highestValueInBucket(LongHistogram.bucketIndex(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / LongHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void bucketIndexesAreContiguous() {
+        int previous = LongHistogram.bucketIndex(0);
+        for (long value = 1; value < 100000; value++) {
+            int index = LongHistogram.bucketIndex(value);
+            assertTrue(index == previous || index == previous + 1);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        LongHistogram histogram = new LongHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LongHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(0, snapshot.valueAtPercentile(50));
+        assertEquals(LongHistogram.MAX_TRACKABLE_VALUE, snapshot.valueAtPercentile(100));
+    }
+}
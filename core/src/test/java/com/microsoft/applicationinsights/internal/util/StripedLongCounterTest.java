@@ -0,0 +1,97 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StripedLongCounterTest {
+    @Test
+    public void sumsAddsFromOneThread() {
+        StripedLongCounter counter = new StripedLongCounter();
+        counter.increment();
+        counter.add(41);
+
+        assertEquals(42, counter.sum());
+        assertFalse(counter.isStriped());
+    }
+
+    @Test
+    public void sumsAddsFromManyThreads() throws InterruptedException {
+        final StripedLongCounter counter = new StripedLongCounter();
+        final int threads = 8;
+        final int addsPerThread = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < addsPerThread; j++) {
+                        counter.increment();
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals((long) threads * addsPerThread, counter.sum());
+    }
+
+    @Test
+    public void sumIsNotLimitedToAnInt() {
+        StripedLongCounter counter = new StripedLongCounter();
+        counter.add(Integer.MAX_VALUE);
+        counter.add(Integer.MAX_VALUE);
+
+        assertEquals(2L * Integer.MAX_VALUE, counter.sum());
+    }
+
+    @Test
+    public void numberOfCellsIsAPowerOfTwoAboveTheProcessors() {
+        assertEquals(2, StripedLongCounter.numberOfCells(1));
+        assertEquals(4, StripedLongCounter.numberOfCells(2));
+        assertEquals(8, StripedLongCounter.numberOfCells(3));
+        assertEquals(8, StripedLongCounter.numberOfCells(4));
+        assertEquals(64, StripedLongCounter.numberOfCells(256));
+    }
+
+    @Test
+    public void stripeOfCurrentThreadIsWithinTheStripes() {
+        assertEquals(0, StripedLongCounter.stripeOfCurrentThread(1));
+        int stripe = StripedLongCounter.stripeOfCurrentThread(StripedLongCounter.numberOfStripes());
+        assertTrue(stripe >= 0 && stripe < StripedLongCounter.numberOfStripes());
+        assertEquals(stripe, StripedLongCounter.stripeOfCurrentThread(StripedLongCounter.numberOfStripes()));
+    }
+}
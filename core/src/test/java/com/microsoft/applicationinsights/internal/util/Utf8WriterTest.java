@@ -0,0 +1,96 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Utf8WriterTest {
+    @Test
+    public void testAsciiAndMultiByteCharacters() throws IOException {
+        verifyEncoding("plain ascii");
+        verifyEncoding("café Жз €中文");
+    }
+
+    @Test
+    public void testSurrogatePairs() throws IOException {
+        verifyEncoding("smile 😀 and 𝄞");
+    }
+
+    @Test
+    public void testSurrogatePairSplitByFlush() throws IOException {
+        String value = "smile 😀";
+        ReusableByteArrayOutputStream output = new ReusableByteArrayOutputStream(16, 1024);
+        Utf8Writer writer = new Utf8Writer(output);
+        writer.write(value, 0, value.length() - 1);
+        writer.flush();
+        writer.write(value, value.length() - 1, 1);
+        writer.close();
+
+        Assert.assertArrayEquals(value.getBytes("UTF-8"), output.toByteArray());
+    }
+
+    @Test
+    public void testLoneHighSurrogateIsReplacedOnClose() throws IOException {
+        ReusableByteArrayOutputStream output = new ReusableByteArrayOutputStream(16, 1024);
+        Utf8Writer writer = new Utf8Writer(output);
+        writer.write("a\uD83D");
+        writer.close();
+
+        Assert.assertEquals("a?", new String(output.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void testLongerThanInternalBuffer() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; ++i) {
+            builder.append("€😀a");
+        }
+        verifyEncoding(builder.toString());
+    }
+
+    @Test
+    public void testResetReusesWriter() throws IOException {
+        ReusableByteArrayOutputStream output = new ReusableByteArrayOutputStream(16, 1024);
+        Utf8Writer writer = new Utf8Writer(output);
+        writer.write("first");
+        writer.close();
+
+        output.reset();
+        writer.reset(output);
+        writer.write("second");
+        writer.close();
+
+        Assert.assertEquals("second", new String(output.toByteArray(), "UTF-8"));
+    }
+
+    private static void verifyEncoding(String value) throws IOException {
+        ReusableByteArrayOutputStream output = new ReusableByteArrayOutputStream(16, 1024);
+        Utf8Writer writer = new Utf8Writer(output);
+        writer.write(value);
+        writer.close();
+
+        Assert.assertArrayEquals(value.getBytes("UTF-8"), output.toByteArray());
+    }
+}
@@ -24,6 +24,7 @@ package com.microsoft.applicationinsights.telemetry;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import com.microsoft.applicationinsights.internal.schemav2.SeverityLevel;
+import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 
 import org.junit.Test;
 
@@ -31,6 +32,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -405,4 +407,67 @@ public class JsonTelemetryDataSerializerTest {
         assertEquals(0, bac.d1, epsilon);
         assertEquals(0, bac.d2, epsilon);
     }
+
+    @Test
+    public void testDoublesAreWrittenAsStringValueOf() throws IOException {
+        double[] values = {1, -1, 0.5, 7, 12.345, -2247.47, 0.001, 0.0001, 9999999.999, 1e7, 123456789.5, 1.0 / 3, -0.0, Double.MIN_VALUE, Double.MAX_VALUE};
+        for (double value : values) {
+            StringWriter stringWriter = new StringWriter();
+            JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+            tested.write("d", value);
+            tested.close();
+
+            assertEquals("{\"d\":" + String.valueOf(value) + "}", stringWriter.toString());
+        }
+    }
+
+    @Test
+    public void testControlCharactersAreEscaped() throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("s", "a\u0001b\u001fc\"", 100);
+        tested.close();
+
+        assertEquals("{\"s\":\"a\\u0001b\\u001fc\\\"\"}", stringWriter.toString());
+    }
+
+    @Test
+    public void testDateAndDurationMatchTheirFormatters() throws IOException {
+        Date date = new Date(1546300800123L);
+        Duration duration = new Duration(1, 2, 3, 4, 5);
+
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("t", date);
+        tested.write("d", duration);
+        tested.close();
+
+        String expected = "{\"t\":\"" + LocalStringsUtils.getDateFormatter().format(date) + "\",\"d\":\"" + duration + "\"}";
+        assertEquals(expected, stringWriter.toString());
+    }
+
+    @Test
+    public void testEmptyNestedObjectsAreOmitted() throws IOException {
+        final JsonSerializable empty = new JsonSerializable() {
+            @Override
+            public void serialize(JsonTelemetryDataSerializer serializer) throws IOException {
+            }
+        };
+        JsonSerializable outer = new JsonSerializable() {
+            @Override
+            public void serialize(JsonTelemetryDataSerializer serializer) throws IOException {
+                serializer.write("empty", empty);
+                serializer.write("i", 1);
+            }
+        };
+
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        tested.write("a", 0);
+        tested.write("empty", empty);
+        tested.write("outer", outer);
+        tested.close();
+
+        assertEquals("{\"a\":0,\"outer\":{\"i\":1}}", stringWriter.toString());
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.microsoft.applicationinsights.internal.schemav2.ExceptionDetails;
+import com.microsoft.applicationinsights.internal.schemav2.StackFrame;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public final class ParsedStackCacheTest {
+
+    @Test
+    public void sameStackTraceIsParsedOnce() {
+        ParsedStackCache cache = new ParsedStackCache(ParsedStackCache.DEFAULT_CAPACITY);
+        for (int i = 0; i < 2; i++) {
+            cache.getParsedStack(new IllegalStateException("same place").getStackTrace());
+        }
+
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void framesMatchTheStackTrace() {
+        StackTraceElement[] trace = {
+                new StackTraceElement("com.example.Foo", "bar", "Foo.java", 42),
+                new StackTraceElement("com.example.Native", "call", null, -2),
+                new StackTraceElement("", "lambda", null, -1)
+        };
+        List<StackFrame> stack = new ParsedStackCache(ParsedStackCache.DEFAULT_CAPACITY).getParsedStack(trace);
+
+        assertEquals(2, stack.size());
+        assertEquals(0, stack.get(0).getLevel());
+        assertEquals("com.example.Foo.bar", stack.get(0).getMethod());
+        assertEquals("Foo.java", stack.get(0).getFileName());
+        assertEquals(42, stack.get(0).getLine());
+        assertEquals(2, stack.get(1).getLevel());
+        assertEquals("lambda", stack.get(1).getMethod());
+    }
+
+    @Test
+    public void everyStackHasItsOwnFrames() throws IOException {
+        ParsedStackCache cache = new ParsedStackCache(ParsedStackCache.DEFAULT_CAPACITY);
+        StackTraceElement[] trace = { new StackTraceElement("com.example.Foo", "bar", "Foo.java", 42) };
+        List<StackFrame> first = cache.getParsedStack(trace);
+        List<StackFrame> second = cache.getParsedStack(trace);
+        String untouched = serialize(createDetails(second));
+
+        first.get(0).setFileName(null);
+        first.add(new StackFrame());
+
+        assertEquals(2, first.size());
+        assertEquals(1, second.size());
+        assertEquals("Foo.java", second.get(0).getFileName());
+        assertEquals("Foo.java", cache.getParsedStack(trace).get(0).getFileName());
+        assertFalse(serialize(createDetails(first)).contains("Foo.java"));
+        assertEquals(untouched, serialize(createDetails(cache.getParsedStack(trace))));
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        ParsedStackCache cache = new ParsedStackCache(2);
+        for (int i = 0; i < 5; i++) {
+            cache.getParsedStack(new StackTraceElement[] { new StackTraceElement("com.example.Foo", "bar", "Foo.java", i) });
+            assertTrue(cache.size() <= 2);
+        }
+    }
+
+    @Test
+    public void cachedStackSerializesLikeAnyList() throws IOException {
+        ParsedStackCache cache = new ParsedStackCache(ParsedStackCache.DEFAULT_CAPACITY);
+        StackTraceElement[] trace = new Exception().getStackTrace();
+        List<StackFrame> cached = cache.getParsedStack(trace);
+        List<StackFrame> copied = new ArrayList<StackFrame>(cache.getParsedStack(trace));
+
+        String expected = serialize(createDetails(copied));
+        assertEquals(expected, serialize(createDetails(cached)));
+        // The second time the cached JSON is written
+        assertEquals(expected, serialize(createDetails(cache.getParsedStack(trace))));
+    }
+
+    private static ExceptionDetails createDetails(List<StackFrame> stack) {
+        ExceptionDetails details = new ExceptionDetails();
+        details.setTypeName("type");
+        details.setMessage("message");
+        details.setParsedStack(stack);
+        return details;
+    }
+
+    private static String serialize(ExceptionDetails details) throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonTelemetryDataSerializer serializer = new JsonTelemetryDataSerializer(writer);
+        serializer.write("details", details);
+        serializer.write("after", 1);
+        serializer.close();
+        return writer.toString();
+    }
+}
@@ -72,4 +72,28 @@ public final class TelemetryContextTest {
 
         Assert.assertEquals(TEST_IKEY, contextToInitialize.getInstrumentationKey());
     }
+
+    @Test
+    public void testInitializedContextSeesSourceTagsAndProperties() {
+        TelemetryContext source = new TelemetryContext();
+        source.getTags().put("tag", "source");
+        source.getTags().put("sourceOnly", "source");
+        source.getProperties().put("property", "source");
+
+        TelemetryContext context = new TelemetryContext();
+        context.getTags().put("tag", "item");
+        context.initialize(source);
+
+        assertEquals("item", context.getTags().get("tag"));
+        assertEquals("source", context.getTags().get("sourceOnly"));
+        assertEquals("source", context.getProperties().get("property"));
+        assertEquals(2, context.getTags().size());
+
+        source.getTags().put("addedLater", "source");
+        assertNull(context.getTags().get("addedLater"));
+
+        context.getTags().remove("sourceOnly");
+        assertNull(context.getTags().get("sourceOnly"));
+        assertEquals("source", source.getTags().get("sourceOnly"));
+    }
 }
@@ -109,6 +109,14 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
         return config;
     }
 
+    /**
+     * Delays every response to a telemetry POST, to simulate a slow ingestion endpoint.
+     */
+    public void setResponseDelay(long delay, TimeUnit timeUnit) {
+        Preconditions.checkArgument(delay >= 0, "delay must be non-negative");
+        this.config.setResponseDelayInMillis(timeUnit.toMillis(delay));
+    }
+
     public void resetData() {
         logit("Clearing telemetry accumulator...");
         telemetryReceived.clear();
@@ -172,6 +180,10 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
             case "/v2/track":
                 StringWriter w = new StringWriter();
                 try {
+                    long responseDelayInMillis = config.getResponseDelayInMillis();
+                    if (responseDelayInMillis > 0) {
+                        TimeUnit.MILLISECONDS.sleep(responseDelayInMillis);
+                    }
                     String contentEncoding = req.getHeader("content-encoding");
                     final Readable reader;
                     if ("gzip".equals(contentEncoding)) {
@@ -265,6 +277,7 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
     private class MockedIngestionServletConfig {
         private boolean retainPayloadsEnabled = true;
         private boolean logPayloadsEnabled = true;
+        private volatile long responseDelayInMillis = 0;
 
         public boolean isRetainPayloadsEnabled() {
             return retainPayloadsEnabled;
@@ -281,5 +294,13 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
         public void setLogPayloadsEnabled(boolean logPayloadsEnabled) {
             this.logPayloadsEnabled = logPayloadsEnabled;
         }
+
+        public long getResponseDelayInMillis() {
+            return responseDelayInMillis;
+        }
+
+        public void setResponseDelayInMillis(long responseDelayInMillis) {
+            this.responseDelayInMillis = responseDelayInMillis;
+        }
     }
 }
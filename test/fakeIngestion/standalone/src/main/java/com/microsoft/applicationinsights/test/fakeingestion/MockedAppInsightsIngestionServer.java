@@ -54,6 +54,13 @@ public class MockedAppInsightsIngestionServer {
         this.servlet.resetData();
     }
 
+    /**
+     * Delays every response to a telemetry POST by the given amount of time, to simulate a slow ingestion endpoint.
+     */
+    public void setResponseDelay(long delay, TimeUnit timeUnit) {
+        this.servlet.setResponseDelay(delay, timeUnit);
+    }
+
     public boolean hasData() {
         return this.servlet.hasData();
     }
@@ -0,0 +1,87 @@
+package com.microsoft.applicationinsights.test.fakeingestion;
+
+import com.google.common.base.Predicates;
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+import com.microsoft.applicationinsights.internal.channel.common.TransmissionNetworkOutput;
+import com.microsoft.applicationinsights.internal.channel.common.TransmissionPolicyManager;
+import com.microsoft.applicationinsights.internal.schemav2.Envelope;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends through the non-blocking network output to a fake ingestion endpoint that answers slowly.
+ */
+public class AsyncTransmissionNetworkOutputTest {
+    private static final long RESPONSE_DELAY_IN_MILLIS = 500;
+    private static final int NUMBER_OF_TRANSMISSIONS = 32;
+
+    private MockedAppInsightsIngestionServer server;
+    private TransmissionPolicyManager transmissionPolicyManager;
+    private TransmissionNetworkOutput output;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockedAppInsightsIngestionServer();
+        server.startServer();
+        server.setResponseDelay(RESPONSE_DELAY_IN_MILLIS, TimeUnit.MILLISECONDS);
+
+        transmissionPolicyManager = new TransmissionPolicyManager(false);
+        output = TransmissionNetworkOutput.create("http://localhost:" + server.getPort() + "/v2/track", transmissionPolicyManager, true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        output.stop(1L, TimeUnit.SECONDS);
+        transmissionPolicyManager.stop(1L, TimeUnit.SECONDS);
+        server.stopServer();
+    }
+
+    @Test
+    public void sendDoesNotWaitForTheResponse() throws Exception {
+        assertTrue(output.isAsync());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < NUMBER_OF_TRANSMISSIONS; i++) {
+            assertTrue(output.send(createTransmission("event-" + i)));
+        }
+        long handedOverInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("sending took " + handedOverInMillis + "ms", handedOverInMillis < RESPONSE_DELAY_IN_MILLIS);
+    }
+
+    @Test
+    public void slowResponsesAreAwaitedConcurrently() throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < NUMBER_OF_TRANSMISSIONS; i++) {
+            assertTrue(output.send(createTransmission("event-" + i)));
+        }
+
+        List<Envelope> items = server.waitForItems(Predicates.<Envelope>alwaysTrue(), NUMBER_OF_TRANSMISSIONS, 30, TimeUnit.SECONDS);
+        long deliveredInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(NUMBER_OF_TRANSMISSIONS, items.size());
+        // One request at a time would take NUMBER_OF_TRANSMISSIONS * RESPONSE_DELAY_IN_MILLIS
+        assertTrue("delivery took " + deliveredInMillis + "ms", deliveredInMillis < NUMBER_OF_TRANSMISSIONS * RESPONSE_DELAY_IN_MILLIS / 2);
+    }
+
+    private static Transmission createTransmission(String eventName) throws IOException {
+        String envelope = "{\"ver\":1,\"name\":\"Microsoft.ApplicationInsights.Event\",\"iKey\":\"00000000-0000-0000-0000-0FEEDDADBEEF\","
+                + "\"data\":{\"baseType\":\"EventData\",\"baseData\":{\"ver\":2,\"name\":\"" + eventName + "\"}}}";
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(envelope.getBytes(StandardCharsets.UTF_8));
+        }
+        return new Transmission(bytes.toByteArray(), "application/x-json-stream", "gzip");
+    }
+}
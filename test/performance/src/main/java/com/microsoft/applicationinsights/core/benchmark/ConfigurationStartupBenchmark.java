@@ -0,0 +1,118 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.core.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.internal.config.ConfigurationFileLocator;
+import com.microsoft.applicationinsights.internal.config.TelemetryConfigurationFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The time a fresh JVM takes to build its {@link TelemetryConfiguration} from ApplicationInsights.xml,
+ * parsing the XML or reading the snapshot of it written by an earlier start.
+ *
+ * Every measurement is the first one in its own JVM, like a cold start.
+ * The warmup fork writes the snapshot that the measured forks then read.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 10, warmups = 1)
+@State(Scope.Benchmark)
+public class ConfigurationStartupBenchmark {
+    private static final String CONFIGURATION_XML =
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+            "<ApplicationInsights xmlns=\"http://schemas.microsoft.com/ApplicationInsights/2013/Settings\" schemaVersion=\"2014-05-30\">\n" +
+            "  <InstrumentationKey>00000000-0000-0000-0000-000000000000</InstrumentationKey>\n" +
+            "  <Channel>\n" +
+            "    <EndpointAddress>http://localhost:60606/v2/track</EndpointAddress>\n" +
+            "    <DeveloperMode>false</DeveloperMode>\n" +
+            "  </Channel>\n" +
+            "  <TelemetryModules>\n" +
+            "    <Add type=\"com.microsoft.applicationinsights.internal.heartbeat.HeartBeatModule\"/>\n" +
+            "  </TelemetryModules>\n" +
+            "  <TelemetryProcessors>\n" +
+            "    <BuiltInProcessors>\n" +
+            "      <Processor type=\"TraceTelemetryFilter\">\n" +
+            "        <Add name=\"FromSeverityLevel\" value=\"WARN\"/>\n" +
+            "      </Processor>\n" +
+            "    </BuiltInProcessors>\n" +
+            "  </TelemetryProcessors>\n" +
+            "  <PerformanceCounters>\n" +
+            "    <UseBuiltIn>False</UseBuiltIn>\n" +
+            "  </PerformanceCounters>\n" +
+            "  <QuickPulse enabled=\"false\"/>\n" +
+            "</ApplicationInsights>\n";
+
+    @Param({"false", "true"})
+    public String snapshot;
+
+    private TelemetryConfiguration configuration;
+
+    @Setup
+    public void setUp() throws IOException {
+        File configurationFolder = new File(System.getProperty("java.io.tmpdir"), "ai-configuration-benchmark");
+        if (!configurationFolder.isDirectory() && !configurationFolder.mkdirs()) {
+            throw new IOException("Failed to create " + configurationFolder);
+        }
+        try (OutputStream output = new FileOutputStream(new File(configurationFolder, "ApplicationInsights.xml"))) {
+            output.write(CONFIGURATION_XML.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Read when TelemetryConfigurationFactory is first used, which is in the benchmark
+        System.setProperty(ConfigurationFileLocator.CONFIG_DIR_PROPERTY, configurationFolder.getAbsolutePath());
+        System.setProperty(TelemetryConfigurationFactory.CONFIGURATION_SNAPSHOT_ENABLED_PROPERTY, snapshot);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (configuration != null) {
+            configuration.getChannel().stop(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Benchmark
+    public TelemetryConfiguration createConfiguration() {
+        configuration = TelemetryConfiguration.createDefault();
+        return configuration;
+    }
+}
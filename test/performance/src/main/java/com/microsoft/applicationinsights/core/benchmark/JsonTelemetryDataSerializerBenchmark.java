@@ -0,0 +1,114 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.core.benchmark;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.util.ReusableByteArrayOutputStream;
+import com.microsoft.applicationinsights.internal.util.Utf8Writer;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.SeverityLevel;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of one telemetry item per schemav2 data type into a reused UTF-8 buffer, the same way
+ * the in-process channel does it.
+ *
+ * Run with the GC profiler to see the allocation rate per item:
+ * gradlew :test:performance:jmh -PjmhArgs="JsonTelemetryDataSerializerBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonTelemetryDataSerializerBenchmark {
+    private static final String INSTRUMENTATION_KEY = "00000000-0000-0000-0000-000000000000";
+
+    @Param({"RequestData", "RemoteDependencyData", "ExceptionData", "MessageData", "MetricData"})
+    public String dataType;
+
+    private Telemetry telemetry;
+    private ReusableByteArrayOutputStream bytes;
+    private Utf8Writer writer;
+    private JsonTelemetryDataSerializer serializer;
+
+    @Setup
+    public void setUp() throws IOException {
+        if ("RequestData".equals(dataType)) {
+            RequestTelemetry request = new RequestTelemetry("GET /api/orders", new Date(), 123L, "200", true);
+            request.setUrl("http://localhost:8080/api/orders?id=42");
+            telemetry = request;
+        } else if ("RemoteDependencyData".equals(dataType)) {
+            RemoteDependencyTelemetry dependency = new RemoteDependencyTelemetry("SQL", "SELECT * FROM orders WHERE id = ?", new Duration(45), true);
+            dependency.setType("SQL");
+            dependency.setTarget("orders-db");
+            telemetry = dependency;
+        } else if ("ExceptionData".equals(dataType)) {
+            telemetry = new ExceptionTelemetry(new IllegalStateException("Order \"42\" was not found\n\tin the cache"));
+        } else if ("MessageData".equals(dataType)) {
+            telemetry = new TraceTelemetry("Processed order 42 in 12.5 ms", SeverityLevel.Information);
+        } else {
+            telemetry = new MetricTelemetry("Queue length", 42.5);
+        }
+
+        telemetry.setTimestamp(new Date());
+        telemetry.getContext().setInstrumentationKey(INSTRUMENTATION_KEY);
+        telemetry.getContext().getOperation().setId("4bf92f3577b34da6a3ce929d0e0e4736");
+        telemetry.getProperties().put("tenant", "contoso");
+        telemetry.getProperties().put("region", "west-europe");
+
+        bytes = new ReusableByteArrayOutputStream(2048, 64 * 1024);
+        writer = new Utf8Writer(bytes);
+        serializer = new JsonTelemetryDataSerializer(writer);
+    }
+
+    @Benchmark
+    public int serialize() throws IOException {
+        bytes.reset();
+        writer.reset(bytes);
+        serializer.reset(writer);
+        telemetry.serialize(serializer);
+        serializer.close();
+        return bytes.size();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.core.benchmark;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Many request threads adding successful requests to Live Metrics at once,
+ * through {@link QuickPulseDataCollector} with its striped counters and duration histogram,
+ * next to the single packed AtomicLong that used to hold the count and the duration.
+ * The collector also checks the instrumentation key of each request, which the packed baseline does not.
+ *
+ * Run with '-t 1' and with '-t' set to the number of cores to see how each one scales.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class QuickPulseCountersBenchmark {
+    private static final String INSTRUMENTATION_KEY = "benchmark-instrumentation-key";
+
+    private final AtomicLong requestsAndDurations = new AtomicLong();
+    private final AtomicInteger unsuccessfulRequests = new AtomicInteger();
+
+    private RequestTelemetry request;
+
+    @Setup
+    public void setUp() {
+        request = new RequestTelemetry("benchmark-request", new Date(), 42L, "200", true);
+        request.getContext().setInstrumentationKey(INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.enable(INSTRUMENTATION_KEY);
+    }
+
+    @TearDown
+    public void tearDown() {
+        QuickPulseDataCollector.INSTANCE.disable();
+    }
+
+    @Benchmark
+    public void stripedCounters() {
+        QuickPulseDataCollector.INSTANCE.add(request);
+    }
+
+    @Benchmark
+    public void packedAtomicLong() {
+        long duration = request.getDuration().getTotalMilliseconds();
+        requestsAndDurations.addAndGet((1L << 44) + duration);
+        if (!request.isSuccess()) {
+            unsuccessfulRequests.incrementAndGet();
+        }
+    }
+}
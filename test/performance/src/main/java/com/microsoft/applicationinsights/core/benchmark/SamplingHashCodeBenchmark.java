@@ -0,0 +1,111 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.core.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.channel.samplingV2.SamplingScoreGeneratorV2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link SamplingScoreGeneratorV2#getSamplingHashCode(String)} over the operation ids the SDK sees,
+ * next to the hash of the repeated input built with a StringBuilder, which is how it used to be computed.
+ *
+ * Run with '-prof gc' to see the allocation rate of each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SamplingHashCodeBenchmark {
+    private static final int NUMBER_OF_IDS = 1024;
+
+    @Param({"short", "numeric", "guid", "requestId"})
+    public String idType;
+
+    private final String[] ids = new String[NUMBER_OF_IDS];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < NUMBER_OF_IDS; ++i) {
+            ids[i] = createId(random);
+        }
+    }
+
+    @Benchmark
+    public int samplingHashCode() {
+        return SamplingScoreGeneratorV2.getSamplingHashCode(nextId());
+    }
+
+    @Benchmark
+    public int repeatedInputHashCode() {
+        String input = nextId();
+        StringBuilder inputBuilder = new StringBuilder(input);
+        while (inputBuilder.length() < 8) {
+            inputBuilder.append(input);
+        }
+
+        int hash = 5381;
+        for (int i = 0; i < inputBuilder.length(); ++i) {
+            hash = ((hash << 5) + hash) + (int) inputBuilder.charAt(i);
+        }
+
+        return hash == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(hash);
+    }
+
+    private String nextId() {
+        next = (next + 1) & (NUMBER_OF_IDS - 1);
+        return ids[next];
+    }
+
+    private String createId(Random random) {
+        switch (idType) {
+            case "short":
+                return Integer.toString(random.nextInt(1000));
+
+            case "numeric":
+                return Long.toString(random.nextLong());
+
+            case "guid":
+                return String.format("%016x%016x", random.nextLong(), random.nextLong());
+
+            default:
+                // Hierarchical request id, |<trace id>.<span id>.
+                return String.format("|%016x%016x.%016x.", random.nextLong(), random.nextLong(), random.nextLong());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.core.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.processor.ExceptionDeduplicationFilter;
+import com.microsoft.applicationinsights.internal.processor.MetricTelemetryFilter;
+import com.microsoft.applicationinsights.internal.processor.PageViewTelemetryFilter;
+import com.microsoft.applicationinsights.internal.processor.RequestTelemetryFilter;
+import com.microsoft.applicationinsights.internal.processor.SyntheticSourceFilter;
+import com.microsoft.applicationinsights.internal.processor.TelemetryEventFilter;
+import com.microsoft.applicationinsights.internal.processor.TelemetryProcessorChain;
+import com.microsoft.applicationinsights.internal.processor.TraceTelemetryFilter;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A trace and a request going through a configuration of 10 processors, each kept by all of them.
+ * The compiled chain only passes each to the processors of its type, the linear loop passes each to all of them,
+ * as the telemetry client did before.
+ *
+ * The request filter is also measured next to the parsing and range scan it did before the response code bit set.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TelemetryProcessorChainBenchmark {
+
+    private final List<TelemetryProcessor> processors = new ArrayList<TelemetryProcessor>();
+    private TelemetryProcessorChain chain;
+    private TraceTelemetry trace;
+    private RequestTelemetry request;
+    private final Set<String> exactBadResponseCodes = new HashSet<String>();
+    private final int[][] ignoredRanges = {{300, 399}, {401, 403}, {405, 499}, {501, 599}};
+
+    @Setup
+    public void setUp() throws Throwable {
+        RequestTelemetryFilter requestCodes = new RequestTelemetryFilter();
+        requestCodes.setNotNeededResponseCodes("300-399, 401-403, 405-499, 501-599");
+        RequestTelemetryFilter requestDuration = new RequestTelemetryFilter();
+        requestDuration.setMinimumDurationInMS("5");
+        TraceTelemetryFilter traceSeverity = new TraceTelemetryFilter();
+        traceSeverity.setFromSeverityLevel("TRACE");
+        MetricTelemetryFilter metrics = new MetricTelemetryFilter();
+        metrics.setNotNeeded("Process CPU, Process Private Bytes");
+        PageViewTelemetryFilter pageViews = new PageViewTelemetryFilter();
+        pageViews.setNotNeededNames("health, status");
+        pageViews.setNotNeededUrls("/health, /status");
+        TelemetryEventFilter events = new TelemetryEventFilter();
+        events.setNotNeededNames("heartbeat");
+        ExceptionDeduplicationFilter exceptions = new ExceptionDeduplicationFilter();
+        SyntheticSourceFilter synthetic = new SyntheticSourceFilter();
+        synthetic.setNotNeededSources("Application Insights Availability Monitoring");
+        MetricTelemetryFilter moreMetrics = new MetricTelemetryFilter();
+        moreMetrics.setNotNeeded("Threads");
+        TelemetryEventFilter moreEvents = new TelemetryEventFilter();
+        moreEvents.setNotNeededNames("ping");
+
+        processors.add(requestCodes);
+        processors.add(requestDuration);
+        processors.add(traceSeverity);
+        processors.add(metrics);
+        processors.add(pageViews);
+        processors.add(events);
+        processors.add(exceptions);
+        processors.add(synthetic);
+        processors.add(moreMetrics);
+        processors.add(moreEvents);
+        chain = TelemetryProcessorChain.compile(processors);
+
+        trace = new TraceTelemetry("message");
+        request = new RequestTelemetry();
+        request.setResponseCode("404");
+        request.setDuration(new Duration(20));
+    }
+
+    @Benchmark
+    public boolean traceCompiledChain() {
+        return processCompiled(trace);
+    }
+
+    @Benchmark
+    public boolean traceLinear() {
+        return processLinear(trace);
+    }
+
+    @Benchmark
+    public boolean requestCompiledChain() {
+        return processCompiled(request);
+    }
+
+    @Benchmark
+    public boolean requestLinear() {
+        return processLinear(request);
+    }
+
+    @Benchmark
+    public boolean requestFilter() {
+        return processors.get(0).process(request);
+    }
+
+    @Benchmark
+    public boolean requestFilterRangeScan() {
+        if (exactBadResponseCodes.contains(request.getResponseCode())) {
+            return false;
+        }
+        int asInt = Integer.valueOf(request.getResponseCode());
+        for (int[] range : ignoredRanges) {
+            if (range[0] <= asInt && range[1] >= asInt) {
+                return false;
+            }
+        }
+        Duration requestDuration = request.getDuration();
+        return requestDuration == null || requestDuration.getTotalMilliseconds() >= 0;
+    }
+
+    private boolean processCompiled(Telemetry telemetry) {
+        for (TelemetryProcessor processor : chain.getProcessors(telemetry)) {
+            if (!processor.process(telemetry)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean processLinear(Telemetry telemetry) {
+        for (TelemetryProcessor processor : processors) {
+            if (!processor.process(telemetry)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
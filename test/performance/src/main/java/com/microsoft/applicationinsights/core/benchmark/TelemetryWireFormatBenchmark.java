@@ -0,0 +1,155 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.core.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.channel.concrete.localforwarder.LocalForwarderModelTransformer;
+import com.microsoft.applicationinsights.channel.concrete.localforwarder.LocalForwarderTelemetrySerializer;
+import com.microsoft.applicationinsights.internal.channel.common.GzipTelemetrySerializer;
+import com.microsoft.applicationinsights.internal.util.ReusableByteArrayOutputStream;
+import com.microsoft.applicationinsights.internal.util.Utf8Writer;
+import com.microsoft.applicationinsights.telemetry.BaseTelemetry;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.SeverityLevel;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import com.microsoft.localforwarder.library.inputs.contracts.Telemetry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Turns a batch of telemetry items into the transmission that is saved to the disk, once as the in-process
+ * channel does it (Json lines compressed by Gzip) and once as the local forwarder channel does it
+ * (protobuf messages compressed by Gzip).
+ *
+ * The time per batch is the CPU comparison, the sizes of both transmissions are printed at setup:
+ * gradlew :test:performance:jmh -PjmhArgs="TelemetryWireFormatBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TelemetryWireFormatBenchmark {
+    private static final String INSTRUMENTATION_KEY = "00000000-0000-0000-0000-000000000000";
+
+    @Param({"10", "500"})
+    public int batchSize;
+
+    private List<BaseTelemetry<?>> telemetries;
+    private ReusableByteArrayOutputStream bytes;
+    private Utf8Writer writer;
+    private JsonTelemetryDataSerializer jsonSerializer;
+    private GzipTelemetrySerializer gzipSerializer;
+    private LocalForwarderTelemetrySerializer protobufSerializer;
+
+    @Setup
+    public void setUp() throws IOException {
+        telemetries = new ArrayList<BaseTelemetry<?>>(batchSize);
+        for (int i = 0; i < batchSize; ++i) {
+            telemetries.add(createTelemetry(i));
+        }
+
+        bytes = new ReusableByteArrayOutputStream(2048, 64 * 1024);
+        writer = new Utf8Writer(bytes);
+        jsonSerializer = new JsonTelemetryDataSerializer(writer);
+        gzipSerializer = new GzipTelemetrySerializer();
+        protobufSerializer = new LocalForwarderTelemetrySerializer();
+
+        System.out.printf("%nBatch of %d items: json %d bytes, protobuf %d bytes%n", batchSize, json(), protobuf());
+    }
+
+    @Benchmark
+    public int json() throws IOException {
+        List<byte[]> serialized = new ArrayList<byte[]>(telemetries.size());
+        for (BaseTelemetry<?> telemetry : telemetries) {
+            bytes.reset();
+            writer.reset(bytes);
+            jsonSerializer.reset(writer);
+            telemetry.serialize(jsonSerializer);
+            jsonSerializer.close();
+            serialized.add(bytes.toByteArray());
+        }
+        return gzipSerializer.serialize(serialized).get().getContent().length;
+    }
+
+    @Benchmark
+    public int protobuf() {
+        List<Telemetry> transformed = new ArrayList<Telemetry>(telemetries.size());
+        for (BaseTelemetry<?> telemetry : telemetries) {
+            transformed.add(LocalForwarderModelTransformer.transform(telemetry));
+        }
+        return protobufSerializer.serialize(transformed).get().getContent().length;
+    }
+
+    private static BaseTelemetry<?> createTelemetry(int i) {
+        BaseTelemetry<?> telemetry;
+        switch (i % 5) {
+            case 0:
+                RequestTelemetry request = new RequestTelemetry("GET /api/orders", new Date(), 123L + i, "200", true);
+                request.setUrl("http://localhost:8080/api/orders?id=" + i);
+                telemetry = request;
+                break;
+            case 1:
+                RemoteDependencyTelemetry dependency = new RemoteDependencyTelemetry("SQL", "SELECT * FROM orders WHERE id = ?", new Duration(45 + i), true);
+                dependency.setType("SQL");
+                dependency.setTarget("orders-db");
+                telemetry = dependency;
+                break;
+            case 2:
+                telemetry = new ExceptionTelemetry(new IllegalStateException("Order \"" + i + "\" was not found\n\tin the cache"));
+                break;
+            case 3:
+                telemetry = new TraceTelemetry("Processed order " + i + " in 12.5 ms", SeverityLevel.Information);
+                break;
+            default:
+                telemetry = new MetricTelemetry("Queue length", i);
+                break;
+        }
+
+        telemetry.setTimestamp(new Date());
+        telemetry.getContext().setInstrumentationKey(INSTRUMENTATION_KEY);
+        telemetry.getContext().getOperation().setId("4bf92f3577b34da6a3ce929d0e0e4736");
+        telemetry.getProperties().put("tenant", "contoso");
+        telemetry.getProperties().put("region", "west-europe");
+        return telemetry;
+    }
+}
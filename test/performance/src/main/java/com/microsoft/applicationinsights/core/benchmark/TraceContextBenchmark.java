@@ -0,0 +1,133 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.core.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.web.internal.correlation.tracecontext.TraceIds;
+import com.microsoft.applicationinsights.web.internal.correlation.tracecontext.Traceparent;
+import com.microsoft.applicationinsights.web.internal.correlation.tracecontext.Tracestate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The trace context work done for each request and each outgoing call: parsing the inbound traceparent
+ * and tracestate headers, creating the id of a child and injecting the outbound traceparent header.
+ * Each is measured next to the split, String.format and UUID based code it replaces.
+ *
+ * Run with '-prof gc' to see the allocation rate of each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceContextBenchmark {
+
+    private final String traceparent = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+    private final String tracestate = "az=cid-v1:120, congo=t61rcWkgMzE,rojo@vendor=00f067aa0ba902b7";
+    private final String traceId = "0af7651916cd43dd8448eb211c80319c";
+
+    @Benchmark
+    public Traceparent inboundParse() {
+        return Traceparent.fromString(traceparent);
+    }
+
+    @Benchmark
+    public String[] inboundParseSplit() {
+        String[] fields = traceparent.split("-");
+        if (fields.length < 4 || !isHex(fields[0], 2) || !isHex(fields[1], 32) || !isHex(fields[2], 16)
+            || !isHex(fields[3], 2) || fields[1].equals("00000000000000000000000000000000")) {
+            return null;
+        }
+        return fields;
+    }
+
+    @Benchmark
+    public Tracestate inboundTracestate() {
+        return new Tracestate(tracestate);
+    }
+
+    @Benchmark
+    public String childRequestId() {
+        return new Traceparent(0, traceId, null, 1).toRequestId();
+    }
+
+    @Benchmark
+    public String childRequestIdFormat() {
+        return "|" + traceId + "." + randomHexFormat(8) + ".";
+    }
+
+    @Benchmark
+    public String outboundHeader() {
+        return new Traceparent(0, traceId, null, 1).toString();
+    }
+
+    @Benchmark
+    public String outboundHeaderFormat() {
+        return String.format("%02x-%s-%s-%02x", 0, traceId, randomHexFormat(8), 1);
+    }
+
+    @Benchmark
+    public String rootId() {
+        return TraceIds.randomTraceId();
+    }
+
+    @Benchmark
+    public String rootIdUuid() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    private static String randomHexFormat(int n) {
+        byte[] bytes = new byte[n];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static boolean isHex(String s, int n) {
+        if (s.length() != n) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
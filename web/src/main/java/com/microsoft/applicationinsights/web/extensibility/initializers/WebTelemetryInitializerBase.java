@@ -23,6 +23,8 @@ package com.microsoft.applicationinsights.web.extensibility.initializers;
 
 import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.web.internal.RequestTagSnapshot;
+import com.microsoft.applicationinsights.web.internal.RequestTelemetryContext;
 import com.microsoft.applicationinsights.web.internal.ThreadContext;
 
 /**
@@ -36,9 +38,20 @@ public abstract class WebTelemetryInitializerBase implements TelemetryInitialize
      */
     @Override
     public void initialize(Telemetry telemetry) {
+        RequestTelemetryContext context = ThreadContext.getRequestTelemetryContext();
 
         // Some threads may not have TLS initialized, such as performance counters mechanism threads.
-        if (ThreadContext.getRequestTelemetryContext() == null) {
+        if (context == null) {
+            return;
+        }
+
+        // When the request level tags were captured at the start of the request,
+        // they are all stamped at once by the first of the initializers they cover.
+        RequestTagSnapshot snapshot = context.getTagSnapshot();
+        if (snapshot != null && snapshot.covers(this)) {
+            if (snapshot.isStampedBy(this)) {
+                snapshot.stamp(telemetry);
+            }
             return;
         }
 
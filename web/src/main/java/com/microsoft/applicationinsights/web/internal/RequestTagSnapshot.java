@@ -0,0 +1,203 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.web.internal;
+
+import com.microsoft.applicationinsights.common.CommonUtils;
+import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
+import com.microsoft.applicationinsights.extensibility.context.ContextTagKeys;
+import com.microsoft.applicationinsights.internal.util.MapUtil;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.web.extensibility.initializers.WebOperationIdTelemetryInitializer;
+import com.microsoft.applicationinsights.web.extensibility.initializers.WebSessionTelemetryInitializer;
+import com.microsoft.applicationinsights.web.extensibility.initializers.WebUserAgentTelemetryInitializer;
+import com.microsoft.applicationinsights.web.extensibility.initializers.WebUserTelemetryInitializer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable copy of the request level tags that the web telemetry initializers put on the telemetry
+ * items sent while a request is processed.
+ *
+ * The snapshot is taken once, after the web modules have handled the beginning of the request, and is then
+ * stamped onto each item in a single step by the first of the covered initializers, instead of having every
+ * initializer read the request telemetry again for every item.
+ *
+ * Only initializers of the exact built-in types are covered, so subclasses keep running their own code.
+ * The operation name is not part of the snapshot since it may still be changed later in the request,
+ * for example by the Spring and Struts interceptors.
+ */
+public final class RequestTagSnapshot {
+
+    private final TelemetryInitializer[] coveredInitializers;
+
+    private final boolean stampOperation;
+    private final boolean stampSession;
+    private final boolean stampUser;
+    private final boolean stampUserAgent;
+
+    private final String requestId;
+    private final String operationId;
+    private final Map<String, String> correlationProperties;
+    private final String sessionId;
+    private final String sessionIsFirst;
+    private final String userId;
+    private final String userAcquisitionDate;
+    private final String userAgent;
+
+    private RequestTagSnapshot(TelemetryInitializer[] coveredInitializers, boolean stampOperation, boolean stampSession,
+                               boolean stampUser, boolean stampUserAgent, RequestTelemetryContext context) {
+        this.coveredInitializers = coveredInitializers;
+        this.stampOperation = stampOperation;
+        this.stampSession = stampSession;
+        this.stampUser = stampUser;
+        this.stampUserAgent = stampUserAgent;
+
+        RequestTelemetry requestTelemetry = context.getHttpRequestTelemetry();
+        Map<String, String> tags = requestTelemetry.getContext().getTags();
+        ContextTagKeys keys = ContextTagKeys.getKeys();
+
+        requestId = requestTelemetry.getId();
+        operationId = tags.get(keys.getOperationId());
+        Map<String, String> mappings = context.getCorrelationContext().getMappings();
+        correlationProperties = mappings.isEmpty()
+            ? Collections.<String, String>emptyMap()
+            : Collections.unmodifiableMap(new HashMap<String, String>(mappings));
+        sessionId = tags.get(keys.getSessionId());
+        sessionIsFirst = tags.get(keys.getSessionIsFirst());
+        userId = tags.get(keys.getUserId());
+        userAcquisitionDate = tags.get(keys.getUserAccountAcquisitionDate());
+        userAgent = tags.get(keys.getUserAgent());
+    }
+
+    /**
+     * Takes the snapshot of the given request for the web initializers found in the given list.
+     * @param context The context of the request, after the web modules have handled its beginning.
+     * @param initializers The configured telemetry initializers.
+     * @return The snapshot, or null if none of the configured initializers can be covered by it.
+     */
+    public static RequestTagSnapshot capture(RequestTelemetryContext context, List<TelemetryInitializer> initializers) {
+        List<TelemetryInitializer> covered = new ArrayList<TelemetryInitializer>(4);
+        boolean stampOperation = false;
+        boolean stampSession = false;
+        boolean stampUser = false;
+        boolean stampUserAgent = false;
+        for (TelemetryInitializer initializer : initializers) {
+            Class<?> type = initializer.getClass();
+            if (type == WebOperationIdTelemetryInitializer.class) {
+                stampOperation = true;
+            } else if (type == WebSessionTelemetryInitializer.class) {
+                stampSession = true;
+            } else if (type == WebUserTelemetryInitializer.class) {
+                stampUser = true;
+            } else if (type == WebUserAgentTelemetryInitializer.class) {
+                stampUserAgent = true;
+            } else {
+                continue;
+            }
+            covered.add(initializer);
+        }
+
+        if (covered.isEmpty()) {
+            return null;
+        }
+
+        return new RequestTagSnapshot(covered.toArray(new TelemetryInitializer[covered.size()]),
+            stampOperation, stampSession, stampUser, stampUserAgent, context);
+    }
+
+    /**
+     * Gets a value indicating whether the given initializer's work is done by this snapshot.
+     * @param initializer The initializer.
+     * @return True if the initializer should not initialize telemetry items by itself.
+     */
+    public boolean covers(TelemetryInitializer initializer) {
+        for (TelemetryInitializer covered : coveredInitializers) {
+            if (covered == initializer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets a value indicating whether the given initializer is the one stamping the snapshot,
+     * that is the first of the covered initializers in the configuration.
+     * @param initializer The initializer.
+     * @return True if the initializer should call {@link #stamp(Telemetry)}.
+     */
+    public boolean isStampedBy(TelemetryInitializer initializer) {
+        return coveredInitializers[0] == initializer;
+    }
+
+    /**
+     * Puts the request level tags on the given telemetry, the same way the covered initializers would.
+     * @param telemetry The telemetry to initialize.
+     */
+    public void stamp(Telemetry telemetry) {
+        ConcurrentMap<String, String> tags = telemetry.getContext().getTags();
+        ContextTagKeys keys = ContextTagKeys.getKeys();
+
+        if (stampOperation) {
+            if (CommonUtils.isNullOrEmpty(operationId)) {
+                // no current operation, use the generic id of the request
+                MapUtil.setStringValueOrRemove(tags, keys.getOperationId(), requestId);
+            } else {
+                if (CommonUtils.isNullOrEmpty(tags.get(keys.getOperationId()))) {
+                    tags.put(keys.getOperationId(), operationId);
+                }
+                if (CommonUtils.isNullOrEmpty(tags.get(keys.getOperationParentId()))) {
+                    MapUtil.setStringValueOrRemove(tags, keys.getOperationParentId(), requestId);
+                }
+                if (!correlationProperties.isEmpty()) {
+                    Map<String, String> properties = telemetry.getProperties();
+                    for (Map.Entry<String, String> entry : correlationProperties.entrySet()) {
+                        if (properties.get(entry.getKey()) == null) {
+                            properties.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+            }
+        }
+
+        if (stampSession && CommonUtils.isNullOrEmpty(tags.get(keys.getSessionId()))) {
+            MapUtil.setStringValueOrRemove(tags, keys.getSessionId(), sessionId);
+            if (sessionIsFirst != null) {
+                tags.put(keys.getSessionIsFirst(), sessionIsFirst);
+            }
+        }
+
+        if (stampUser && CommonUtils.isNullOrEmpty(tags.get(keys.getUserId()))) {
+            MapUtil.setStringValueOrRemove(tags, keys.getUserId(), userId);
+            MapUtil.setStringValueOrRemove(tags, keys.getUserAccountAcquisitionDate(), userAcquisitionDate);
+        }
+
+        if (stampUserAgent) {
+            MapUtil.setStringValueOrRemove(tags, keys.getUserAgent(), userAgent);
+        }
+    }
+}
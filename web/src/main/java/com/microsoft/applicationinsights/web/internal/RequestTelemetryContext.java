@@ -44,6 +44,7 @@ public class RequestTelemetryContext {
     private Tracestate tracestate;
     private int traceflag;
     private final AtomicInteger currentChildId = new AtomicInteger();
+    private volatile RequestTagSnapshot tagSnapshot;
 
     /**
      * Constructs new RequestTelemetryContext object.
@@ -158,6 +159,22 @@ public class RequestTelemetryContext {
         return servletRequest;
     }
 
+    /**
+     * Gets the snapshot of the request level tags, if one was taken when the request started.
+     * @return The tag snapshot, or null if the web initializers should read the request telemetry themselves.
+     */
+    public RequestTagSnapshot getTagSnapshot() {
+        return tagSnapshot;
+    }
+
+    /**
+     * Sets the snapshot of the request level tags.
+     * @param tagSnapshot The tag snapshot.
+     */
+    public void setTagSnapshot(RequestTagSnapshot tagSnapshot) {
+        this.tagSnapshot = tagSnapshot;
+    }
+
     /**
      * @return the currentChildId
      */
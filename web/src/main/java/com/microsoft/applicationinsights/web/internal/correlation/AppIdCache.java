@@ -0,0 +1,282 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.web.internal.correlation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.web.internal.correlation.CdsProfileFetcher.CdsRetryPolicy;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * Caches the appIds resolved for instrumentation keys, without ever making the calling thread wait for a resolution.
+ *
+ * A resolved appId is served as is until it is older than the refresh interval. It is then served stale while
+ * the profile fetcher, which resolves asynchronously, is polled again for a new value. Only one caller at a time
+ * polls the fetcher for a given instrumentation key; the others are served what the cache holds, which is null
+ * until the first resolution completes.
+ *
+ * A failed resolution is retried instantly a few times, and then after a backoff that doubles with every failure.
+ * The backoff is jittered, so that instances which started failing together do not retry together.
+ *
+ * When given a file, resolved appIds are written to it in the background and read back when the cache is created,
+ * so that correlation works as soon as the application restarts. Those are refreshed on first use.
+ */
+final class AppIdCache {
+    static final long DEFAULT_REFRESH_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final int MAX_INSTANT_RETRIES = CdsRetryPolicy.DEFAULT_MAX_INSTANT_RETRIES;
+    static final long MIN_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(CdsRetryPolicy.DEFAULT_RESET_PERIOD_IN_MINUTES);
+
+    private static final String CorrelationIdFormat = "cid-v1:%s";
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long refreshIntervalMillis;
+    private final File persistenceFile;
+    private final Executor persistenceExecutor;
+    private final AtomicBoolean persistScheduled = new AtomicBoolean();
+
+    AppIdCache() {
+        this(DEFAULT_REFRESH_INTERVAL_MILLIS, null, null);
+    }
+
+    /**
+     * @param refreshIntervalMillis How long a resolved appId is served before it is refreshed.
+     * @param persistenceFile The file resolved appIds are written to and read from, or null to keep them in memory only.
+     * @param persistenceExecutor Runs the writes to {@code persistenceFile}. Not used if {@code persistenceFile} is null.
+     */
+    AppIdCache(long refreshIntervalMillis, File persistenceFile, Executor persistenceExecutor) {
+        if (refreshIntervalMillis < 1) {
+            throw new IllegalArgumentException("refreshIntervalMillis should be positive");
+        }
+        if (persistenceFile != null && persistenceExecutor == null) {
+            throw new IllegalArgumentException("persistenceExecutor must be not null when persistenceFile is set");
+        }
+
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.persistenceFile = persistenceFile;
+        this.persistenceExecutor = persistenceExecutor;
+
+        if (persistenceFile != null) {
+            load();
+        }
+    }
+
+    /**
+     * @param instrumentationKey The instrumentation key.
+     * @param fetcher The fetcher polled when the appId is missing or due for a refresh.
+     * @param nowMillis The current time in milliseconds.
+     * @return The correlation id (i.e. "cid-v1:" followed by the appId) of the instrumentation key,
+     *         or null if it has not been resolved yet.
+     */
+    String get(String instrumentationKey, AppProfileFetcher fetcher, long nowMillis) {
+        Entry entry = entries.get(instrumentationKey);
+        if (entry == null) {
+            Entry newEntry = new Entry();
+            entry = entries.putIfAbsent(instrumentationKey, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+
+        // fresh, backing off after failures, or another thread is already polling
+        if (nowMillis < entry.nextFetchTime || !entry.fetching.compareAndSet(false, true)) {
+            return entry.correlationId;
+        }
+
+        try {
+            ProfileFetcherResult result = fetcher.fetchAppProfile(instrumentationKey);
+            switch (result.getStatus()) {
+                case PENDING:
+                    InternalLogger.INSTANCE.trace("InstrumentationKeyResolver - pending resolution of instrumentation key: %s", instrumentationKey);
+                    break;
+                case FAILED:
+                    InternalLogger.INSTANCE.error("InstrumentationKeyResolver - failed to resolve instrumentation key: %s", instrumentationKey);
+                    onFailure(entry, nowMillis);
+                    break;
+                case COMPLETE:
+                    InternalLogger.INSTANCE.trace("InstrumentationKeyResolver - successfully resolved instrumentation key: %s", instrumentationKey);
+                    onSuccess(entry, result.getAppId(), nowMillis);
+                    break;
+                default:
+                    InternalLogger.INSTANCE.error("InstrumentationKeyResolver - unexpected status. Instrumentation key: %s", instrumentationKey);
+                    break;
+            }
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.error("InstrumentationKeyResolver - failed to resolve instrumentation key: %s => Exception: %s", instrumentationKey, e);
+            InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(e));
+            onFailure(entry, nowMillis);
+        } finally {
+            entry.fetching.set(false);
+        }
+
+        return entry.correlationId;
+    }
+
+    void clear() {
+        entries.clear();
+        schedulePersist();
+    }
+
+    private void onSuccess(Entry entry, String appId, long nowMillis) {
+        boolean changed = entry.appId == null || !entry.appId.equals(appId);
+
+        entry.setAppId(appId);
+        entry.failures = 0;
+        entry.nextFetchTime = nowMillis + refreshIntervalMillis;
+
+        if (changed) {
+            schedulePersist();
+        }
+    }
+
+    private static void onFailure(Entry entry, long nowMillis) {
+        int failures = ++entry.failures;
+        if (failures > MAX_INSTANT_RETRIES) {
+            entry.nextFetchTime = nowMillis + backoffMillis(failures - MAX_INSTANT_RETRIES);
+        }
+    }
+
+    /**
+     * @param backoffCount 1 for the first failure after the instant retries, 2 for the next one, and so on.
+     * @return A delay between half and all of {@link #MIN_BACKOFF_MILLIS} doubled {@code backoffCount - 1} times,
+     *         capped to {@link #MAX_BACKOFF_MILLIS}.
+     */
+    /*@VisibleForTesting*/
+    static long backoffMillis(int backoffCount) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(backoffCount - 1, 30));
+        long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+    }
+
+    private void load() {
+        if (!persistenceFile.isFile()) {
+            return;
+        }
+
+        Properties appIds = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(persistenceFile), StandardCharsets.UTF_8)) {
+            appIds.load(reader);
+        } catch (IOException | IllegalArgumentException e) {
+            InternalLogger.INSTANCE.warn("Failed to read appIds from '%s': %s", persistenceFile, ExceptionUtils.getStackTrace(e));
+            return;
+        }
+
+        for (String instrumentationKey : appIds.stringPropertyNames()) {
+            String appId = appIds.getProperty(instrumentationKey);
+            if (!instrumentationKey.isEmpty() && !appId.isEmpty()) {
+                Entry entry = new Entry();
+                entry.setAppId(appId);
+                entries.put(instrumentationKey, entry);
+            }
+        }
+        InternalLogger.INSTANCE.trace("Read %d appIds from '%s'", entries.size(), persistenceFile);
+    }
+
+    private void schedulePersist() {
+        if (persistenceFile == null || !persistScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            persistenceExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // cleared first, so that a change made while writing schedules another write
+                    persistScheduled.set(false);
+                    persist();
+                }
+            });
+        } catch (RuntimeException e) {
+            persistScheduled.set(false);
+            InternalLogger.INSTANCE.warn("Failed to schedule writing appIds to '%s': %s", persistenceFile, e.toString());
+        }
+    }
+
+    private void persist() {
+        Properties appIds = new Properties();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            String appId = entry.getValue().appId;
+            if (appId != null) {
+                appIds.setProperty(entry.getKey(), appId);
+            }
+        }
+
+        File folder = persistenceFile.getParentFile();
+        if (folder != null && !folder.isDirectory() && !folder.mkdirs()) {
+            InternalLogger.INSTANCE.warn("Failed to create appIds folder '%s'", folder);
+            return;
+        }
+
+        File tempFile = null;
+        try {
+            // Written aside and renamed, so that another process starting at the same time never reads half a file
+            tempFile = File.createTempFile("appIds", ".tmp", folder);
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+                appIds.store(writer, null);
+            }
+            if (!tempFile.renameTo(persistenceFile) && !(persistenceFile.delete() && tempFile.renameTo(persistenceFile))) {
+                InternalLogger.INSTANCE.warn("Failed to move appIds to '%s'", persistenceFile);
+            }
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.warn("Failed to write appIds to '%s': %s", persistenceFile, ExceptionUtils.getStackTrace(e));
+        } finally {
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+                InternalLogger.INSTANCE.trace("Failed to delete '%s'", tempFile);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final AtomicBoolean fetching = new AtomicBoolean();
+
+        volatile String appId;
+        volatile String correlationId;
+
+        // next time the fetcher may be polled; 0 until resolved, so that every caller polls while the resolution is pending
+        volatile long nextFetchTime;
+
+        // only accessed by the thread polling the fetcher
+        int failures;
+
+        void setAppId(String appId) {
+            this.appId = appId;
+            this.correlationId = String.format(CorrelationIdFormat, appId);
+        }
+    }
+}
@@ -21,7 +21,6 @@
 
 package com.microsoft.applicationinsights.web.internal.correlation;
 
-import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
 import com.microsoft.applicationinsights.internal.util.PeriodicTaskPool;
 import com.microsoft.applicationinsights.internal.util.SSLOptionsUtil;
@@ -54,11 +53,7 @@ public class CdsProfileFetcher implements AppProfileFetcher {
     // cache of tasks per ikey
     /* Visible for Testing */ final ConcurrentMap<String, Future<HttpResponse>> tasks;
 
-    // failure counters per ikey
-    /* Visible for Testing */ final ConcurrentMap<String, Integer> failureCounters;
-
     private final PeriodicTaskPool taskThreadPool;
-    private final CdsRetryPolicy retryPolicy;
 
     public CdsProfileFetcher() {
         this(new CdsRetryPolicy());
@@ -66,7 +61,6 @@ public class CdsProfileFetcher implements AppProfileFetcher {
 
     public CdsProfileFetcher(CdsRetryPolicy retryPolicy) {
         taskThreadPool = new PeriodicTaskPool(1, CdsProfileFetcher.class.getSimpleName());
-        this.retryPolicy = retryPolicy;
 
         RequestConfig requestConfig = RequestConfig.custom()
                 .setSocketTimeout(5000)
@@ -86,7 +80,6 @@ public class CdsProfileFetcher implements AppProfileFetcher {
                 resetInterval, resetInterval, TimeUnit.MINUTES, "cdsRetryClearTask");
 
         this.tasks = new ConcurrentHashMap<>();
-        this.failureCounters = new ConcurrentHashMap<>();
         this.endpointAddress = DefaultProfileQueryEndpointAddress;
 
         taskThreadPool.executePeriodicRunnableTask(cdsRetryClearTask);
@@ -104,14 +97,6 @@ public class CdsProfileFetcher implements AppProfileFetcher {
 
         ProfileFetcherResult result = new ProfileFetcherResult(null, ProfileFetcherResultTaskStatus.PENDING);
 
-        // check if we have tried resolving this ikey too many times. If so, quit to save on perf.
-        if (failureCounters.containsKey(instrumentationKey) && failureCounters.get(instrumentationKey) >= retryPolicy.getMaxInstantRetries()) {
-            InternalLogger.INSTANCE.warn(String.format(
-                    "The profile fetch task will not execute for next %d minutes. Max number of retries reached.",
-                    retryPolicy.getResetPeriodInMinutes()));
-            return result;
-        }
-
         Future<HttpResponse> currentTask = this.tasks.get(instrumentationKey);
 
         // if no task currently exists for this ikey, then let's create one.
@@ -125,12 +110,12 @@ public class CdsProfileFetcher implements AppProfileFetcher {
             return result;
         }
 
-        // task is ready, we can call get() now.
+        // task is ready, we can call get() now. Failures are not counted here: they are reported as they
+        // happen, and the caller (i.e. AppIdCache) decides when to retry.
         try {
             HttpResponse response = currentTask.get();
 
             if (response.getStatusLine().getStatusCode() != 200) {
-                incrementFailureCount(instrumentationKey);
                 return new ProfileFetcherResult(null, ProfileFetcherResultTaskStatus.FAILED);
             }
 
@@ -138,16 +123,11 @@ public class CdsProfileFetcher implements AppProfileFetcher {
 
             //check for case when breeze returns invalid value
             if (appId == null || appId.isEmpty()) {
-                incrementFailureCount(instrumentationKey);
                 return new ProfileFetcherResult(null, ProfileFetcherResultTaskStatus.FAILED);
             }
 
             return new ProfileFetcherResult(appId, ProfileFetcherResultTaskStatus.COMPLETE);
 
-        } catch (Exception ex) {
-            incrementFailureCount(instrumentationKey);
-            throw ex;
-
         } finally {
             // remove task as we're done with it.
             this.tasks.remove(instrumentationKey);
@@ -171,13 +151,6 @@ public class CdsProfileFetcher implements AppProfileFetcher {
         return this.httpClient.execute(request, null);
     }
 
-    private void incrementFailureCount(String instrumentationKey) {
-        if (!this.failureCounters.containsKey(instrumentationKey)) {
-            this.failureCounters.put(instrumentationKey, 0);
-        }
-        this.failureCounters.put(instrumentationKey, this.failureCounters.get(instrumentationKey) + 1);
-    }
-
     @Override
     public void close() throws IOException {
         this.httpClient.close();
@@ -185,13 +158,12 @@ public class CdsProfileFetcher implements AppProfileFetcher {
     }
 
     /**
-     * Runnable that is used to clear the retry counters and pending unresolved tasks.
+     * Runnable that is used to clear the pending unresolved tasks.
      */
     private class CachePurgingRunnable implements Runnable {
         @Override
         public void run() {
             tasks.clear();
-            failureCounters.clear();
         }
     }
 
@@ -204,14 +176,18 @@ public class CdsProfileFetcher implements AppProfileFetcher {
         public static final int DEFAULT_RESET_PERIOD_IN_MINUTES = 240;
         /**
          * Maximum number of instant retries to CDS to resolve ikey to AppId.
+         * @deprecated Failures are no longer counted by the fetcher. The appId cache retries
+         *             {@link #DEFAULT_MAX_INSTANT_RETRIES} times, and then backs off.
          */
+        @Deprecated
         private int maxInstantRetries;
 
         /**
-         * The interval in minutes for retry counters and pending tasks to be cleaned.
+         * The interval in minutes for pending tasks to be cleaned.
          */
         private long resetPeriodInMinutes;
 
+        @Deprecated
         public int getMaxInstantRetries() {
             return maxInstantRetries;
         }
@@ -220,6 +196,7 @@ public class CdsProfileFetcher implements AppProfileFetcher {
             return resetPeriodInMinutes;
         }
 
+        @Deprecated
         public void setMaxInstantRetries(int maxInstantRetries) {
             if (maxInstantRetries < 1) {
                 throw new IllegalArgumentException("CDS maxInstantRetries should be at least 1");
@@ -21,23 +21,51 @@
 
 package com.microsoft.applicationinsights.web.internal.correlation;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.util.LocalFileSystemUtils;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
+/**
+ * Resolves instrumentation keys to the correlation ids of their applications.
+ * Resolution never blocks the calling thread, see {@link AppIdCache}.
+ */
 public enum InstrumentationKeyResolver {
     INSTANCE;
 
-    private static final String CorrelationIdFormat = "cid-v1:%s";
+    /**
+     * This enables writing resolved appIds to the temporary folder, so that they are known as soon as the application restarts.
+     * If set "true" (case insensitive) appIds will be written and read back on start. Otherwise (by default), they are only kept in memory.
+     */
+    public static final String APP_ID_PERSISTENCE_ENABLED_PROPERTY = "applicationinsights.correlation.appId.persistence.enabled";
+
+    private static final String APP_ID_PERSISTENCE_FOLDER = "correlation";
+    private static final String APP_ID_PERSISTENCE_FILE = "appIds.properties";
+
     private AppProfileFetcher profileFetcher;
-    private final ConcurrentMap<String, String> appIdCache;
+    private final AppIdCache appIdCache;
 
     InstrumentationKeyResolver() {
-        this.appIdCache = new ConcurrentHashMap<String, String>();
+        this.appIdCache = createAppIdCache();
         this.profileFetcher = new CdsProfileFetcher();
     }
 
+    private static AppIdCache createAppIdCache() {
+        if (!System.getProperty(APP_ID_PERSISTENCE_ENABLED_PROPERTY, "false").equalsIgnoreCase("true")) {
+            return new AppIdCache();
+        }
+
+        File persistenceFile = new File(new File(LocalFileSystemUtils.getTempDir(), APP_ID_PERSISTENCE_FOLDER), APP_ID_PERSISTENCE_FILE);
+        ExecutorService persistenceExecutor = Executors.newSingleThreadExecutor(ThreadPoolUtils.createDaemonThreadFactory(AppIdCache.class));
+        SDKShutdownActivity.INSTANCE.register(persistenceExecutor);
+        return new AppIdCache(AppIdCache.DEFAULT_REFRESH_INTERVAL_MILLIS, persistenceFile, persistenceExecutor);
+    }
+
     public void clearCache() {
         this.appIdCache.clear();
     }
@@ -57,20 +85,7 @@ public enum InstrumentationKeyResolver {
          }
 
         try {
-            String appId = this.appIdCache.get(instrumentationKey);
-
-            if (appId != null) {
-                return appId;
-            }
-
-            ProfileFetcherResult result = this.profileFetcher.fetchAppProfile(instrumentationKey);
-            appId = processResult(result, instrumentationKey);
-
-            if (appId != null) {
-                this.appIdCache.putIfAbsent(instrumentationKey, appId);
-            }
-
-            return appId;
+            return this.appIdCache.get(instrumentationKey, this.profileFetcher, System.currentTimeMillis());
         } catch (Exception e) {
             InternalLogger.INSTANCE.error("InstrumentationKeyResolver - failed to resolve instrumentation key: %s => Exception: %s", instrumentationKey, e);
             InternalLogger.INSTANCE.trace("Stack trace generated is %s", ExceptionUtils.getStackTrace(e));
@@ -78,27 +93,4 @@ public enum InstrumentationKeyResolver {
 
         return null;
     }
-
-    private String processResult(ProfileFetcherResult result, String instrumentationKey) {
-
-        String appId = null;
-
-        switch (result.getStatus()) {
-            case PENDING:
-                InternalLogger.INSTANCE.trace("InstrumentationKeyResolver - pending resolution of instrumentation key: %s", instrumentationKey);
-                break;
-            case FAILED:
-                InternalLogger.INSTANCE.error("InstrumentationKeyResolver - failed to resolve instrumentation key: %s", instrumentationKey);
-                break;
-            case COMPLETE:
-                InternalLogger.INSTANCE.trace("InstrumentationKeyResolver - successfully resolved instrumentation key: %s", instrumentationKey);
-                appId = String.format(CorrelationIdFormat, result.getAppId());
-                break;
-            default:
-                InternalLogger.INSTANCE.error("InstrumentationKeyResolver - unexpected status. Instrumentation key: %s", instrumentationKey);
-                break;
-        }
-
-        return appId;
-    }
-}
\ No newline at end of file
+}
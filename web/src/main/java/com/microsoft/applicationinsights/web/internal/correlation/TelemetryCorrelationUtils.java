@@ -26,6 +26,7 @@ import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
 import com.microsoft.applicationinsights.web.internal.RequestTelemetryContext;
 import com.microsoft.applicationinsights.web.internal.ThreadContext;
+import com.microsoft.applicationinsights.web.internal.correlation.tracecontext.TraceIds;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import java.util.Enumeration;
@@ -389,18 +390,11 @@ public class TelemetryCorrelationUtils {
     }
 
     private static String generateRootId() {
-        return uuidToStringNoDashes(UUID.randomUUID());
+        return TraceIds.randomTraceId();
     }
 
     static String uuidToStringNoDashes(UUID guid) {
-        long most = guid.getMostSignificantBits();
-        long least = guid.getLeastSignificantBits();
-        final long msb = 1L << 32;
-		final long mask = msb - 1;
-		return Long.toHexString(msb | ((most >> 32) & mask)).substring(1)
-                + Long.toHexString(msb | (most & mask)).substring(1)
-                + Long.toHexString(msb | ((least >> 32) & mask)).substring(1)
-                + Long.toHexString(msb | (least & mask)).substring(1);
+        return TraceIds.toHex(guid.getMostSignificantBits(), guid.getLeastSignificantBits());
     }
 
     private static String generateId(String parentId) {
@@ -454,6 +448,6 @@ public class TelemetryCorrelationUtils {
         // using ThreadLocalRandom instead of Random to avoid multi-threaded contention which would
         // result in poor performance.
         int randomNumber = ThreadLocalRandom.current().nextInt();
-        return String.format("%08x", randomNumber);
+        return TraceIds.toHex(randomNumber);
     }
 }
\ No newline at end of file
@@ -73,16 +73,14 @@ public class TraceContextCorrelation {
             Traceparent processedTraceParent = processIncomingTraceparent(incomingTraceparent, request);
 
             // represents the id of the current request.
-            requestTelemetry.setId("|" + processedTraceParent.getTraceId() + "." + processedTraceParent.getSpanId()
-                + ".");
+            requestTelemetry.setId(processedTraceParent.toRequestId());
 
             // represents the trace-id of this distributed trace
             requestTelemetry.getContext().getOperation().setId(processedTraceParent.getTraceId());
 
             // assign parent id
             if (incomingTraceparent != null) {
-                requestTelemetry.getContext().getOperation().setParentId("|" + processedTraceParent.getTraceId() + "." +
-                    incomingTraceparent.getSpanId() + ".");
+                requestTelemetry.getContext().getOperation().setParentId(incomingTraceparent.toRequestId());
             } else {
                 // set parentId only if not already set (legacy processing can set it)
                 if (requestTelemetry.getContext().getOperation().getParentId() == null) {
@@ -159,8 +157,7 @@ public class TraceContextCorrelation {
 
         } else {
             // create outbound traceparent inheriting traceId, flags from parent.
-            processedTraceparent = new Traceparent(0, incomingTraceparent.getTraceId(), null,
-                incomingTraceparent.getTraceFlags());
+            processedTraceparent = new Traceparent(incomingTraceparent, incomingTraceparent.getTraceFlags());
         }
         return processedTraceparent;
     }
@@ -487,10 +484,15 @@ public class TraceContextCorrelation {
     public static String createChildIdFromTraceparentString(String traceparent) {
         assert traceparent != null;
 
-        String[] traceparentArr = traceparent.split("-");
-        assert traceparentArr.length == 4;
+        int traceIdStart = traceparent.indexOf('-') + 1;
+        int spanIdStart = traceparent.indexOf('-', traceIdStart) + 1;
+        int spanIdEnd = traceparent.indexOf('-', spanIdStart);
+        assert traceIdStart > 0 && spanIdStart > 0 && spanIdEnd > 0;
 
-        return "|" + traceparentArr[1] + "." + traceparentArr[2] + ".";
+        StringBuilder builder = new StringBuilder(spanIdEnd - traceIdStart + 2);
+        builder.append('|').append(traceparent, traceIdStart, spanIdStart - 1)
+            .append('.').append(traceparent, spanIdStart, spanIdEnd).append('.');
+        return builder.toString();
     }
 
     public static void setIsW3CBackCompatEnabled(boolean isW3CBackCompatEnabled) {
@@ -0,0 +1,135 @@
+package com.microsoft.applicationinsights.web.internal.correlation.tracecontext;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates, validates and formats the lowercase hexadecimal ids used by the trace context headers.
+ *
+ * Ids are generated as longs from {@link ThreadLocalRandom} and written straight into a char array,
+ * instead of going through {@link java.util.UUID} or {@link String#format(String, Object...)}.
+ */
+public final class TraceIds {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Number of characters of a trace-id, which is 16 bytes.
+     */
+    public static final int TRACE_ID_LENGTH = 32;
+
+    /**
+     * Number of characters of a span-id, which is 8 bytes.
+     */
+    public static final int SPAN_ID_LENGTH = 16;
+
+    private TraceIds() {
+    }
+
+    /**
+     * Generates a random trace-id.
+     * @return 32 lowercase hexadecimal characters, never all zeros.
+     */
+    public static String randomTraceId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return toHex(random.nextLong(), randomNonZeroLong(random));
+    }
+
+    /**
+     * Generates a random span-id.
+     * @return 16 lowercase hexadecimal characters, never all zeros.
+     */
+    public static String randomSpanId() {
+        return toHex(randomNonZeroLong(ThreadLocalRandom.current()));
+    }
+
+    static long randomNonZeroLong(ThreadLocalRandom random) {
+        long value;
+        do {
+            value = random.nextLong();
+        } while (value == 0);
+        return value;
+    }
+
+    /**
+     * Formats a 16 byte id.
+     * @param high The 8 most significant bytes.
+     * @param low The 8 least significant bytes.
+     * @return 32 lowercase hexadecimal characters.
+     */
+    public static String toHex(long high, long low) {
+        char[] chars = new char[TRACE_ID_LENGTH];
+        writeHex(high, 16, chars, 0);
+        writeHex(low, 16, chars, 16);
+        return new String(chars);
+    }
+
+    /**
+     * Formats an 8 byte id.
+     * @return 16 lowercase hexadecimal characters.
+     */
+    public static String toHex(long value) {
+        char[] chars = new char[SPAN_ID_LENGTH];
+        writeHex(value, 16, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Formats a 4 byte value, the same as {@code String.format("%08x", value)}.
+     * @return 8 lowercase hexadecimal characters.
+     */
+    public static String toHex(int value) {
+        char[] chars = new char[8];
+        writeHex(value, 8, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Writes the lowest {@code digits} nibbles of the value into the given array, most significant first.
+     */
+    static void writeHex(long value, int digits, char[] dest, int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            dest[i] = HEX_DIGITS[(int) value & 0xF];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * Checks whether the given range only holds lowercase hexadecimal characters.
+     */
+    static boolean isLowerHex(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the given range is a valid, non zero id of the given length.
+     */
+    static boolean isValidId(CharSequence s, int start, int end, int length) {
+        if (s == null || end - start != length || !isLowerHex(s, start, end)) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) != '0') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses at most 16 hexadecimal characters which were already validated.
+     */
+    static long parseHex(CharSequence s, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            value = (value << 4) | (c <= '9' ? c - '0' : c - 'a' + 10);
+        }
+        return value;
+    }
+}
@@ -20,26 +20,33 @@ public class Traceparent {
     final int version;
 
     /**
-     * 16 byte trace-id that is used to uniquely identify a distributed trace
+     * 16 byte trace-id that is used to uniquely identify a distributed trace, kept in binary form
+     * until it is formatted
      */
-    final String traceId;
+    final long traceIdHigh;
+    final long traceIdLow;
 
     /**
      * It is a 8 byte ID that represents the caller span
      */
-    final String spanId;
+    final long spanId;
 
     /**
      * An 8-bit field that controls tracing flags such as sampling, trace level etc.
      */
     final int traceFlags;
 
-    private Traceparent(int version, String traceId, String spanId, int traceFlags, boolean check) {
-        if (check) {
-            validate(version, traceId, spanId, traceFlags);
-        }
+    /**
+     * The formatted ids, computed on first use. The fields they are formatted from never change, so a
+     * racing thread at worst formats the same value again.
+     */
+    private volatile String traceIdHex;
+    private volatile String spanIdHex;
+
+    private Traceparent(int version, long traceIdHigh, long traceIdLow, long spanId, int traceFlags) {
         this.version = version;
-        this.traceId = traceId;
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
         this.spanId = spanId;
         this.traceFlags = traceFlags;
     }
@@ -49,9 +56,35 @@ public class Traceparent {
      * and traceFlags.
      */
     public Traceparent(int version, String traceId, String spanId, int traceFlags) {
-        this(version, traceId != null ? traceId : randomHex(16),
-            spanId != null ? spanId : randomHex(8),
-            traceFlags, true);
+        validateVersionAndFlags(version, traceFlags);
+        if (traceId == null) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            this.traceIdHigh = random.nextLong();
+            this.traceIdLow = TraceIds.randomNonZeroLong(random);
+        } else {
+            validateTraceId(traceId, 0, traceId.length());
+            this.traceIdHigh = TraceIds.parseHex(traceId, 0, 16);
+            this.traceIdLow = TraceIds.parseHex(traceId, 16, 32);
+        }
+        if (spanId == null) {
+            this.spanId = TraceIds.randomNonZeroLong(ThreadLocalRandom.current());
+        } else {
+            validateSpanId(spanId, 0, spanId.length());
+            this.spanId = TraceIds.parseHex(spanId, 0, 16);
+        }
+        this.version = version;
+        this.traceFlags = traceFlags;
+    }
+
+    /**
+     * This constructor creates a child of the given Traceparent: it keeps the parent's traceId in
+     * binary form, has a new spanId and carries the given traceFlags.
+     */
+    public Traceparent(Traceparent parent, int traceFlags) {
+        this(0, parent.traceIdHigh, parent.traceIdLow,
+            TraceIds.randomNonZeroLong(ThreadLocalRandom.current()), traceFlags);
+        validateVersionAndFlags(0, traceFlags);
+        this.traceIdHex = parent.traceIdHex;
     }
 
     /**
@@ -59,11 +92,16 @@ public class Traceparent {
      * if the call is the starting point of distributed trace.
      */
     public Traceparent() {
-        this(0, randomHex(16), randomHex(8), 0, false);
+        this(0, null, null, 0);
     }
 
     public String getTraceId() {
-        return traceId;
+        String hex = traceIdHex;
+        if (hex == null) {
+            hex = TraceIds.toHex(traceIdHigh, traceIdLow);
+            traceIdHex = hex;
+        }
+        return hex;
     }
 
     public int getTraceFlags() {
@@ -71,32 +109,36 @@ public class Traceparent {
     }
 
     public String getSpanId() {
-        return spanId;
+        String hex = spanIdHex;
+        if (hex == null) {
+            hex = TraceIds.toHex(spanId);
+            spanIdHex = hex;
+        }
+        return hex;
     }
 
     /**
      * Validates the given input based on W3C specifications.
      */
-    private static void validate(int version, String traceId, String spanId, int traceFlags)
-        throws IllegalArgumentException {
+    private static void validateVersionAndFlags(int version, int traceFlags) throws IllegalArgumentException {
         if (version < 0 || version > 254) {
             throw new IllegalArgumentException("version must be within range [0, 255)");
         }
-        if (!isHex(traceId, 32)) {
-            throw new IllegalArgumentException("invalid traceId");
+        if (traceFlags < 0 || traceFlags > 255) {
+            throw new IllegalArgumentException("traceFlags must be within range [0, 255]");
         }
-        if (traceId.equals("00000000000000000000000000000000")) {
+    }
+
+    private static void validateTraceId(CharSequence s, int start, int end) throws IllegalArgumentException {
+        if (!TraceIds.isValidId(s, start, end, TraceIds.TRACE_ID_LENGTH)) {
             throw new IllegalArgumentException("invalid traceId");
         }
-        if (!isHex(spanId, 16)) {
-            throw new IllegalArgumentException("invalid spanId");
-        }
-        if (spanId.equals("0000000000000000")) {
+    }
+
+    private static void validateSpanId(CharSequence s, int start, int end) throws IllegalArgumentException {
+        if (!TraceIds.isValidId(s, start, end, TraceIds.SPAN_ID_LENGTH)) {
             throw new IllegalArgumentException("invalid spanId");
         }
-        if (traceFlags < 0 || traceFlags > 255) {
-            throw new IllegalArgumentException("traceFlags must be within range [0, 255]");
-        }
     }
 
     /**
@@ -106,47 +148,33 @@ public class Traceparent {
      */
     @Override
     public String toString() {
-        return String.format("%02x-%s-%s-%02x", version, traceId, spanId, traceFlags);
+        char[] chars = new char[55];
+        TraceIds.writeHex(version, 2, chars, 0);
+        chars[2] = '-';
+        TraceIds.writeHex(traceIdHigh, 16, chars, 3);
+        TraceIds.writeHex(traceIdLow, 16, chars, 19);
+        chars[35] = '-';
+        TraceIds.writeHex(spanId, 16, chars, 36);
+        chars[52] = '-';
+        TraceIds.writeHex(traceFlags, 2, chars, 53);
+        return new String(chars);
     }
 
     /**
-     * Helper method to create a random hexadecimal string of n bytes.
+     * Formats the request id of the legacy AI protocol that corresponds to this traceparent,
+     * Eg: |0af7651916cd43dd8448eb211c80319c.b7ad6b7169203331.
      *
-     * @return n byte hexadecimal string
+     * @return request id
      */
-    static String randomHex(int n) {
-        byte[] bytes = new byte[n];
-        ThreadLocalRandom.current().nextBytes(bytes);
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
-    }
-
-    /**
-     * Helper method to check if a given string of n bytes is hexadecimal
-     *
-     * @return boolean
-     */
-    private static boolean isHex(String s, int n) {
-        if (s == null || s.length() == 0) {
-            return false;
-        }
-        if (s.length() != n) {
-            return false;
-        }
-        for (int i = 0; i < n; i++) {
-            char c = s.charAt(i);
-            if ('0' <= c && c <= '9') {
-                continue;
-            }
-            if ('a' <= c && c <= 'f') {
-                continue;
-            }
-            return false;
-        }
-        return true;
+    public String toRequestId() {
+        char[] chars = new char[51];
+        chars[0] = '|';
+        TraceIds.writeHex(traceIdHigh, 16, chars, 1);
+        TraceIds.writeHex(traceIdLow, 16, chars, 17);
+        chars[33] = '.';
+        TraceIds.writeHex(spanId, 16, chars, 34);
+        chars[50] = '.';
+        return new String(chars);
     }
 
     /**
@@ -158,25 +186,51 @@ public class Traceparent {
         if (s == null || s.length() == 0) {
             return null;
         }
-        String[] arr = s.split("-");
-        if (arr.length < 4) {
+
+        // The fields are located in place rather than split. As with String.split(),
+        // trailing empty fields are ignored, and the four fields are required.
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) == '-') {
+            end--;
+        }
+        int versionEnd = indexOfDash(s, 0, end);
+        int traceIdEnd = indexOfDash(s, versionEnd + 1, end);
+        int spanIdEnd = indexOfDash(s, traceIdEnd + 1, end);
+        if (versionEnd == end || traceIdEnd == end || spanIdEnd == end) {
             return null;
         }
-        if (!isHex(arr[0], 2)) {
+        int flagsEnd = indexOfDash(s, spanIdEnd + 1, end);
+        if (versionEnd != 2 || !TraceIds.isLowerHex(s, 0, 2)) {
             return null;
         }
-        if (arr[0].equals("00") && arr.length > 4) {
+        int version = (int) TraceIds.parseHex(s, 0, 2);
+        // version 00 has exactly four fields, later versions may append more
+        if (version == 0 && flagsEnd != end) {
             return null;
         }
-        if (!isHex(arr[3], 2)) {
+        if (flagsEnd - spanIdEnd != 3 || !TraceIds.isLowerHex(s, spanIdEnd + 1, flagsEnd)) {
             return null;
         }
+        int traceFlags = (int) TraceIds.parseHex(s, spanIdEnd + 1, flagsEnd);
 
-        return new Traceparent(
-            (Character.digit(arr[0].charAt(0), 16) << 4) + Character.digit(arr[0].charAt(1), 16),
-            arr[1],
-            arr[2],
-            (Character.digit(arr[3].charAt(0), 16) << 4) + Character.digit(arr[3].charAt(1), 16));
+        validateVersionAndFlags(version, traceFlags);
+        validateTraceId(s, versionEnd + 1, traceIdEnd);
+        validateSpanId(s, traceIdEnd + 1, spanIdEnd);
+
+        return new Traceparent(version,
+            TraceIds.parseHex(s, versionEnd + 1, versionEnd + 17),
+            TraceIds.parseHex(s, versionEnd + 17, traceIdEnd),
+            TraceIds.parseHex(s, traceIdEnd + 1, spanIdEnd),
+            traceFlags);
+    }
+
+    private static int indexOfDash(String s, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (s.charAt(i) == '-') {
+                return i;
+            }
+        }
+        return end;
     }
 
 }
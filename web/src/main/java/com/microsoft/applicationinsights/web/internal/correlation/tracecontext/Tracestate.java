@@ -1,8 +1,6 @@
 package com.microsoft.applicationinsights.web.internal.correlation.tracecontext;
 
 import java.util.LinkedHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.http.annotation.Experimental;
 
@@ -18,19 +16,10 @@ import org.apache.http.annotation.Experimental;
 @Experimental
 public class Tracestate {
 
-    private static String KEY_WITHOUT_VENDOR_FORMAT = "[a-z][_0-9a-z\\-\\*\\/]{0,255}";
-    private static String KEY_WITH_VENDOR_FORMAT = "[a-z][_0-9a-z\\-\\*\\/]{0,240}@[a-z][_0-9a-z\\-\\*\\/]{0,13}";
-    private static String KEY_FORMAT = KEY_WITHOUT_VENDOR_FORMAT + "|" + KEY_WITH_VENDOR_FORMAT;
-    private static String VALUE_FORMAT = "[\\x20-\\x2b\\x2d-\\x3c\\x3e-\\x7e]{0,255}[\\x21-\\x2b\\x2d-\\x3c\\x3e-\\x7e]";
-
-    private static Pattern KEY_VALIDATION_RE = Pattern.compile("^" + KEY_FORMAT + "$");
-    private static Pattern VALUE_VALIDATION_RE = Pattern.compile("^" + VALUE_FORMAT + "$");
-
-    private static String DELIMITER_FORMAT = "[ \\t]*,[ \\t]*";
-    private static String MEMBER_FORMAT = String.format("(%s)(=)(%s)", KEY_FORMAT, VALUE_FORMAT);
-
-    private static Pattern DELIMITER_FORMAT_RE = Pattern.compile(DELIMITER_FORMAT);
-    private static Pattern MEMBER_FORMAT_RE = Pattern.compile("^" + MEMBER_FORMAT + "$");
+    private static final int MAX_KEY_LENGTH = 256;
+    private static final int MAX_TENANT_LENGTH = 241;
+    private static final int MAX_VENDOR_LENGTH = 14;
+    private static final int MAX_VALUE_LENGTH = 256;
 
     private static final int MAX_KEY_VALUE_PAIRS = 32;
 
@@ -53,18 +42,27 @@ public class Tracestate {
             throw new IllegalArgumentException("input is null");
         }
 
-        String[] values = DELIMITER_FORMAT_RE.split(input);
-        for (String item : values) {
-            Matcher m = MEMBER_FORMAT_RE.matcher(item);
-            if (!m.find()) {
-                throw new IllegalArgumentException(String.format("invalid string %s in tracestate", item));
+        // Members are separated by a comma with optional spaces or tabs around it. As with String.split(),
+        // empty members at the end are ignored, unless there is no separator at all.
+        int memberStart = 0;
+        int comma;
+        boolean hasEmptyMember = false;
+        while ((comma = input.indexOf(',', memberStart)) >= 0) {
+            int memberEnd = comma;
+            while (memberEnd > memberStart && isOptionalWhitespace(input.charAt(memberEnd - 1))) {
+                memberEnd--;
             }
-            String key = m.group(1);
-            String value = m.group(3);
-            if (internalList.get(key) != null) {
-                throw new IllegalArgumentException(String.format("duplicated keys %s in tracestate", key));
+            hasEmptyMember = parseMember(input, memberStart, memberEnd, hasEmptyMember);
+            memberStart = comma + 1;
+            while (memberStart < input.length() && isOptionalWhitespace(input.charAt(memberStart))) {
+                memberStart++;
             }
-            internalList.put(key, value);
+        }
+        if (input.isEmpty()) {
+            throw new IllegalArgumentException("invalid string  in tracestate");
+        }
+        if (memberStart < input.length()) {
+            parseMember(input, memberStart, input.length(), hasEmptyMember);
         }
         if (internalList.size() > MAX_KEY_VALUE_PAIRS) {
             throw new IllegalArgumentException(String.format("cannot have more than %d key-value pairs", MAX_KEY_VALUE_PAIRS));
@@ -79,14 +77,14 @@ public class Tracestate {
         if (key == null) {
             throw new IllegalArgumentException("key is null");
         }
-        if (!KEY_VALIDATION_RE.matcher(key).find()) {
+        if (!isValidKey(key, 0, key.length())) {
             throw new IllegalArgumentException("invalid key format");
         }
         if (value == null) {
             throw new IllegalArgumentException("value is null");
 
         }
-        if (!VALUE_VALIDATION_RE.matcher(value).find()) {
+        if (!isValidValue(value, 0, value.length())) {
             throw new IllegalArgumentException("invalid value format");
         }
         internalList.put(key, value);
@@ -122,6 +120,78 @@ public class Tracestate {
         return new Tracestate(s);
     }
 
+    /**
+     * Parses the member found between the given indexes. Empty members are only invalid when followed by
+     * another member, so they are reported by the next call.
+     *
+     * @return true if the member is empty
+     */
+    private boolean parseMember(String input, int start, int end, boolean previousIsEmpty) {
+        if (start == end) {
+            return true;
+        }
+        if (previousIsEmpty) {
+            throw new IllegalArgumentException("invalid string  in tracestate");
+        }
+        int equals = input.indexOf('=', start);
+        if (equals < 0 || equals >= end || !isValidKey(input, start, equals) || !isValidValue(input, equals + 1, end)) {
+            throw new IllegalArgumentException(String.format("invalid string %s in tracestate", input.substring(start, end)));
+        }
+        String key = input.substring(start, equals);
+        if (internalList.get(key) != null) {
+            throw new IllegalArgumentException(String.format("duplicated keys %s in tracestate", key));
+        }
+        internalList.put(key, input.substring(equals + 1, end));
+        return false;
+    }
+
+    private static boolean isOptionalWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /**
+     * Validates a key, which is either {@code [a-z][_0-9a-z-*\/]{0,255}}
+     * or {@code [a-z][_0-9a-z-*\/]{0,240}@[a-z][_0-9a-z-*\/]{0,13}}.
+     */
+    private static boolean isValidKey(String s, int start, int end) {
+        int at = -1;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '@') {
+                if (at >= 0) {
+                    return false;
+                }
+                at = i;
+            } else if (!isKeyChar(c) || ((i == start || i == at + 1) && (c < 'a' || c > 'z'))) {
+                return false;
+            }
+        }
+        if (at < 0) {
+            return end > start && end - start <= MAX_KEY_LENGTH;
+        }
+        return at > start && at - start <= MAX_TENANT_LENGTH && end > at + 1 && end - at - 1 <= MAX_VENDOR_LENGTH;
+    }
+
+    private static boolean isKeyChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-' || c == '*' || c == '/';
+    }
+
+    /**
+     * Validates a value: up to 256 printable ASCII characters except comma and equals, not ending with a space.
+     */
+    private static boolean isValidValue(String s, int start, int end) {
+        if (end <= start || end - start > MAX_VALUE_LENGTH || s.charAt(end - 1) == ' ') {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x20 || c > 0x7e || c == ',' || c == '=') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private String toInternalString() {
         boolean isFirst = true;
         StringBuilder stringBuilder = new StringBuilder(512);
@@ -1,11 +1,13 @@
 package com.microsoft.applicationinsights.web.internal.httputils;
 
 import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.common.CommonUtils;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.ThreadLocalCleaner;
 import com.microsoft.applicationinsights.telemetry.Duration;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.web.internal.RequestTagSnapshot;
 import com.microsoft.applicationinsights.web.internal.RequestTelemetryContext;
 import com.microsoft.applicationinsights.web.internal.ThreadContext;
 import com.microsoft.applicationinsights.web.internal.WebModulesContainer;
@@ -24,6 +26,13 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
  */
 public final class HttpServerHandler {
 
+    /**
+     * This enables capturing the request level tags once when the request starts, see {@link RequestTagSnapshot}.
+     * If set "true" (case insensitive) the snapshot will be taken. Otherwise (by default), the web telemetry
+     * initializers read the request telemetry for every item.
+     */
+    public static final String REQUEST_TAG_SNAPSHOT_ENABLED_PROPERTY = "applicationinsights.web.requestTagSnapshot.enabled";
+
     /**
      * Extractor to extract data from request and response
      */
@@ -45,6 +54,11 @@ public final class HttpServerHandler {
      */
     private final List<ThreadLocalCleaner> cleaners;
 
+    /**
+     * Whether the request level tags are captured in {@link #handleStart(ServletRequest, ServletResponse)}
+     */
+    private final boolean tagSnapshotEnabled;
+
     /**
      * Creates a new instance of {@link HttpServerHandler}
      *
@@ -64,6 +78,7 @@ public final class HttpServerHandler {
         this.webModulesContainer = webModulesContainer;
         this.cleaners = cleaners;
         this.telemetryClient = telemetryClient;
+        this.tagSnapshotEnabled = Boolean.parseBoolean(System.getProperty(REQUEST_TAG_SNAPSHOT_ENABLED_PROPERTY));
     }
 
     /**
@@ -95,6 +110,10 @@ public final class HttpServerHandler {
         requestTelemetry.getContext().getUser().setUserAgent(userAgent);
         requestTelemetry.setTimestamp(new Date(context.getRequestStartTimeTicks()));
         webModulesContainer.invokeOnBeginRequest(request, response);
+        if (tagSnapshotEnabled) {
+            context.setTagSnapshot(RequestTagSnapshot.capture(context,
+                TelemetryConfiguration.getActive().getTelemetryInitializers()));
+        }
         return context;
     }
 
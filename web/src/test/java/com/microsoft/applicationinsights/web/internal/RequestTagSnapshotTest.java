@@ -0,0 +1,167 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.web.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import com.microsoft.applicationinsights.web.extensibility.initializers.WebOperationIdTelemetryInitializer;
+import com.microsoft.applicationinsights.web.extensibility.initializers.WebOperationNameTelemetryInitializer;
+import com.microsoft.applicationinsights.web.extensibility.initializers.WebSessionTelemetryInitializer;
+import com.microsoft.applicationinsights.web.extensibility.initializers.WebUserAgentTelemetryInitializer;
+import com.microsoft.applicationinsights.web.extensibility.initializers.WebUserTelemetryInitializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RequestTagSnapshotTest {
+
+    private RequestTelemetryContext context;
+
+    private final List<TelemetryInitializer> initializers = Arrays.<TelemetryInitializer>asList(
+        new WebOperationIdTelemetryInitializer(),
+        new WebOperationNameTelemetryInitializer(),
+        new WebSessionTelemetryInitializer(),
+        new WebUserTelemetryInitializer(),
+        new WebUserAgentTelemetryInitializer());
+
+    @Before
+    public void setUp() {
+        context = new RequestTelemetryContext(new Date().getTime());
+        RequestTelemetry request = context.getHttpRequestTelemetry();
+        request.setName("GET /orders");
+        request.getContext().getOperation().setId("operation-id");
+        request.getContext().getSession().setId("session-id");
+        request.getContext().getSession().setIsFirst(true);
+        request.getContext().getUser().setId("user-id");
+        request.getContext().getUser().setAcquisitionDate(new Date(1500000000000L));
+        request.getContext().getUser().setUserAgent("agent");
+        context.getCorrelationContext().getMappings().put("key", "value");
+        ThreadContext.setRequestTelemetryContext(context);
+    }
+
+    @After
+    public void tearDown() {
+        ThreadContext.remove();
+    }
+
+    @Test
+    public void stampedItemsMatchItemsInitializedOneByOne() {
+        Telemetry expected = initialize(new RemoteDependencyTelemetry());
+
+        context.setTagSnapshot(RequestTagSnapshot.capture(context, initializers));
+        Telemetry actual = initialize(new RemoteDependencyTelemetry());
+
+        assertEquals(expected.getContext().getTags(), actual.getContext().getTags());
+        assertEquals(expected.getProperties(), actual.getProperties());
+        assertEquals("GET /orders", actual.getContext().getOperation().getName());
+        assertEquals("value", actual.getProperties().get("key"));
+    }
+
+    @Test
+    public void valuesAlreadySetOnTheItemAreKept() {
+        context.setTagSnapshot(RequestTagSnapshot.capture(context, initializers));
+
+        TraceTelemetry trace = new TraceTelemetry("message");
+        trace.getContext().getOperation().setId("other-operation");
+        trace.getContext().getSession().setId("other-session");
+        trace.getContext().getUser().setId("other-user");
+        trace.getProperties().put("key", "other-value");
+        initialize(trace);
+
+        assertEquals("other-operation", trace.getContext().getOperation().getId());
+        assertEquals(context.getHttpRequestTelemetry().getId(), trace.getContext().getOperation().getParentId());
+        assertEquals("other-session", trace.getContext().getSession().getId());
+        assertNull(trace.getContext().getSession().getIsFirst());
+        assertEquals("other-user", trace.getContext().getUser().getId());
+        assertNull(trace.getContext().getUser().getAcquisitionDate());
+        assertEquals("other-value", trace.getProperties().get("key"));
+    }
+
+    @Test
+    public void onlyTheFirstCoveredInitializerStamps() {
+        RequestTagSnapshot snapshot = RequestTagSnapshot.capture(context, initializers);
+
+        assertTrue(snapshot.isStampedBy(initializers.get(0)));
+        assertFalse(snapshot.isStampedBy(initializers.get(2)));
+        assertTrue(snapshot.covers(initializers.get(2)));
+        assertFalse(snapshot.covers(initializers.get(1)));
+    }
+
+    @Test
+    public void onlyConfiguredInitializersAreStamped() {
+        List<TelemetryInitializer> sessionOnly = new ArrayList<TelemetryInitializer>();
+        sessionOnly.add(new WebSessionTelemetryInitializer());
+        context.setTagSnapshot(RequestTagSnapshot.capture(context, sessionOnly));
+
+        TraceTelemetry trace = new TraceTelemetry("message");
+        sessionOnly.get(0).initialize(trace);
+
+        assertEquals("session-id", trace.getContext().getSession().getId());
+        assertNull(trace.getContext().getOperation().getId());
+        assertNull(trace.getContext().getUser().getId());
+        assertNull(trace.getContext().getUser().getUserAgent());
+        assertNull(trace.getProperties().get("key"));
+    }
+
+    @Test
+    public void subclassesAreNotCovered() {
+        List<TelemetryInitializer> custom = new ArrayList<TelemetryInitializer>();
+        custom.add(new WebUserAgentTelemetryInitializer() {
+            @Override
+            protected void onInitializeTelemetry(Telemetry telemetry) {
+                telemetry.getContext().getUser().setUserAgent("custom");
+            }
+        });
+
+        assertNull(RequestTagSnapshot.capture(context, custom));
+    }
+
+    @Test
+    public void requestWithoutOperationUsesTheRequestId() {
+        context.getHttpRequestTelemetry().getContext().getOperation().setId(null);
+        context.setTagSnapshot(RequestTagSnapshot.capture(context, initializers));
+
+        TraceTelemetry trace = new TraceTelemetry("message");
+        trace.getContext().getOperation().setId("other-operation");
+        initialize(trace);
+
+        assertEquals(context.getHttpRequestTelemetry().getId(), trace.getContext().getOperation().getId());
+        assertNull(trace.getContext().getOperation().getParentId());
+    }
+
+    private Telemetry initialize(Telemetry telemetry) {
+        for (TelemetryInitializer initializer : initializers) {
+            initializer.initialize(telemetry);
+        }
+        return telemetry;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.web.internal.correlation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.microsoft.applicationinsights.web.internal.correlation.mocks.MockHttpAsyncClientWrapper;
+import com.microsoft.applicationinsights.web.internal.correlation.mocks.MockProfileFetcher;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class AppIdCacheTests {
+
+    private static final long REFRESH_INTERVAL = 1000;
+
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockProfileFetcher mockFetcher;
+
+    @Before
+    public void prepare() {
+        mockFetcher = new MockProfileFetcher();
+        mockFetcher.setAppIdToReturn("appId");
+    }
+
+    @Test
+    public void testStaleAppIdIsServedWhileRefreshing() {
+        AppIdCache cache = new AppIdCache(REFRESH_INTERVAL, null, null);
+        Assert.assertEquals("cid-v1:appId", cache.get("ikey", mockFetcher, 0));
+
+        // fresh, the fetcher is not polled
+        Assert.assertEquals("cid-v1:appId", cache.get("ikey", mockFetcher, REFRESH_INTERVAL - 1));
+        Assert.assertEquals(1, mockFetcher.callCount());
+
+        // stale, the refresh is pending
+        mockFetcher.setAppIdToReturn("newAppId");
+        mockFetcher.setResultStatus(ProfileFetcherResultTaskStatus.PENDING);
+        Assert.assertEquals("cid-v1:appId", cache.get("ikey", mockFetcher, REFRESH_INTERVAL));
+        Assert.assertEquals("cid-v1:appId", cache.get("ikey", mockFetcher, REFRESH_INTERVAL + 1));
+        Assert.assertEquals(3, mockFetcher.callCount());
+
+        mockFetcher.setResultStatus(ProfileFetcherResultTaskStatus.COMPLETE);
+        Assert.assertEquals("cid-v1:newAppId", cache.get("ikey", mockFetcher, REFRESH_INTERVAL + 2));
+        Assert.assertEquals("cid-v1:newAppId", cache.get("ikey", mockFetcher, REFRESH_INTERVAL + 3));
+        Assert.assertEquals(4, mockFetcher.callCount());
+    }
+
+    @Test
+    public void testStaleAppIdIsServedWhenRefreshFails() {
+        AppIdCache cache = new AppIdCache(REFRESH_INTERVAL, null, null);
+        cache.get("ikey", mockFetcher, 0);
+
+        mockFetcher.setExceptionOn(true);
+        Assert.assertEquals("cid-v1:appId", cache.get("ikey", mockFetcher, REFRESH_INTERVAL));
+
+        mockFetcher.setExceptionOn(false);
+        mockFetcher.setResultStatus(ProfileFetcherResultTaskStatus.FAILED);
+        Assert.assertEquals("cid-v1:appId", cache.get("ikey", mockFetcher, REFRESH_INTERVAL));
+        Assert.assertEquals(3, mockFetcher.callCount());
+    }
+
+    @Test
+    public void testFailuresAreRetriedInstantlyAndThenBackedOff() {
+        AppIdCache cache = new AppIdCache(REFRESH_INTERVAL, null, null);
+        mockFetcher.setResultStatus(ProfileFetcherResultTaskStatus.FAILED);
+
+        for (int i = 0; i <= AppIdCache.MAX_INSTANT_RETRIES; i++) {
+            Assert.assertNull(cache.get("ikey", mockFetcher, 0));
+        }
+        Assert.assertEquals(AppIdCache.MAX_INSTANT_RETRIES + 1, mockFetcher.callCount());
+
+        // negatively cached for at least half the first backoff
+        Assert.assertNull(cache.get("ikey", mockFetcher, AppIdCache.MIN_BACKOFF_MILLIS / 2 - 1));
+        Assert.assertEquals(AppIdCache.MAX_INSTANT_RETRIES + 1, mockFetcher.callCount());
+
+        // other instrumentation keys are not affected
+        Assert.assertNull(cache.get("ikey2", mockFetcher, 0));
+        Assert.assertEquals(AppIdCache.MAX_INSTANT_RETRIES + 2, mockFetcher.callCount());
+
+        mockFetcher.setResultStatus(ProfileFetcherResultTaskStatus.COMPLETE);
+        Assert.assertEquals("cid-v1:appId", cache.get("ikey", mockFetcher, AppIdCache.MIN_BACKOFF_MILLIS));
+    }
+
+    @Test
+    public void testProfileFetcherFailuresAreBackedOff() throws IOException {
+        MockHttpAsyncClientWrapper clientWrapper = new MockHttpAsyncClientWrapper();
+        clientWrapper.setAppId("appId");
+        clientWrapper.setFailureOn(false);
+        clientWrapper.setTaskAsComplete();
+        clientWrapper.setStatusCode(500);
+
+        CdsProfileFetcher fetcher = new CdsProfileFetcher();
+        fetcher.setHttpClient(clientWrapper.getClient());
+        try {
+            AppIdCache cache = new AppIdCache(REFRESH_INTERVAL, null, null);
+            for (int i = 0; i <= AppIdCache.MAX_INSTANT_RETRIES; i++) {
+                Assert.assertNull(cache.get("ikey", fetcher, 0));
+            }
+            verify(clientWrapper.getClient(), times(AppIdCache.MAX_INSTANT_RETRIES + 1)).execute(any(HttpUriRequest.class), any(FutureCallback.class));
+
+            // backing off, the endpoint is not called
+            Assert.assertNull(cache.get("ikey", fetcher, 0));
+            verify(clientWrapper.getClient(), times(AppIdCache.MAX_INSTANT_RETRIES + 1)).execute(any(HttpUriRequest.class), any(FutureCallback.class));
+
+            // the fetcher has not given up on its own, so the retry after the backoff resolves
+            clientWrapper.setStatusCode(200);
+            Assert.assertEquals("cid-v1:appId", cache.get("ikey", fetcher, AppIdCache.MIN_BACKOFF_MILLIS));
+        } finally {
+            fetcher.close();
+        }
+    }
+
+    @Test
+    public void testBackoffIsJitteredAndCapped() {
+        for (int backoffCount = 1; backoffCount < 100; backoffCount++) {
+            long expected = Math.min(AppIdCache.MAX_BACKOFF_MILLIS, AppIdCache.MIN_BACKOFF_MILLIS << Math.min(backoffCount - 1, 30));
+            for (int i = 0; i < 100; i++) {
+                long backoff = AppIdCache.backoffMillis(backoffCount);
+                Assert.assertTrue(backoff >= expected / 2);
+                Assert.assertTrue(backoff <= expected);
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyOneCallerPollsTheFetcher() throws Exception {
+        final AppIdCache cache = new AppIdCache(REFRESH_INTERVAL, null, null);
+        final CountDownLatch fetching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AppProfileFetcher slowFetcher = new AppProfileFetcher() {
+            @Override
+            public ProfileFetcherResult fetchAppProfile(String instrumentationKey) throws InterruptedException {
+                fetching.countDown();
+                release.await();
+                return new ProfileFetcherResult("appId", ProfileFetcherResultTaskStatus.COMPLETE);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        Thread poller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cache.get("ikey", slowFetcher, 0);
+            }
+        });
+        poller.start();
+        Assert.assertTrue(fetching.await(10, TimeUnit.SECONDS));
+
+        // served from the cache while the other thread is in the fetcher
+        Assert.assertNull(cache.get("ikey", mockFetcher, 0));
+        Assert.assertEquals(0, mockFetcher.callCount());
+
+        release.countDown();
+        poller.join(10000);
+        Assert.assertEquals("cid-v1:appId", cache.get("ikey", mockFetcher, 0));
+        Assert.assertEquals(0, mockFetcher.callCount());
+    }
+
+    @Test
+    public void testAppIdsArePersistedAndServedAfterRestart() throws IOException {
+        File file = new File(folder.newFolder(), "appIds.properties");
+        AppIdCache cache = new AppIdCache(REFRESH_INTERVAL, file, SAME_THREAD);
+        cache.get("ikey", mockFetcher, 0);
+        Assert.assertTrue(file.isFile());
+
+        // the restarted cache serves the appId right away, and refreshes it
+        AppIdCache restarted = new AppIdCache(REFRESH_INTERVAL, file, SAME_THREAD);
+        mockFetcher.setResultStatus(ProfileFetcherResultTaskStatus.PENDING);
+        Assert.assertEquals("cid-v1:appId", restarted.get("ikey", mockFetcher, 0));
+        Assert.assertEquals(2, mockFetcher.callCount());
+
+        restarted.clear();
+        Assert.assertNull(new AppIdCache(REFRESH_INTERVAL, file, SAME_THREAD).get("ikey", mockFetcher, 0));
+    }
+
+    @Test
+    public void testUnreadableFileIsIgnored() throws IOException {
+        File file = folder.newFolder();
+        AppIdCache cache = new AppIdCache(REFRESH_INTERVAL, file, SAME_THREAD);
+        Assert.assertEquals("cid-v1:appId", cache.get("ikey", mockFetcher, 0));
+    }
+
+    @Test
+    public void testResolveFromProfileEndpoint() throws Exception {
+        final AtomicReference<CountDownLatch> respond = new AtomicReference<>(new CountDownLatch(1));
+        final AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/profiles/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond.get().await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = ("appId" + requests.incrementAndGet()).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(body);
+                }
+            }
+        });
+        server.start();
+
+        CdsProfileFetcher fetcher = new CdsProfileFetcher();
+        try {
+            fetcher.setEndpointAddress("http://localhost:" + server.getAddress().getPort());
+            AppIdCache cache = new AppIdCache(REFRESH_INTERVAL, null, null);
+
+            // the endpoint has not responded yet, the caller is not held
+            Assert.assertNull(cache.get("ikey", fetcher, 0));
+            respond.get().countDown();
+            Assert.assertEquals("cid-v1:appId1", awaitAppId(cache, fetcher, 0, "cid-v1:appId1"));
+
+            // the endpoint is slow to respond to the refresh, the stale appId is served meanwhile
+            respond.set(new CountDownLatch(1));
+            Assert.assertEquals("cid-v1:appId1", cache.get("ikey", fetcher, REFRESH_INTERVAL));
+            Assert.assertEquals("cid-v1:appId1", cache.get("ikey", fetcher, REFRESH_INTERVAL));
+            respond.get().countDown();
+            Assert.assertEquals("cid-v1:appId2", awaitAppId(cache, fetcher, REFRESH_INTERVAL, "cid-v1:appId2"));
+            Assert.assertEquals(2, requests.get());
+        } finally {
+            fetcher.close();
+            server.stop(0);
+        }
+    }
+
+    private static String awaitAppId(AppIdCache cache, AppProfileFetcher fetcher, long nowMillis, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        String appId;
+        while (!expected.equals(appId = cache.get("ikey", fetcher, nowMillis)) && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return appId;
+    }
+}
@@ -27,7 +27,6 @@ import org.apache.http.ParseException;
 import org.junit.*;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -175,34 +174,26 @@ public class CdsProfileFetcherTests {
     }
 
     @Test
-    public void testCachePurgeServiceClearsRetryCounters() throws InterruptedException, ExecutionException, IOException {
+    public void testEveryFailureIsReported() throws InterruptedException, ExecutionException, IOException {
         //setup
         MockHttpAsyncClientWrapper clientWrapper = new MockHttpAsyncClientWrapper();
         clientWrapper.setAppId("AppId");
         clientWrapper.setFailureOn(false);
-
-        testFetcher.setHttpClient(clientWrapper.getClient());
-
-        clientWrapper.setTaskAsPending();
-        ProfileFetcherResult result = testFetcher.fetchAppProfile("ikey");
-        Assert.assertEquals(ProfileFetcherResultTaskStatus.PENDING, result.getStatus());
-        Assert.assertNull(result.getAppId());
-
-        // mimic task completion
         clientWrapper.setTaskAsComplete();
         clientWrapper.setStatusCode(500);
-        result = testFetcher.fetchAppProfile("ikey");
-        Assert.assertEquals(ProfileFetcherResultTaskStatus.FAILED, result.getStatus());
-
-        assertThat(testFetcher.failureCounters.size(), not(0));
 
-        TimeUnit.SECONDS.sleep(75);
+        testFetcher.setHttpClient(clientWrapper.getClient());
 
-        assertEquals("failureCounters map should be empty, but was "+ Arrays.toString(testFetcher.failureCounters.values().toArray()), 0, testFetcher.failureCounters.values().size());
-        assertEquals("tasks map should be empty, but was "+Arrays.toString(testFetcher.tasks.values().toArray()), 0, testFetcher.tasks.values().size());
+        // the caller counts the failures, the fetcher never stops asking on its own
+        for (int i = 0; i <= CdsRetryPolicy.DEFAULT_MAX_INSTANT_RETRIES; i++) {
+            ProfileFetcherResult result = testFetcher.fetchAppProfile("ikey");
+            Assert.assertEquals(ProfileFetcherResultTaskStatus.FAILED, result.getStatus());
+        }
 
-        assertThat(testFetcher.failureCounters.values(), hasSize(0));
-        assertThat(testFetcher.tasks.values(), hasSize(0));
+        clientWrapper.setStatusCode(200);
+        ProfileFetcherResult result = testFetcher.fetchAppProfile("ikey");
+        Assert.assertEquals(ProfileFetcherResultTaskStatus.COMPLETE, result.getStatus());
+        Assert.assertEquals("AppId", result.getAppId());
     }
 
     @Test
@@ -223,7 +214,6 @@ public class CdsProfileFetcherTests {
 
         TimeUnit.SECONDS.sleep(75);
 
-        assertThat(testFetcher.failureCounters.values(), hasSize(0));
         assertThat(testFetcher.tasks.values(), hasSize(0));
     }
 
@@ -0,0 +1,41 @@
+package com.microsoft.applicationinsights.web.internal.correlation.tracecontext;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TraceIdsTests {
+
+    @Test
+    public void formatsWithLeadingZeros() {
+        Assert.assertEquals("000000000000000100000000000000ff", TraceIds.toHex(1L, 0xffL));
+        Assert.assertEquals("ffffffffffffffff", TraceIds.toHex(-1L));
+        Assert.assertEquals("0000000f", TraceIds.toHex(15));
+        Assert.assertEquals(String.format("%08x", -2), TraceIds.toHex(-2));
+    }
+
+    @Test
+    public void randomIdsAreValid() {
+        for (int i = 0; i < 100; i++) {
+            String traceId = TraceIds.randomTraceId();
+            String spanId = TraceIds.randomSpanId();
+            Assert.assertTrue(TraceIds.isValidId(traceId, 0, traceId.length(), TraceIds.TRACE_ID_LENGTH));
+            Assert.assertTrue(TraceIds.isValidId(spanId, 0, spanId.length(), TraceIds.SPAN_ID_LENGTH));
+        }
+    }
+
+    @Test
+    public void parsesWhatItFormats() {
+        long value = 0x0af7651916cd43ddL;
+        String hex = TraceIds.toHex(value);
+        Assert.assertEquals(value, TraceIds.parseHex(hex, 0, hex.length()));
+    }
+
+    @Test
+    public void rejectsInvalidIds() {
+        Assert.assertFalse(TraceIds.isValidId("0000000000000000", 0, 16, TraceIds.SPAN_ID_LENGTH));
+        Assert.assertFalse(TraceIds.isValidId("b7ad6b716920333", 0, 15, TraceIds.SPAN_ID_LENGTH));
+        Assert.assertFalse(TraceIds.isValidId("B7AD6B7169203331", 0, 16, TraceIds.SPAN_ID_LENGTH));
+        Assert.assertFalse(TraceIds.isValidId("b7ad6b716920333g", 0, 16, TraceIds.SPAN_ID_LENGTH));
+        Assert.assertTrue(TraceIds.isValidId("-b7ad6b7169203331-", 1, 17, TraceIds.SPAN_ID_LENGTH));
+    }
+}
@@ -1,5 +1,7 @@
 package com.microsoft.applicationinsights.web.internal.correlation.tracecontext;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -8,8 +10,8 @@ public class TraceparentTests {
     @Test
     public void canCreateValidTraceParentWithDefaultConstructor() {
         Traceparent traceparent = new Traceparent();
-        Assert.assertNotNull(traceparent.traceId);
-        Assert.assertNotNull(traceparent.spanId);
+        Assert.assertNotNull(traceparent.getTraceId());
+        Assert.assertNotNull(traceparent.getSpanId());
         Assert.assertEquals(0, traceparent.version);
         Assert.assertNotNull(traceparent.traceFlags);
     }
@@ -18,8 +20,8 @@ public class TraceparentTests {
     public void testTraceParentUniqueness() {
         Traceparent t1 = new Traceparent();
         Traceparent t2 = new Traceparent();
-        Assert.assertNotEquals(t1.traceId, t2.traceId);
-        Assert.assertNotEquals(t1.spanId, t2.spanId);
+        Assert.assertNotEquals(t1.getTraceId(), t2.getTraceId());
+        Assert.assertNotEquals(t1.getSpanId(), t2.getSpanId());
 
         // version is always 0
         Assert.assertEquals(t1.version, t2.version);
@@ -31,67 +33,67 @@ public class TraceparentTests {
 
     @Test
     public void canCreateTraceParentWithProvidedValues() {
-        String traceId = Traceparent.randomHex(16);
-        String spanId = Traceparent.randomHex(8);
+        String traceId = randomHex(16);
+        String spanId = randomHex(8);
         Traceparent t1 = new Traceparent(0, traceId, spanId, 0);
-        Assert.assertEquals(traceId, t1.traceId);
-        Assert.assertEquals(spanId, t1.spanId);
+        Assert.assertEquals(traceId, t1.getTraceId());
+        Assert.assertEquals(spanId, t1.getSpanId());
         Assert.assertEquals(0, t1.version);
         Assert.assertEquals(0, t1.traceFlags);
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void throwsWhenCreatingTraceParentWithIllegalTraceId() {
-        String invalidTraceId = Traceparent.randomHex(32);
-        String spanId = Traceparent.randomHex(8);
+        String invalidTraceId = randomHex(32);
+        String spanId = randomHex(8);
         Traceparent t1 = new Traceparent(0, invalidTraceId, spanId, 0);
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void throwsWhenCreatingTraceParentWithIllegalSpanId() {
-        String traceId = Traceparent.randomHex(16);
-        String invalidSpanId = Traceparent.randomHex(16);
+        String traceId = randomHex(16);
+        String invalidSpanId = randomHex(16);
         Traceparent t1 = new Traceparent(0, traceId, invalidSpanId, 0);
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void throwsWhenVersionNumberIsOutOfRange() {
-        String traceId = Traceparent.randomHex(16);
-        String spanId = Traceparent.randomHex(8);
+        String traceId = randomHex(16);
+        String spanId = randomHex(8);
         Traceparent t1 = new Traceparent(256, traceId, spanId, 0);
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void throwsWhenVersionNumberIsOutOfLowerRange() {
-        String traceId = Traceparent.randomHex(16);
-        String spanId = Traceparent.randomHex(8);
+        String traceId = randomHex(16);
+        String spanId = randomHex(8);
         Traceparent t1 = new Traceparent(-1, traceId, spanId, 0);
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void throwsWhenFlagIsOutOfLowerRange() {
-        String traceId = Traceparent.randomHex(16);
-        String spanId = Traceparent.randomHex(8);
+        String traceId = randomHex(16);
+        String spanId = randomHex(8);
         Traceparent t1 = new Traceparent(0, traceId, spanId, -1);
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void throwsWhenFlagIsOutOfUpperRange() {
-        String traceId = Traceparent.randomHex(16);
-        String spanId = Traceparent.randomHex(8);
+        String traceId = randomHex(16);
+        String spanId = randomHex(8);
         Traceparent t1 = new Traceparent(0, traceId, spanId, 256);
     }
 
     @Test
     public void canCreateTraceParentFromString() {
-        String traceId = Traceparent.randomHex(16);
-        String spanId = Traceparent.randomHex(8);
+        String traceId = randomHex(16);
+        String spanId = randomHex(8);
         Traceparent t1 = new Traceparent(0, traceId, spanId, 0);
 
         Traceparent t2 = Traceparent.fromString(t1.toString());
         Assert.assertEquals(t1.version, t2.version);
-        Assert.assertEquals(t1.traceId, t2.traceId);
-        Assert.assertEquals(t1.spanId, t2.spanId);
+        Assert.assertEquals(t1.getTraceId(), t2.getTraceId());
+        Assert.assertEquals(t1.getSpanId(), t2.getSpanId());
         Assert.assertEquals(t1.traceFlags, t2.traceFlags);
 
         // memory reference should be different
@@ -100,8 +102,8 @@ public class TraceparentTests {
 
     @Test(expected = IllegalArgumentException.class)
     public void throwsWhenTryingToCreateWithMalformedTraceparentString() {
-        String invalidTraceId = Traceparent.randomHex(32);
-        String invalidSpanId = Traceparent.randomHex(16);
+        String invalidTraceId = randomHex(32);
+        String invalidSpanId = randomHex(16);
         String invalidTraceparent = String.format("%02x-%s-%s-%02x", 0, invalidTraceId,
             invalidSpanId, 0);
 
@@ -113,4 +115,70 @@ public class TraceparentTests {
         Traceparent t1 = Traceparent.fromString("");
         Assert.assertNull(t1);
     }
+
+    @Test
+    public void childKeepsTraceIdAndHasNewSpanId() {
+        Traceparent parent = Traceparent.fromString("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+        Traceparent child = new Traceparent(parent, parent.getTraceFlags());
+        Assert.assertEquals(0, child.version);
+        Assert.assertEquals(parent.getTraceId(), child.getTraceId());
+        Assert.assertNotEquals(parent.getSpanId(), child.getSpanId());
+        Assert.assertEquals(1, child.getTraceFlags());
+        Assert.assertEquals("00-0af7651916cd43dd8448eb211c80319c-" + child.getSpanId() + "-01", child.toString());
+    }
+
+    @Test
+    public void formattedIdsAreComputedOnce() {
+        Traceparent t = new Traceparent();
+        Assert.assertSame(t.getTraceId(), t.getTraceId());
+        Assert.assertSame(t.getSpanId(), t.getSpanId());
+    }
+
+    @Test
+    public void canParseTraceparentWithoutSplitting() {
+        Traceparent t = Traceparent.fromString("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+        Assert.assertEquals("0af7651916cd43dd8448eb211c80319c", t.getTraceId());
+        Assert.assertEquals("b7ad6b7169203331", t.getSpanId());
+        Assert.assertEquals(1, t.getTraceFlags());
+        Assert.assertEquals("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01", t.toString());
+        Assert.assertEquals("|0af7651916cd43dd8448eb211c80319c.b7ad6b7169203331.", t.toRequestId());
+    }
+
+    @Test
+    public void laterVersionsMayHaveMoreFields() {
+        Traceparent t = Traceparent.fromString("cc-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01-what-the-future-holds");
+        Assert.assertEquals(0xcc, t.version);
+        Assert.assertEquals("0af7651916cd43dd8448eb211c80319c", t.getTraceId());
+    }
+
+    @Test
+    public void returnsNullForMalformedFields() {
+        Assert.assertNull(Traceparent.fromString("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01-extra"));
+        Assert.assertNull(Traceparent.fromString("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331"));
+        Assert.assertNull(Traceparent.fromString("0-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01"));
+        Assert.assertNull(Traceparent.fromString("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-1"));
+        Assert.assertNull(Traceparent.fromString("---"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throwsWhenTraceIdIsUppercase() {
+        Traceparent.fromString("00-0AF7651916CD43DD8448EB211C80319C-b7ad6b7169203331-01");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throwsWhenSpanIdIsAllZeros() {
+        Traceparent.fromString("00-0af7651916cd43dd8448eb211c80319c-0000000000000000-01");
+    }
+
+    /**
+     * Creates a random hexadecimal string of n bytes.
+     */
+    private static String randomHex(int n) {
+        StringBuilder sb = new StringBuilder(n * 2);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < n; i++) {
+            sb.append(String.format("%02x", random.nextInt(256)));
+        }
+        return sb.toString();
+    }
 }
@@ -21,4 +21,37 @@ public class TracestateTests {
         Tracestate t1 = new Tracestate(tracestate);
         Assert.assertEquals(tracestate, t1.toString());
     }
+
+    @Test
+    public void spacesAndTabsAroundSeparatorsAreIgnored() {
+        Tracestate t1 = new Tracestate("az=cid-v1:120 ,\tcongo=t61rcWkgMzE, rojo@vendor=00f067aa0ba902b7,");
+        Assert.assertEquals("az=cid-v1:120,congo=t61rcWkgMzE,rojo@vendor=00f067aa0ba902b7", t1.toString());
+        Assert.assertEquals("t61rcWkgMzE", t1.get("congo"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throwsWhenMemberIsEmpty() {
+        new Tracestate("az=cid-v1:120,,congo=t61rcWkgMzE");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throwsWhenKeyIsDuplicated() {
+        new Tracestate("az=1,az=2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throwsWhenValueEndsWithSpace() {
+        new Tracestate("az=1 x ");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throwsWhenKeyHasUppercase() {
+        new Tracestate("Az=1");
+    }
+
+    @Test
+    public void parentMembersFollowTheNewMember() {
+        Tracestate t1 = new Tracestate(new Tracestate("congo=t61rcWkgMzE,az=old"), "az", "cid-v1:120");
+        Assert.assertEquals("az=cid-v1:120,congo=t61rcWkgMzE", t1.toString());
+    }
 }